@@ -0,0 +1,87 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.fs.DeleteConfig;
+import com.baghajanyan.sandbox.core.fs.TempFileManager;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessExecutor;
+
+/**
+ * Measures the full {@link PhpCodeExecutor#execute} path against the
+ * {@code fake-docker/docker} stand-in, which the {@code benchmarks} profile
+ * puts first on the {@code PATH}. The container itself is modelled by a fixed
+ * delay, so the results show the overhead of the executor and how throughput
+ * scales with the number of permits.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecuteBenchmark {
+    private static final CodeSnippet SNIPPET = new CodeSnippet("echo 5 + 7;", Duration.ofSeconds(5), "php");
+
+    @State(Scope.Benchmark)
+    public static class Sandbox {
+
+        @Param({ "1", "2", "4", "8" })
+        public int maxConcurrency;
+
+        TempFileManager fileManager;
+        PhpCodeExecutor executor;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            fileManager = new TempFileManager(new DeleteConfig(3, Duration.ofMillis(50), Duration.ofSeconds(1)));
+            var dockerConfig = new DockerConfig(16, 0.125, Duration.ofSeconds(5), "php:8.2-cli", true, false, true,
+                    64, "65534:65534", "64m", true, true);
+            executor = new PhpCodeExecutor(new Semaphore(maxConcurrency, true), fileManager,
+                    new DockerProcessExecutor(dockerConfig));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            fileManager.close();
+        }
+    }
+
+    /**
+     * Latency of a single execution while 8 threads compete for the permits.
+     */
+    @Benchmark
+    @Threads(8)
+    public ExecutionResult execute(Sandbox sandbox) {
+        return sandbox.executor.execute(SNIPPET);
+    }
+
+    /**
+     * Executions per second across 8 threads for each {@code maxConcurrency}.
+     */
+    @Benchmark
+    @Threads(8)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public ExecutionResult throughput(Sandbox sandbox) {
+        return sandbox.executor.execute(SNIPPET);
+    }
+}
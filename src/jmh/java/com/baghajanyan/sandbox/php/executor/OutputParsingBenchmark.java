@@ -0,0 +1,100 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.php.docker.DockerExecution;
+
+/**
+ * Measures the CPU-bound parts of an execution: wrapping a snippet with the
+ * timing trailer and parsing the captured output, for small and
+ * multi-megabyte outputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputParsingBenchmark {
+
+    @Param({ "64", "4194304" })
+    public int outputBytes;
+
+    private PhpCodeExecutor executor;
+    private String code;
+    private DockerExecution execution;
+
+    @Setup
+    public void setUp() {
+        executor = new PhpCodeExecutor(new Semaphore(1), null, null);
+        code = "<?php\n" + "echo str_repeat('x', 80) . PHP_EOL;\n".repeat(Math.max(1, outputBytes / 1024)) + "?>";
+        String stdout = "x".repeat(outputBytes) + "\n__EXECUTION_TIME__: 12.345\n";
+        execution = new DockerExecution(new ExitedProcess(0), stdout, "");
+    }
+
+    @Benchmark
+    public String preparePhpCode() {
+        return executor.preparePhpCode(code);
+    }
+
+    @Benchmark
+    public ExecutionResult parseDockerExecutionResult() {
+        return executor.parseDockerExecutionResult(execution);
+    }
+
+    /**
+     * A process that has already exited with the given code.
+     */
+    private static final class ExitedProcess extends Process {
+        private final int exitCode;
+
+        private ExitedProcess(int exitCode) {
+            this.exitCode = exitCode;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() {
+            return exitCode;
+        }
+
+        @Override
+        public int exitValue() {
+            return exitCode;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
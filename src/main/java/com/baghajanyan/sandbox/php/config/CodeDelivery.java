@@ -0,0 +1,19 @@
+package com.baghajanyan.sandbox.php.config;
+
+/**
+ * How the PHP source of a snippet reaches the container.
+ */
+public enum CodeDelivery {
+
+    /**
+     * The source is written to a temporary file on the host and the file's
+     * directory is bind mounted into the container.
+     */
+    FILE,
+
+    /**
+     * The source is piped to the PHP interpreter's standard input. No file is
+     * written and nothing is mounted.
+     */
+    STDIN
+}
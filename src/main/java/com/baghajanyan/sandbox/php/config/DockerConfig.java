@@ -22,6 +22,17 @@ import java.time.Duration;
  * @param tmpfsSize              tmpfs size for /tmp (e.g., "64m").
  * @param dropCapabilities       whether to drop all Linux capabilities.
  * @param noNewPrivileges        whether to prevent privilege escalation.
+ * @param maxOutputBytes         the maximum number of bytes captured per output
+ *                               stream.
+ * @param codeDelivery           how snippet source reaches the container.
+ * @param containerStartupTimeout the maximum time a container may take to
+ *                               start before the script runs, allowed on top
+ *                               of the script timeout.
+ * @param outputLimitAction      what happens when a run exceeds the maximum
+ *                               number of output bytes.
+ * @param bootstrap              the bootstrap code mounted into containers and
+ *                               included before every snippet, or
+ *                               {@code null}.
  */
 public record DockerConfig(
         int maxMemoryMb,
@@ -35,7 +46,23 @@ public record DockerConfig(
         String runAsUser,
         String tmpfsSize,
         boolean dropCapabilities,
-        boolean noNewPrivileges) {
+        boolean noNewPrivileges,
+        int maxOutputBytes,
+        CodeDelivery codeDelivery,
+        Duration containerStartupTimeout,
+        OutputLimitAction outputLimitAction,
+        PhpBootstrap bootstrap) {
+
+    /**
+     * The default maximum number of bytes captured per output stream.
+     */
+    public static final int DEFAULT_MAX_OUTPUT_BYTES = 1024 * 1024;
+
+    /**
+     * The default maximum time a container may take to start.
+     */
+    public static final Duration DEFAULT_CONTAINER_STARTUP_TIMEOUT = Duration.ofSeconds(10);
+
     public DockerConfig {
         if (maxMemoryMb <= 0) {
             throw new IllegalArgumentException("maxMemoryMb must be greater than 0");
@@ -58,5 +85,74 @@ public record DockerConfig(
         if (tmpfsSize == null || tmpfsSize.isBlank()) {
             throw new IllegalArgumentException("tmpfsSize must not be blank");
         }
+        if (maxOutputBytes <= 0) {
+            throw new IllegalArgumentException("maxOutputBytes must be greater than 0");
+        }
+        if (codeDelivery == null) {
+            throw new IllegalArgumentException("codeDelivery must not be null");
+        }
+        if (containerStartupTimeout == null || containerStartupTimeout.isNegative()
+                || containerStartupTimeout.isZero()) {
+            throw new IllegalArgumentException("containerStartupTimeout must be a positive duration");
+        }
+        if (outputLimitAction == null) {
+            throw new IllegalArgumentException("outputLimitAction must not be null");
+        }
+    }
+
+    public DockerConfig(int maxMemoryMb, double maxCpuUnits, Duration executionTimeout, String dockerImage,
+            boolean securityHardening, boolean allowNetwork, boolean readOnly, int pidsLimit, String runAsUser,
+            String tmpfsSize, boolean dropCapabilities, boolean noNewPrivileges, int maxOutputBytes,
+            CodeDelivery codeDelivery, Duration containerStartupTimeout, OutputLimitAction outputLimitAction) {
+        this(maxMemoryMb, maxCpuUnits, executionTimeout, dockerImage, securityHardening, allowNetwork, readOnly,
+                pidsLimit, runAsUser, tmpfsSize, dropCapabilities, noNewPrivileges, maxOutputBytes, codeDelivery,
+                containerStartupTimeout, outputLimitAction, null);
+    }
+
+    public DockerConfig(int maxMemoryMb, double maxCpuUnits, Duration executionTimeout, String dockerImage,
+            boolean securityHardening, boolean allowNetwork, boolean readOnly, int pidsLimit, String runAsUser,
+            String tmpfsSize, boolean dropCapabilities, boolean noNewPrivileges, int maxOutputBytes,
+            CodeDelivery codeDelivery, Duration containerStartupTimeout) {
+        this(maxMemoryMb, maxCpuUnits, executionTimeout, dockerImage, securityHardening, allowNetwork, readOnly,
+                pidsLimit, runAsUser, tmpfsSize, dropCapabilities, noNewPrivileges, maxOutputBytes, codeDelivery,
+                containerStartupTimeout, OutputLimitAction.TRUNCATE);
+    }
+
+    public DockerConfig(int maxMemoryMb, double maxCpuUnits, Duration executionTimeout, String dockerImage,
+            boolean securityHardening, boolean allowNetwork, boolean readOnly, int pidsLimit, String runAsUser,
+            String tmpfsSize, boolean dropCapabilities, boolean noNewPrivileges, int maxOutputBytes,
+            CodeDelivery codeDelivery) {
+        this(maxMemoryMb, maxCpuUnits, executionTimeout, dockerImage, securityHardening, allowNetwork, readOnly,
+                pidsLimit, runAsUser, tmpfsSize, dropCapabilities, noNewPrivileges, maxOutputBytes, codeDelivery,
+                DEFAULT_CONTAINER_STARTUP_TIMEOUT);
+    }
+
+    public DockerConfig(int maxMemoryMb, double maxCpuUnits, Duration executionTimeout, String dockerImage,
+            boolean securityHardening, boolean allowNetwork, boolean readOnly, int pidsLimit, String runAsUser,
+            String tmpfsSize, boolean dropCapabilities, boolean noNewPrivileges, int maxOutputBytes) {
+        this(maxMemoryMb, maxCpuUnits, executionTimeout, dockerImage, securityHardening, allowNetwork, readOnly,
+                pidsLimit, runAsUser, tmpfsSize, dropCapabilities, noNewPrivileges, maxOutputBytes, CodeDelivery.FILE);
+    }
+
+    public DockerConfig(int maxMemoryMb, double maxCpuUnits, Duration executionTimeout, String dockerImage,
+            boolean securityHardening, boolean allowNetwork, boolean readOnly, int pidsLimit, String runAsUser,
+            String tmpfsSize, boolean dropCapabilities, boolean noNewPrivileges) {
+        this(maxMemoryMb, maxCpuUnits, executionTimeout, dockerImage, securityHardening, allowNetwork, readOnly,
+                pidsLimit, runAsUser, tmpfsSize, dropCapabilities, noNewPrivileges, DEFAULT_MAX_OUTPUT_BYTES);
+    }
+
+    /**
+     * Returns a copy of this configuration with other resource limits, e.g.
+     * for a resource profile.
+     *
+     * @param maxMemoryMb      the maximum memory in megabytes.
+     * @param maxCpuUnits      the maximum CPU units.
+     * @param executionTimeout the maximum time allowed for code execution.
+     * @return the configuration with the given limits.
+     */
+    public DockerConfig withResources(int maxMemoryMb, double maxCpuUnits, Duration executionTimeout) {
+        return new DockerConfig(maxMemoryMb, maxCpuUnits, executionTimeout, dockerImage, securityHardening,
+                allowNetwork, readOnly, pidsLimit, runAsUser, tmpfsSize, dropCapabilities, noNewPrivileges,
+                maxOutputBytes, codeDelivery, containerStartupTimeout, outputLimitAction, bootstrap);
     }
 }
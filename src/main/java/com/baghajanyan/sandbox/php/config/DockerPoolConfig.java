@@ -0,0 +1,47 @@
+package com.baghajanyan.sandbox.php.config;
+
+import java.time.Duration;
+
+/**
+ * Represents the configuration of the warm container pool used for pooled
+ * execution.
+ *
+ * @param minIdle             the number of idle containers kept warm.
+ * @param maxIdle             the maximum number of idle containers retained
+ *                            after a run.
+ * @param maxSize             the maximum number of live containers.
+ * @param maxRunsPerContainer the number of runs after which a container is
+ *                            recycled.
+ * @param healthCheckInterval the interval between health checks of idle
+ *                            containers.
+ * @param acquireTimeout      the maximum time to wait for a container to become
+ *                            available or to start.
+ */
+public record DockerPoolConfig(
+        int minIdle,
+        int maxIdle,
+        int maxSize,
+        int maxRunsPerContainer,
+        Duration healthCheckInterval,
+        Duration acquireTimeout) {
+    public DockerPoolConfig {
+        if (minIdle < 0) {
+            throw new IllegalArgumentException("minIdle must be >= 0");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        if (maxIdle < minIdle || maxIdle > maxSize) {
+            throw new IllegalArgumentException("maxIdle must be between minIdle and maxSize");
+        }
+        if (maxRunsPerContainer <= 0) {
+            throw new IllegalArgumentException("maxRunsPerContainer must be greater than 0");
+        }
+        if (healthCheckInterval == null || healthCheckInterval.isNegative() || healthCheckInterval.isZero()) {
+            throw new IllegalArgumentException("healthCheckInterval must be a positive duration");
+        }
+        if (acquireTimeout == null || acquireTimeout.isNegative() || acquireTimeout.isZero()) {
+            throw new IllegalArgumentException("acquireTimeout must be a positive duration");
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.baghajanyan.sandbox.php.config;
+
+/**
+ * What happens when a run writes more than the maximum number of output bytes
+ * to one of its streams.
+ */
+public enum OutputLimitAction {
+
+    /**
+     * Output beyond the limit is discarded and the run goes on. The captured
+     * output ends with a truncation marker.
+     */
+    TRUNCATE,
+
+    /**
+     * The container is killed as soon as the limit is exceeded, and the run
+     * ends with exit code 137.
+     */
+    KILL
+}
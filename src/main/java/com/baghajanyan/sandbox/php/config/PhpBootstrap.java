@@ -0,0 +1,70 @@
+package com.baghajanyan.sandbox.php.config;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Represents the bootstrap code shared by every snippet: a host directory of
+ * PHP files mounted read-only into containers, the files of it included
+ * before each snippet, and the OPcache settings that keep the compiled files
+ * in a file cache on a shared Docker volume.
+ *
+ * @param directory       the host directory holding the bootstrap files.
+ * @param includes        the files, relative to the directory, included
+ *                        before every snippet, in order.
+ * @param preload         the file, relative to the directory, used as the
+ *                        OPcache preload script, or {@code null}.
+ * @param cacheVolume     the Docker volume holding the OPcache file cache.
+ * @param opcacheMemoryMb the OPcache shared memory in megabytes, used when a
+ *                        preload script is configured.
+ * @param loadOpcache     whether OPcache has to be loaded as a Zend
+ *                        extension, as in the official PHP images.
+ */
+public record PhpBootstrap(
+        Path directory,
+        List<String> includes,
+        String preload,
+        String cacheVolume,
+        int opcacheMemoryMb,
+        boolean loadOpcache) {
+
+    /**
+     * The directory inside the container where the bootstrap files are
+     * mounted.
+     */
+    public static final String CONTAINER_DIRECTORY = "/bootstrap";
+
+    public PhpBootstrap {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+        includes = includes != null ? List.copyOf(includes) : List.of();
+        for (var include : includes) {
+            requireRelative(include);
+        }
+        if (preload != null) {
+            requireRelative(preload);
+        }
+        if (cacheVolume == null || cacheVolume.isBlank()) {
+            throw new IllegalArgumentException("cacheVolume must not be blank");
+        }
+        if (opcacheMemoryMb < 8) {
+            throw new IllegalArgumentException("opcacheMemoryMb must be >= 8");
+        }
+    }
+
+    /**
+     * @param file a file relative to the bootstrap directory.
+     * @return the path of the file inside the container.
+     */
+    public String containerPath(String file) {
+        return CONTAINER_DIRECTORY + "/" + file;
+    }
+
+    private static void requireRelative(String file) {
+        if (file.isBlank() || file.startsWith("/") || Path.of(file).normalize().startsWith("..")
+                || file.contains("'") || file.contains("\\")) {
+            throw new IllegalArgumentException("bootstrap files must be relative paths inside the directory: " + file);
+        }
+    }
+}
@@ -1,16 +1,63 @@
 package com.baghajanyan.sandbox.php.config;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.Semaphore;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 import com.baghajanyan.sandbox.core.fs.DeleteConfig;
 import com.baghajanyan.sandbox.core.fs.TempFileManager;
+import com.baghajanyan.sandbox.php.docker.BootstrapCache;
+import com.baghajanyan.sandbox.php.docker.DockerContainerPool;
+import com.baghajanyan.sandbox.php.docker.DockerContainerReaper;
+import com.baghajanyan.sandbox.php.docker.DockerEngineClient;
+import com.baghajanyan.sandbox.php.docker.DockerEngineProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.DockerNode;
 import com.baghajanyan.sandbox.php.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.HedgingDockerProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.MultiNodeDockerProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.PhpWorkerPool;
+import com.baghajanyan.sandbox.php.docker.PooledDockerProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.WorkerDockerProcessExecutor;
+import com.baghajanyan.sandbox.php.executor.CachingCodeExecutor;
+import com.baghajanyan.sandbox.php.executor.ExecutorComponents;
 import com.baghajanyan.sandbox.php.executor.PhpCodeExecutor;
+import com.baghajanyan.sandbox.php.executor.ResourceProfile;
+import com.baghajanyan.sandbox.php.executor.SnippetStore;
+import com.baghajanyan.sandbox.php.journal.ExecutionJournal;
+import com.baghajanyan.sandbox.php.metrics.ConcurrencyLimitFeedback;
+import com.baghajanyan.sandbox.php.metrics.ExecutionMetrics;
+import com.baghajanyan.sandbox.php.metrics.MicrometerExecutionMetrics;
+import com.baghajanyan.sandbox.php.metrics.PhpSandboxMeterBinder;
+import com.baghajanyan.sandbox.php.scheduler.AdaptiveConcurrencyLimit;
+import com.baghajanyan.sandbox.php.scheduler.ExecutionScheduler;
+import com.baghajanyan.sandbox.php.scheduler.FairShareQueue;
+import com.baghajanyan.sandbox.php.scheduler.PermitQueue;
+import com.baghajanyan.sandbox.php.scheduler.TenantPolicy;
+import com.baghajanyan.sandbox.php.startup.PhpSandboxWarmup;
 
 /**
  * Auto-configuration for the PHP sandbox environment.
@@ -36,9 +83,58 @@ public class PhpSandboxAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean
     private Semaphore phpExecutionSemaphore(PhpSandboxProperties sandboxProperties) {
+        var limiter = sandboxProperties.getLimiter();
+        if (limiter.isEnabled()) {
+            return new AdaptiveConcurrencyLimit(sandboxProperties.getMaxConcurrency(), limiter.getMinLimit(),
+                    limiter.getMaxLimit(), limiter.getTolerance(), limiter.getSmoothing(),
+                    limiter.getBackoffRatio(), limiter.getMaxCpuLoad(), AdaptiveConcurrencyLimit::hostCpuLoad);
+        }
         return new Semaphore(sandboxProperties.getMaxConcurrency(), true);
     }
 
+    @Bean
+    @ConditionalOnMissingBean
+    private PermitQueue phpExecutionPermitQueue(Semaphore phpExecutionSemaphore,
+            PhpSandboxProperties sandboxProperties) {
+        return permitQueue(phpExecutionSemaphore, sandboxProperties.getMaxQueueSize(),
+                sandboxProperties.getMaxQueueWait(), sandboxProperties);
+    }
+
+    private static PermitQueue permitQueue(Semaphore semaphore, int maxQueueSize, Duration maxWait,
+            PhpSandboxProperties sandboxProperties) {
+        var tenants = sandboxProperties.getTenants();
+        if (!tenants.isEnabled()) {
+            return new PermitQueue(semaphore, maxQueueSize, maxWait);
+        }
+        Map<String, TenantPolicy> policies = new LinkedHashMap<>();
+        tenants.getPolicies().forEach((tenant, policy) -> policies.put(tenant, tenantPolicy(policy)));
+        return new FairShareQueue(semaphore, maxQueueSize, maxWait, tenantPolicy(tenants.getDefaultPolicy()),
+                policies, tenants.getMaxTenants());
+    }
+
+    private static TenantPolicy tenantPolicy(PhpSandboxProperties.Tenants.Policy policy) {
+        return new TenantPolicy(policy.getWeight(),
+                policy.getMaxInFlight() != null ? policy.getMaxInFlight() : Integer.MAX_VALUE,
+                policy.getMaxQueued(), policy.getRatePerSecond(), policy.getBurst());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.php.scheduler", name = "enabled", havingValue = "true")
+    private ExecutionScheduler phpExecutionScheduler(Semaphore phpExecutionSemaphore,
+            PhpSandboxProperties sandboxProperties) {
+        var scheduler = sandboxProperties.getScheduler();
+        Map<String, PermitQueue> lanes = new LinkedHashMap<>();
+        if (scheduler.getLanes().isEmpty()) {
+            lanes.put(ExecutionScheduler.DEFAULT_LANE,
+                    permitQueue(phpExecutionSemaphore, scheduler.getQueueCapacity(), null, sandboxProperties));
+        } else {
+            scheduler.getLanes().forEach((name, lane) -> lanes.put(name, permitQueue(
+                    new Semaphore(lane.getMaxConcurrency(), true), lane.getQueueCapacity(), null, sandboxProperties)));
+        }
+        return new ExecutionScheduler(lanes, scheduler.getDefaultLane(), scheduler.getMaxQueueWait());
+    }
+
     @Bean
     @ConditionalOnMissingBean
     private DockerConfig phpDockerConfig(PhpSandboxProperties sandboxProperties) {
@@ -47,19 +143,301 @@ public class PhpSandboxAutoConfiguration {
                 sandboxProperties.getMaxExecutionTime(), sandboxProperties.getDockerImage(),
                 security.isEnableHardening(), security.isAllowNetwork(), security.isReadOnly(),
                 security.getPidsLimit(), security.getRunAsUser(), security.getTmpfsSize(),
-                security.isDropCapabilities(), security.isNoNewPrivileges());
+                security.isDropCapabilities(), security.isNoNewPrivileges(), sandboxProperties.getMaxOutputBytes(),
+                sandboxProperties.getCodeDelivery(), sandboxProperties.getContainerStartupTimeout(),
+                sandboxProperties.getOutputLimitAction(), phpBootstrap(sandboxProperties));
+    }
+
+    private static PhpBootstrap phpBootstrap(PhpSandboxProperties sandboxProperties) {
+        var bootstrap = sandboxProperties.getBootstrap();
+        if (!bootstrap.isEnabled()) {
+            return null;
+        }
+        Path directory = bootstrap.getDirectory();
+        return new PhpBootstrap(directory != null ? directory.toAbsolutePath() : null, bootstrap.getIncludes(),
+                bootstrap.getPreload(), bootstrap.getCacheVolume(), bootstrap.getOpcacheMemoryMb(),
+                bootstrap.isLoadOpcache());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.php.snippets", name = "enabled", havingValue = "true")
+    private SnippetStore phpSnippetStore(PhpSandboxProperties sandboxProperties) {
+        var snippets = sandboxProperties.getSnippets();
+        Path root = snippets.getRoot();
+        if (root == null) {
+            Path shm = Path.of("/dev/shm");
+            Path parent = Files.isDirectory(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"));
+            // a root of its own, so applications on the same host never sweep each other's directories
+            root = parent.resolve("php-sandbox-" + UUID.randomUUID());
+        }
+        var store = new SnippetStore(root, snippets.getShards(), snippets.getPoolSize(), snippets.getMaxLease(),
+                snippets.getSweepInterval());
+        store.start();
+        return store;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.php.pool", name = "enabled", havingValue = "true")
+    private DockerContainerPool phpDockerContainerPool(DockerConfig dockerConfig,
+            ObjectProvider<SnippetStore> phpSnippetStore, PhpSandboxProperties sandboxProperties) {
+        var pool = sandboxProperties.getPool();
+        var poolConfig = new DockerPoolConfig(pool.getMinIdle(), pool.getMaxIdle(), pool.getMaxSize(),
+                pool.getMaxRunsPerContainer(), pool.getHealthCheckInterval(), pool.getAcquireTimeout());
+        Path codeDirectory = null;
+        if (dockerConfig.codeDelivery() == CodeDelivery.FILE) {
+            // pooled containers would mount every execution's directory of the store
+            if (phpSnippetStore.getIfAvailable() != null) {
+                throw new IllegalStateException("sandboxcore.php.pool.enabled cannot be combined with "
+                        + "sandboxcore.php.snippets.enabled and file code delivery; use code-delivery: stdin");
+            }
+            codeDirectory = poolCodeDirectory();
+        }
+        var containerPool = new DockerContainerPool(dockerConfig, poolConfig, codeDirectory);
+        containerPool.start();
+        return containerPool;
+    }
+
+    /**
+     * Creates the directory of the pool's snippet files, which every pooled
+     * container mounts. Containers may open the files in it by their random
+     * names, but not list it.
+     */
+    private static Path poolCodeDirectory() {
+        try {
+            Path directory = Files.createTempDirectory("php-sandbox-pool-");
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx--x--x"));
+            }
+            directory.toFile().deleteOnExit();
+            return directory;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create the code directory of the container pool", e);
+        }
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.php.worker", name = "enabled", havingValue = "true")
+    private PhpWorkerPool phpWorkerPool(DockerConfig dockerConfig, PhpSandboxProperties sandboxProperties) {
+        var worker = sandboxProperties.getWorker();
+        var poolConfig = new DockerPoolConfig(worker.getMinIdle(), worker.getMaxIdle(), worker.getMaxSize(),
+                worker.getMaxRunsPerWorker(), worker.getHealthCheckInterval(), worker.getAcquireTimeout());
+        var workerPool = new PhpWorkerPool(dockerConfig, poolConfig);
+        workerPool.start();
+        return workerPool;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.php.engine", name = "enabled", havingValue = "true")
+    private DockerEngineClient phpDockerEngineClient(PhpSandboxProperties sandboxProperties) {
+        var engine = sandboxProperties.getEngine();
+        return new DockerEngineClient(engine.getSocketPath(), engine.getMaxIdleConnections());
     }
 
     @Bean
     @ConditionalOnMissingBean
-    private DockerProcessExecutor phpDockerProcess(DockerConfig dockerConfig) {
+    private DockerProcessExecutor phpDockerProcess(DockerConfig dockerConfig,
+            ObjectProvider<PhpWorkerPool> phpWorkerPool,
+            ObjectProvider<DockerContainerPool> phpDockerContainerPool,
+            ObjectProvider<DockerEngineClient> phpDockerEngineClient, PhpSandboxProperties sandboxProperties) {
+        var executor = dockerProcess(dockerConfig, phpWorkerPool, phpDockerContainerPool, phpDockerEngineClient,
+                sandboxProperties);
+        var hedging = sandboxProperties.getHedging();
+        if (!hedging.isEnabled()) {
+            return executor;
+        }
+        return new HedgingDockerProcessExecutor(executor, hedging.getBudgetPercent(), hedging.getPercentile(),
+                hedging.getMinDelay(), hedging.getMaxDelay(), hedging.getWindow());
+    }
+
+    private static DockerProcessExecutor dockerProcess(DockerConfig dockerConfig,
+            ObjectProvider<PhpWorkerPool> phpWorkerPool,
+            ObjectProvider<DockerContainerPool> phpDockerContainerPool,
+            ObjectProvider<DockerEngineClient> phpDockerEngineClient, PhpSandboxProperties sandboxProperties) {
+        var nodes = sandboxProperties.getNodes();
+        if (nodes.isEnabled()) {
+            if (dockerConfig.codeDelivery() == CodeDelivery.FILE) {
+                // containers on a remote daemon would bind-mount paths that exist only on this host
+                nodes.getEndpoints().forEach((name, endpoint) -> {
+                    if (!isLocalDaemon(endpoint.getHost())) {
+                        throw new IllegalStateException("sandboxcore.php.nodes.endpoints." + name
+                                + " is not a local Docker daemon and cannot be combined with file code delivery; "
+                                + "use code-delivery: stdin");
+                    }
+                });
+            }
+            List<DockerNode> dockerNodes = new ArrayList<>();
+            nodes.getEndpoints().forEach((name, endpoint) -> dockerNodes.add(new DockerNode(name,
+                    new DockerProcessExecutor(dockerConfig, endpoint.getHost()), endpoint.getMaxConcurrency(),
+                    endpoint.getMaxQueueSize())));
+            var executor = new MultiNodeDockerProcessExecutor(dockerConfig, dockerNodes, nodes.getRouting(),
+                    nodes.getMaxAttempts(), nodes.getFailureThreshold(), nodes.getHealthCheckInterval());
+            executor.start();
+            return executor;
+        }
+        var workerPool = phpWorkerPool.getIfAvailable();
+        if (workerPool != null) {
+            return new WorkerDockerProcessExecutor(dockerConfig, workerPool);
+        }
+        var pool = phpDockerContainerPool.getIfAvailable();
+        if (pool != null) {
+            return new PooledDockerProcessExecutor(dockerConfig, pool);
+        }
+        var engineClient = phpDockerEngineClient.getIfAvailable();
+        if (engineClient != null) {
+            return new DockerEngineProcessExecutor(dockerConfig, engineClient);
+        }
         return new DockerProcessExecutor(dockerConfig);
     }
 
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.php.reaper", name = "enabled", havingValue = "true",
+            matchIfMissing = true)
+    private DockerContainerReaper phpDockerContainerReaper(DockerProcessExecutor phpDockerProcess,
+            PhpSandboxProperties sandboxProperties) {
+        var reaper = sandboxProperties.getReaper();
+        var containerReaper = new DockerContainerReaper(daemons(phpDockerProcess), reaper.getMaxLifetime(),
+                reaper.getInterval());
+        containerReaper.start();
+        return containerReaper;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.php.bootstrap", name = "enabled", havingValue = "true")
+    private BootstrapCache phpBootstrapCache(DockerProcessExecutor phpDockerProcess,
+            PhpSandboxProperties sandboxProperties) {
+        var bootstrapCache = new BootstrapCache(phpDockerProcess.dockerConfig(), daemons(phpDockerProcess),
+                sandboxProperties.getBootstrap().getPrimeTimeout());
+        bootstrapCache.prime();
+        return bootstrapCache;
+    }
+
+    private static List<DockerProcessExecutor> daemons(DockerProcessExecutor phpDockerProcess) {
+        if (phpDockerProcess instanceof HedgingDockerProcessExecutor hedging) {
+            return daemons(hedging.delegate());
+        }
+        return phpDockerProcess instanceof MultiNodeDockerProcessExecutor multiNode
+                ? multiNode.nodes().stream().map(DockerNode::executor).toList()
+                : List.of(phpDockerProcess);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.php.journal", name = "enabled", havingValue = "true")
+    private ExecutionJournal phpExecutionJournal(PhpSandboxProperties sandboxProperties) {
+        var journal = sandboxProperties.getJournal();
+        Path directory = journal.getDirectory() != null ? journal.getDirectory()
+                : Path.of(System.getProperty("java.io.tmpdir"), "php-sandbox-journal");
+        var executionJournal = new ExecutionJournal(directory, Math.multiplyExact(journal.getSegmentSizeMb(), 1 << 20),
+                journal.getMaxSegments(), journal.getQueueCapacity(), journal.getBatchSize(), journal.isRecordCode());
+        executionJournal.start();
+        return executionJournal;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    PhpCodeExecutor phpCodeExecutor(PermitQueue phpExecutionPermitQueue, TempFileManager phpTempFileManager,
+            DockerProcessExecutor phpDockerProcess, ObjectProvider<ExecutionScheduler> phpExecutionScheduler,
+            ObjectProvider<ExecutionMetrics> phpExecutionMetrics, Semaphore phpExecutionSemaphore,
+            ObjectProvider<SnippetStore> phpSnippetStore, ObjectProvider<ExecutionJournal> phpExecutionJournal,
+            PhpSandboxProperties sandboxProperties) {
+        var metrics = phpExecutionMetrics.getIfAvailable(() -> ExecutionMetrics.NOOP);
+        if (phpExecutionSemaphore instanceof AdaptiveConcurrencyLimit limit) {
+            metrics = metrics.andThen(new ConcurrencyLimitFeedback(limit));
+        }
+        var components = new ExecutorComponents(phpExecutionScheduler.getIfAvailable(), metrics,
+                resourceProfiles(phpDockerProcess.dockerConfig(), sandboxProperties), phpSnippetStore.getIfAvailable(),
+                phpExecutionJournal.getIfAvailable());
+        return new PhpCodeExecutor(phpExecutionPermitQueue, phpTempFileManager, phpDockerProcess, components);
+    }
+
+    /**
+     * Whether the given endpoint is the daemon of this host: the default
+     * daemon or context, or one reached through a local socket. Other Docker
+     * contexts may point anywhere and count as remote.
+     */
+    private static boolean isLocalDaemon(String host) {
+        return host == null || host.isBlank() || host.equals("default") || host.startsWith("unix://")
+                || host.startsWith("npipe://");
+    }
+
+    private static Map<String, ResourceProfile> resourceProfiles(DockerConfig dockerConfig,
+            PhpSandboxProperties sandboxProperties) {
+        Map<String, ResourceProfile> profiles = new LinkedHashMap<>();
+        sandboxProperties.getProfiles().forEach((name, profile) -> {
+            var profileConfig = dockerConfig.withResources(
+                    profile.getMaxMemoryMb() != null ? profile.getMaxMemoryMb() : dockerConfig.maxMemoryMb(),
+                    profile.getMaxCpuUnits() != null ? profile.getMaxCpuUnits() : dockerConfig.maxCpuUnits(),
+                    profile.getMaxExecutionTime() != null ? profile.getMaxExecutionTime()
+                            : dockerConfig.executionTimeout());
+            var permits = permitQueue(new Semaphore(profile.getMaxConcurrency(), true),
+                    profile.getMaxQueueSize(), sandboxProperties.getMaxQueueWait(), sandboxProperties);
+            profiles.put(name, new ResourceProfile(profileConfig, permits));
+        });
+        return profiles;
+    }
+
     @Bean
     @ConditionalOnMissingBean
-    PhpCodeExecutor phpCodeExecutor(Semaphore phpExecutionSemaphore, TempFileManager phpTempFileManager,
-            DockerProcessExecutor phpDockerProcess) {
-        return new PhpCodeExecutor(phpExecutionSemaphore, phpTempFileManager, phpDockerProcess);
+    @ConditionalOnProperty(prefix = "sandboxcore.php.warmup", name = "enabled", havingValue = "true")
+    private PhpSandboxWarmup phpSandboxWarmup(PhpCodeExecutor phpCodeExecutor, DockerConfig dockerConfig,
+            PhpSandboxProperties sandboxProperties, ApplicationEventPublisher applicationEventPublisher) {
+        var warmup = sandboxProperties.getWarmup();
+        return new PhpSandboxWarmup(phpCodeExecutor, dockerConfig.dockerImage(), warmup.isPullImage(),
+                warmup.getPullTimeout(), warmup.getSnippets(), warmup.getSnippetTimeout(), warmup.isFailOnError(),
+                warmup.getRetryInterval(), applicationEventPublisher);
+    }
+
+    /**
+     * Serves repeated executions from a result cache when Caffeine is on the
+     * classpath.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(Caffeine.class)
+    static class PhpSandboxCacheConfiguration {
+
+        @Bean
+        @Primary
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(prefix = "sandboxcore.php.cache", name = "enabled", havingValue = "true")
+        CachingCodeExecutor phpCachingCodeExecutor(PhpCodeExecutor phpCodeExecutor, DockerConfig dockerConfig,
+                PhpSandboxProperties sandboxProperties) {
+            var cache = sandboxProperties.getCache();
+            return new CachingCodeExecutor(phpCodeExecutor, dockerConfig, cache.getMaxSize(), cache.getTtl());
+        }
+    }
+
+    /**
+     * Publishes execution metrics when Micrometer is on the classpath. Phase
+     * timers and outcome counters are recorded only if a {@link MeterRegistry}
+     * bean exists; the gauges are bound to every registry by Spring Boot.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterRegistry.class)
+    static class PhpSandboxMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        ExecutionMetrics phpExecutionMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+            var registry = meterRegistry.getIfAvailable();
+            return registry != null ? new MicrometerExecutionMetrics(registry) : ExecutionMetrics.NOOP;
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        PhpSandboxMeterBinder phpSandboxMeterBinder(PermitQueue phpExecutionPermitQueue,
+                ObjectProvider<ExecutionScheduler> phpExecutionScheduler,
+                ObjectProvider<CachingCodeExecutor> phpCachingCodeExecutor, Semaphore phpExecutionSemaphore,
+                DockerProcessExecutor phpDockerProcess) {
+            var limit = phpExecutionSemaphore instanceof AdaptiveConcurrencyLimit adaptive ? adaptive : null;
+            var hedging = phpDockerProcess instanceof HedgingDockerProcessExecutor hedged ? hedged : null;
+            return new PhpSandboxMeterBinder(phpExecutionPermitQueue, phpExecutionScheduler.getIfAvailable(),
+                    phpCachingCodeExecutor.getIfAvailable(), limit, hedging);
+        }
     }
 }
@@ -1,9 +1,17 @@
 package com.baghajanyan.sandbox.php.config;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import com.baghajanyan.sandbox.php.docker.DockerEngineClient;
+import com.baghajanyan.sandbox.php.docker.DockerNodeRouting;
+
 /**
  * Configuration properties for the PHP sandbox.
  *
@@ -19,6 +27,19 @@ public class PhpSandboxProperties {
      */
     private int maxConcurrency = 5;
 
+    /**
+     * The maximum number of asynchronous executions waiting for a permit.
+     * Further asynchronous requests are rejected.
+     */
+    private int maxQueueSize = 1000;
+
+    /**
+     * The maximum time an execution waits for a permit before it is rejected.
+     * Waits are unbounded if not set. Does not apply to the scheduler, which
+     * has a maximum queue wait of its own.
+     */
+    private Duration maxQueueWait;
+
     /**
      * The maximum memory in megabytes allocated to the PHP container.
      */
@@ -34,16 +55,118 @@ public class PhpSandboxProperties {
      */
     private Duration maxExecutionTime = Duration.ofMillis(15000);
 
+    /**
+     * The maximum time a container may take to start, allowed on top of the
+     * execution time of the script it runs.
+     */
+    private Duration containerStartupTimeout = DockerConfig.DEFAULT_CONTAINER_STARTUP_TIMEOUT;
+
     /**
      * The Docker image to use for the PHP sandbox.
      */
     private String dockerImage = "php:8.2-cli";
 
+    /**
+     * The maximum number of bytes captured per output stream (stdout and stderr).
+     * Output beyond the limit is discarded and a truncation marker is appended.
+     */
+    private int maxOutputBytes = DockerConfig.DEFAULT_MAX_OUTPUT_BYTES;
+
+    /**
+     * What happens when a run exceeds the output limit on a stream:
+     * {@code truncate} discards the excess output, {@code kill} kills the
+     * container right away.
+     */
+    private OutputLimitAction outputLimitAction = OutputLimitAction.TRUNCATE;
+
+    /**
+     * How snippet source reaches the container: {@code file} writes a temporary
+     * file and bind mounts its directory, {@code stdin} pipes the source to the
+     * PHP interpreter without touching the filesystem.
+     */
+    private CodeDelivery codeDelivery = CodeDelivery.FILE;
+
+    /**
+     * Named resource profiles executions can select, each with its own limits
+     * and concurrency budget, by profile name.
+     */
+    private Map<String, Profile> profiles = new LinkedHashMap<>();
+
     /**
      * Security-related settings for the Docker sandbox.
      */
     private Security security = new Security();
 
+    /**
+     * Settings for the Docker Engine API client.
+     */
+    private Engine engine = new Engine();
+
+    /**
+     * Settings for running containers on several Docker daemons.
+     */
+    private Nodes nodes = new Nodes();
+
+    /**
+     * Settings for the warm container pool.
+     */
+    private Pool pool = new Pool();
+
+    /**
+     * Settings for the persistent PHP workers.
+     */
+    private Worker worker = new Worker();
+
+    /**
+     * Settings for the virtual-thread execution scheduler.
+     */
+    private Scheduler scheduler = new Scheduler();
+
+    /**
+     * Settings for the adaptive concurrency limit.
+     */
+    private Limiter limiter = new Limiter();
+
+    /**
+     * Settings for the startup warm-up.
+     */
+    private Warmup warmup = new Warmup();
+
+    /**
+     * Settings for the result cache.
+     */
+    private Cache cache = new Cache();
+
+    /**
+     * Settings for the removal of leaked containers.
+     */
+    private Reaper reaper = new Reaper();
+
+    /**
+     * Settings for the snippet store.
+     */
+    private Snippets snippets = new Snippets();
+
+    /**
+     * Settings for the bootstrap code and its OPcache file cache.
+     */
+    private Bootstrap bootstrap = new Bootstrap();
+
+    /**
+     * Settings for sharing the execution permits fairly between tenants.
+     */
+    private Tenants tenants = new Tenants();
+
+    /**
+     * Settings for hedging runs whose container is slow to start.
+     */
+    private Hedging hedging = new Hedging();
+
+    /**
+     * Settings for the journal executions are recorded in for replay.
+     */
+    private Journal journal = new Journal();
+
     public int getMaxConcurrency() {
         return maxConcurrency;
     }
@@ -52,6 +175,22 @@ public class PhpSandboxProperties {
         this.maxConcurrency = maxConcurrency;
     }
 
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public Duration getMaxQueueWait() {
+        return maxQueueWait;
+    }
+
+    public void setMaxQueueWait(Duration maxQueueWait) {
+        this.maxQueueWait = maxQueueWait;
+    }
+
     public Duration getMaxExecutionTime() {
         return maxExecutionTime;
     }
@@ -60,6 +199,14 @@ public class PhpSandboxProperties {
         this.maxExecutionTime = maxExecutionTime;
     }
 
+    public Duration getContainerStartupTimeout() {
+        return containerStartupTimeout;
+    }
+
+    public void setContainerStartupTimeout(Duration containerStartupTimeout) {
+        this.containerStartupTimeout = containerStartupTimeout;
+    }
+
     public int getMaxMemoryMb() {
         return maxMemoryMb;
     }
@@ -84,6 +231,38 @@ public class PhpSandboxProperties {
         this.dockerImage = dockerImage;
     }
 
+    public int getMaxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    public void setMaxOutputBytes(int maxOutputBytes) {
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    public OutputLimitAction getOutputLimitAction() {
+        return outputLimitAction;
+    }
+
+    public void setOutputLimitAction(OutputLimitAction outputLimitAction) {
+        this.outputLimitAction = outputLimitAction;
+    }
+
+    public CodeDelivery getCodeDelivery() {
+        return codeDelivery;
+    }
+
+    public void setCodeDelivery(CodeDelivery codeDelivery) {
+        this.codeDelivery = codeDelivery;
+    }
+
+    public Map<String, Profile> getProfiles() {
+        return profiles;
+    }
+
+    public void setProfiles(Map<String, Profile> profiles) {
+        this.profiles = profiles;
+    }
+
     public Security getSecurity() {
         return security;
     }
@@ -92,6 +271,189 @@ public class PhpSandboxProperties {
         this.security = security;
     }
 
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public Nodes getNodes() {
+        return nodes;
+    }
+
+    public void setNodes(Nodes nodes) {
+        this.nodes = nodes;
+    }
+
+    public Pool getPool() {
+        return pool;
+    }
+
+    public void setPool(Pool pool) {
+        this.pool = pool;
+    }
+
+    public Worker getWorker() {
+        return worker;
+    }
+
+    public void setWorker(Worker worker) {
+        this.worker = worker;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public Limiter getLimiter() {
+        return limiter;
+    }
+
+    public void setLimiter(Limiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    public void setWarmup(Warmup warmup) {
+        this.warmup = warmup;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    public Reaper getReaper() {
+        return reaper;
+    }
+
+    public void setReaper(Reaper reaper) {
+        this.reaper = reaper;
+    }
+
+    public Snippets getSnippets() {
+        return snippets;
+    }
+
+    public void setSnippets(Snippets snippets) {
+        this.snippets = snippets;
+    }
+
+    public Bootstrap getBootstrap() {
+        return bootstrap;
+    }
+
+    public void setBootstrap(Bootstrap bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    public Tenants getTenants() {
+        return tenants;
+    }
+
+    public void setTenants(Tenants tenants) {
+        this.tenants = tenants;
+    }
+
+    public Hedging getHedging() {
+        return hedging;
+    }
+
+    public void setHedging(Hedging hedging) {
+        this.hedging = hedging;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    public static class Profile {
+        /**
+         * The maximum memory in megabytes allocated to containers of the
+         * profile. Defaults to max-memory-mb.
+         */
+        private Integer maxMemoryMb;
+
+        /**
+         * The maximum CPU units allocated to containers of the profile.
+         * Defaults to max-cpu-units.
+         */
+        private Double maxCpuUnits;
+
+        /**
+         * The maximum time allowed for a single execution with the profile.
+         * Defaults to max-execution-time.
+         */
+        private Duration maxExecutionTime;
+
+        /**
+         * The maximum number of concurrent executions with the profile.
+         */
+        private int maxConcurrency = 1;
+
+        /**
+         * The maximum number of asynchronous executions with the profile
+         * waiting for a permit.
+         */
+        private int maxQueueSize = 100;
+
+        public Integer getMaxMemoryMb() {
+            return maxMemoryMb;
+        }
+
+        public void setMaxMemoryMb(Integer maxMemoryMb) {
+            this.maxMemoryMb = maxMemoryMb;
+        }
+
+        public Double getMaxCpuUnits() {
+            return maxCpuUnits;
+        }
+
+        public void setMaxCpuUnits(Double maxCpuUnits) {
+            this.maxCpuUnits = maxCpuUnits;
+        }
+
+        public Duration getMaxExecutionTime() {
+            return maxExecutionTime;
+        }
+
+        public void setMaxExecutionTime(Duration maxExecutionTime) {
+            this.maxExecutionTime = maxExecutionTime;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        public int getMaxQueueSize() {
+            return maxQueueSize;
+        }
+
+        public void setMaxQueueSize(int maxQueueSize) {
+            this.maxQueueSize = maxQueueSize;
+        }
+    }
+
     public static class Security {
         /**
          * Enable hardened sandbox flags by default.
@@ -197,4 +559,1243 @@ public class PhpSandboxProperties {
             this.noNewPrivileges = noNewPrivileges;
         }
     }
+
+    public static class Engine {
+        /**
+         * Run containers through the Docker Engine API over the daemon socket
+         * instead of forking the docker CLI per execution. Ignored when the
+         * warm container pool is enabled.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Path of the Docker daemon Unix socket.
+         */
+        private Path socketPath = DockerEngineClient.DEFAULT_SOCKET_PATH;
+
+        /**
+         * Maximum number of idle keep-alive connections to the daemon.
+         */
+        private int maxIdleConnections = 8;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getSocketPath() {
+            return socketPath;
+        }
+
+        public void setSocketPath(Path socketPath) {
+            this.socketPath = socketPath;
+        }
+
+        public int getMaxIdleConnections() {
+            return maxIdleConnections;
+        }
+
+        public void setMaxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+        }
+    }
+
+    public static class Nodes {
+        /**
+         * Distribute executions across the configured Docker daemons instead
+         * of the local one. Takes precedence over the engine, pool and worker
+         * backends.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How the daemon of an execution is picked.
+         */
+        private DockerNodeRouting routing = DockerNodeRouting.LEAST_LOADED;
+
+        /**
+         * Maximum number of daemons an execution is tried on when containers
+         * cannot be created.
+         */
+        private int maxAttempts = 2;
+
+        /**
+         * Number of consecutive failures that eject a daemon from routing.
+         */
+        private int failureThreshold = 3;
+
+        /**
+         * Interval between health checks of the daemons.
+         */
+        private Duration healthCheckInterval = Duration.ofSeconds(10);
+
+        /**
+         * The Docker daemons to run containers on, by name.
+         */
+        private Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DockerNodeRouting getRouting() {
+            return routing;
+        }
+
+        public void setRouting(DockerNodeRouting routing) {
+            this.routing = routing;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public Duration getHealthCheckInterval() {
+            return healthCheckInterval;
+        }
+
+        public void setHealthCheckInterval(Duration healthCheckInterval) {
+            this.healthCheckInterval = healthCheckInterval;
+        }
+
+        public Map<String, Endpoint> getEndpoints() {
+            return endpoints;
+        }
+
+        public void setEndpoints(Map<String, Endpoint> endpoints) {
+            this.endpoints = endpoints;
+        }
+
+        public static class Endpoint {
+            /**
+             * The daemon: a DOCKER_HOST URI such as tcp://10.0.0.2:2376, or the
+             * name of a Docker context.
+             */
+            private String host;
+
+            /**
+             * Maximum number of concurrent executions on the daemon.
+             */
+            private int maxConcurrency = 5;
+
+            /**
+             * Maximum number of asynchronous executions waiting for a permit
+             * of the daemon.
+             */
+            private int maxQueueSize = 100;
+
+            public String getHost() {
+                return host;
+            }
+
+            public void setHost(String host) {
+                this.host = host;
+            }
+
+            public int getMaxConcurrency() {
+                return maxConcurrency;
+            }
+
+            public void setMaxConcurrency(int maxConcurrency) {
+                this.maxConcurrency = maxConcurrency;
+            }
+
+            public int getMaxQueueSize() {
+                return maxQueueSize;
+            }
+
+            public void setMaxQueueSize(int maxQueueSize) {
+                this.maxQueueSize = maxQueueSize;
+            }
+        }
+    }
+
+    public static class Pool {
+        /**
+         * Run snippets with docker exec in pre-started containers instead of a
+         * fresh container per execution.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of idle containers kept warm.
+         */
+        private int minIdle = 1;
+
+        /**
+         * Maximum number of idle containers retained after a run.
+         */
+        private int maxIdle = 5;
+
+        /**
+         * Maximum number of live containers.
+         */
+        private int maxSize = 5;
+
+        /**
+         * Number of runs after which a container is recycled.
+         */
+        private int maxRunsPerContainer = 100;
+
+        /**
+         * Interval between health checks of idle containers.
+         */
+        private Duration healthCheckInterval = Duration.ofSeconds(30);
+
+        /**
+         * Maximum time to wait for a pooled container to become available.
+         */
+        private Duration acquireTimeout = Duration.ofSeconds(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinIdle() {
+            return minIdle;
+        }
+
+        public void setMinIdle(int minIdle) {
+            this.minIdle = minIdle;
+        }
+
+        public int getMaxIdle() {
+            return maxIdle;
+        }
+
+        public void setMaxIdle(int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getMaxRunsPerContainer() {
+            return maxRunsPerContainer;
+        }
+
+        public void setMaxRunsPerContainer(int maxRunsPerContainer) {
+            this.maxRunsPerContainer = maxRunsPerContainer;
+        }
+
+        public Duration getHealthCheckInterval() {
+            return healthCheckInterval;
+        }
+
+        public void setHealthCheckInterval(Duration healthCheckInterval) {
+            this.healthCheckInterval = healthCheckInterval;
+        }
+
+        public Duration getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(Duration acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+    }
+
+    public static class Worker {
+        /**
+         * Send snippets to long-lived PHP supervisors that fork a child per
+         * snippet, instead of starting a container and an interpreter per
+         * execution. Takes precedence over the container pool and the Engine
+         * API.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of idle workers kept warm.
+         */
+        private int minIdle = 1;
+
+        /**
+         * Maximum number of idle workers retained after a run.
+         */
+        private int maxIdle = 5;
+
+        /**
+         * Maximum number of live workers.
+         */
+        private int maxSize = 5;
+
+        /**
+         * Number of snippets after which a worker is recycled.
+         */
+        private int maxRunsPerWorker = 1000;
+
+        /**
+         * Interval between health checks of idle workers.
+         */
+        private Duration healthCheckInterval = Duration.ofSeconds(30);
+
+        /**
+         * Maximum time to wait for a worker to start or become available.
+         */
+        private Duration acquireTimeout = Duration.ofSeconds(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinIdle() {
+            return minIdle;
+        }
+
+        public void setMinIdle(int minIdle) {
+            this.minIdle = minIdle;
+        }
+
+        public int getMaxIdle() {
+            return maxIdle;
+        }
+
+        public void setMaxIdle(int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getMaxRunsPerWorker() {
+            return maxRunsPerWorker;
+        }
+
+        public void setMaxRunsPerWorker(int maxRunsPerWorker) {
+            this.maxRunsPerWorker = maxRunsPerWorker;
+        }
+
+        public Duration getHealthCheckInterval() {
+            return healthCheckInterval;
+        }
+
+        public void setHealthCheckInterval(Duration healthCheckInterval) {
+            this.healthCheckInterval = healthCheckInterval;
+        }
+
+        public Duration getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(Duration acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+    }
+
+    public static class Scheduler {
+        /**
+         * Run executions on virtual threads behind bounded admission queues.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of requests waiting for a permit in the default lane
+         * when no lanes are configured.
+         */
+        private int queueCapacity = 100;
+
+        /**
+         * Maximum time a request waits for a permit before it is rejected.
+         */
+        private Duration maxQueueWait = Duration.ofSeconds(5);
+
+        /**
+         * Lane used for requests that do not select a known lane. Defaults to
+         * the first configured lane.
+         */
+        private String defaultLane;
+
+        /**
+         * Priority lanes with separate permit budgets, by lane name. When empty,
+         * a single lane sharing max-concurrency is used.
+         */
+        private Map<String, Lane> lanes = new LinkedHashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public Duration getMaxQueueWait() {
+            return maxQueueWait;
+        }
+
+        public void setMaxQueueWait(Duration maxQueueWait) {
+            this.maxQueueWait = maxQueueWait;
+        }
+
+        public String getDefaultLane() {
+            return defaultLane;
+        }
+
+        public void setDefaultLane(String defaultLane) {
+            this.defaultLane = defaultLane;
+        }
+
+        public Map<String, Lane> getLanes() {
+            return lanes;
+        }
+
+        public void setLanes(Map<String, Lane> lanes) {
+            this.lanes = lanes;
+        }
+
+        public static class Lane {
+            /**
+             * Maximum number of concurrent executions in the lane.
+             */
+            private int maxConcurrency = 1;
+
+            /**
+             * Maximum number of requests waiting for a permit in the lane.
+             */
+            private int queueCapacity = 100;
+
+            public int getMaxConcurrency() {
+                return maxConcurrency;
+            }
+
+            public void setMaxConcurrency(int maxConcurrency) {
+                this.maxConcurrency = maxConcurrency;
+            }
+
+            public int getQueueCapacity() {
+                return queueCapacity;
+            }
+
+            public void setQueueCapacity(int queueCapacity) {
+                this.queueCapacity = queueCapacity;
+            }
+        }
+    }
+
+    public static class Limiter {
+        /**
+         * Adjust the number of concurrent executions to observed container
+         * overhead, timeouts and host CPU load, starting from max-concurrency.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Lowest concurrency limit.
+         */
+        private int minLimit = 1;
+
+        /**
+         * Highest concurrency limit.
+         */
+        private int maxLimit = 50;
+
+        /**
+         * How much slower than its long-term average the container overhead may
+         * get before the limit shrinks.
+         */
+        private double tolerance = 1.5;
+
+        /**
+         * Weight of each new limit estimate, between 0 and 1.
+         */
+        private double smoothing = 0.2;
+
+        /**
+         * Factor the limit is multiplied by on a timeout, a Docker failure or
+         * high host CPU load.
+         */
+        private double backoffRatio = 0.9;
+
+        /**
+         * Host CPU load, between 0 and 1, above which the limit shrinks.
+         */
+        private double maxCpuLoad = 0.9;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public void setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        public double getMaxCpuLoad() {
+            return maxCpuLoad;
+        }
+
+        public void setMaxCpuLoad(double maxCpuLoad) {
+            this.maxCpuLoad = maxCpuLoad;
+        }
+    }
+
+    public static class Warmup {
+        /**
+         * Check the image and run warm-up snippets before the application
+         * reports ready.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Pull the image when it is not present locally.
+         */
+        private boolean pullImage = true;
+
+        /**
+         * Maximum time the image pull may take.
+         */
+        private Duration pullTimeout = Duration.ofMinutes(5);
+
+        /**
+         * Number of warm-up snippets, run concurrently.
+         */
+        private int snippets = 2;
+
+        /**
+         * Timeout of each warm-up snippet.
+         */
+        private Duration snippetTimeout = Duration.ofSeconds(5);
+
+        /**
+         * Abort startup when the warm-up fails. Otherwise the application refuses
+         * traffic until a retry succeeds.
+         */
+        private boolean failOnError = false;
+
+        /**
+         * Time between retries of a failed warm-up.
+         */
+        private Duration retryInterval = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isPullImage() {
+            return pullImage;
+        }
+
+        public void setPullImage(boolean pullImage) {
+            this.pullImage = pullImage;
+        }
+
+        public Duration getPullTimeout() {
+            return pullTimeout;
+        }
+
+        public void setPullTimeout(Duration pullTimeout) {
+            this.pullTimeout = pullTimeout;
+        }
+
+        public int getSnippets() {
+            return snippets;
+        }
+
+        public void setSnippets(int snippets) {
+            this.snippets = snippets;
+        }
+
+        public Duration getSnippetTimeout() {
+            return snippetTimeout;
+        }
+
+        public void setSnippetTimeout(Duration snippetTimeout) {
+            this.snippetTimeout = snippetTimeout;
+        }
+
+        public boolean isFailOnError() {
+            return failOnError;
+        }
+
+        public void setFailOnError(boolean failOnError) {
+            this.failOnError = failOnError;
+        }
+
+        public Duration getRetryInterval() {
+            return retryInterval;
+        }
+
+        public void setRetryInterval(Duration retryInterval) {
+            this.retryInterval = retryInterval;
+        }
+    }
+
+    public static class Cache {
+        /**
+         * Serve repeated executions of identical snippets from a result cache.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of cached results.
+         */
+        private long maxSize = 10_000;
+
+        /**
+         * Time after which a cached result expires.
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    public static class Reaper {
+        /**
+         * Periodically remove run containers that outlived their run, and
+         * remove the remaining ones on shutdown.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Age after which a run container is removed. Must exceed the longest
+         * time a run may take, including the container startup timeout.
+         */
+        private Duration maxLifetime = Duration.ofMinutes(10);
+
+        /**
+         * Interval between removals.
+         */
+        private Duration interval = Duration.ofMinutes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getMaxLifetime() {
+            return maxLifetime;
+        }
+
+        public void setMaxLifetime(Duration maxLifetime) {
+            this.maxLifetime = maxLifetime;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static class Snippets {
+        /**
+         * Write snippet files to a directory of their own per execution under
+         * a dedicated root instead of the system temp directory, and mount only
+         * that directory into the container.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Root directory of the store. Defaults to a new php-sandbox-<uuid>
+         * directory per application instance under /dev/shm when it exists,
+         * the system temp directory otherwise. Must be shared with Docker;
+         * only one store can use a root at a time.
+         */
+        private Path root;
+
+        /**
+         * Number of shard directories the execution directories are spread
+         * over.
+         */
+        private int shards = 16;
+
+        /**
+         * Number of empty execution directories kept for reuse.
+         */
+        private int poolSize = 64;
+
+        /**
+         * Time after which an execution directory that was not released is
+         * removed.
+         */
+        private Duration maxLease = Duration.ofMinutes(10);
+
+        /**
+         * Interval between sweeps for directories left behind.
+         */
+        private Duration sweepInterval = Duration.ofMinutes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getRoot() {
+            return root;
+        }
+
+        public void setRoot(Path root) {
+            this.root = root;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public Duration getMaxLease() {
+            return maxLease;
+        }
+
+        public void setMaxLease(Duration maxLease) {
+            this.maxLease = maxLease;
+        }
+
+        public Duration getSweepInterval() {
+            return sweepInterval;
+        }
+
+        public void setSweepInterval(Duration sweepInterval) {
+            this.sweepInterval = sweepInterval;
+        }
+    }
+
+    public static class Bootstrap {
+        /**
+         * Mount a directory of bootstrap PHP files read-only into every
+         * container, include some of them before each snippet and keep them
+         * compiled in a shared OPcache file cache.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Host directory holding the bootstrap files. Must be shared with
+         * Docker.
+         */
+        private Path directory;
+
+        /**
+         * Files, relative to the directory, included before every snippet.
+         */
+        private List<String> includes = new ArrayList<>();
+
+        /**
+         * File, relative to the directory, used as the OPcache preload script.
+         * Preloading keeps the classes it loads in shared memory, at the cost
+         * of an OPcache shared memory segment per container.
+         */
+        private String preload;
+
+        /**
+         * Docker volume holding the OPcache file cache, filled at startup and
+         * mounted read-only into containers.
+         */
+        private String cacheVolume = "php-sandbox-opcache";
+
+        /**
+         * OPcache shared memory in megabytes, used with a preload script.
+         */
+        private int opcacheMemoryMb = 16;
+
+        /**
+         * Load OPcache as a Zend extension, as the official PHP images
+         * require. Disable for images that load it themselves.
+         */
+        private boolean loadOpcache = true;
+
+        /**
+         * Maximum time filling the file cache may take per Docker daemon.
+         */
+        private Duration primeTimeout = Duration.ofMinutes(2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        public List<String> getIncludes() {
+            return includes;
+        }
+
+        public void setIncludes(List<String> includes) {
+            this.includes = includes;
+        }
+
+        public String getPreload() {
+            return preload;
+        }
+
+        public void setPreload(String preload) {
+            this.preload = preload;
+        }
+
+        public String getCacheVolume() {
+            return cacheVolume;
+        }
+
+        public void setCacheVolume(String cacheVolume) {
+            this.cacheVolume = cacheVolume;
+        }
+
+        public int getOpcacheMemoryMb() {
+            return opcacheMemoryMb;
+        }
+
+        public void setOpcacheMemoryMb(int opcacheMemoryMb) {
+            this.opcacheMemoryMb = opcacheMemoryMb;
+        }
+
+        public boolean isLoadOpcache() {
+            return loadOpcache;
+        }
+
+        public void setLoadOpcache(boolean loadOpcache) {
+            this.loadOpcache = loadOpcache;
+        }
+
+        public Duration getPrimeTimeout() {
+            return primeTimeout;
+        }
+
+        public void setPrimeTimeout(Duration primeTimeout) {
+            this.primeTimeout = primeTimeout;
+        }
+    }
+
+    public static class Tenants {
+        /**
+         * Share the execution permits fairly between the tenants named in the
+         * execution options, instead of in arrival order.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of tenants with a queue of their own. Further
+         * tenants share one queue.
+         */
+        private int maxTenants = 1000;
+
+        /**
+         * Policy of tenants without a policy of their own.
+         */
+        private Policy defaultPolicy = new Policy();
+
+        /**
+         * Policies of individual tenants, by tenant.
+         */
+        private Map<String, Policy> policies = new LinkedHashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxTenants() {
+            return maxTenants;
+        }
+
+        public void setMaxTenants(int maxTenants) {
+            this.maxTenants = maxTenants;
+        }
+
+        public Policy getDefaultPolicy() {
+            return defaultPolicy;
+        }
+
+        public void setDefaultPolicy(Policy defaultPolicy) {
+            this.defaultPolicy = defaultPolicy;
+        }
+
+        public Map<String, Policy> getPolicies() {
+            return policies;
+        }
+
+        public void setPolicies(Map<String, Policy> policies) {
+            this.policies = policies;
+        }
+
+        public static class Policy {
+            /**
+             * Permits granted to the tenant per round, relative to the other
+             * waiting tenants.
+             */
+            private int weight = 1;
+
+            /**
+             * Maximum number of concurrent executions of the tenant. Unlimited
+             * if not set.
+             */
+            private Integer maxInFlight;
+
+            /**
+             * Maximum number of waiting executions of the tenant; further
+             * executions are rejected.
+             */
+            private int maxQueued = 100;
+
+            /**
+             * Average number of executions per second the tenant may submit;
+             * 0 for no limit. Further executions are rejected.
+             */
+            private double ratePerSecond = 0;
+
+            /**
+             * Number of executions the tenant may submit at once above its
+             * rate.
+             */
+            private int burst = 10;
+
+            public int getWeight() {
+                return weight;
+            }
+
+            public void setWeight(int weight) {
+                this.weight = weight;
+            }
+
+            public Integer getMaxInFlight() {
+                return maxInFlight;
+            }
+
+            public void setMaxInFlight(Integer maxInFlight) {
+                this.maxInFlight = maxInFlight;
+            }
+
+            public int getMaxQueued() {
+                return maxQueued;
+            }
+
+            public void setMaxQueued(int maxQueued) {
+                this.maxQueued = maxQueued;
+            }
+
+            public double getRatePerSecond() {
+                return ratePerSecond;
+            }
+
+            public void setRatePerSecond(double ratePerSecond) {
+                this.ratePerSecond = ratePerSecond;
+            }
+
+            public int getBurst() {
+                return burst;
+            }
+
+            public void setBurst(int burst) {
+                this.burst = burst;
+            }
+        }
+    }
+
+    public static class Hedging {
+        /**
+         * Run a snippet a second time if it has not started after the hedge
+         * delay, and take the result of whichever run finishes first.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum share of runs that are hedged, in percent.
+         */
+        private double budgetPercent = 5;
+
+        /**
+         * Percentile of the start times of recent runs after which a run is
+         * hedged, between 0 and 1.
+         */
+        private double percentile = 0.95;
+
+        /**
+         * Minimum hedge delay.
+         */
+        private Duration minDelay = Duration.ofMillis(100);
+
+        /**
+         * Maximum hedge delay.
+         */
+        private Duration maxDelay = Duration.ofSeconds(5);
+
+        /**
+         * Number of recent runs the hedge delay is computed from.
+         */
+        private int window = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getBudgetPercent() {
+            return budgetPercent;
+        }
+
+        public void setBudgetPercent(double budgetPercent) {
+            this.budgetPercent = budgetPercent;
+        }
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+
+        public Duration getMinDelay() {
+            return minDelay;
+        }
+
+        public void setMinDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+        }
+
+        public Duration getMaxDelay() {
+            return maxDelay;
+        }
+
+        public void setMaxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        public void setWindow(int window) {
+            this.window = window;
+        }
+    }
+
+    public static class Journal {
+        /**
+         * Record every execution in an append-only journal that can be
+         * replayed with JournalReplay.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Directory of the journal segment files. Defaults to
+         * php-sandbox-journal in the system temp directory.
+         */
+        private Path directory;
+
+        /**
+         * Size of a segment file, in megabytes.
+         */
+        private int segmentSizeMb = 64;
+
+        /**
+         * Number of segment files kept; older ones are deleted.
+         */
+        private int maxSegments = 16;
+
+        /**
+         * Maximum number of executions waiting to be written. Further ones
+         * are not recorded.
+         */
+        private int queueCapacity = 10000;
+
+        /**
+         * Maximum number of executions written at once.
+         */
+        private int batchSize = 256;
+
+        /**
+         * Record the code of snippets, not only its hash. Replays of entries
+         * without code only sleep for the recorded script runtime.
+         */
+        private boolean recordCode = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        public int getSegmentSizeMb() {
+            return segmentSizeMb;
+        }
+
+        public void setSegmentSizeMb(int segmentSizeMb) {
+            this.segmentSizeMb = segmentSizeMb;
+        }
+
+        public int getMaxSegments() {
+            return maxSegments;
+        }
+
+        public void setMaxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public boolean isRecordCode() {
+            return recordCode;
+        }
+
+        public void setRecordCode(boolean recordCode) {
+            this.recordCode = recordCode;
+        }
+    }
 }
@@ -0,0 +1,157 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.config.PhpBootstrap;
+
+/**
+ * Fills the OPcache file cache volume of the bootstrap files.
+ *
+ * Containers mount the cache volume read-only, so it is filled once per
+ * Docker daemon at startup, by a container that mounts it writable, empties
+ * it and compiles every {@code .php} file of the bootstrap directory into it
+ * with {@code opcache_compile_file}. The cache is only used by containers of
+ * the same image, which compile the files with the same PHP build. If the
+ * cache cannot be filled, snippets still run and compile the bootstrap files
+ * themselves.
+ */
+public class BootstrapCache {
+    private static final Logger logger = LoggerFactory.getLogger(BootstrapCache.class);
+    private static final int MAX_OUTPUT_BYTES = 4096;
+    private static final String PRIME_SCRIPT = """
+            $cache = new RecursiveIteratorIterator(new RecursiveDirectoryIterator('%1$s',
+                FilesystemIterator::SKIP_DOTS), RecursiveIteratorIterator::CHILD_FIRST);
+            foreach ($cache as $entry) {
+                $entry->isDir() ? rmdir($entry->getPathname()) : unlink($entry->getPathname());
+            }
+            $compiled = 0;
+            foreach (new RecursiveIteratorIterator(new RecursiveDirectoryIterator('%2$s',
+                FilesystemIterator::SKIP_DOTS)) as $file) {
+                if ($file->getExtension() === 'php' && opcache_compile_file($file->getPathname())) {
+                    $compiled++;
+                }
+            }
+            foreach (new RecursiveIteratorIterator(new RecursiveDirectoryIterator('%1$s',
+                FilesystemIterator::SKIP_DOTS), RecursiveIteratorIterator::SELF_FIRST) as $entry) {
+                chmod($entry->getPathname(), $entry->isDir() ? 0755 : 0644);
+            }
+            echo $compiled;
+            """.formatted(DockerCommands.OPCACHE_DIRECTORY, DockerCommands.BOOTSTRAP_DIRECTORY);
+
+    private final DockerConfig dockerConfig;
+    private final List<DockerProcessExecutor> daemons;
+    private final Duration timeout;
+
+    /**
+     * @param dockerConfig the Docker configuration with the bootstrap.
+     * @param daemons      the executors whose Docker daemons run containers.
+     * @param timeout      the maximum time filling the cache may take per
+     *                     daemon.
+     */
+    public BootstrapCache(DockerConfig dockerConfig, List<DockerProcessExecutor> daemons, Duration timeout) {
+        if (dockerConfig.bootstrap() == null) {
+            throw new IllegalArgumentException("the Docker configuration has no bootstrap");
+        }
+        this.dockerConfig = dockerConfig;
+        this.daemons = List.copyOf(daemons);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Fills the cache volume on every Docker daemon. Failures are logged.
+     *
+     * @return the number of daemons whose cache was filled.
+     */
+    public int prime() {
+        int primed = 0;
+        for (var daemon : daemons) {
+            try {
+                long started = System.nanoTime();
+                var result = run(daemon, command());
+                if (result.exitCode() != 0) {
+                    logger.warn("Failed to fill the OPcache file cache {} on Docker daemon {}, exit code {}: {}",
+                            dockerConfig.bootstrap().cacheVolume(), name(daemon), result.exitCode(),
+                            result.output().trim());
+                    continue;
+                }
+                logger.info("Compiled {} bootstrap files into {} on Docker daemon {} in {}ms",
+                        result.output().trim(), dockerConfig.bootstrap().cacheVolume(), name(daemon),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                primed++;
+            } catch (RuntimeException e) {
+                logger.warn("Failed to fill the OPcache file cache on Docker daemon {}", name(daemon), e);
+            }
+        }
+        return primed;
+    }
+
+    /**
+     * The container runs as root to own the volume, with the other hardening
+     * flags, and leaves the cache readable for the configured user.
+     */
+    List<String> command() {
+        PhpBootstrap bootstrap = dockerConfig.bootstrap();
+        List<String> command = new ArrayList<>(List.of("docker", "run", "--rm", "--network=none", "--cap-drop=ALL",
+                "--security-opt", "no-new-privileges", "--user", "0:0", "-m", dockerConfig.maxMemoryMb() + "m",
+                "-v", bootstrap.directory() + ":" + DockerCommands.BOOTSTRAP_DIRECTORY + ":ro",
+                "-v", bootstrap.cacheVolume() + ":" + DockerCommands.OPCACHE_DIRECTORY,
+                dockerConfig.dockerImage(), "php", "-d", "display_errors=stderr"));
+        command.addAll(DockerCommands.opcacheOptions(bootstrap));
+        command.addAll(List.of("-d", "opcache.file_cache_only=1", "-r", PRIME_SCRIPT));
+        return command;
+    }
+
+    private CommandResult run(DockerProcessExecutor daemon, List<String> command) {
+        Process process;
+        try {
+            process = daemon.docker(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            throw new DockerProcessException.DockerProcessThreadException("Failed to run docker command", e);
+        }
+        var output = new BoundedOutputBuffer(MAX_OUTPUT_BYTES);
+        var drain = Thread.ofVirtual().name("php-sandbox-bootstrap-cache")
+                .start(() -> drain(process.getInputStream(), output));
+        try {
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                throw new DockerProcessException.DockerProcessTimeoutException(
+                        "Filling the OPcache file cache timed out after " + timeout.toSeconds() + " seconds");
+            }
+            drain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new DockerProcessException.DockerProcessThreadException(
+                    "Interrupted while filling the OPcache file cache", e);
+        }
+        return new CommandResult(process.exitValue(), output.content());
+    }
+
+    private static void drain(InputStream stream, BoundedOutputBuffer output) {
+        byte[] chunk = new byte[1024];
+        try (stream) {
+            int read;
+            while ((read = stream.read(chunk)) != -1) {
+                output.write(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            // the process is gone
+        }
+    }
+
+    private static String name(DockerProcessExecutor daemon) {
+        return daemon.endpoint() != null ? daemon.endpoint() : "default";
+    }
+
+    private record CommandResult(int exitCode, String output) {
+    }
+}
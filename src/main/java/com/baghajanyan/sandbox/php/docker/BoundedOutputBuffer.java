@@ -0,0 +1,158 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * An in-memory byte buffer that keeps at most a fixed number of bytes.
+ *
+ * Bytes written beyond the limit are counted but discarded, so a process can
+ * keep writing to its pipe without blocking and without growing the heap.
+ * Only the last {@value #TAIL_LENGTH} of them are kept apart, so what a
+ * script prints last, such as the execution time trailer of the prepared
+ * code, survives truncation.
+ * Retained bytes can also be passed on to a listener as they are written, and
+ * an action can be run the first time the limit is exceeded.
+ */
+final class BoundedOutputBuffer {
+    private static final int INITIAL_CAPACITY = 8192;
+    // enough for the execution time trailer and a line of output after it
+    private static final int TAIL_LENGTH = 256;
+
+    private final int limit;
+    private final Consumer<ByteBuffer> listener;
+    private final Runnable onLimit;
+    private byte[] buffer;
+    private int count;
+    private long total;
+    private byte[] tail;
+    private int tailEnd;
+
+    BoundedOutputBuffer(int limit) {
+        this(limit, null, null);
+    }
+
+    /**
+     * @param limit    the maximum number of bytes retained.
+     * @param listener receives the retained bytes of every write, or
+     *                 {@code null}. The buffer passed to it is only valid
+     *                 during the call.
+     * @param onLimit  the action run the first time the limit is exceeded, or
+     *                 {@code null}.
+     */
+    BoundedOutputBuffer(int limit, Consumer<ByteBuffer> listener, Runnable onLimit) {
+        this.limit = limit;
+        this.listener = listener;
+        this.onLimit = onLimit;
+        this.buffer = new byte[Math.min(limit, INITIAL_CAPACITY)];
+    }
+
+    void write(byte[] bytes, int offset, int length) {
+        int accepted;
+        boolean exceeded;
+        synchronized (this) {
+            exceeded = total <= limit && total + length > limit;
+            total += length;
+            accepted = Math.max(0, Math.min(length, limit - count));
+            if (accepted > 0) {
+                if (count + accepted > buffer.length) {
+                    int capacity = (int) Math.min(limit, Math.max((long) buffer.length << 1, count + accepted));
+                    buffer = Arrays.copyOf(buffer, capacity);
+                }
+                System.arraycopy(bytes, offset, buffer, count, accepted);
+                count += accepted;
+            }
+            if (accepted < length) {
+                keepTail(bytes, offset + accepted, length - accepted);
+            }
+        }
+        // outside the lock, so a slow listener or the limit action does not block readers
+        if (accepted > 0 && listener != null) {
+            listener.accept(ByteBuffer.wrap(bytes, offset, accepted).slice().asReadOnlyBuffer());
+        }
+        if (exceeded && onLimit != null) {
+            onLimit.run();
+        }
+    }
+
+    /**
+     * Keeps the last {@value #TAIL_LENGTH} of the bytes beyond the limit in a
+     * ring.
+     */
+    private void keepTail(byte[] bytes, int offset, int length) {
+        if (tail == null) {
+            tail = new byte[TAIL_LENGTH];
+        }
+        if (length > TAIL_LENGTH) {
+            offset += length - TAIL_LENGTH;
+            length = TAIL_LENGTH;
+        }
+        int first = Math.min(length, TAIL_LENGTH - tailEnd);
+        System.arraycopy(bytes, offset, tail, tailEnd, first);
+        System.arraycopy(bytes, offset + first, tail, 0, length - first);
+        tailEnd = (tailEnd + length) % TAIL_LENGTH;
+    }
+
+    /**
+     * @return the total number of bytes written, including discarded ones.
+     */
+    synchronized long total() {
+        return total;
+    }
+
+    /**
+     * @return whether bytes were discarded because the limit was reached.
+     */
+    synchronized boolean truncated() {
+        return total > limit;
+    }
+
+    /**
+     * Decodes the retained bytes as UTF-8. If bytes were discarded, the output
+     * is cut on a character boundary and followed by a truncation marker and
+     * the last bytes written, from their first whole character on.
+     *
+     * @return the buffered output.
+     */
+    synchronized String content() {
+        if (!truncated()) {
+            return new String(buffer, 0, count, StandardCharsets.UTF_8);
+        }
+        int tailLength = (int) Math.min(total - limit, TAIL_LENGTH);
+        byte[] last = new byte[tailLength];
+        int start = Math.floorMod(tailEnd - tailLength, TAIL_LENGTH);
+        int first = Math.min(tailLength, TAIL_LENGTH - start);
+        System.arraycopy(tail, start, last, 0, first);
+        System.arraycopy(tail, 0, last, first, tailLength - first);
+        int from = 0;
+        while (from < last.length && from < 3 && isContinuation(last[from])) {
+            from++;
+        }
+        String head = new String(buffer, 0, characterEnd(buffer, count), StandardCharsets.UTF_8);
+        String end = new String(last, from, last.length - from, StandardCharsets.UTF_8);
+        return head + "\n[output truncated: " + (total - limit) + " bytes over the " + limit + " byte limit, the last "
+                + (last.length - from) + " follow]\n" + end;
+    }
+
+    /**
+     * @return the end of the last whole UTF-8 character before {@code end}.
+     */
+    private static int characterEnd(byte[] bytes, int end) {
+        int lead = end - 1;
+        while (lead > 0 && end - lead < 4 && isContinuation(bytes[lead])) {
+            lead--;
+        }
+        if (lead < 0) {
+            return end;
+        }
+        int b = bytes[lead] & 0xFF;
+        int length = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+        return end - lead < length ? lead : end;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+}
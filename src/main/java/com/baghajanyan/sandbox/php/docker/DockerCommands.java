@@ -0,0 +1,331 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.config.PhpBootstrap;
+
+/**
+ * Builds the pieces of Docker CLI commands shared by the one-shot and pooled
+ * executors, and the equivalent Docker Engine API container specification, so
+ * every container gets the same hardening and resource flags derived from
+ * {@link DockerConfig}.
+ */
+final class DockerCommands {
+
+    /**
+     * The directory inside the container where snippet files are mounted.
+     */
+    static final String CODE_DIRECTORY = "/code";
+
+    /**
+     * The directory inside the container where the bootstrap files are
+     * mounted.
+     */
+    static final String BOOTSTRAP_DIRECTORY = PhpBootstrap.CONTAINER_DIRECTORY;
+
+    /**
+     * The directory inside the container where the OPcache file cache volume
+     * is mounted.
+     */
+    static final String OPCACHE_DIRECTORY = "/opcache";
+
+    /**
+     * The exit code of a script terminated by {@code timeout}.
+     */
+    static final int SCRIPT_TIMEOUT_EXIT_CODE = 124;
+
+    /**
+     * The label of containers created for a single run. Its value is the time
+     * the container was created, in epoch milliseconds.
+     */
+    static final String RUN_LABEL = "com.baghajanyan.sandbox.php.run";
+
+    /**
+     * The label holding the id of the application instance that created a run
+     * container.
+     */
+    static final String INSTANCE_LABEL = "com.baghajanyan.sandbox.php.instance";
+
+    /**
+     * The id of this application instance.
+     */
+    static final String INSTANCE_ID = UUID.randomUUID().toString();
+
+    private static final String TMP_DIRECTORY = "/tmp";
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+    private static final double NANO_CPUS_PER_CPU = 1_000_000_000d;
+
+    private DockerCommands() {
+    }
+
+    /**
+     * Returns the security, user and resource limit options for
+     * {@code docker run}.
+     *
+     * @param dockerConfig the Docker configuration to derive the options from.
+     * @return the list of options, without image or command.
+     */
+    static List<String> containerOptions(DockerConfig dockerConfig) {
+        List<String> options = new ArrayList<>();
+
+        if (dockerConfig.securityHardening()) {
+            if (!dockerConfig.allowNetwork()) {
+                options.add("--network=none");
+            }
+            if (dockerConfig.readOnly()) {
+                options.add("--read-only");
+                options.add("--tmpfs");
+                options.add(TMP_DIRECTORY + ":" + tmpfsOptions(dockerConfig));
+            }
+            if (dockerConfig.pidsLimit() > 0) {
+                options.add("--pids-limit=" + dockerConfig.pidsLimit());
+            }
+            if (dockerConfig.dropCapabilities()) {
+                options.add("--cap-drop=ALL");
+            }
+            if (dockerConfig.noNewPrivileges()) {
+                options.add("--security-opt");
+                options.add("no-new-privileges");
+            }
+        }
+        if (!dockerConfig.runAsUser().isBlank()) {
+            options.add("--user");
+            options.add(dockerConfig.runAsUser());
+        }
+
+        options.add("-m");
+        options.add(dockerConfig.maxMemoryMb() + "m");
+        options.add("--cpus=" + dockerConfig.maxCpuUnits());
+        for (var bind : bootstrapBinds(dockerConfig)) {
+            options.add("-v");
+            options.add(bind);
+        }
+        return options;
+    }
+
+    /**
+     * Returns the {@code php} options enabling OPcache with the file cache of
+     * the bootstrap files, read-only, and the preload script if any.
+     *
+     * @param dockerConfig the Docker configuration.
+     * @return the {@code -d} options, or none without a bootstrap.
+     */
+    static List<String> opcacheOptions(DockerConfig dockerConfig) {
+        var bootstrap = dockerConfig.bootstrap();
+        if (bootstrap == null) {
+            return List.of();
+        }
+        List<String> options = new ArrayList<>(opcacheOptions(bootstrap));
+        options.addAll(List.of("-d", "opcache.file_cache_read_only=1"));
+        if (bootstrap.preload() != null) {
+            options.addAll(List.of("-d", "opcache.preload=" + bootstrap.containerPath(bootstrap.preload()),
+                    "-d", "opcache.preload_user=root", "-d",
+                    "opcache.memory_consumption=" + bootstrap.opcacheMemoryMb()));
+        } else {
+            options.addAll(List.of("-d", "opcache.file_cache_only=1"));
+        }
+        return options;
+    }
+
+    /**
+     * Returns the {@code php} options enabling OPcache with its file cache in
+     * {@link #OPCACHE_DIRECTORY}.
+     *
+     * @param bootstrap the bootstrap configuration.
+     * @return the {@code -d} options.
+     */
+    static List<String> opcacheOptions(PhpBootstrap bootstrap) {
+        List<String> options = new ArrayList<>();
+        if (bootstrap.loadOpcache()) {
+            options.addAll(List.of("-d", "zend_extension=opcache"));
+        }
+        options.addAll(List.of("-d", "opcache.enable_cli=1", "-d", "opcache.file_cache=" + OPCACHE_DIRECTORY));
+        return options;
+    }
+
+    /**
+     * Returns the {@code docker run} options labelling a container created for
+     * a single run, so leaked containers can be found and removed.
+     *
+     * @return the {@code --label} options.
+     */
+    static List<String> runLabels() {
+        return List.of("--label", RUN_LABEL + "=" + System.currentTimeMillis(), "--label",
+                INSTANCE_LABEL + "=" + INSTANCE_ID);
+    }
+
+    /**
+     * Returns the bind mount option pair for the host directory holding the
+     * snippet files.
+     *
+     * @param dockerConfig  the Docker configuration.
+     * @param hostDirectory the host directory to mount at {@link #CODE_DIRECTORY}.
+     * @return the {@code -v} option and its value.
+     */
+    static List<String> codeVolume(DockerConfig dockerConfig, String hostDirectory) {
+        return List.of("-v", bind(dockerConfig, hostDirectory));
+    }
+
+    /**
+     * Returns the PHP interpreter invocation for a script inside the container.
+     *
+     * The interpreter runs under {@code timeout}, so the script timeout is
+     * enforced on the PHP process itself, from the moment it starts, and not
+     * on the Docker client that also waits for the container to start. A
+     * script that runs too long is terminated and exits with
+     * {@value #SCRIPT_TIMEOUT_EXIT_CODE}.
+     *
+     * @param dockerConfig the Docker configuration.
+     * @param fileName     the script file name inside {@link #CODE_DIRECTORY},
+     *                     or {@code null} to read the script from standard
+     *                     input.
+     * @param arguments    the arguments passed to the script.
+     * @param runTimeout   the maximum time the script may run.
+     * @return the command line running the script.
+     */
+    static List<String> phpCommand(DockerConfig dockerConfig, String fileName, List<String> arguments,
+            Duration runTimeout) {
+        List<String> command = new ArrayList<>(List.of("timeout", seconds(runTimeout), "php", "-d",
+                "display_errors=stderr", "-d", "error_reporting=E_ALL"));
+        command.addAll(opcacheOptions(dockerConfig));
+        if (fileName != null) {
+            command.add(CODE_DIRECTORY + "/" + fileName);
+        } else if (!arguments.isEmpty()) {
+            command.add("--");
+        }
+        command.addAll(arguments);
+        return command;
+    }
+
+    /**
+     * Returns the Docker Engine API container specification equivalent to
+     * {@code docker run} with {@link #containerOptions(DockerConfig)}, for the
+     * body of {@code POST /containers/create}. Standard output and error are
+     * always attachable and no TTY is allocated, so the attached stream is
+     * multiplexed. The container gets the labels of {@link #runLabels()}.
+     *
+     * @param dockerConfig  the Docker configuration to derive the specification
+     *                      from.
+     * @param hostDirectory the host directory to mount at
+     *                      {@link #CODE_DIRECTORY}, or {@code null} to mount
+     *                      nothing.
+     * @param command       the command to run in the container.
+     * @param openStdin     whether the script is piped to standard input.
+     * @return the JSON container specification.
+     */
+    static String containerSpec(DockerConfig dockerConfig, String hostDirectory, List<String> command,
+            boolean openStdin) {
+        var hostConfig = new StringBuilder(256);
+        hostConfig.append("\"Memory\":").append(dockerConfig.maxMemoryMb() * BYTES_PER_MB)
+                .append(",\"NanoCpus\":").append(Math.round(dockerConfig.maxCpuUnits() * NANO_CPUS_PER_CPU));
+        if (dockerConfig.securityHardening()) {
+            if (!dockerConfig.allowNetwork()) {
+                hostConfig.append(",\"NetworkMode\":\"none\"");
+            }
+            if (dockerConfig.readOnly()) {
+                hostConfig.append(",\"ReadonlyRootfs\":true,\"Tmpfs\":{").append(jsonString(TMP_DIRECTORY))
+                        .append(':').append(jsonString(tmpfsOptions(dockerConfig))).append('}');
+            }
+            if (dockerConfig.pidsLimit() > 0) {
+                hostConfig.append(",\"PidsLimit\":").append(dockerConfig.pidsLimit());
+            }
+            if (dockerConfig.dropCapabilities()) {
+                hostConfig.append(",\"CapDrop\":[\"ALL\"]");
+            }
+            if (dockerConfig.noNewPrivileges()) {
+                hostConfig.append(",\"SecurityOpt\":[\"no-new-privileges\"]");
+            }
+        }
+        List<String> binds = new ArrayList<>(3);
+        if (hostDirectory != null) {
+            binds.add(bind(dockerConfig, hostDirectory));
+        }
+        binds.addAll(bootstrapBinds(dockerConfig));
+        if (!binds.isEmpty()) {
+            hostConfig.append(",\"Binds\":[");
+            for (int i = 0; i < binds.size(); i++) {
+                if (i > 0) {
+                    hostConfig.append(',');
+                }
+                hostConfig.append(jsonString(binds.get(i)));
+            }
+            hostConfig.append(']');
+        }
+
+        var spec = new StringBuilder(512);
+        spec.append("{\"Image\":").append(jsonString(dockerConfig.dockerImage()));
+        spec.append(",\"Cmd\":[");
+        for (int i = 0; i < command.size(); i++) {
+            if (i > 0) {
+                spec.append(',');
+            }
+            spec.append(jsonString(command.get(i)));
+        }
+        spec.append(']');
+        if (!dockerConfig.runAsUser().isBlank()) {
+            spec.append(",\"User\":").append(jsonString(dockerConfig.runAsUser()));
+        }
+        spec.append(",\"AttachStdin\":").append(openStdin)
+                .append(",\"AttachStdout\":true,\"AttachStderr\":true,\"Tty\":false")
+                .append(",\"OpenStdin\":").append(openStdin)
+                .append(",\"StdinOnce\":").append(openStdin);
+        spec.append(",\"Labels\":{").append(jsonString(RUN_LABEL)).append(':')
+                .append(jsonString(String.valueOf(System.currentTimeMillis()))).append(',')
+                .append(jsonString(INSTANCE_LABEL)).append(':').append(jsonString(INSTANCE_ID)).append('}');
+        spec.append(",\"HostConfig\":{").append(hostConfig).append("}}");
+        return spec.toString();
+    }
+
+    private static String seconds(Duration duration) {
+        return String.format(Locale.ROOT, "%.3f", duration.toMillis() / 1000d);
+    }
+
+    private static String tmpfsOptions(DockerConfig dockerConfig) {
+        return "rw,noexec,nosuid,size=" + dockerConfig.tmpfsSize();
+    }
+
+    private static String bind(DockerConfig dockerConfig, String hostDirectory) {
+        String volumeSuffix = dockerConfig.securityHardening() && dockerConfig.readOnly() ? ":ro" : "";
+        return hostDirectory + ":" + CODE_DIRECTORY + volumeSuffix;
+    }
+
+    /**
+     * @return the read-only binds of the bootstrap directory and the OPcache
+     *         file cache volume, or none without a bootstrap.
+     */
+    private static List<String> bootstrapBinds(DockerConfig dockerConfig) {
+        var bootstrap = dockerConfig.bootstrap();
+        if (bootstrap == null) {
+            return List.of();
+        }
+        return List.of(bootstrap.directory() + ":" + BOOTSTRAP_DIRECTORY + ":ro",
+                bootstrap.cacheVolume() + ":" + OPCACHE_DIRECTORY + ":ro");
+    }
+
+    private static String jsonString(String value) {
+        var json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
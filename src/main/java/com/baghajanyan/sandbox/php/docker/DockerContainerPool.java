@@ -0,0 +1,352 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.config.DockerPoolConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * A pool of pre-started, hardened Docker containers.
+ *
+ * Each container is started once with the same flags as a one-shot
+ * {@code docker run} and the snippet directory, if any, mounted read-only,
+ * then kept alive so snippets can be executed with {@code docker exec}. Containers are
+ * recycled after a configured number of runs or when a run leaves them in an
+ * unknown state, and idle containers are health-checked periodically.
+ *
+ * A container is only reused if its last run left no process running and
+ * nothing in {@code /tmp} or {@code /dev/shm}, so a snippet cannot leave a
+ * process or files behind for the next snippet to meet. The check runs on a
+ * virtual thread after the run, and the container becomes idle once it
+ * passes.
+ */
+public class DockerContainerPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DockerContainerPool.class);
+    private static final String CONTAINER_PREFIX = "sandbox-php-pool-";
+    // only the container's sleep and this shell may run, and the writable directories must be empty
+    private static final String CLEAN_CHECK = "set -- /proc/[0-9]*; [ \"$#\" -eq 2 ]"
+            + " && [ -z \"$(find /tmp /dev/shm -mindepth 1 2>/dev/null)\" ]";
+
+    private final DockerConfig dockerConfig;
+    private final DockerPoolConfig poolConfig;
+    private final Path codeDirectory;
+    private final BlockingDeque<PooledContainer> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed;
+
+    /**
+     * @param dockerConfig  the Docker configuration containers are started with.
+     * @param poolConfig    the pool sizing and recycling configuration.
+     * @param codeDirectory the host directory mounted into every container, or
+     *                      {@code null} when snippets are piped over standard
+     *                      input and nothing needs to be mounted.
+     */
+    public DockerContainerPool(DockerConfig dockerConfig, DockerPoolConfig poolConfig, Path codeDirectory) {
+        this.dockerConfig = dockerConfig;
+        this.poolConfig = poolConfig;
+        this.codeDirectory = codeDirectory != null ? codeDirectory.toAbsolutePath().normalize() : null;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "php-sandbox-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Warms the pool up to the minimum idle size and schedules health checks.
+     * Containers are started in the background, so this method does not block.
+     */
+    public void start() {
+        maintenance.execute(this::replenish);
+        long interval = poolConfig.healthCheckInterval().toMillis();
+        maintenance.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the host directory mounted into every container, or
+     *         {@code null} if there is none.
+     */
+    public Path codeDirectory() {
+        return codeDirectory;
+    }
+
+    /**
+     * Returns whether the given snippet file is visible to pooled containers,
+     * i.e. whether it lives in the mounted code directory or below it.
+     *
+     * @param tmpFile the snippet file.
+     * @return {@code true} if the file can be executed by a pooled container.
+     */
+    public boolean canServe(Path tmpFile) {
+        if (codeDirectory == null) {
+            return false;
+        }
+        Path parent = tmpFile.toAbsolutePath().normalize().getParent();
+        return parent != null && parent.startsWith(codeDirectory);
+    }
+
+    /**
+     * Returns the path of a snippet file the pool can serve relative to the
+     * code directory inside pooled containers.
+     *
+     * @param tmpFile the snippet file.
+     * @return the relative path, with {@code /} separators.
+     */
+    public String containerPath(Path tmpFile) {
+        Path relative = codeDirectory.relativize(tmpFile.toAbsolutePath().normalize());
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Takes an idle container from the pool, starting a new one if the pool has
+     * not reached its maximum size.
+     *
+     * @return a container reserved for the caller.
+     * @throws DockerProcessThreadException  if the pool is closed, a container
+     *                                       fails to start, or the caller is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if no container becomes available
+     *                                       within the acquire timeout.
+     */
+    public PooledContainer acquire() throws DockerProcessThreadException, DockerProcessTimeoutException {
+        if (closed) {
+            throw new DockerProcessThreadException("Container pool is closed");
+        }
+        var container = idle.pollFirst();
+        if (container != null) {
+            return container;
+        }
+        if (reserveSlot()) {
+            try {
+                return startContainer();
+            } catch (DockerProcessException e) {
+                size.decrementAndGet();
+                throw e;
+            }
+        }
+
+        waiting.incrementAndGet();
+        try {
+            container = idle.pollFirst(poolConfig.acquireTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DockerProcessThreadException("Interrupted while waiting for a pooled container", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        if (container == null) {
+            throw new DockerProcessTimeoutException(
+                    "Timed out after " + poolConfig.acquireTimeout().toMillis() + "ms waiting for a pooled container");
+        }
+        return container;
+    }
+
+    /**
+     * Returns a container to the pool once it is checked to be clean. Dirty
+     * containers, containers that reached the maximum number of runs and
+     * containers above the maximum idle size are removed instead, as are
+     * containers in which the run left a process or files behind.
+     *
+     * @param container the container to return.
+     * @param dirty     whether the last run left the container in an unknown
+     *                  state, e.g. after a timeout.
+     */
+    public void release(PooledContainer container, boolean dirty) {
+        int runs = container.recordRun();
+        if (closed || dirty || runs >= poolConfig.maxRunsPerContainer() || idle.size() >= poolConfig.maxIdle()) {
+            retire(container);
+            return;
+        }
+        Thread.ofVirtual().name("php-sandbox-pool-check").start(() -> {
+            if (closed || !isClean(container)) {
+                retire(container);
+                return;
+            }
+            idle.offerFirst(container);
+            if (closed && idle.remove(container)) {
+                remove(container);
+            }
+        });
+    }
+
+    /**
+     * @return the number of live containers, including busy ones.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return the number of idle containers.
+     */
+    public int idleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        PooledContainer container;
+        while ((container = idle.pollFirst()) != null) {
+            remove(container);
+        }
+    }
+
+    private void retire(PooledContainer container) {
+        if (closed) {
+            remove(container);
+            return;
+        }
+        try {
+            maintenance.execute(() -> {
+                remove(container);
+                replenish();
+            });
+        } catch (RejectedExecutionException e) {
+            remove(container);
+        }
+    }
+
+    private void remove(PooledContainer container) {
+        size.decrementAndGet();
+        try {
+            runDocker(List.of("docker", "rm", "-f", container.name()));
+        } catch (DockerProcessException e) {
+            logger.warn("Failed to remove pooled container {}", container.name(), e);
+        }
+    }
+
+    private void replenish() {
+        while (!closed && idle.size() < Math.max(poolConfig.minIdle(), waiting.get()) && reserveSlot()) {
+            try {
+                idle.offerLast(startContainer());
+            } catch (DockerProcessException e) {
+                size.decrementAndGet();
+                logger.warn("Failed to start pooled container", e);
+                return;
+            }
+        }
+    }
+
+    private void checkHealth() {
+        try {
+            for (var container : List.copyOf(idle)) {
+                if (!idle.remove(container)) {
+                    continue;
+                }
+                if (isRunning(container)) {
+                    idle.offerLast(container);
+                } else {
+                    logger.warn("Pooled container {} failed its health check", container.name());
+                    remove(container);
+                }
+            }
+            replenish();
+        } catch (RuntimeException e) {
+            logger.error("Container pool health check failed", e);
+        }
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = size.get();
+            if (current >= poolConfig.maxSize()) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private PooledContainer startContainer() {
+        String name = CONTAINER_PREFIX + UUID.randomUUID();
+        List<String> command = new ArrayList<>();
+        command.add("docker");
+        command.add("run");
+        command.add("-d");
+        command.add("--rm");
+        command.add("--name");
+        command.add(name);
+        command.addAll(DockerCommands.containerOptions(dockerConfig));
+        if (codeDirectory != null) {
+            command.addAll(DockerCommands.codeVolume(dockerConfig, codeDirectory.toString()));
+        }
+        command.add(dockerConfig.dockerImage());
+        command.add("sleep");
+        command.add("infinity");
+
+        var result = runDocker(command);
+        if (result.exitCode() != 0) {
+            throw new DockerProcessThreadException(
+                    "Failed to start pooled container " + name + ", exit code " + result.exitCode());
+        }
+        logger.debug("Started pooled container {}", name);
+        return new PooledContainer(name);
+    }
+
+    private boolean isClean(PooledContainer container) {
+        try {
+            if (runDocker(List.of("docker", "exec", container.name(), "sh", "-c", CLEAN_CHECK)).exitCode() == 0) {
+                return true;
+            }
+            logger.warn("A run left a process or files behind in pooled container {}, removing it",
+                    container.name());
+        } catch (DockerProcessException e) {
+            logger.warn("Failed to check pooled container {}, removing it", container.name(), e);
+        }
+        return false;
+    }
+
+    private boolean isRunning(PooledContainer container) {
+        try {
+            var result = runDocker(List.of("docker", "inspect", "--format", "{{.State.Running}}", container.name()));
+            return result.exitCode() == 0 && "true".equals(result.output().trim());
+        } catch (DockerProcessException e) {
+            return false;
+        }
+    }
+
+    private CommandResult runDocker(List<String> command) {
+        try {
+            var process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            boolean finished = process.waitFor(poolConfig.acquireTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            if (!finished) {
+                process.destroyForcibly();
+                throw new DockerProcessTimeoutException("Docker command timed out: " + String.join(" ", command));
+            }
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            return new CommandResult(process.exitValue(), output);
+        } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new DockerProcessThreadException("Failed to run docker command", e);
+        }
+    }
+
+    private record CommandResult(int exitCode, String output) {
+    }
+}
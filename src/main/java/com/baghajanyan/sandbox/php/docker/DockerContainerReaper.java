@@ -0,0 +1,201 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes run containers that were left behind.
+ *
+ * Every container created for a single run is labelled with its creation time
+ * and the application instance that created it. A container outlives its run
+ * when the daemon did not act on a kill, or when the application died before
+ * it could stop it; such containers keep using CPU and memory on the host.
+ * The reaper periodically force-removes labelled containers older than a
+ * maximum lifetime, which must exceed the longest time a run may take, on
+ * every Docker daemon runs are sent to. On close it removes every remaining
+ * run container of this instance.
+ *
+ * Pooled containers and PHP workers are not run containers; their pools
+ * remove them on close.
+ */
+public class DockerContainerReaper implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DockerContainerReaper.class);
+    private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(30);
+    private static final int MAX_OUTPUT_BYTES = 1024 * 1024;
+
+    private final List<DockerProcessExecutor> daemons;
+    private final Duration maxLifetime;
+    private final Duration interval;
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * @param daemons     the executors whose Docker daemons are cleaned up.
+     * @param maxLifetime the age after which a run container is removed.
+     * @param interval    the time between cleanups.
+     */
+    public DockerContainerReaper(List<DockerProcessExecutor> daemons, Duration maxLifetime, Duration interval) {
+        if (daemons.isEmpty()) {
+            throw new IllegalArgumentException("at least one Docker daemon must be given");
+        }
+        if (maxLifetime == null || maxLifetime.isNegative() || maxLifetime.isZero()) {
+            throw new IllegalArgumentException("maxLifetime must be a positive duration");
+        }
+        this.daemons = List.copyOf(daemons);
+        this.maxLifetime = maxLifetime;
+        this.interval = interval;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "php-sandbox-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the periodic cleanup.
+     */
+    public void start() {
+        long millis = interval.toMillis();
+        maintenance.scheduleWithFixedDelay(this::reapQuietly, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the run containers older than the maximum lifetime.
+     *
+     * @return the number of containers removed.
+     */
+    public int reap() {
+        long oldest = System.currentTimeMillis() - maxLifetime.toMillis();
+        int removed = 0;
+        for (var daemon : daemons) {
+            List<String> expired = new ArrayList<>();
+            for (String line : list(daemon, List.of("--filter", "label=" + DockerCommands.RUN_LABEL, "--format",
+                    "{{.ID}} {{.Label \"" + DockerCommands.RUN_LABEL + "\"}}"))) {
+                String[] fields = line.split(" ");
+                if (fields.length == 2 && isBefore(fields[1], oldest)) {
+                    expired.add(fields[0]);
+                }
+            }
+            if (!expired.isEmpty()) {
+                logger.warn("Removing {} sandbox containers older than {}s on Docker daemon {}", expired.size(),
+                        maxLifetime.toSeconds(), name(daemon));
+                removed += remove(daemon, expired);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Stops the periodic cleanup and removes every run container created by
+     * this application instance, including running ones.
+     */
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        for (var daemon : daemons) {
+            try {
+                var containers = list(daemon, List.of("--quiet", "--filter",
+                        "label=" + DockerCommands.INSTANCE_LABEL + "=" + DockerCommands.INSTANCE_ID));
+                if (!containers.isEmpty()) {
+                    logger.info("Removing {} sandbox containers on Docker daemon {} at shutdown", containers.size(),
+                            name(daemon));
+                    remove(daemon, containers);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to remove sandbox containers on Docker daemon {} at shutdown", name(daemon), e);
+            }
+        }
+    }
+
+    private void reapQuietly() {
+        try {
+            reap();
+        } catch (RuntimeException e) {
+            logger.error("Failed to remove leaked sandbox containers", e);
+        }
+    }
+
+    private static List<String> list(DockerProcessExecutor daemon, List<String> options) {
+        List<String> command = new ArrayList<>(List.of("docker", "ps", "--all", "--no-trunc"));
+        command.addAll(options);
+        var result = run(daemon, command);
+        if (result.exitCode() != 0) {
+            throw new DockerProcessException.DockerProcessThreadException("Failed to list sandbox containers, exit "
+                    + "code " + result.exitCode() + ": " + result.output().trim());
+        }
+        return result.output().lines().map(String::trim).filter(line -> !line.isEmpty()).toList();
+    }
+
+    private static int remove(DockerProcessExecutor daemon, List<String> containers) {
+        List<String> command = new ArrayList<>(List.of("docker", "rm", "--force"));
+        command.addAll(containers);
+        var result = run(daemon, command);
+        if (result.exitCode() != 0) {
+            // containers removed by their own --rm in the meantime are reported as missing
+            logger.debug("Removing sandbox containers exited with {}: {}", result.exitCode(), result.output().trim());
+        }
+        return containers.size();
+    }
+
+    private static CommandResult run(DockerProcessExecutor daemon, List<String> command) {
+        Process process;
+        try {
+            process = daemon.docker(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            throw new DockerProcessException.DockerProcessThreadException(
+                    "Failed to run docker command: " + String.join(" ", command), e);
+        }
+        var output = new BoundedOutputBuffer(MAX_OUTPUT_BYTES);
+        var drain = Thread.ofVirtual().name("php-sandbox-reaper-output")
+                .start(() -> drain(process.getInputStream(), output));
+        try {
+            if (!process.waitFor(COMMAND_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                throw new DockerProcessException.DockerProcessTimeoutException("Docker command timed out after "
+                        + COMMAND_TIMEOUT.toSeconds() + " seconds: " + String.join(" ", command));
+            }
+            drain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new DockerProcessException.DockerProcessThreadException("Interrupted while running docker command",
+                    e);
+        }
+        return new CommandResult(process.exitValue(), output.content());
+    }
+
+    private static void drain(InputStream stream, BoundedOutputBuffer output) {
+        byte[] chunk = new byte[8192];
+        try (stream) {
+            int read;
+            while ((read = stream.read(chunk)) != -1) {
+                output.write(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            // the process is gone
+        }
+    }
+
+    private static boolean isBefore(String createdMillis, long oldest) {
+        try {
+            return Long.parseLong(createdMillis) < oldest;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String name(DockerProcessExecutor daemon) {
+        return daemon.endpoint() != null ? daemon.endpoint() : "default";
+    }
+
+    private record CommandResult(int exitCode, String output) {
+    }
+}
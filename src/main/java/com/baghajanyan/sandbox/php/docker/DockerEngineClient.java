@@ -0,0 +1,442 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal Docker Engine API client speaking HTTP/1.1 over the daemon's Unix
+ * domain socket.
+ *
+ * Only the container endpoints needed to run a snippet, and pulling a missing
+ * image, are supported. Request/response calls reuse keep-alive connections from a small idle pool.
+ * Attaching to a container hijacks a connection for the lifetime of the
+ * container, so attached connections are never returned to the pool.
+ */
+public class DockerEngineClient implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DockerEngineClient.class);
+    private static final String API_PREFIX = "/v1.41";
+    private static final int STREAM_HEADER_LENGTH = 8;
+    private static final int STDOUT_STREAM = 1;
+    private static final int STDERR_STREAM = 2;
+
+    /**
+     * The default location of the Docker daemon socket.
+     */
+    public static final Path DEFAULT_SOCKET_PATH = Path.of("/var/run/docker.sock");
+
+    private final UnixDomainSocketAddress address;
+    private final int maxIdleConnections;
+    private final BlockingDeque<DockerEngineConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed;
+
+    /**
+     * @param socketPath         the path of the Docker daemon socket.
+     * @param maxIdleConnections the maximum number of keep-alive connections
+     *                           retained between calls.
+     */
+    public DockerEngineClient(Path socketPath, int maxIdleConnections) {
+        if (maxIdleConnections < 0) {
+            throw new IllegalArgumentException("maxIdleConnections must be >= 0");
+        }
+        this.address = UnixDomainSocketAddress.of(socketPath);
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    /**
+     * Creates a container. If the image of the container is missing, it is
+     * pulled and the container is created again, like {@code docker run}
+     * does.
+     *
+     * @param name the container name.
+     * @param spec the JSON container specification.
+     * @return the container id.
+     * @throws IOException if the daemon is unreachable or rejects the request,
+     *                     or the missing image cannot be pulled.
+     */
+    String createContainer(String name, String spec) throws IOException {
+        var response = exchange("POST", "/containers/create?name=" + name, spec);
+        String image = jsonString(spec, "Image");
+        if (response.status() == 404 && image != null) {
+            logger.info("Docker image {} is missing, pulling it", image);
+            pullImage(image);
+            response = exchange("POST", "/containers/create?name=" + name, spec);
+        }
+        response.expect(201, "create container " + name);
+        String id = jsonString(response.body(), "Id");
+        if (id == null) {
+            throw new IOException("Docker daemon returned no container id for " + name);
+        }
+        return id;
+    }
+
+    /**
+     * Pulls an image. An image reference without a tag or digest pulls the
+     * {@code latest} tag rather than every tag.
+     *
+     * @param image the image reference.
+     * @throws IOException if the daemon is unreachable or the pull fails.
+     */
+    void pullImage(String image) throws IOException {
+        boolean tagged = image.contains("@") || image.substring(image.lastIndexOf('/') + 1).contains(":");
+        var response = exchange("POST", "/images/create?fromImage=" + URLEncoder.encode(image, StandardCharsets.UTF_8)
+                + (tagged ? "" : "&tag=latest"), null);
+        response.expect(200, "pull image " + image);
+        // the daemon reports a failed pull in the progress stream of a successful response
+        String error = jsonString(response.body(), "error");
+        if (error != null) {
+            throw new IOException("Docker daemon failed to pull image " + image + ": " + error);
+        }
+    }
+
+    /**
+     * Attaches to the standard streams of a created container. The container
+     * should be started only after attaching, so no output is missed.
+     *
+     * @param id    the container id.
+     * @param stdin whether to attach standard input as well.
+     * @return the hijacked connection carrying the multiplexed container
+     *         streams.
+     * @throws IOException if the daemon is unreachable or rejects the request.
+     */
+    DockerEngineConnection attach(String id, boolean stdin) throws IOException {
+        var connection = DockerEngineConnection.open(address);
+        try {
+            connection.write("POST " + API_PREFIX + "/containers/" + id
+                    + "/attach?stream=1&stdout=1&stderr=1" + (stdin ? "&stdin=1" : "") + " HTTP/1.1\r\n"
+                    + "Host: docker\r\n"
+                    + "Content-Length: 0\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Upgrade: tcp\r\n\r\n");
+            var response = readHead(connection);
+            if (response.status() != 101 && response.status() != 200) {
+                throw new IOException("Docker daemon failed to attach to container " + id + ": HTTP "
+                        + response.status());
+            }
+            return connection;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a created container.
+     *
+     * @param id the container id.
+     * @throws IOException if the daemon is unreachable or rejects the request.
+     */
+    void startContainer(String id) throws IOException {
+        exchange("POST", "/containers/" + id + "/start", null).expect(204, "start container " + id);
+    }
+
+    /**
+     * Blocks until a container stops.
+     *
+     * @param id the container id.
+     * @return the exit code of the container.
+     * @throws IOException if the daemon is unreachable or rejects the request.
+     */
+    int waitContainer(String id) throws IOException {
+        var response = exchange("POST", "/containers/" + id + "/wait", null);
+        response.expect(200, "wait for container " + id);
+        Long statusCode = jsonLong(response.body(), "StatusCode");
+        if (statusCode == null) {
+            throw new IOException("Docker daemon returned no exit code for container " + id);
+        }
+        return statusCode.intValue();
+    }
+
+    /**
+     * Kills a container. A container that does not exist or is not running is
+     * not an error.
+     *
+     * @param id the container id.
+     * @throws IOException if the daemon is unreachable or rejects the request.
+     */
+    void killContainer(String id) throws IOException {
+        var response = exchange("POST", "/containers/" + id + "/kill", null);
+        if (response.status() != 404 && response.status() != 409) {
+            response.expect(204, "kill container " + id);
+        }
+    }
+
+    /**
+     * Removes a container, killing it first if it is still running. A
+     * container that no longer exists is not an error.
+     *
+     * @param id the container id.
+     * @throws IOException if the daemon is unreachable or rejects the request.
+     */
+    void removeContainer(String id) throws IOException {
+        var response = exchange("DELETE", "/containers/" + id + "?force=true", null);
+        if (response.status() != 404) {
+            response.expect(204, "remove container " + id);
+        }
+    }
+
+    /**
+     * Splits the multiplexed stream of an attached container into its standard
+     * output and error until the container closes the stream.
+     *
+     * @param stream the attached stream.
+     * @param stdout the buffer receiving standard output.
+     * @param stderr the buffer receiving standard error.
+     * @throws IOException if the connection fails.
+     */
+    static void demultiplex(InputStream stream, BoundedOutputBuffer stdout, BoundedOutputBuffer stderr)
+            throws IOException {
+        byte[] header = new byte[STREAM_HEADER_LENGTH];
+        byte[] chunk = new byte[8192];
+        while (readHeader(stream, header)) {
+            int type = header[0];
+            long remaining = ((header[4] & 0xFFL) << 24) | ((header[5] & 0xFF) << 16) | ((header[6] & 0xFF) << 8)
+                    | (header[7] & 0xFF);
+            BoundedOutputBuffer target = type == STDERR_STREAM ? stderr : type == STDOUT_STREAM ? stdout : null;
+            while (remaining > 0) {
+                int read = stream.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("Attached container stream ended inside a frame");
+                }
+                if (target != null) {
+                    target.write(chunk, 0, read);
+                }
+                remaining -= read;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        DockerEngineConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    private Response exchange(String method, String path, String body) throws IOException {
+        if (closed) {
+            throw new IOException("Docker Engine client is closed");
+        }
+        byte[] payload = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        String head = method + " " + API_PREFIX + path + " HTTP/1.1\r\n"
+                + "Host: docker\r\n"
+                + (body != null ? "Content-Type: application/json\r\n" : "")
+                + "Content-Length: " + payload.length + "\r\n\r\n";
+
+        var connection = idle.pollFirst();
+        if (connection != null) {
+            try {
+                return send(connection, head, payload);
+            } catch (StaleConnectionException e) {
+                // the daemon closed the idle connection before reading the request
+                logger.debug("Reconnecting to the Docker daemon after a stale keep-alive connection");
+            }
+        }
+        try {
+            return send(DockerEngineConnection.open(address), head, payload);
+        } catch (StaleConnectionException e) {
+            throw new EOFException("Docker daemon closed the connection without a response");
+        }
+    }
+
+    private Response send(DockerEngineConnection connection, String head, byte[] payload) throws IOException {
+        boolean reusable = false;
+        try {
+            connection.write(head);
+            connection.write(payload);
+            var response = readHead(connection);
+            byte[] body = response.chunked() ? readChunked(connection) : readBody(connection, response.length());
+            reusable = response.keepAlive() && (response.chunked() || response.length() >= 0);
+            return new Response(response.status(), new String(body, StandardCharsets.UTF_8));
+        } finally {
+            if (reusable && !closed && idle.size() < maxIdleConnections) {
+                idle.offerFirst(connection);
+            } else {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private static Head readHead(DockerEngineConnection connection) throws IOException {
+        String statusLine = connection.readLine();
+        if (statusLine == null) {
+            throw new StaleConnectionException();
+        }
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed response from the Docker daemon: " + statusLine);
+        }
+        int status;
+        try {
+            status = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed response from the Docker daemon: " + statusLine, e);
+        }
+
+        long length = -1;
+        boolean chunked = false;
+        boolean keepAlive = true;
+        String line;
+        while ((line = connection.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            switch (name) {
+                case "content-length" -> length = Long.parseLong(value);
+                case "transfer-encoding" -> chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                case "connection" -> keepAlive = !value.equalsIgnoreCase("close");
+                default -> {
+                }
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Docker daemon closed the connection inside the response headers");
+        }
+        if (status == 204 || status == 304) {
+            length = 0;
+        }
+        return new Head(status, length, chunked, keepAlive);
+    }
+
+    private static byte[] readBody(DockerEngineConnection connection, long length) throws IOException {
+        if (length < 0) {
+            return connection.inputStream().readAllBytes();
+        }
+        byte[] body = new byte[Math.toIntExact(length)];
+        connection.readFully(body, 0, body.length);
+        return body;
+    }
+
+    private static byte[] readChunked(DockerEngineConnection connection) throws IOException {
+        var body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = connection.readLine();
+            if (sizeLine == null) {
+                throw new EOFException("Docker daemon closed the connection inside a chunked response");
+            }
+            int extension = sizeLine.indexOf(';');
+            int size = Integer.parseInt((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+            if (size == 0) {
+                String trailer;
+                while ((trailer = connection.readLine()) != null && !trailer.isEmpty()) {
+                    // trailers are ignored
+                }
+                return body.toByteArray();
+            }
+            byte[] chunk = new byte[size];
+            connection.readFully(chunk, 0, size);
+            body.write(chunk, 0, size);
+            connection.readLine();
+        }
+    }
+
+    private static boolean readHeader(InputStream stream, byte[] header) throws IOException {
+        int offset = 0;
+        while (offset < header.length) {
+            int read = stream.read(header, offset, header.length - offset);
+            if (read == -1) {
+                if (offset == 0) {
+                    return false;
+                }
+                throw new EOFException("Attached container stream ended inside a frame header");
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    /**
+     * Extracts a top-level string field from a flat JSON object.
+     */
+    static String jsonString(String json, String field) {
+        int value = valueStart(json, field);
+        if (value < 0 || json.charAt(value) != '"') {
+            return null;
+        }
+        int end = json.indexOf('"', value + 1);
+        return end < 0 ? null : json.substring(value + 1, end);
+    }
+
+    /**
+     * Extracts a top-level integer field from a flat JSON object.
+     */
+    static Long jsonLong(String json, String field) {
+        int value = valueStart(json, field);
+        if (value < 0) {
+            return null;
+        }
+        int end = value;
+        if (end < json.length() && json.charAt(end) == '-') {
+            end++;
+        }
+        while (end < json.length() && Character.isDigit(json.charAt(end))) {
+            end++;
+        }
+        try {
+            return Long.parseLong(json.substring(value, end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int valueStart(String json, String field) {
+        int key = json.indexOf("\"" + field + "\"");
+        if (key < 0) {
+            return -1;
+        }
+        int colon = json.indexOf(':', key + field.length() + 2);
+        if (colon < 0) {
+            return -1;
+        }
+        int value = colon + 1;
+        while (value < json.length() && Character.isWhitespace(json.charAt(value))) {
+            value++;
+        }
+        return value < json.length() ? value : -1;
+    }
+
+    private static void closeQuietly(DockerEngineConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close Docker daemon connection", e);
+        }
+    }
+
+    private record Head(int status, long length, boolean chunked, boolean keepAlive) {
+    }
+
+    private record Response(int status, String body) {
+        void expect(int expected, String action) throws IOException {
+            if (status != expected) {
+                throw new IOException("Docker daemon failed to " + action + ": HTTP " + status + " " + body.trim());
+            }
+        }
+    }
+
+    /**
+     * Thrown when the daemon closed a connection before answering, which
+     * happens to idle keep-alive connections.
+     */
+    private static final class StaleConnectionException extends EOFException {
+        StaleConnectionException() {
+            super("Docker daemon closed the connection");
+        }
+    }
+}
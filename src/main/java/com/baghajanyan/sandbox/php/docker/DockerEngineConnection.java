@@ -0,0 +1,166 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A blocking HTTP/1.1 connection to the Docker daemon over its Unix domain
+ * socket.
+ *
+ * Reads are buffered and can interleave line-oriented header parsing with raw
+ * body reads. Reading and writing may happen on different threads at the same
+ * time, which an attached container stream relies on to pipe standard input
+ * while its output is drained.
+ */
+final class DockerEngineConnection implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final SocketChannel channel;
+    private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    private final InputStream stream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            return DockerEngineConnection.this.read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return DockerEngineConnection.this.read(bytes, offset, length);
+        }
+    };
+
+    private DockerEngineConnection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Connects to the Docker daemon socket.
+     *
+     * @param address the daemon socket address.
+     * @return the open connection.
+     * @throws IOException if the socket cannot be connected.
+     */
+    static DockerEngineConnection open(UnixDomainSocketAddress address) throws IOException {
+        var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new DockerEngineConnection(channel);
+    }
+
+    void write(String text) throws IOException {
+        write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void write(byte[] bytes) throws IOException {
+        var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Signals end-of-stream to the daemon while keeping the connection open for
+     * reading. On an attached container this closes its standard input.
+     *
+     * @throws IOException if the socket cannot be shut down.
+     */
+    void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return input.get() & 0xFF;
+    }
+
+    int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int read = Math.min(length, input.remaining());
+        input.get(bytes, offset, read);
+        return read;
+    }
+
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = read(bytes, offset, length);
+            if (read == -1) {
+                throw new EOFException("Docker daemon closed the connection");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * Reads a CRLF- or LF-terminated line of ASCII text, without the line
+     * terminator.
+     *
+     * @return the line, or {@code null} at end-of-stream before any byte.
+     * @throws IOException if the connection fails.
+     */
+    String readLine() throws IOException {
+        var line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the remaining bytes of the connection as a stream, starting with
+     *         any already buffered bytes.
+     */
+    InputStream inputStream() {
+        return stream;
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (input.hasRemaining()) {
+            return true;
+        }
+        input.clear();
+        int read;
+        try {
+            do {
+                read = channel.read(input);
+            } while (read == 0);
+        } finally {
+            input.flip();
+        }
+        return read > 0;
+    }
+}
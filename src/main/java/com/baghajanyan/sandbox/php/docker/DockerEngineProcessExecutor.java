@@ -0,0 +1,230 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * Executes scripts in sandboxed Docker containers through the Docker Engine
+ * API instead of the {@code docker} CLI.
+ *
+ * Each run creates, attaches to, starts, waits on and removes its container
+ * with {@link DockerEngineClient} calls over the daemon socket, so no child
+ * process is forked per snippet. Containers get the same hardening and
+ * resource limits as {@code docker run}, and a missing image is pulled before
+ * the container is created again. Runs block virtual threads only, so many
+ * executions share few carrier threads.
+ *
+ * Only the runs themselves use the Engine API. The container reaper, the
+ * bootstrap cache, the warm-up image check and pull, and daemon health checks
+ * still use the {@code docker} CLI, which must be installed for them.
+ */
+public class DockerEngineProcessExecutor extends DockerProcessExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(DockerEngineProcessExecutor.class);
+    private static final String CONTAINER_PREFIX = "sandbox-php-";
+
+    private final DockerEngineClient client;
+
+    public DockerEngineProcessExecutor(DockerConfig dockerConfig, DockerEngineClient client) {
+        super(dockerConfig);
+        this.client = client;
+    }
+
+    /**
+     * Executes the described script run in a Docker container created through
+     * the Docker Engine API.
+     *
+     * @param request the script, arguments and limits of the run.
+     * @return the completed execution with its captured output.
+     * @throws DockerProcessThreadException  if the Docker daemon fails or the
+     *                                       thread is interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    @Override
+    public DockerExecution executeScript(DockerRunRequest request)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var execution = executeScriptAsync(request);
+        try {
+            return execution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            execution.cancel(true);
+            logger.error("Failed to execute Docker container", e);
+            throw new DockerProcessThreadException("Failed to execute Docker container", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DockerProcessException dockerProcessException) {
+                throw dockerProcessException;
+            }
+            throw new DockerProcessThreadException("Failed to execute Docker container", e.getCause());
+        }
+    }
+
+    /**
+     * Executes the described script run in a Docker container created through
+     * the Docker Engine API, on a virtual thread. On timeout or cancellation
+     * the container is killed; it is removed in every case.
+     *
+     * @param request the script, arguments and limits of the run.
+     * @return a future of the completed execution with its captured output.
+     */
+    @Override
+    public CompletableFuture<DockerExecution> executeScriptAsync(DockerRunRequest request) {
+        Duration deadline = deadline(request);
+        var run = new ContainerRun();
+        var completed = new CompletableFuture<DockerExecution>();
+        Thread.ofVirtual().name("php-sandbox-engine").start(() -> {
+            try {
+                completed.complete(runContainer(request, run));
+            } catch (Throwable e) {
+                completed.completeExceptionally(e);
+            }
+        });
+
+        var execution = new CompletableFuture<DockerExecution>();
+        completed.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS).whenComplete((result, error) -> {
+            if (error == null) {
+                execution.complete(result);
+                return;
+            }
+            run.stop();
+            if (error instanceof TimeoutException) {
+                logger.warn("Docker container timed out after {}ms", deadline.toMillis());
+                execution.completeExceptionally(new DockerProcessTimeoutException(timeoutMessage(request)));
+            } else if (error instanceof DockerProcessException) {
+                execution.completeExceptionally(error);
+            } else {
+                logger.error("Failed to execute Docker container", error);
+                execution.completeExceptionally(
+                        new DockerProcessThreadException("Failed to execute Docker container", error));
+            }
+        });
+        execution.whenComplete((result, error) -> {
+            if (execution.isCancelled()) {
+                run.stop();
+            }
+        });
+        return execution;
+    }
+
+    private DockerExecution runContainer(DockerRunRequest request, ContainerRun run) throws IOException {
+        Path script = request.script();
+        boolean pipesSource = request.source() != null;
+        String spec = DockerCommands.containerSpec(request.dockerConfig(),
+                script != null ? script.getParent().toString() : null,
+                DockerCommands.phpCommand(request.dockerConfig(),
+                        script != null ? script.getFileName().toString() : null, request.arguments(),
+                        request.timeout()),
+                pipesSource);
+
+        String id = client.createContainer(CONTAINER_PREFIX + UUID.randomUUID(), spec);
+        try {
+            if (!run.created(id)) {
+                throw new DockerProcessThreadException("Execution was stopped before container " + id + " started");
+            }
+            try (var attached = client.attach(id, pipesSource)) {
+                client.startContainer(id);
+                if (pipesSource) {
+                    pipeSource(attached, request.source());
+                }
+                var exceeded = new AtomicBoolean();
+                Runnable onLimit = killsOnOutputLimit(request) ? () -> {
+                    if (exceeded.compareAndSet(false, true)) {
+                        logger.warn("Container {} exceeded the output limit of {} bytes, killing it", id,
+                                request.maxOutputBytes());
+                        kill(id);
+                    }
+                } : null;
+                var listener = request.outputListener();
+                boolean listening = listener != OutputListener.NONE;
+                var stdout = new BoundedOutputBuffer(request.maxOutputBytes(), listening ? listener::onStdout : null,
+                        onLimit);
+                var stderr = new BoundedOutputBuffer(request.maxOutputBytes(), listening ? listener::onStderr : null,
+                        onLimit);
+                DockerEngineClient.demultiplex(attached.inputStream(), stdout, stderr);
+                int exitCode = client.waitContainer(id);
+                long outputBytes = stdout.total() + stderr.total();
+                if (exceeded.get()) {
+                    return killedForOutput(null, stdout.content(), stderr.content(), outputBytes, request);
+                }
+                return new DockerExecution(null, exitCode, stdout.content(), stderr.content(), outputBytes, false);
+            }
+        } finally {
+            try {
+                client.removeContainer(id);
+            } catch (IOException e) {
+                logger.warn("Failed to remove container {}", id, e);
+            }
+        }
+    }
+
+    /**
+     * Kills the container through the Docker Engine API. Closing the attached
+     * stream alone does not stop the container.
+     *
+     * @param containerName the name or id of the container to kill.
+     */
+    @Override
+    protected void kill(String containerName) {
+        try {
+            client.killContainer(containerName);
+        } catch (IOException e) {
+            logger.warn("Failed to kill container {}", containerName, e);
+        }
+    }
+
+    /**
+     * Writes the source to the attached standard input on a virtual thread and
+     * then closes it, so a snippet larger than the socket buffer cannot block
+     * draining the output. A failed write is reported through the execution
+     * result, like for the CLI backend.
+     */
+    private static void pipeSource(DockerEngineConnection attached, String source) {
+        Thread.ofVirtual().name("php-sandbox-stdin").start(() -> {
+            try {
+                attached.write(source.getBytes(StandardCharsets.UTF_8));
+                attached.shutdownOutput();
+            } catch (IOException e) {
+                logger.debug("Failed to write snippet source to the attached container", e);
+            }
+        });
+    }
+
+    /**
+     * Tracks the container of a run, so a timeout or cancellation racing with
+     * its creation still stops it.
+     */
+    private final class ContainerRun {
+        private volatile String id;
+        private volatile boolean stopped;
+
+        /**
+         * @return whether the run may go on to start the container.
+         */
+        boolean created(String id) {
+            this.id = id;
+            return !stopped;
+        }
+
+        void stop() {
+            stopped = true;
+            String containerId = id;
+            if (containerId != null) {
+                kill(containerId);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.baghajanyan.sandbox.php.docker;
+
+/**
+ * The outcome of a completed Docker process together with its captured
+ * output.
+ *
+ * @param process         the completed {@code docker} CLI process, or
+ *                        {@code null} when the container was run through the
+ *                        Docker Engine API.
+ * @param exitCode        the exit code of the script.
+ * @param stdout          the captured standard output, possibly truncated.
+ * @param stderr          the captured standard error, possibly truncated.
+ * @param outputBytes     the number of bytes the script wrote to both
+ *                        streams, including bytes beyond the output limit.
+ * @param killedForOutput whether the container was killed for exceeding the
+ *                        output limit.
+ */
+public record DockerExecution(Process process, int exitCode, String stdout, String stderr, long outputBytes,
+        boolean killedForOutput) {
+
+    /**
+     * Creates the execution of a completed script whose output was captured
+     * in full.
+     *
+     * @param process  the completed process, or {@code null}.
+     * @param exitCode the exit code of the script.
+     * @param stdout   the captured standard output.
+     * @param stderr   the captured standard error.
+     */
+    public DockerExecution(Process process, int exitCode, String stdout, String stderr) {
+        this(process, exitCode, stdout, stderr, utf8Length(stdout) + utf8Length(stderr), false);
+    }
+
+    /**
+     * Creates the execution of a completed {@code docker} CLI process, taking
+     * the exit code from the process.
+     *
+     * @param process the completed process.
+     * @param stdout  the captured standard output, possibly truncated.
+     * @param stderr  the captured standard error, possibly truncated.
+     */
+    public DockerExecution(Process process, String stdout, String stderr) {
+        this(process, process.exitValue(), stdout, stderr);
+    }
+
+    /**
+     * @return the length of the text encoded as UTF-8, without encoding it.
+     */
+    private static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,91 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * Checks for and pulls Docker images with the {@code docker} CLI.
+ */
+public final class DockerImages {
+    private static final int MAX_OUTPUT_BYTES = 4096;
+
+    private DockerImages() {
+    }
+
+    /**
+     * @param image   the image reference, e.g. {@code php:8.2-cli}.
+     * @param timeout the maximum time the check may take.
+     * @return whether the image is present in the local image store.
+     * @throws DockerProcessThreadException  if the {@code docker} CLI cannot be
+     *                                       run.
+     * @throws DockerProcessTimeoutException if the check times out.
+     */
+    public static boolean exists(String image, Duration timeout)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return run(List.of("docker", "image", "inspect", "--format", "{{.Id}}", image), timeout).exitCode() == 0;
+    }
+
+    /**
+     * Pulls the image from its registry.
+     *
+     * @param image   the image reference, e.g. {@code php:8.2-cli}.
+     * @param timeout the maximum time the pull may take.
+     * @throws DockerProcessThreadException  if the pull fails.
+     * @throws DockerProcessTimeoutException if the pull times out.
+     */
+    public static void pull(String image, Duration timeout)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var result = run(List.of("docker", "pull", "--quiet", image), timeout);
+        if (result.exitCode() != 0) {
+            throw new DockerProcessThreadException("Failed to pull image " + image + ", exit code "
+                    + result.exitCode() + ": " + result.output().trim());
+        }
+    }
+
+    private static CommandResult run(List<String> command, Duration timeout) {
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            throw new DockerProcessThreadException("Failed to run docker command: " + String.join(" ", command), e);
+        }
+        // drained while waiting, so a chatty command cannot fill the pipe and stall
+        var output = new BoundedOutputBuffer(MAX_OUTPUT_BYTES);
+        var drain = Thread.ofVirtual().name("php-sandbox-docker-image").start(() -> drain(process.getInputStream(),
+                output));
+        try {
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                throw new DockerProcessTimeoutException("Docker command timed out after " + timeout.toSeconds()
+                        + " seconds: " + String.join(" ", command));
+            }
+            drain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new DockerProcessThreadException("Interrupted while running docker command", e);
+        }
+        return new CommandResult(process.exitValue(), output.content());
+    }
+
+    private static void drain(InputStream stream, BoundedOutputBuffer output) {
+        byte[] chunk = new byte[1024];
+        try (stream) {
+            int read;
+            while ((read = stream.read(chunk)) != -1) {
+                output.write(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            // the process is gone
+        }
+    }
+
+    private record CommandResult(int exitCode, String output) {
+    }
+}
@@ -0,0 +1,106 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.baghajanyan.sandbox.php.scheduler.PermitQueue;
+
+/**
+ * A Docker daemon a {@link MultiNodeDockerProcessExecutor} can run containers
+ * on, with its own concurrency budget and health state.
+ *
+ * A node is ejected from routing after a number of consecutive failures and
+ * readmitted once a health check succeeds.
+ */
+public class DockerNode {
+    private final String name;
+    private final DockerProcessExecutor executor;
+    private final int maxConcurrency;
+    private final PermitQueue permits;
+    private final AtomicInteger assigned = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean ejected;
+
+    /**
+     * @param name           the name of the node, used in logs.
+     * @param executor       the executor running containers on the node's
+     *                       daemon.
+     * @param maxConcurrency the maximum number of concurrent runs on the node.
+     * @param maxQueueSize   the maximum number of asynchronous runs waiting for
+     *                       a permit of the node.
+     */
+    public DockerNode(String name, DockerProcessExecutor executor, int maxConcurrency, int maxQueueSize) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be >= 1");
+        }
+        this.name = name;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new PermitQueue(new Semaphore(maxConcurrency, true), maxQueueSize);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public DockerProcessExecutor executor() {
+        return executor;
+    }
+
+    /**
+     * @return the permits limiting concurrent runs on the node.
+     */
+    public PermitQueue permits() {
+        return permits;
+    }
+
+    /**
+     * @return the runs assigned to the node, running or waiting for a permit,
+     *         per permit of the node.
+     */
+    public double load() {
+        return (double) assigned.get() / maxConcurrency;
+    }
+
+    /**
+     * @return whether the node is ejected from routing.
+     */
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    void assign() {
+        assigned.incrementAndGet();
+    }
+
+    void unassign() {
+        assigned.decrementAndGet();
+    }
+
+    /**
+     * Records a successful run or health check and readmits the node.
+     *
+     * @return whether the node was ejected before.
+     */
+    boolean recordSuccess() {
+        consecutiveFailures.set(0);
+        boolean wasEjected = ejected;
+        ejected = false;
+        return wasEjected;
+    }
+
+    /**
+     * Records a failed run or health check and ejects the node once the
+     * failures reach the threshold.
+     *
+     * @param threshold the number of consecutive failures that eject the node.
+     * @return whether this failure ejected the node.
+     */
+    boolean recordFailure(int threshold) {
+        if (consecutiveFailures.incrementAndGet() < threshold || ejected) {
+            return false;
+        }
+        ejected = true;
+        return true;
+    }
+}
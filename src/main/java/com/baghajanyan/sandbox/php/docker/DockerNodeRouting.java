@@ -0,0 +1,19 @@
+package com.baghajanyan.sandbox.php.docker;
+
+/**
+ * How a {@link MultiNodeDockerProcessExecutor} picks the Docker node of a run.
+ */
+public enum DockerNodeRouting {
+    /**
+     * The healthy node with the fewest assigned runs per permit.
+     */
+    LEAST_LOADED,
+
+    /**
+     * The healthy node the run's source hashes to on a consistent hash ring, so
+     * identical snippets land on the same node and nodes joining or leaving
+     * only move a share of the snippets. Runs of script files fall back to the
+     * least loaded node.
+     */
+    CONSISTENT_HASH
+}
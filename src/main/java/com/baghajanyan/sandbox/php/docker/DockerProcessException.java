@@ -21,6 +21,10 @@ public class DockerProcessException extends RuntimeException {
         public DockerProcessThreadException(String message, Throwable cause) {
             super(message, cause);
         }
+
+        public DockerProcessThreadException(String message) {
+            super(message);
+        }
     }
 
     public DockerProcessException(String message, Throwable cause) {
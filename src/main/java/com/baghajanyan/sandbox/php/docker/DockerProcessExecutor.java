@@ -1,15 +1,24 @@
 package com.baghajanyan.sandbox.php.docker;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.baghajanyan.sandbox.php.config.CodeDelivery;
 import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.config.OutputLimitAction;
 import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
 import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
 
@@ -19,94 +28,471 @@ import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTi
  * This class is responsible for creating and running a Docker process with
  * specified resource limits and execution timeouts. It uses a
  * {@link DockerConfig} object to configure the container.
+ *
+ * Containers are created with the configuration of each run, so runs may
+ * use resource limits of their own.
+ *
+ * The script timeout of a run is enforced inside the container, on the PHP
+ * process. The Docker process itself is given the container startup timeout
+ * on top of it, so a slow container start is not charged to the script.
+ * Destroying the local {@code docker} client does not stop its container, so
+ * the container of a run that times out is killed explicitly. Containers are
+ * named per run and labelled, so a {@link DockerContainerReaper} can remove
+ * any that are left behind.
+ *
+ * The {@code docker} CLI talks to the local daemon unless an endpoint is
+ * given: a {@code DOCKER_HOST} URI such as {@code tcp://10.0.0.2:2376}, or the
+ * name of a Docker context.
+ *
+ * Output is captured up to the output limit of each run and can be passed on
+ * to the {@link OutputListener} of the run while the script is writing it.
+ * With {@link OutputLimitAction#KILL}, a run that exceeds the limit has its
+ * container killed instead of only losing the excess output.
  */
 public class DockerProcessExecutor {
     private static final Logger logger = LoggerFactory.getLogger(DockerProcessExecutor.class);
+    private static final String CONTAINER_PREFIX = "sandbox-php-";
+
+    /**
+     * Exit code of a run whose container was killed.
+     */
+    protected static final int KILLED_EXIT_CODE = 137;
     private final DockerConfig dockerConfig;
+    private final String endpoint;
 
     public DockerProcessExecutor(DockerConfig dockerConfig) {
+        this(dockerConfig, null);
+    }
+
+    /**
+     * @param dockerConfig the Docker configuration containers are created with.
+     * @param endpoint     the Docker daemon to run containers on: a
+     *                     {@code DOCKER_HOST} URI or a Docker context name, or
+     *                     {@code null} for the daemon the CLI uses by default.
+     */
+    public DockerProcessExecutor(DockerConfig dockerConfig, String endpoint) {
         this.dockerConfig = dockerConfig;
+        this.endpoint = endpoint;
     }
 
     /**
      * Executes the script from a temporary file in a Docker container.
      *
      * @param tmpFile the temporary file containing the script to execute.
-     * @return the completed {@link Process} object.
+     * @return the completed execution with its captured output.
+     * @throws DockerProcessThreadException  if the Docker process fails to start or
+     *                                       is interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    public DockerExecution execute(Path tmpFile) throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return executeScript(DockerRunRequest.of(tmpFile, dockerConfig));
+    }
+
+    /**
+     * Executes the described script run in a Docker container.
+     *
+     * @param request the script, arguments and limits of the run.
+     * @return the completed execution with its captured output.
+     * @throws DockerProcessThreadException  if the Docker process fails to start or
+     *                                       is interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    public DockerExecution executeScript(DockerRunRequest request)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        String containerName = newContainerName();
+        return run(create(request, containerName), request, () -> kill(containerName));
+    }
+
+    /**
+     * Executes the script from a temporary file in a Docker container without
+     * blocking the calling thread.
+     *
+     * The returned future completes when the process exits, or exceptionally
+     * with a {@link DockerProcessTimeoutException} or
+     * {@link DockerProcessThreadException}. Cancelling the future kills the
+     * container.
+     *
+     * @param tmpFile the temporary file containing the script to execute.
+     * @return a future of the completed execution with its captured output.
+     */
+    public CompletableFuture<DockerExecution> executeAsync(Path tmpFile) {
+        return executeScriptAsync(DockerRunRequest.of(tmpFile, dockerConfig));
+    }
+
+    /**
+     * Executes the described script run in a Docker container without blocking
+     * the calling thread.
+     *
+     * @param request the script, arguments and limits of the run.
+     * @return a future of the completed execution with its captured output.
+     * @see #executeAsync(Path)
+     */
+    public CompletableFuture<DockerExecution> executeScriptAsync(DockerRunRequest request) {
+        String containerName = newContainerName();
+        return start(create(request, containerName), request, () -> kill(containerName));
+    }
+
+    /**
+     * @return the Docker configuration containers are created with.
+     */
+    public DockerConfig dockerConfig() {
+        return dockerConfig;
+    }
+
+    /**
+     * @return the Docker daemon containers are run on, or {@code null} for the
+     *         default one.
+     */
+    public String endpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Checks that the Docker daemon answers.
+     *
+     * @param timeout the maximum time the check may take.
+     * @return whether the daemon answered within the timeout.
+     */
+    public boolean ping(Duration timeout) {
+        var builder = docker(List.of("docker", "version", "--format", "{{.Server.Version}}"));
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = null;
+        try {
+            process = builder.start();
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            logger.debug("Failed to ping Docker daemon {}", endpoint, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            return false;
+        }
+    }
+
+    /**
+     * @return whether single snippets should be passed as source with
+     *         {@link DockerRunRequest#ofSource(String, DockerConfig)} instead of
+     *         being written to temporary files.
+     */
+    public boolean pipesSource() {
+        return dockerConfig.codeDelivery() == CodeDelivery.STDIN;
+    }
+
+    /**
+     * @return the host directory snippet files must be written to for this
+     *         executor to run them in a warm container, or {@code null} if
+     *         they can be written anywhere.
+     */
+    public Path codeDirectory() {
+        return null;
+    }
+
+    /**
+     * @param request the run.
+     * @return whether the run's container limits are those of this executor's
+     *         configuration, so the run may use a container that was started
+     *         ahead of time.
+     */
+    protected boolean hasDefaultLimits(DockerRunRequest request) {
+        DockerConfig requested = request.dockerConfig();
+        return requested.maxMemoryMb() == dockerConfig.maxMemoryMb()
+                && requested.maxCpuUnits() == dockerConfig.maxCpuUnits();
+    }
+
+    /**
+     * Returns the time the Docker process of a run may take in total: the
+     * container startup timeout plus the script timeout of the run.
+     *
+     * @param request the run.
+     * @return the deadline of the Docker process, measured from its start.
+     */
+    protected Duration deadline(DockerRunRequest request) {
+        return request.dockerConfig().containerStartupTimeout().plus(request.timeout());
+    }
+
+    /**
+     * Starts the given Docker command and waits for it to finish within the
+     * {@link #deadline(DockerRunRequest) deadline} of the run. Standard output and error are drained while the process
+     * runs, so it never blocks on a full pipe, and the request source, if any,
+     * is piped to its standard input.
+     *
+     * @param builder the process builder of the Docker command to run.
+     * @param request the run the command was created for.
+     * @return the completed execution with its captured output.
      * @throws DockerProcessThreadException  if the Docker process fails to start or
      *                                       is interrupted.
      * @throws DockerProcessTimeoutException if the execution times out.
      */
-    public Process execute(Path tmpFile) throws DockerProcessThreadException, DockerProcessTimeoutException {
+    protected DockerExecution run(ProcessBuilder builder, DockerRunRequest request)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return run(builder, request, () -> {
+        });
+    }
+
+    /**
+     * Runs the given Docker command like {@link #run(ProcessBuilder, DockerRunRequest)}.
+     * When the run times out, the process is destroyed and the given action
+     * stops the container. If the run exceeds its output limit and is
+     * configured to be killed for it, the same happens and the execution ends
+     * with exit code {@value #KILLED_EXIT_CODE}.
+     *
+     * @param builder the process builder of the Docker command to run.
+     * @param request the run the command was created for.
+     * @param kill    the action that stops the container.
+     * @return the completed execution with its captured output.
+     * @throws DockerProcessThreadException  if the Docker process fails to start or
+     *                                       is interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    protected DockerExecution run(ProcessBuilder builder, DockerRunRequest request, Runnable kill)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        Duration deadline = deadline(request);
+        Process process = null;
         try {
-            var builder = create(tmpFile);
-            var process = builder.start();
-            boolean finished = process.waitFor(dockerConfig.executionTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            process = builder.start();
+            var limit = new OutputLimit(request, process, kill);
+            var output = ProcessOutputCollector.start(process, request.maxOutputBytes(), request.outputListener(),
+                    limit.action());
+            pipeSource(process, request.source());
+            boolean finished = process.waitFor(deadline.toMillis(), TimeUnit.MILLISECONDS);
 
             if (!finished) {
                 process.destroyForcibly();
-                logger.warn("Docker process timed out after {} seconds",
-                        dockerConfig.executionTimeout().toSeconds());
-                throw new DockerProcessTimeoutException(
-                        "Execution timed out after " + dockerConfig.executionTimeout().toSeconds() + " seconds");
+                kill.run();
+                logger.warn("Docker process timed out after {}ms", deadline.toMillis());
+                throw new DockerProcessTimeoutException(timeoutMessage(request));
             }
-            return process;
+            output.await();
+            return limit.execution(output);
         } catch (IOException | InterruptedException e) {
             if (e instanceof InterruptedException) {
                 Thread.currentThread().interrupt();
+                if (process != null) {
+                    // destroying the client alone leaves its container running
+                    process.destroyForcibly();
+                    kill.run();
+                }
             }
             logger.error("Failed to execute Docker process", e);
             throw new DockerProcessThreadException("Failed to execute Docker process", e);
         }
     }
 
-    private ProcessBuilder create(Path tmpFile) {
+    /**
+     * Starts the given Docker command and returns a future completed when the
+     * process exits and its output is drained, or when the
+     * {@link #deadline(DockerRunRequest) deadline} of the run elapses.
+     *
+     * @param builder  the process builder of the Docker command to run.
+     * @param request  the run the command was created for.
+     * @param onCancel the action that stops the container when the returned
+     *                 future is cancelled, when the run times out or fails, or
+     *                 when the run is killed for exceeding its output limit.
+     * @return a future of the completed execution with its captured output.
+     */
+    protected CompletableFuture<DockerExecution> start(ProcessBuilder builder, DockerRunRequest request,
+            Runnable onCancel) {
+        Duration deadline = deadline(request);
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            logger.error("Failed to execute Docker process", e);
+            return CompletableFuture.failedFuture(new DockerProcessThreadException("Failed to execute Docker process", e));
+        }
+
+        var limit = new OutputLimit(request, process, onCancel);
+        var output = ProcessOutputCollector.start(process, request.maxOutputBytes(), request.outputListener(),
+                limit.action());
+        pipeSource(process, request.source());
+        var execution = new CompletableFuture<DockerExecution>();
+        process.onExit()
+                .thenCompose(exited -> output.completion())
+                .orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((ignored, error) -> {
+                    if (error == null) {
+                        execution.complete(limit.execution(output));
+                        return;
+                    }
+                    process.destroyForcibly();
+                    onCancel.run();
+                    if (error instanceof TimeoutException) {
+                        logger.warn("Docker process timed out after {}ms", deadline.toMillis());
+                        execution.completeExceptionally(new DockerProcessTimeoutException(timeoutMessage(request)));
+                    } else {
+                        logger.error("Failed to execute Docker process", error);
+                        execution.completeExceptionally(
+                                new DockerProcessThreadException("Failed to execute Docker process", error));
+                    }
+                });
+        execution.whenComplete((result, error) -> {
+            if (execution.isCancelled()) {
+                process.destroyForcibly();
+                onCancel.run();
+            }
+        });
+        return execution;
+    }
+
+    /**
+     * @param request the run that timed out.
+     * @return the message of the timeout exception of the run.
+     */
+    protected String timeoutMessage(DockerRunRequest request) {
+        return "Execution timed out after " + deadline(request).toMillis() + "ms (container startup timeout "
+                + request.dockerConfig().containerStartupTimeout().toMillis() + "ms, script timeout "
+                + request.timeout().toMillis() + "ms)";
+    }
+
+    /**
+     * Kills the named container. Killing the local {@code docker} client alone
+     * does not stop the container it started.
+     *
+     * @param containerName the name of the container to kill.
+     */
+    protected void kill(String containerName) {
+        var builder = docker(List.of("docker", "kill", containerName));
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            builder.start();
+        } catch (IOException e) {
+            logger.warn("Failed to kill container {}", containerName, e);
+        }
+    }
+
+    /**
+     * Returns the execution of a run that was killed for exceeding its output
+     * limit, with a note on standard error.
+     *
+     * @param process     the Docker process of the run, or {@code null}.
+     * @param stdout      the captured standard output.
+     * @param stderr      the captured standard error.
+     * @param outputBytes the number of bytes written to both streams.
+     * @param request     the run.
+     * @return the execution, with exit code {@value #KILLED_EXIT_CODE}.
+     */
+    protected static DockerExecution killedForOutput(Process process, String stdout, String stderr, long outputBytes,
+            DockerRunRequest request) {
+        String note = "Container killed: output exceeded the " + request.maxOutputBytes() + " byte limit";
+        return new DockerExecution(process, KILLED_EXIT_CODE, stdout, stderr.isEmpty() ? note : stderr + "\n" + note,
+                outputBytes, true);
+    }
+
+    /**
+     * @param request the run.
+     * @return whether the run is killed when it exceeds its output limit.
+     */
+    protected static boolean killsOnOutputLimit(DockerRunRequest request) {
+        return request.dockerConfig().outputLimitAction() == OutputLimitAction.KILL;
+    }
+
+    /**
+     * Writes the source to the standard input of the process on a virtual
+     * thread, so a snippet larger than the pipe buffer cannot block the caller.
+     * A failed write is not an error of its own: the interpreter then exits
+     * with an error that is reported through the execution result.
+     */
+    private static void pipeSource(Process process, String source) {
+        if (source == null) {
+            return;
+        }
+        Thread.ofVirtual().name("php-sandbox-stdin").start(() -> {
+            try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write(source.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.debug("Failed to write snippet source to the Docker process", e);
+            }
+        });
+    }
+
+    /**
+     * Creates the process builder of a {@code docker} CLI command that talks to
+     * the endpoint of this executor.
+     *
+     * @param command the command, starting with {@code docker}.
+     * @return the process builder.
+     */
+    protected ProcessBuilder docker(List<String> command) {
+        var builder = new ProcessBuilder(command);
+        if (endpoint != null) {
+            builder.environment().put(endpoint.contains("://") ? "DOCKER_HOST" : "DOCKER_CONTEXT", endpoint);
+        }
+        return builder;
+    }
+
+    private static String newContainerName() {
+        return CONTAINER_PREFIX + UUID.randomUUID();
+    }
+
+    private ProcessBuilder create(DockerRunRequest request, String containerName) {
+        DockerConfig dockerConfig = request.dockerConfig();
+        Path script = request.script();
         List<String> command = new ArrayList<>();
         command.add("docker");
         command.add("run");
         command.add("--rm");
-
-        if (dockerConfig.securityHardening()) {
-            if (!dockerConfig.allowNetwork()) {
-                command.add("--network=none");
-            }
-            if (dockerConfig.readOnly()) {
-                command.add("--read-only");
-                command.add("--tmpfs");
-                command.add("/tmp:rw,noexec,nosuid,size=" + dockerConfig.tmpfsSize());
-            }
-            if (dockerConfig.pidsLimit() > 0) {
-                command.add("--pids-limit=" + dockerConfig.pidsLimit());
-            }
-            if (dockerConfig.dropCapabilities()) {
-                command.add("--cap-drop=ALL");
-            }
-            if (dockerConfig.noNewPrivileges()) {
-                command.add("--security-opt");
-                command.add("no-new-privileges");
-            }
+        command.add("--name");
+        command.add(containerName);
+        if (script == null) {
+            command.add("-i");
         }
-        if (!dockerConfig.runAsUser().isBlank()) {
-            command.add("--user");
-            command.add(dockerConfig.runAsUser());
+        command.addAll(DockerCommands.runLabels());
+        command.addAll(DockerCommands.containerOptions(dockerConfig));
+        if (script != null) {
+            command.addAll(DockerCommands.codeVolume(dockerConfig, script.getParent().toString()));
         }
+        command.add(dockerConfig.dockerImage());
+        command.addAll(DockerCommands.phpCommand(dockerConfig,
+                script != null ? script.getFileName().toString() : null, request.arguments(), request.timeout()));
 
-        command.add("-m");
-        command.add(dockerConfig.maxMemoryMb() + "m");
-        command.add("--cpus=" + dockerConfig.maxCpuUnits());
+        return docker(command);
+    }
 
-        String volumeSuffix = dockerConfig.securityHardening() && dockerConfig.readOnly() ? ":ro" : "";
-        command.add("-v");
-        command.add(tmpFile.getParent() + ":/code" + volumeSuffix);
+    /**
+     * Kills the container of a run, at most once, when its output exceeds the
+     * limit and the run is configured to be killed for it.
+     */
+    private static final class OutputLimit {
+        private final DockerRunRequest request;
+        private final Process process;
+        private final Runnable kill;
+        private final AtomicBoolean exceeded = new AtomicBoolean();
 
-        command.add(dockerConfig.dockerImage());
-        command.add("php");
-        command.add("-d");
-        command.add("display_errors=stderr");
-        command.add("-d");
-        command.add("error_reporting=E_ALL");
-        command.add("/code/" + tmpFile.getFileName());
-
-        return new ProcessBuilder(command);
+        OutputLimit(DockerRunRequest request, Process process, Runnable kill) {
+            this.request = request;
+            this.process = process;
+            this.kill = kill;
+        }
+
+        /**
+         * @return the action run when a stream exceeds the limit, or
+         *         {@code null} if the output is only truncated.
+         */
+        Runnable action() {
+            return killsOnOutputLimit(request) ? this::exceeded : null;
+        }
+
+        DockerExecution execution(ProcessOutputCollector output) {
+            return exceeded.get()
+                    ? killedForOutput(process, output.stdout(), output.stderr(), output.outputBytes(), request)
+                    : new DockerExecution(process, process.exitValue(), output.stdout(), output.stderr(),
+                            output.outputBytes(), false);
+        }
+
+        private void exceeded() {
+            if (exceeded.compareAndSet(false, true)) {
+                logger.warn("Docker process exceeded the output limit of {} bytes, killing it",
+                        request.maxOutputBytes());
+                process.destroyForcibly();
+                kill.run();
+            }
+        }
     }
 }
@@ -0,0 +1,90 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+
+/**
+ * Describes a single script run in a Docker container.
+ *
+ * Exactly one of {@code script} and {@code source} is set: a script file is
+ * mounted into the container, while source is piped to the PHP interpreter's
+ * standard input without any file or mount.
+ *
+ * @param dockerConfig   the configuration the container is created with,
+ *                       which may differ from the executor's in its resource
+ *                       limits.
+ * @param script         the script file to run; it is mounted into the
+ *                       container together with its sibling files.
+ * @param source         the PHP source to pipe to the interpreter.
+ * @param arguments      the arguments passed to the script.
+ * @param timeout        the maximum time the run may take.
+ * @param maxOutputBytes the maximum number of bytes captured per output
+ *                       stream.
+ * @param outputListener the listener the output is passed on to while the
+ *                       script runs.
+ */
+public record DockerRunRequest(DockerConfig dockerConfig, Path script, String source, List<String> arguments,
+        Duration timeout, int maxOutputBytes, OutputListener outputListener) {
+    public DockerRunRequest {
+        if (dockerConfig == null) {
+            throw new IllegalArgumentException("dockerConfig must not be null");
+        }
+        if ((script == null) == (source == null)) {
+            throw new IllegalArgumentException("exactly one of script and source must be set");
+        }
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be a positive duration");
+        }
+        arguments = List.copyOf(arguments);
+        if (outputListener == null) {
+            outputListener = OutputListener.NONE;
+        }
+    }
+
+    /**
+     * Creates a request for the given script without arguments, to run in a
+     * container created with the given configuration and with its timeout and
+     * output limit.
+     *
+     * @param script       the script file to run.
+     * @param dockerConfig the Docker configuration of the run.
+     * @return the request.
+     */
+    public static DockerRunRequest of(Path script, DockerConfig dockerConfig) {
+        return new DockerRunRequest(dockerConfig, script, null, List.of(), dockerConfig.executionTimeout(),
+                dockerConfig.maxOutputBytes(), OutputListener.NONE);
+    }
+
+    /**
+     * Creates a request piping the given source to the interpreter, to run in
+     * a container created with the given configuration and with its timeout
+     * and output limit.
+     *
+     * @param source       the PHP source to run.
+     * @param dockerConfig the Docker configuration of the run.
+     * @return the request.
+     */
+    public static DockerRunRequest ofSource(String source, DockerConfig dockerConfig) {
+        return new DockerRunRequest(dockerConfig, null, source, List.of(), dockerConfig.executionTimeout(),
+                dockerConfig.maxOutputBytes(), OutputListener.NONE);
+    }
+
+    public DockerRunRequest withArguments(List<String> arguments) {
+        return new DockerRunRequest(dockerConfig, script, source, arguments, timeout, maxOutputBytes, outputListener);
+    }
+
+    public DockerRunRequest withTimeout(Duration timeout) {
+        return new DockerRunRequest(dockerConfig, script, source, arguments, timeout, maxOutputBytes, outputListener);
+    }
+
+    public DockerRunRequest withMaxOutputBytes(int maxOutputBytes) {
+        return new DockerRunRequest(dockerConfig, script, source, arguments, timeout, maxOutputBytes, outputListener);
+    }
+
+    public DockerRunRequest withOutputListener(OutputListener outputListener) {
+        return new DockerRunRequest(dockerConfig, script, source, arguments, timeout, maxOutputBytes, outputListener);
+    }
+}
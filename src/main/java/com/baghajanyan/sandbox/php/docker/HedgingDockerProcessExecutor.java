@@ -0,0 +1,452 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * Hedges script runs against slow container starts.
+ *
+ * A run that has not started after the hedge delay is run a second time, and
+ * the result of whichever attempt finishes first is taken. The other attempt
+ * is then cancelled, which kills its container. The hedge delay is a
+ * percentile, by default the 95th, of the time runs took to start, over a
+ * window of recent runs, clamped to a minimum and a maximum. No run is hedged
+ * until enough runs were observed.
+ *
+ * The {@code docker} CLI does not report when the script starts, so a run
+ * counts as started with its first standard output, or when its standard
+ * error starts with the line {@value #START_MARKER}. The prepared code of
+ * {@code PhpCodeExecutor} writes that line before the snippet runs, so silent
+ * snippets are not hedged. Runs that finish without either do not count as
+ * started, and their start time is not recorded.
+ *
+ * Hedges are limited to a budget of the runs: every run earns a fraction of a
+ * hedge, and a hedge is only launched while a whole one is available. Unused
+ * budget accumulates up to a small burst, so a quiet period cannot be spent
+ * at once on a flood of hedges when the daemon is slow for everyone.
+ *
+ * The hedge timer only hands a hedge off: the second attempt is launched on a
+ * virtual thread of its own, since launching it may block, e.g. while a pool
+ * or worker delegate waits for a free container, and would hold back every
+ * other pending hedge on the timer thread.
+ *
+ * The output of a run is passed on to its {@link OutputListener} from the
+ * attempt that writes output first. Output cannot be taken back, so once an
+ * attempt of a run with a listener writes output, the other attempt is
+ * cancelled right away.
+ */
+public class HedgingDockerProcessExecutor extends DockerProcessExecutor implements AutoCloseable {
+
+    /**
+     * The marker a script writes on a line of its own to standard error
+     * before anything else to report that it started.
+     */
+    public static final String START_MARKER = "__EXECUTION_STARTED__";
+
+    private static final Logger logger = LoggerFactory.getLogger(HedgingDockerProcessExecutor.class);
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_INTERVAL = 16;
+    private static final double MAX_BUDGET_BURST = 10;
+    private static final byte[] START_LINE = (START_MARKER + "\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final DockerProcessExecutor delegate;
+    private final double budget;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final long[] samples;
+    private final ScheduledExecutorService timer;
+    private final Executor launcher;
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private int sampleCount;
+    private int nextSample;
+    private int sinceRecompute;
+    private double credit;
+    private volatile long delayNanos = -1;
+
+    /**
+     * @param delegate      the executor attempts are run with.
+     * @param budgetPercent the maximum share of runs that are hedged, in
+     *                      percent.
+     * @param percentile    the percentile of the start times of recent runs
+     *                      a run is hedged after, between 0 and 1.
+     * @param minDelay      the minimum hedge delay.
+     * @param maxDelay      the maximum hedge delay.
+     * @param window        the number of recent runs the hedge delay is
+     *                      computed from.
+     */
+    public HedgingDockerProcessExecutor(DockerProcessExecutor delegate, double budgetPercent, double percentile,
+            Duration minDelay, Duration maxDelay, int window) {
+        this(delegate, budgetPercent, percentile, minDelay, maxDelay, window,
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "php-sandbox-hedging");
+                    thread.setDaemon(true);
+                    return thread;
+                }), runnable -> Thread.ofVirtual().name("php-sandbox-hedge").start(runnable));
+    }
+
+    // package-private for the tests, which fire the hedge timers and run the hedge launches themselves
+    HedgingDockerProcessExecutor(DockerProcessExecutor delegate, double budgetPercent, double percentile,
+            Duration minDelay, Duration maxDelay, int window, ScheduledExecutorService timer, Executor launcher) {
+        super(delegate.dockerConfig(), delegate.endpoint());
+        if (budgetPercent < 0 || budgetPercent > 100) {
+            throw new IllegalArgumentException("budgetPercent must be between 0 and 100");
+        }
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+        if (minDelay.isNegative() || maxDelay.compareTo(minDelay) < 0) {
+            throw new IllegalArgumentException("minDelay must be >= 0 and maxDelay must be >= minDelay");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be >= 1");
+        }
+        this.delegate = delegate;
+        this.budget = budgetPercent / 100;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.samples = new long[window];
+        this.timer = timer;
+        this.launcher = launcher;
+    }
+
+    /**
+     * @return the executor attempts are run with.
+     */
+    public DockerProcessExecutor delegate() {
+        return delegate;
+    }
+
+    @Override
+    public Path codeDirectory() {
+        return delegate.codeDirectory();
+    }
+
+    /**
+     * @return the current hedge delay, or {@code null} while too few runs were
+     *         observed to hedge.
+     */
+    public Duration hedgeDelay() {
+        long delay = delayNanos;
+        return delay < 0 ? null : Duration.ofNanos(delay);
+    }
+
+    /**
+     * @return the number of runs.
+     */
+    public long runs() {
+        return runs.get();
+    }
+
+    /**
+     * @return the number of runs that were hedged.
+     */
+    public long hedges() {
+        return hedges.get();
+    }
+
+    /**
+     * @return the number of hedged runs whose second attempt finished first.
+     */
+    public long hedgeWins() {
+        return hedgeWins.get();
+    }
+
+    @Override
+    public DockerExecution executeScript(DockerRunRequest request)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var execution = executeScriptAsync(request);
+        try {
+            return execution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            execution.cancel(true);
+            throw new DockerProcessThreadException("Interrupted while waiting for the Docker process", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DockerProcessException dockerProcessException) {
+                throw dockerProcessException;
+            }
+            throw new DockerProcessThreadException("Failed to execute Docker process", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<DockerExecution> executeScriptAsync(DockerRunRequest request) {
+        runs.incrementAndGet();
+        synchronized (this) {
+            credit = Math.min(credit + budget, MAX_BUDGET_BURST);
+        }
+        var run = new HedgedRun(request);
+        run.launch();
+        long delay = delayNanos;
+        if (delay >= 0 && budget > 0) {
+            run.schedule(timer.schedule(run::hedge, delay, TimeUnit.NANOSECONDS));
+        }
+        return run.result;
+    }
+
+    @Override
+    public void close() throws Exception {
+        timer.shutdownNow();
+        if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    /**
+     * Takes a whole hedge from the budget if one is available.
+     */
+    private synchronized boolean takeHedge() {
+        if (credit < 1) {
+            return false;
+        }
+        credit--;
+        return true;
+    }
+
+    /**
+     * Records the time an attempt took to start and recomputes the hedge delay
+     * every few samples.
+     */
+    private synchronized void recordStart(long nanos) {
+        samples[nextSample] = nanos;
+        nextSample = (nextSample + 1) % samples.length;
+        sampleCount = Math.min(sampleCount + 1, samples.length);
+        if (sampleCount < Math.min(MIN_SAMPLES, samples.length)
+                || delayNanos >= 0 && ++sinceRecompute < RECOMPUTE_INTERVAL) {
+            return;
+        }
+        sinceRecompute = 0;
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        long value = sorted[Math.min((int) Math.ceil(percentile * sampleCount) - 1, sampleCount - 1)];
+        delayNanos = Math.clamp(value, minDelayNanos, maxDelayNanos);
+    }
+
+    /**
+     * The attempts of a single run.
+     */
+    private final class HedgedRun {
+        private final DockerRunRequest request;
+        private final CompletableFuture<DockerExecution> result = new CompletableFuture<>();
+        private final List<CompletableFuture<DockerExecution>> attempts = new ArrayList<>(2);
+        private final AtomicInteger owner = new AtomicInteger(-1);
+        private final AtomicBoolean started = new AtomicBoolean();
+        private ScheduledFuture<?> hedgeTimer;
+
+        HedgedRun(DockerRunRequest request) {
+            this.request = request;
+            result.whenComplete((r, error) -> {
+                if (result.isCancelled()) {
+                    cancelAttempts(-1);
+                }
+            });
+        }
+
+        synchronized void schedule(ScheduledFuture<?> hedgeTimer) {
+            if (started.get() || owner.get() != -1 || result.isDone()) {
+                hedgeTimer.cancel(false);
+            } else {
+                this.hedgeTimer = hedgeTimer;
+            }
+        }
+
+        void hedge() {
+            synchronized (this) {
+                if (started.get() || owner.get() != -1 || result.isDone() || attempts.size() > 1
+                        || !takeHedge()) {
+                    return;
+                }
+            }
+            hedges.incrementAndGet();
+            logger.debug("Docker run has not started after {}ms, hedging it", hedgeDelay().toMillis());
+            launcher.execute(this::launch);
+        }
+
+        void launch() {
+            int index;
+            long launched = System.nanoTime();
+            synchronized (this) {
+                index = attempts.size();
+                attempts.add(null);
+            }
+            CompletableFuture<DockerExecution> attempt;
+            try {
+                attempt = delegate.executeScriptAsync(
+                        request.withOutputListener(new AttemptListener(index, launched)));
+            } catch (RuntimeException e) {
+                attempt = CompletableFuture.failedFuture(e);
+            }
+            synchronized (this) {
+                attempts.set(index, attempt);
+                if (result.isDone()) {
+                    attempt.cancel(true);
+                    return;
+                }
+            }
+            var current = attempt;
+            attempt.whenComplete((execution, error) -> onAttemptDone(index, current, execution, error));
+        }
+
+        private void onAttemptDone(int index, CompletableFuture<DockerExecution> attempt, DockerExecution execution,
+                Throwable error) {
+            if (attempt.isCancelled()) {
+                return;
+            }
+            if (error == null) {
+                owner.compareAndSet(-1, index);
+                if (result.complete(execution)) {
+                    if (index > 0) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    cancelAttempts(index);
+                }
+                return;
+            }
+            synchronized (this) {
+                for (var other : attempts) {
+                    if (other != attempt && (other == null || !other.isDone())) {
+                        // the other attempt may still finish
+                        return;
+                    }
+                }
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                    : error;
+            result.completeExceptionally(cause);
+        }
+
+        /**
+         * Records the time the attempt took to start, if it is the first to
+         * start, and stops the run from being hedged.
+         */
+        private void onStart(long launched) {
+            if (result.isCancelled() || !started.compareAndSet(false, true)) {
+                return;
+            }
+            recordStart(System.nanoTime() - launched);
+            synchronized (this) {
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                }
+            }
+        }
+
+        /**
+         * Makes the attempt the one whose output is passed on, if no attempt
+         * is yet. A run with a listener commits to that attempt.
+         *
+         * @return whether the output of the attempt is passed on.
+         */
+        private boolean claim(int index) {
+            if (owner.get() == -1 && owner.compareAndSet(-1, index)
+                    && request.outputListener() != OutputListener.NONE) {
+                cancelAttempts(index);
+            }
+            return owner.get() == index;
+        }
+
+        private void cancelAttempts(int winner) {
+            List<CompletableFuture<DockerExecution>> others;
+            synchronized (this) {
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                }
+                others = new ArrayList<>(attempts);
+            }
+            for (int i = 0; i < others.size(); i++) {
+                var other = others.get(i);
+                if (i != winner && other != null) {
+                    other.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * Marks the attempt as started with its first standard output or its
+         * start marker, and passes its output on if it is the attempt that
+         * wrote output first.
+         */
+        private final class AttemptListener implements OutputListener {
+            private final int index;
+            private final long launched;
+            // the number of bytes of the start line matched at the start of stderr, or -1
+            private int startMatched;
+
+            AttemptListener(int index, long launched) {
+                this.index = index;
+                this.launched = launched;
+            }
+
+            @Override
+            public void onStdout(ByteBuffer chunk) {
+                onStart(launched);
+                if (claim(index)) {
+                    request.outputListener().onStdout(chunk);
+                }
+            }
+
+            @Override
+            public void onStderr(ByteBuffer chunk) {
+                if (startMatched >= 0 && endsStartLine(chunk)) {
+                    onStart(launched);
+                }
+                if (claim(index)) {
+                    request.outputListener().onStderr(chunk);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                if (claim(index)) {
+                    request.outputListener().onComplete();
+                }
+            }
+
+            /**
+             * Matches the chunk against the rest of the start line, without
+             * consuming it.
+             *
+             * @return whether the chunk completes the start line.
+             */
+            private boolean endsStartLine(ByteBuffer chunk) {
+                for (int i = chunk.position(); i < chunk.limit(); i++) {
+                    if (chunk.get(i) != START_LINE[startMatched]) {
+                        startMatched = -1;
+                        return false;
+                    }
+                    if (++startMatched == START_LINE.length) {
+                        startMatched = -1;
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+    }
+}
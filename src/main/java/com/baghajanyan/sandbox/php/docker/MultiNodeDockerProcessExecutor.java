@@ -0,0 +1,340 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * Distributes script runs across several Docker daemons.
+ *
+ * Each run is routed to a {@link DockerNode} by the configured
+ * {@link DockerNodeRouting} and holds one of the node's permits while it runs.
+ * When the container cannot be created on a node, because the daemon is
+ * unreachable or rejects the container, the run is retried on another node up
+ * to a maximum number of attempts. Timeouts and failures of the script itself
+ * are not retried.
+ *
+ * Nodes are ejected from routing after a number of consecutive failures and
+ * health-checked periodically, and a node is readmitted once its daemon
+ * answers again. If every node is ejected, runs are still routed to them
+ * rather than failed outright.
+ *
+ * Remote daemons cannot see local snippet files, so remote nodes need
+ * {@code stdin} code delivery.
+ */
+public class MultiNodeDockerProcessExecutor extends DockerProcessExecutor implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MultiNodeDockerProcessExecutor.class);
+    private static final Duration PING_TIMEOUT = Duration.ofSeconds(5);
+    private static final int RING_POINTS_PER_NODE = 128;
+    private static final int DOCKER_RUN_FAILURE_EXIT_CODE = 125;
+
+    private final List<DockerNode> nodes;
+    private final DockerNodeRouting routing;
+    private final int maxAttempts;
+    private final int failureThreshold;
+    private final Duration healthCheckInterval;
+    private final int[] ringHashes;
+    private final DockerNode[] ringNodes;
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * @param dockerConfig        the Docker configuration containers are
+     *                            created with.
+     * @param nodes               the nodes to distribute runs across.
+     * @param routing             how the node of a run is picked.
+     * @param maxAttempts         the maximum number of nodes a run is tried on.
+     * @param failureThreshold    the number of consecutive failures that eject
+     *                            a node.
+     * @param healthCheckInterval the time between health checks of the nodes.
+     */
+    public MultiNodeDockerProcessExecutor(DockerConfig dockerConfig, List<DockerNode> nodes,
+            DockerNodeRouting routing, int maxAttempts, int failureThreshold, Duration healthCheckInterval) {
+        super(dockerConfig);
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("at least one node must be configured");
+        }
+        if (maxAttempts < 1 || failureThreshold < 1) {
+            throw new IllegalArgumentException("maxAttempts and failureThreshold must be >= 1");
+        }
+        this.nodes = List.copyOf(nodes);
+        this.routing = routing;
+        this.maxAttempts = maxAttempts;
+        this.failureThreshold = failureThreshold;
+        this.healthCheckInterval = healthCheckInterval;
+        this.ringHashes = new int[this.nodes.size() * RING_POINTS_PER_NODE];
+        this.ringNodes = new DockerNode[ringHashes.length];
+        buildRing();
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "php-sandbox-nodes");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the health checks of the nodes.
+     */
+    public void start() {
+        long interval = healthCheckInterval.toMillis();
+        maintenance.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the nodes runs are distributed across.
+     */
+    public List<DockerNode> nodes() {
+        return nodes;
+    }
+
+    @Override
+    public DockerExecution executeScript(DockerRunRequest request)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        List<DockerNode> tried = new ArrayList<>(maxAttempts);
+        DockerExecution failedExecution = null;
+        DockerProcessThreadException failure = null;
+        DockerNode node;
+        while (tried.size() < maxAttempts && (node = select(request, tried)) != null) {
+            tried.add(node);
+            node.assign();
+            try {
+                node.permits().acquire();
+            } catch (InterruptedException e) {
+                node.unassign();
+                Thread.currentThread().interrupt();
+                throw new DockerProcessThreadException("Interrupted while waiting for Docker node " + node.name(), e);
+            }
+            try {
+                var execution = node.executor().executeScript(request);
+                if (!isCreateFailure(execution)) {
+                    recordSuccess(node);
+                    return execution;
+                }
+                logger.warn("Docker node {} failed to create a container: {}", node.name(), execution.stderr().trim());
+                recordFailure(node);
+                failedExecution = execution;
+                failure = null;
+            } catch (DockerProcessThreadException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                logger.warn("Docker node {} failed to run a container", node.name(), e);
+                recordFailure(node);
+                failedExecution = null;
+                failure = e;
+            } finally {
+                node.permits().release();
+                node.unassign();
+            }
+        }
+        if (failedExecution != null) {
+            return failedExecution;
+        }
+        throw failure != null ? failure : new DockerProcessThreadException("No Docker node available");
+    }
+
+    @Override
+    public CompletableFuture<DockerExecution> executeScriptAsync(DockerRunRequest request) {
+        var result = new CompletableFuture<DockerExecution>();
+        attemptAsync(request, new ArrayList<>(maxAttempts), result);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+    }
+
+    /**
+     * Runs the request on the next node, retrying on another one if the
+     * container cannot be created there.
+     */
+    private void attemptAsync(DockerRunRequest request, List<DockerNode> tried,
+            CompletableFuture<DockerExecution> result) {
+        var node = select(request, tried);
+        if (node == null) {
+            result.completeExceptionally(new DockerProcessThreadException("No Docker node available"));
+            return;
+        }
+        tried.add(node);
+        node.assign();
+        var permit = node.permits().acquireAsync();
+        result.whenComplete((r, error) -> {
+            if (result.isCancelled()) {
+                permit.cancel(false);
+            }
+        });
+        permit.whenComplete((granted, error) -> {
+            if (error != null) {
+                node.unassign();
+                if (!permit.isCancelled()) {
+                    retryOrFail(request, tried, result, null,
+                            new DockerProcessThreadException("Docker node " + node.name() + " is overloaded", error));
+                }
+                return;
+            }
+            if (result.isDone()) {
+                node.permits().release();
+                node.unassign();
+                return;
+            }
+            var execution = node.executor().executeScriptAsync(request);
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    execution.cancel(true);
+                }
+            });
+            execution.whenComplete((completed, e) -> {
+                node.permits().release();
+                node.unassign();
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause == null && !isCreateFailure(completed)) {
+                    recordSuccess(node);
+                    result.complete(completed);
+                } else if (cause == null) {
+                    logger.warn("Docker node {} failed to create a container: {}", node.name(),
+                            completed.stderr().trim());
+                    recordFailure(node);
+                    retryOrFail(request, tried, result, completed, null);
+                } else if (cause instanceof DockerProcessThreadException && !execution.isCancelled()) {
+                    logger.warn("Docker node {} failed to run a container", node.name(), cause);
+                    recordFailure(node);
+                    retryOrFail(request, tried, result, null, cause);
+                } else {
+                    result.completeExceptionally(cause);
+                }
+            });
+        });
+    }
+
+    private void retryOrFail(DockerRunRequest request, List<DockerNode> tried,
+            CompletableFuture<DockerExecution> result, DockerExecution failedExecution, Throwable failure) {
+        if (result.isDone()) {
+            return;
+        }
+        if (tried.size() < maxAttempts && select(request, tried) != null) {
+            attemptAsync(request, tried, result);
+        } else if (failedExecution != null) {
+            result.complete(failedExecution);
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * @return the node to run the request on next, or {@code null} if every
+     *         node was tried.
+     */
+    private DockerNode select(DockerRunRequest request, List<DockerNode> tried) {
+        boolean anyHealthy = nodes.stream().anyMatch(node -> !node.isEjected() && !tried.contains(node));
+        if (routing == DockerNodeRouting.CONSISTENT_HASH && request.source() != null) {
+            int start = ringIndex(hash(request.source()));
+            for (int i = 0; i < ringNodes.length; i++) {
+                var node = ringNodes[(start + i) % ringNodes.length];
+                if (!tried.contains(node) && (!anyHealthy || !node.isEjected())) {
+                    return node;
+                }
+            }
+            return null;
+        }
+        return nodes.stream()
+                .filter(node -> !tried.contains(node) && (!anyHealthy || !node.isEjected()))
+                .min(Comparator.comparingDouble(DockerNode::load))
+                .orElse(null);
+    }
+
+    private void recordSuccess(DockerNode node) {
+        if (node.recordSuccess()) {
+            logger.info("Docker node {} is healthy again, readmitting it", node.name());
+        }
+    }
+
+    private void recordFailure(DockerNode node) {
+        if (node.recordFailure(failureThreshold)) {
+            logger.warn("Docker node {} failed {} times in a row, ejecting it", node.name(), failureThreshold);
+        }
+    }
+
+    private void checkHealth() {
+        for (var node : nodes) {
+            try {
+                if (node.executor().ping(PING_TIMEOUT)) {
+                    recordSuccess(node);
+                } else {
+                    logger.warn("Docker node {} failed its health check", node.name());
+                    recordFailure(node);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Health check of Docker node {} failed", node.name(), e);
+            }
+        }
+    }
+
+    /**
+     * Whether {@code docker run} itself failed, e.g. because the daemon
+     * rejected the container. The CLI then exits with 125 and reports the
+     * error on standard error, before any script output.
+     */
+    private static boolean isCreateFailure(DockerExecution execution) {
+        return execution.exitCode() == DOCKER_RUN_FAILURE_EXIT_CODE && execution.stdout().isEmpty()
+                && execution.stderr().startsWith("docker:");
+    }
+
+    private void buildRing() {
+        long[] points = new long[ringHashes.length];
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int i = 0; i < RING_POINTS_PER_NODE; i++) {
+                int hash = hash(nodes.get(n).name() + "#" + i);
+                // sorts by hash, keeping the node index in the low bits
+                points[n * RING_POINTS_PER_NODE + i] = ((long) hash << 32) | n;
+            }
+        }
+        Arrays.sort(points);
+        for (int i = 0; i < points.length; i++) {
+            ringHashes[i] = (int) (points[i] >> 32);
+            ringNodes[i] = nodes.get((int) points[i]);
+        }
+    }
+
+    /**
+     * @return the index of the first ring point at or after the hash.
+     */
+    private int ringIndex(int hash) {
+        int index = Arrays.binarySearch(ringHashes, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index == ringHashes.length ? 0 : index;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so
+     * similar keys spread over the ring.
+     */
+    private static int hash(String key) {
+        int hash = 0x811c9dc5;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,42 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the output of a run while the script is still writing it, so
+ * callers can forward it incrementally instead of waiting for the result.
+ *
+ * Chunks are passed on the thread draining the stream, in the order they were
+ * written, and only up to the output limit of the run. A chunk is only valid
+ * during the call, so a listener that keeps it must copy it. A listener that
+ * blocks stops draining the stream, which holds back the script once the pipe
+ * buffer is full.
+ */
+public interface OutputListener {
+
+    /**
+     * A listener that ignores all output.
+     */
+    OutputListener NONE = new OutputListener() {
+    };
+
+    /**
+     * @param chunk the next bytes written to standard output.
+     */
+    default void onStdout(ByteBuffer chunk) {
+    }
+
+    /**
+     * @param chunk the next bytes written to standard error.
+     */
+    default void onStderr(ByteBuffer chunk) {
+    }
+
+    /**
+     * Called once after the last chunk, when the execution has finished,
+     * whatever its outcome. The outcome itself is reported through the
+     * execution result.
+     */
+    default void onComplete() {
+    }
+}
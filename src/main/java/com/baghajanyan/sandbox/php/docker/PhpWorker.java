@@ -0,0 +1,354 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * A long-lived PHP supervisor running in a hardened container, owned by a
+ * {@link PhpWorkerPool}.
+ *
+ * The supervisor reads length-framed snippets from the container's standard
+ * input and runs each in a forked child, so a snippet costs a fork instead of
+ * a container and an interpreter start. Results are read back as
+ * length-framed frames from the container's standard output:
+ *
+ * <pre>
+ * request: &lt;id&gt; &lt;timeout ms&gt; &lt;max output bytes&gt; &lt;source length&gt;\n&lt;source&gt;
+ * result:  __WORKER_RESULT__ &lt;id&gt; &lt;exit code&gt; &lt;time ms&gt; &lt;timed out 0|1&gt; &lt;stdout length&gt; &lt;stderr length&gt; &lt;stray 0|1&gt;\n&lt;stdout&gt;&lt;stderr&gt;
+ * </pre>
+ *
+ * A worker serves one snippet at a time. Request ids are random, so a snippet
+ * cannot forge the result of another run, and a result for any other id than
+ * the one in flight fails the run and destroys the worker. A worker whose
+ * snippet left a process behind exits after reporting it and must not be
+ * reused.
+ */
+final class PhpWorker {
+    private static final Logger logger = LoggerFactory.getLogger(PhpWorker.class);
+    private static final String SCRIPT_RESOURCE = "php-worker.php";
+    private static final String SCRIPT = loadScript();
+    private static final String READY_MARKER = "__WORKER_READY__";
+    private static final String RESULT_MARKER = "__WORKER_RESULT__";
+    private static final int MAX_HEADER_LENGTH = 256;
+    private static final Duration RESPONSE_GRACE = Duration.ofSeconds(2);
+    private static final SecureRandom IDS = new SecureRandom();
+
+    private final String name;
+    private final Process process;
+    private final InputStream stdout;
+    private final OutputStream stdin;
+    private final String mode;
+    private final AtomicInteger runs = new AtomicInteger();
+    private volatile boolean strayProcesses;
+
+    private PhpWorker(String name, Process process, InputStream stdout, String mode) {
+        this.name = name;
+        this.process = process;
+        this.stdout = stdout;
+        this.stdin = process.getOutputStream();
+        this.mode = mode;
+    }
+
+    /**
+     * Starts a worker container and waits for its supervisor to report ready.
+     *
+     * @param name         the container name.
+     * @param dockerConfig the Docker configuration the container is started
+     *                     with.
+     * @param startTimeout the maximum time to wait for the supervisor.
+     * @return the ready worker.
+     * @throws DockerProcessThreadException  if the container fails to start.
+     * @throws DockerProcessTimeoutException if the supervisor is not ready in
+     *                                       time.
+     */
+    static PhpWorker start(String name, DockerConfig dockerConfig, Duration startTimeout)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        Process process;
+        try {
+            process = new ProcessBuilder(command(name, dockerConfig)).start();
+        } catch (IOException e) {
+            throw new DockerProcessThreadException("Failed to start PHP worker " + name, e);
+        }
+        drainErrors(name, process.getErrorStream());
+
+        var stdout = new BufferedInputStream(process.getInputStream());
+        var ready = CompletableFuture.supplyAsync(() -> {
+            try {
+                return readLine(stdout);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, task -> Thread.ofVirtual().name("php-sandbox-worker-start").start(task));
+        try {
+            String line = ready.get(startTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (!line.startsWith(READY_MARKER + " ")) {
+                throw new IOException("Unexpected PHP worker greeting: " + line);
+            }
+            String mode = line.substring(READY_MARKER.length() + 1);
+            logger.debug("Started PHP worker {} in {} mode", name, mode);
+            return new PhpWorker(name, process, stdout, mode);
+        } catch (TimeoutException e) {
+            process.destroyForcibly();
+            throw new DockerProcessTimeoutException(
+                    "PHP worker " + name + " was not ready after " + startTimeout.toMillis() + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new DockerProcessThreadException("Interrupted while starting PHP worker " + name, e);
+        } catch (ExecutionException | IOException e) {
+            process.destroyForcibly();
+            throw new DockerProcessThreadException("Failed to start PHP worker " + name, e);
+        }
+    }
+
+    /**
+     * @return the Docker container name.
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * @return {@code fork} if snippets run in forked children, {@code process}
+     *         if the image lacks pcntl and every snippet starts its own
+     *         {@code php} process.
+     */
+    String mode() {
+        return mode;
+    }
+
+    /**
+     * @return the number of snippets executed by this worker.
+     */
+    int runs() {
+        return runs.get();
+    }
+
+    int recordRun() {
+        return runs.incrementAndGet();
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * @return whether a snippet left a process behind in the container, so
+     *         the worker must not serve another snippet.
+     */
+    boolean leftStrayProcesses() {
+        return strayProcesses;
+    }
+
+    /**
+     * Runs a snippet in the worker. The supervisor kills the snippet when the
+     * timeout elapses; if the supervisor itself does not answer shortly after,
+     * the worker is destroyed.
+     *
+     * @param source         the PHP source to run.
+     * @param timeout        the maximum time the snippet may take.
+     * @param maxOutputBytes the maximum number of bytes captured per output
+     *                       stream.
+     * @return the completed execution with its captured output.
+     * @throws DockerProcessThreadException  if the worker fails or dies.
+     * @throws DockerProcessTimeoutException if the snippet times out.
+     */
+    DockerExecution run(String source, Duration timeout, int maxOutputBytes)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        String id = HexFormat.of().toHexDigits(IDS.nextLong());
+        byte[] code = source.getBytes(StandardCharsets.UTF_8);
+        var answered = new AtomicBoolean();
+        CompletableFuture.delayedExecutor(timeout.plus(RESPONSE_GRACE).toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> {
+                    if (!answered.get()) {
+                        logger.warn("PHP worker {} did not answer in time, destroying it", name);
+                        destroy();
+                    }
+                });
+        Result result;
+        try {
+            // the source is written on a virtual thread, so a snippet larger than the pipe buffer cannot block
+            var request = CompletableFuture.runAsync(() -> {
+                try {
+                    stdin.write((id + " " + timeout.toMillis() + " " + maxOutputBytes + " " + code.length + "\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    stdin.write(code);
+                    stdin.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, task -> Thread.ofVirtual().name("php-sandbox-worker-stdin").start(task));
+            result = readResult(id);
+            request.join();
+        } catch (IOException | CompletionException e) {
+            destroy();
+            throw new DockerProcessThreadException("PHP worker " + name + " failed", e);
+        } finally {
+            answered.set(true);
+        }
+
+        if (result.stray()) {
+            logger.warn("A snippet left a process behind in PHP worker {}, recycling it", name);
+            strayProcesses = true;
+        }
+        if (result.timedOut()) {
+            logger.warn("PHP worker {} killed a snippet after {} seconds", name, timeout.toSeconds());
+            throw new DockerProcessTimeoutException("Execution timed out after " + timeout.toSeconds() + " seconds");
+        }
+        return new DockerExecution(null, result.exitCode(), result.stdout(), result.stderr());
+    }
+
+    /**
+     * Stops the worker. Closing its standard input lets the supervisor exit;
+     * the container is removed on exit.
+     */
+    void close() {
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close PHP worker {} input", name, e);
+        }
+        try {
+            if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                destroy();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            destroy();
+        }
+    }
+
+    /**
+     * Kills the worker container. Killing the local {@code docker} client alone
+     * does not stop it.
+     */
+    void destroy() {
+        process.destroyForcibly();
+        var builder = new ProcessBuilder(List.of("docker", "rm", "-f", name));
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            builder.start();
+        } catch (IOException e) {
+            logger.warn("Failed to remove PHP worker container {}", name, e);
+        }
+    }
+
+    private Result readResult(String id) throws IOException {
+        String header = readLine(stdout);
+        String[] fields = header.split(" ");
+        if (fields.length != 8 || !RESULT_MARKER.equals(fields[0])) {
+            throw new IOException("Malformed PHP worker result: " + header);
+        }
+        if (!fields[1].equals(id)) {
+            throw new IOException("PHP worker answered request " + fields[1] + " instead of " + id);
+        }
+        try {
+            int exitCode = Integer.parseInt(fields[2]);
+            boolean timedOut = "1".equals(fields[4]);
+            String out = readString(Integer.parseInt(fields[5]));
+            String err = readString(Integer.parseInt(fields[6]));
+            return new Result(exitCode, timedOut, out, err, "1".equals(fields[7]));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed PHP worker result: " + header, e);
+        }
+    }
+
+    private String readString(int length) throws IOException {
+        byte[] bytes = stdout.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("PHP worker " + name + " exited while writing a result");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream stream) throws IOException {
+        var line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = stream.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("PHP worker exited");
+            }
+            if (line.size() == MAX_HEADER_LENGTH) {
+                throw new IOException("PHP worker header exceeds " + MAX_HEADER_LENGTH + " bytes");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static void drainErrors(String name, InputStream stderr) {
+        Thread.ofVirtual().name("php-sandbox-worker-stderr").start(() -> {
+            var buffer = new BoundedOutputBuffer(8192);
+            byte[] chunk = new byte[1024];
+            try (stderr) {
+                int read;
+                while ((read = stderr.read(chunk)) != -1) {
+                    buffer.write(chunk, 0, read);
+                }
+            } catch (IOException e) {
+                // the worker is gone
+            }
+            if (buffer.total() > 0) {
+                logger.debug("PHP worker {} wrote to stderr: {}", name, buffer.content().trim());
+            }
+        });
+    }
+
+    private static List<String> command(String name, DockerConfig dockerConfig) {
+        List<String> command = new ArrayList<>();
+        command.add("docker");
+        command.add("run");
+        command.add("-i");
+        command.add("--rm");
+        command.add("--name");
+        command.add(name);
+        command.addAll(DockerCommands.containerOptions(dockerConfig));
+        command.add(dockerConfig.dockerImage());
+        command.addAll(List.of("php", "-d", "display_errors=stderr", "-d", "error_reporting=E_ALL"));
+        command.addAll(DockerCommands.opcacheOptions(dockerConfig));
+        command.addAll(List.of("-r", SCRIPT));
+        return command;
+    }
+
+    private static String loadScript() {
+        try (InputStream in = PhpWorker.class.getResourceAsStream(SCRIPT_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing resource " + SCRIPT_RESOURCE);
+            }
+            String script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            // php -r takes the code without the opening tag
+            return script.startsWith("<?php") ? script.substring("<?php".length()) : script;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + SCRIPT_RESOURCE, e);
+        }
+    }
+
+    private record Result(int exitCode, boolean timedOut, String stdout, String stderr, boolean stray) {
+    }
+}
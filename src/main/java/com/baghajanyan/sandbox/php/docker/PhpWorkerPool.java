@@ -0,0 +1,220 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.config.DockerPoolConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * A pool of persistent PHP workers, each a supervisor process in its own
+ * hardened container.
+ *
+ * Workers are started with the same flags as a one-shot {@code docker run},
+ * serve one snippet at a time and are recycled after a configured number of
+ * runs or when a run leaves them in an unknown state. Dead idle workers are
+ * detected by a periodic health check.
+ */
+public class PhpWorkerPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PhpWorkerPool.class);
+    private static final String CONTAINER_PREFIX = "sandbox-php-worker-";
+
+    private final DockerConfig dockerConfig;
+    private final DockerPoolConfig poolConfig;
+    private final BlockingDeque<PhpWorker> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed;
+
+    /**
+     * @param dockerConfig the Docker configuration worker containers are started
+     *                     with.
+     * @param poolConfig   the pool sizing and recycling configuration; the
+     *                     maximum runs apply per worker.
+     */
+    public PhpWorkerPool(DockerConfig dockerConfig, DockerPoolConfig poolConfig) {
+        this.dockerConfig = dockerConfig;
+        this.poolConfig = poolConfig;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "php-sandbox-worker-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Warms the pool up to the minimum idle size and schedules health checks.
+     * Workers are started in the background, so this method does not block.
+     */
+    public void start() {
+        maintenance.execute(this::replenish);
+        long interval = poolConfig.healthCheckInterval().toMillis();
+        maintenance.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes an idle worker from the pool, starting a new one if the pool has
+     * not reached its maximum size.
+     *
+     * @return a worker reserved for the caller.
+     * @throws DockerProcessThreadException  if the pool is closed, a worker fails
+     *                                       to start, or the caller is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if no worker becomes available
+     *                                       within the acquire timeout.
+     */
+    PhpWorker acquire() throws DockerProcessThreadException, DockerProcessTimeoutException {
+        if (closed) {
+            throw new DockerProcessThreadException("PHP worker pool is closed");
+        }
+        var worker = idle.pollFirst();
+        if (worker != null) {
+            return worker;
+        }
+        if (reserveSlot()) {
+            try {
+                return startWorker();
+            } catch (DockerProcessException e) {
+                size.decrementAndGet();
+                throw e;
+            }
+        }
+
+        waiting.incrementAndGet();
+        try {
+            worker = idle.pollFirst(poolConfig.acquireTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DockerProcessThreadException("Interrupted while waiting for a PHP worker", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        if (worker == null) {
+            throw new DockerProcessTimeoutException(
+                    "Timed out after " + poolConfig.acquireTimeout().toMillis() + "ms waiting for a PHP worker");
+        }
+        return worker;
+    }
+
+    /**
+     * Returns a worker to the pool. Dirty or dead workers, workers that reached
+     * the maximum number of runs and workers above the maximum idle size are
+     * stopped instead.
+     *
+     * @param worker the worker to return.
+     * @param dirty  whether the last run left the worker in an unknown state.
+     */
+    void release(PhpWorker worker, boolean dirty) {
+        int runs = worker.recordRun();
+        if (closed || dirty || !worker.isAlive() || runs >= poolConfig.maxRunsPerContainer()
+                || idle.size() >= poolConfig.maxIdle()) {
+            retire(worker);
+            return;
+        }
+        idle.offerFirst(worker);
+    }
+
+    /**
+     * @return the number of live workers, including busy ones.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return the number of idle workers.
+     */
+    public int idleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        PhpWorker worker;
+        while ((worker = idle.pollFirst()) != null) {
+            stop(worker);
+        }
+    }
+
+    private void retire(PhpWorker worker) {
+        if (closed) {
+            stop(worker);
+            return;
+        }
+        try {
+            maintenance.execute(() -> {
+                stop(worker);
+                replenish();
+            });
+        } catch (RejectedExecutionException e) {
+            stop(worker);
+        }
+    }
+
+    private void stop(PhpWorker worker) {
+        size.decrementAndGet();
+        worker.close();
+    }
+
+    private void replenish() {
+        while (!closed && idle.size() < Math.max(poolConfig.minIdle(), waiting.get()) && reserveSlot()) {
+            try {
+                idle.offerLast(startWorker());
+            } catch (DockerProcessException e) {
+                size.decrementAndGet();
+                logger.warn("Failed to start PHP worker", e);
+                return;
+            }
+        }
+    }
+
+    private void checkHealth() {
+        try {
+            for (var worker : List.copyOf(idle)) {
+                if (!worker.isAlive() && idle.remove(worker)) {
+                    logger.warn("PHP worker {} exited while idle", worker.name());
+                    stop(worker);
+                }
+            }
+            replenish();
+        } catch (RuntimeException e) {
+            logger.error("PHP worker pool health check failed", e);
+        }
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = size.get();
+            if (current >= poolConfig.maxSize()) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private PhpWorker startWorker() {
+        var worker = PhpWorker.start(CONTAINER_PREFIX + UUID.randomUUID(), dockerConfig, poolConfig.acquireTimeout());
+        if (!"fork".equals(worker.mode())) {
+            logger.info("PHP worker {} runs every snippet in a new php process; install pcntl in {} to fork instead",
+                    worker.name(), dockerConfig.dockerImage());
+        }
+        return worker;
+    }
+}
@@ -0,0 +1,37 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-running container owned by a {@link DockerContainerPool}.
+ *
+ * Snippets are executed inside the container with {@code docker exec}. The
+ * container counts its runs so the pool can recycle it after a configured
+ * number of executions.
+ */
+public final class PooledContainer {
+    private final String name;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    PooledContainer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the Docker container name.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the number of snippets executed in this container.
+     */
+    public int runs() {
+        return runs.get();
+    }
+
+    int recordRun() {
+        return runs.incrementAndGet();
+    }
+}
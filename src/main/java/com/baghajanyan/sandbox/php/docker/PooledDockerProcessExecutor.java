@@ -0,0 +1,128 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * Executes a script from a file in a pre-started container taken from a
+ * {@link DockerContainerPool}.
+ *
+ * Instead of creating a container per snippet, the script is run with
+ * {@code docker exec} in a warm container. A container whose run timed out or
+ * was killed, including for exceeding its output limit, is considered dirty
+ * and is recycled by the pool, which stops the script. Files outside
+ * the pool's mounted directory fall back to a one-shot container; source
+ * piped over standard input can always run in a pooled container.
+ */
+public class PooledDockerProcessExecutor extends DockerProcessExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(PooledDockerProcessExecutor.class);
+
+    private final DockerContainerPool pool;
+
+    public PooledDockerProcessExecutor(DockerConfig dockerConfig, DockerContainerPool pool) {
+        super(dockerConfig);
+        this.pool = pool;
+    }
+
+    /**
+     * @return the directory mounted into the pooled containers, so snippet
+     *         files written there can run in them.
+     */
+    @Override
+    public Path codeDirectory() {
+        return pool.codeDirectory();
+    }
+
+    /**
+     * Executes the described script run in a pooled Docker container.
+     *
+     * @param request the script, arguments and limits of the run.
+     * @return the completed {@code docker exec} execution with its captured
+     *         output.
+     * @throws DockerProcessThreadException  if the Docker process fails to start,
+     *                                       no container can be started, or the
+     *                                       thread is interrupted.
+     * @throws DockerProcessTimeoutException if the execution or the wait for a
+     *                                       container times out.
+     */
+    @Override
+    public DockerExecution executeScript(DockerRunRequest request)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        if (request.script() != null && !pool.canServe(request.script())) {
+            logger.debug("Snippet file {} is outside the pooled code directory, using a one-shot container",
+                    request.script());
+            return super.executeScript(request);
+        }
+        if (!hasDefaultLimits(request)) {
+            logger.debug("Run has resource limits of its own, using a one-shot container");
+            return super.executeScript(request);
+        }
+
+        var container = pool.acquire();
+        boolean dirty = true;
+        try {
+            var execution = run(new ProcessBuilder(execCommand(container, request)), request);
+            dirty = execution.exitCode() == KILLED_EXIT_CODE;
+            return execution;
+        } finally {
+            pool.release(container, dirty);
+        }
+    }
+
+    /**
+     * Executes the described script run in a pooled Docker container without
+     * blocking on the script. Waiting for a free container may still block
+     * when the pool is exhausted. Cancelling the future recycles the
+     * container, which kills the running script.
+     *
+     * @param request the script, arguments and limits of the run.
+     * @return a future of the completed {@code docker exec} execution.
+     */
+    @Override
+    public CompletableFuture<DockerExecution> executeScriptAsync(DockerRunRequest request) {
+        if (request.script() != null && !pool.canServe(request.script())) {
+            logger.debug("Snippet file {} is outside the pooled code directory, using a one-shot container",
+                    request.script());
+            return super.executeScriptAsync(request);
+        }
+        if (!hasDefaultLimits(request)) {
+            logger.debug("Run has resource limits of its own, using a one-shot container");
+            return super.executeScriptAsync(request);
+        }
+
+        PooledContainer container;
+        try {
+            container = pool.acquire();
+        } catch (DockerProcessException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        var execution = start(new ProcessBuilder(execCommand(container, request)), request, () -> {
+        });
+        execution.whenComplete((result, error) -> pool.release(container,
+                error != null || result.exitCode() == KILLED_EXIT_CODE));
+        return execution;
+    }
+
+    private List<String> execCommand(PooledContainer container, DockerRunRequest request) {
+        List<String> command = new ArrayList<>();
+        command.add("docker");
+        command.add("exec");
+        if (request.script() == null) {
+            command.add("-i");
+        }
+        command.add(container.name());
+        command.addAll(DockerCommands.phpCommand(request.dockerConfig(),
+                request.script() != null ? pool.containerPath(request.script()) : null, request.arguments(),
+                request.timeout()));
+        return command;
+    }
+}
@@ -0,0 +1,130 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains the stdout and stderr pipes of a process while it runs.
+ *
+ * Each stream is copied into a {@link BoundedOutputBuffer} by a virtual
+ * thread, so a process producing more output than the OS pipe buffer never
+ * blocks on a full pipe, and the captured output per stream is capped. The
+ * captured output can also be passed on to an {@link OutputListener} as it is
+ * read.
+ */
+final class ProcessOutputCollector {
+    private static final Logger logger = LoggerFactory.getLogger(ProcessOutputCollector.class);
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(5);
+    private static final int CHUNK_SIZE = 8192;
+
+    private final BoundedOutputBuffer stdout;
+    private final BoundedOutputBuffer stderr;
+    private final Thread stdoutDrain;
+    private final Thread stderrDrain;
+    private final CompletableFuture<Void> stdoutDrained = new CompletableFuture<>();
+    private final CompletableFuture<Void> stderrDrained = new CompletableFuture<>();
+
+    private ProcessOutputCollector(Process process, int maxOutputBytes, OutputListener listener, Runnable onLimit) {
+        boolean listening = listener != OutputListener.NONE;
+        this.stdout = new BoundedOutputBuffer(maxOutputBytes, listening ? listener::onStdout : null, onLimit);
+        this.stderr = new BoundedOutputBuffer(maxOutputBytes, listening ? listener::onStderr : null, onLimit);
+        this.stdoutDrain = drain(process.getInputStream(), stdout, stdoutDrained, "php-sandbox-stdout");
+        this.stderrDrain = drain(process.getErrorStream(), stderr, stderrDrained, "php-sandbox-stderr");
+    }
+
+    /**
+     * Starts draining both output streams of the given process.
+     *
+     * @param process        the running process.
+     * @param maxOutputBytes the maximum number of bytes retained per stream.
+     * @return the collector.
+     */
+    static ProcessOutputCollector start(Process process, int maxOutputBytes) {
+        return start(process, maxOutputBytes, OutputListener.NONE, null);
+    }
+
+    /**
+     * Starts draining both output streams of the given process, passing the
+     * captured output on to the listener.
+     *
+     * @param process        the running process.
+     * @param maxOutputBytes the maximum number of bytes retained per stream.
+     * @param listener       the listener of the captured output.
+     * @param onLimit        the action run when a stream first exceeds the
+     *                       limit, or {@code null}.
+     * @return the collector.
+     */
+    static ProcessOutputCollector start(Process process, int maxOutputBytes, OutputListener listener,
+            Runnable onLimit) {
+        return new ProcessOutputCollector(process, maxOutputBytes, listener, onLimit);
+    }
+
+    /**
+     * Waits for both streams to reach end-of-stream. Should be called after the
+     * process has exited or has been destroyed.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void await() throws InterruptedException {
+        if (!stdoutDrain.join(DRAIN_TIMEOUT) || !stderrDrain.join(DRAIN_TIMEOUT)) {
+            logger.warn("Process output was not fully drained within {} ms", DRAIN_TIMEOUT.toMillis());
+        }
+    }
+
+    /**
+     * Returns a future completed once both streams reached end-of-stream,
+     * without blocking the caller.
+     *
+     * @return the drain completion future.
+     */
+    CompletableFuture<Void> completion() {
+        return CompletableFuture.allOf(stdoutDrained, stderrDrained);
+    }
+
+    String stdout() {
+        return stdout.content();
+    }
+
+    String stderr() {
+        return stderr.content();
+    }
+
+    /**
+     * @return the number of bytes read from both streams, including bytes
+     *         beyond the limit.
+     */
+    long outputBytes() {
+        return stdout.total() + stderr.total();
+    }
+
+    private static Thread drain(InputStream stream, BoundedOutputBuffer target, CompletableFuture<Void> drained,
+            String name) {
+        return Thread.ofVirtual().name(name).start(() -> {
+            try {
+                copy(stream, target);
+            } catch (IOException e) {
+                logger.debug("Stopped draining {}", name, e);
+            } finally {
+                drained.complete(null);
+            }
+        });
+    }
+
+    private static void copy(InputStream stream, BoundedOutputBuffer target) throws IOException {
+        if (stream == null) {
+            return;
+        }
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try (stream) {
+            int read;
+            while ((read = stream.read(chunk)) != -1) {
+                target.write(chunk, 0, read);
+            }
+        }
+    }
+}
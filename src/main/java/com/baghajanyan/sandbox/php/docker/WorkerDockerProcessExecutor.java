@@ -0,0 +1,137 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * Executes scripts in persistent PHP workers taken from a
+ * {@link PhpWorkerPool}.
+ *
+ * The source of each snippet is sent to a supervisor that is already running
+ * in a warm container and forks a child per snippet, so neither a container
+ * nor an interpreter is started per execution. Runs with script arguments,
+ * such as batches, need their files side by side and fall back to a one-shot
+ * container, as do runs with resource limits other than the workers'.
+ * Runs that stream their output also fall back, since a worker only returns
+ * the output of a snippet once it has finished. Workers cap the output of
+ * each snippet but never kill it for exceeding the cap.
+ */
+public class WorkerDockerProcessExecutor extends DockerProcessExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerDockerProcessExecutor.class);
+
+    private final PhpWorkerPool pool;
+
+    public WorkerDockerProcessExecutor(DockerConfig dockerConfig, PhpWorkerPool pool) {
+        super(dockerConfig);
+        this.pool = pool;
+    }
+
+    /**
+     * Workers always receive the snippet source, whatever the configured code
+     * delivery, so no temporary file needs to be written.
+     *
+     * @return {@code true}.
+     */
+    @Override
+    public boolean pipesSource() {
+        return true;
+    }
+
+    /**
+     * Executes the described script run in a persistent PHP worker.
+     *
+     * @param request the script, arguments and limits of the run.
+     * @return the completed execution with its captured output.
+     * @throws DockerProcessThreadException  if the worker fails, no worker can be
+     *                                       started, or the thread is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if the execution or the wait for a
+     *                                       worker times out.
+     */
+    @Override
+    public DockerExecution executeScript(DockerRunRequest request)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return executeScript(request, new AtomicReference<>());
+    }
+
+    /**
+     * Executes the described script run in a persistent PHP worker on a
+     * virtual thread. Cancelling the future recycles the worker, which kills
+     * the running snippet.
+     *
+     * @param request the script, arguments and limits of the run.
+     * @return a future of the completed execution.
+     */
+    @Override
+    public CompletableFuture<DockerExecution> executeScriptAsync(DockerRunRequest request) {
+        if (!request.arguments().isEmpty() || !hasDefaultLimits(request) || streamsOutput(request)) {
+            return super.executeScriptAsync(request);
+        }
+        var running = new AtomicReference<PhpWorker>();
+        var execution = new CompletableFuture<DockerExecution>();
+        Thread.ofVirtual().name("php-sandbox-worker").start(() -> {
+            try {
+                execution.complete(executeScript(request, running));
+            } catch (DockerProcessException e) {
+                execution.completeExceptionally(e);
+            }
+        });
+        execution.whenComplete((result, error) -> {
+            var worker = running.get();
+            if (execution.isCancelled() && worker != null) {
+                worker.destroy();
+            }
+        });
+        return execution;
+    }
+
+    private DockerExecution executeScript(DockerRunRequest request, AtomicReference<PhpWorker> running) {
+        if (!request.arguments().isEmpty()) {
+            logger.debug("Script {} takes arguments, using a one-shot container", request.script());
+            return super.executeScript(request);
+        }
+        if (!hasDefaultLimits(request)) {
+            logger.debug("Run has resource limits of its own, using a one-shot container");
+            return super.executeScript(request);
+        }
+        if (streamsOutput(request)) {
+            logger.debug("Run streams its output, using a one-shot container");
+            return super.executeScript(request);
+        }
+        String source;
+        try {
+            source = request.source() != null ? request.source() : Files.readString(request.script());
+        } catch (IOException e) {
+            throw new DockerProcessThreadException("Failed to read snippet file " + request.script(), e);
+        }
+
+        var worker = pool.acquire();
+        running.set(worker);
+        boolean dirty = true;
+        try {
+            var execution = worker.run(source, request.timeout(), request.maxOutputBytes());
+            dirty = worker.leftStrayProcesses();
+            return execution;
+        } catch (DockerProcessTimeoutException e) {
+            // the supervisor killed the snippet and is ready for the next one, unless it left a process behind
+            dirty = worker.leftStrayProcesses();
+            throw e;
+        } finally {
+            running.set(null);
+            pool.release(worker, dirty);
+        }
+    }
+
+    private static boolean streamsOutput(DockerRunRequest request) {
+        return request.outputListener() != OutputListener.NONE;
+    }
+}
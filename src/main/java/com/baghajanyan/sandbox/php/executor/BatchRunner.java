@@ -0,0 +1,137 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The PHP-side runner of batch executions and the parser of its output.
+ *
+ * The runner script is copied next to the snippet files and executes each
+ * snippet in its own {@code php} process inside a single container, enforcing
+ * a per-snippet timeout and output limit. Each snippet process runs in a
+ * session of its own, and its process group is killed once it completes, so
+ * nothing it started keeps running into the next snippet. For every snippet,
+ * in batch order, it prints one result line:
+ *
+ * <pre>
+ * __BATCH_RESULT__ &lt;index&gt; &lt;exit code&gt; &lt;time ms&gt; &lt;timed out 0|1&gt; &lt;base64 stdout&gt; &lt;base64 stderr&gt;
+ * </pre>
+ */
+final class BatchRunner {
+
+    static final String RESULT_MARKER = "__BATCH_RESULT__";
+
+    private static final String SCRIPT_RESOURCE = "batch-runner.php";
+    private static final String SCRIPT = loadScript();
+
+    private BatchRunner() {
+    }
+
+    /**
+     * The outcome of one snippet of a batch.
+     *
+     * @param exitCode      the exit code of the snippet process.
+     * @param stdout        the captured standard output.
+     * @param stderr        the captured standard error.
+     * @param executionTime the wall-clock time the snippet process took.
+     * @param timedOut      whether the snippet was killed on its timeout.
+     */
+    record Entry(int exitCode, String stdout, String stderr, Duration executionTime, boolean timedOut) {
+    }
+
+    /**
+     * @return the source of the runner script.
+     */
+    static String script() {
+        return SCRIPT;
+    }
+
+    /**
+     * Builds the runner arguments for the given snippet files.
+     *
+     * @param maxOutputBytes the output limit per snippet and stream.
+     * @param fileNames      the snippet file names, in batch order.
+     * @param timeouts       the timeout of each snippet, in batch order.
+     * @return the arguments to pass to the runner script.
+     */
+    static List<String> arguments(int maxOutputBytes, List<String> fileNames, List<Duration> timeouts) {
+        List<String> arguments = new ArrayList<>(1 + fileNames.size() * 2);
+        arguments.add(String.valueOf(maxOutputBytes));
+        for (int i = 0; i < fileNames.size(); i++) {
+            arguments.add(fileNames.get(i));
+            arguments.add(String.valueOf(timeouts.get(i).toMillis()));
+        }
+        return arguments;
+    }
+
+    /**
+     * Parses the result lines printed by the runner. Lines that are not
+     * result lines are ignored, and a malformed result line leaves its
+     * snippet without an entry.
+     *
+     * The runner prints one result line per snippet in batch order, so the
+     * n-th result line must be the result of the snippet at index n. A
+     * snippet can write to the runner's output, e.g. through {@code /proc},
+     * so a duplicate index, or the result of a snippet that has not run yet,
+     * means the output was tampered with.
+     *
+     * @param stdout the standard output of the runner.
+     * @return the parsed entries by snippet index.
+     * @throws IllegalStateException if a result line is out of order.
+     */
+    static Map<Integer, Entry> parse(String stdout) {
+        Map<Integer, Entry> entries = new HashMap<>();
+        int expected = 0;
+        for (String line : stdout.split("\n")) {
+            if (!line.startsWith(RESULT_MARKER + " ")) {
+                continue;
+            }
+            int position = expected++;
+            // empty output fields are printed as empty strings, so only the line terminator may be dropped
+            String[] fields = (line.endsWith("\r") ? line.substring(0, line.length() - 1) : line).split(" ", -1);
+            if (fields.length != 7) {
+                continue;
+            }
+            try {
+                int index = Integer.parseInt(fields[1]);
+                if (index != position) {
+                    throw new IllegalStateException("Batch runner printed the result of snippet " + index
+                            + " in place of snippet " + position);
+                }
+                var entry = new Entry(
+                        Integer.parseInt(fields[2]),
+                        decode(fields[5]),
+                        decode(fields[6]),
+                        Duration.ofNanos((long) (Double.parseDouble(fields[3]) * 1_000_000)),
+                        "1".equals(fields[4]));
+                entries.put(index, entry);
+            } catch (IllegalArgumentException e) {
+                // malformed line, e.g. interleaved with snippet output; the snippet is reported as missing
+            }
+        }
+        return entries;
+    }
+
+    private static String decode(String base64) {
+        return new String(Base64.getDecoder().decode(base64), StandardCharsets.UTF_8);
+    }
+
+    private static String loadScript() {
+        try (InputStream in = BatchRunner.class.getResourceAsStream(SCRIPT_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing resource " + SCRIPT_RESOURCE);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + SCRIPT_RESOURCE, e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+
+import com.baghajanyan.sandbox.core.executor.CodeExecutor;
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Caches the results of a {@link PhpCodeExecutor} for identical snippets.
+ *
+ * Results are keyed by a SHA-256 hash of the snippet code, language and
+ * timeout together with the Docker image and every {@link DockerConfig}
+ * setting that can change what a snippet observes, and the name of the
+ * selected resource profile. The cache is bounded in size and entries expire
+ * after a fixed time; eviction uses Caffeine's W-TinyLFU policy, so one-off
+ * snippets do not push out frequently repeated ones.
+ *
+ * Only results that the snippet itself determined are cached: failures of the
+ * sandbox, rejections and timeouts are always executed again. Snippets that
+ * are not deterministic (e.g. using {@code rand()} or the clock) should be
+ * executed with {@link ExecutionOptions#withCacheable(boolean)} set to
+ * {@code false}. Executions that stream their output always run, so their
+ * listener receives it.
+ */
+public class CachingCodeExecutor implements CodeExecutor {
+    private static final int KILLED_EXIT_CODE = 137;
+
+    private final PhpCodeExecutor delegate;
+    private final DockerConfig dockerConfig;
+    private final Cache<String, ExecutionResult> cache;
+
+    /**
+     * @param delegate     the executor running snippets on a cache miss.
+     * @param dockerConfig the Docker configuration the delegate runs with.
+     * @param maxSize      the maximum number of cached results.
+     * @param ttl          the time after which a cached result expires.
+     */
+    public CachingCodeExecutor(PhpCodeExecutor delegate, DockerConfig dockerConfig, long maxSize, Duration ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be a positive duration");
+        }
+        this.delegate = delegate;
+        this.dockerConfig = dockerConfig;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached result of an identical snippet, or executes the
+     * snippet and caches its result.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @return the result of the execution.
+     */
+    @Override
+    public ExecutionResult execute(CodeSnippet snippet) {
+        return execute(snippet, ExecutionOptions.DEFAULT);
+    }
+
+    /**
+     * Returns the cached result of an identical snippet, or executes the
+     * snippet with the given options and caches its result.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @param options the execution options.
+     * @return the result of the execution.
+     */
+    public ExecutionResult execute(CodeSnippet snippet, ExecutionOptions options) {
+        if (!options.cacheable() || options.streamsOutput()) {
+            return delegate.execute(snippet, options);
+        }
+        String key = key(snippet, options);
+        var cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        return store(key, delegate.execute(snippet, options));
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute(CodeSnippet)}. A cache hit
+     * returns an already completed future.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @return a future of the result of the execution.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(CodeSnippet snippet) {
+        return executeAsync(snippet, ExecutionOptions.DEFAULT);
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute(CodeSnippet, ExecutionOptions)}.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @param options the execution options.
+     * @return a future of the result of the execution.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(CodeSnippet snippet, ExecutionOptions options) {
+        if (!options.cacheable() || options.streamsOutput()) {
+            return delegate.executeAsync(snippet, options);
+        }
+        String key = key(snippet, options);
+        var cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        var execution = delegate.executeAsync(snippet, options);
+        var result = execution.thenApply(r -> store(key, r));
+        result.whenComplete((r, error) -> {
+            if (result.isCancelled()) {
+                execution.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the hit, miss and eviction statistics of the cache.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the approximate number of cached results.
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    private ExecutionResult store(String key, ExecutionResult result) {
+        if (isCacheable(result)) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    private static boolean isCacheable(ExecutionResult result) {
+        int exitCode = result.exitCode();
+        return exitCode >= 0
+                && exitCode != PhpCodeExecutor.REJECTED_EXIT_CODE
+                && exitCode != PhpCodeExecutor.TIMEOUT_EXIT_CODE
+                && exitCode != KILLED_EXIT_CODE;
+    }
+
+    private String key(CodeSnippet snippet, ExecutionOptions options) {
+        var timeout = snippet.timeout();
+        String material = String.join("\0",
+                snippet.language(),
+                options.profile() != null ? options.profile() : "",
+                timeout != null ? String.valueOf(timeout.toNanos()) : "",
+                dockerConfig.dockerImage(),
+                String.valueOf(dockerConfig.maxMemoryMb()),
+                String.valueOf(dockerConfig.maxCpuUnits()),
+                String.valueOf(dockerConfig.executionTimeout().toNanos()),
+                String.valueOf(dockerConfig.maxOutputBytes()),
+                String.valueOf(dockerConfig.securityHardening()),
+                String.valueOf(dockerConfig.allowNetwork()),
+                String.valueOf(dockerConfig.readOnly()),
+                String.valueOf(dockerConfig.pidsLimit()),
+                dockerConfig.runAsUser(),
+                dockerConfig.tmpfsSize(),
+                snippet.code());
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(material.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import com.baghajanyan.sandbox.php.docker.OutputListener;
+
+/**
+ * Per-execution options for {@link PhpCodeExecutor}.
+ *
+ * @param lane           the scheduler lane to run in, or {@code null} for the
+ *                       default lane. Ignored when the scheduler is disabled.
+ * @param cacheable      whether the result may be served from and stored in
+ *                       the result cache. Ignored when the cache is disabled.
+ * @param profile        the resource profile to run with, or {@code null} for
+ *                       the default limits.
+ * @param outputListener the listener the output of the snippet is streamed
+ *                       to while it runs. Executions that stream their output
+ *                       bypass the result cache; batches ignore it.
+ * @param tenant         the tenant the execution is run for, or {@code null}.
+ *                       Executions of different tenants share the permits
+ *                       fairly when tenants are enabled.
+ */
+public record ExecutionOptions(String lane, boolean cacheable, String profile, OutputListener outputListener,
+        String tenant) {
+
+    /**
+     * Options used when none are given.
+     */
+    public static final ExecutionOptions DEFAULT = new ExecutionOptions(null, true, null, OutputListener.NONE, null);
+
+    public ExecutionOptions {
+        if (outputListener == null) {
+            outputListener = OutputListener.NONE;
+        }
+    }
+
+    /**
+     * Creates options that run with the default resource profile.
+     *
+     * @param lane      the scheduler lane to run in.
+     * @param cacheable whether the result may be cached.
+     */
+    public ExecutionOptions(String lane, boolean cacheable) {
+        this(lane, cacheable, null);
+    }
+
+    /**
+     * Creates options that do not stream the output.
+     *
+     * @param lane      the scheduler lane to run in.
+     * @param cacheable whether the result may be cached.
+     * @param profile   the resource profile to run with.
+     */
+    public ExecutionOptions(String lane, boolean cacheable, String profile) {
+        this(lane, cacheable, profile, OutputListener.NONE);
+    }
+
+    /**
+     * Creates options without a tenant.
+     *
+     * @param lane           the scheduler lane to run in.
+     * @param cacheable      whether the result may be cached.
+     * @param profile        the resource profile to run with.
+     * @param outputListener the listener to stream the output to.
+     */
+    public ExecutionOptions(String lane, boolean cacheable, String profile, OutputListener outputListener) {
+        this(lane, cacheable, profile, outputListener, null);
+    }
+
+    /**
+     * @param lane the scheduler lane to run in.
+     * @return a copy of these options with the given lane.
+     */
+    public ExecutionOptions withLane(String lane) {
+        return new ExecutionOptions(lane, cacheable, profile, outputListener, tenant);
+    }
+
+    /**
+     * @param cacheable whether the result may be cached.
+     * @return a copy of these options with the given cache setting.
+     */
+    public ExecutionOptions withCacheable(boolean cacheable) {
+        return new ExecutionOptions(lane, cacheable, profile, outputListener, tenant);
+    }
+
+    /**
+     * @param profile the resource profile to run with.
+     * @return a copy of these options with the given profile.
+     */
+    public ExecutionOptions withProfile(String profile) {
+        return new ExecutionOptions(lane, cacheable, profile, outputListener, tenant);
+    }
+
+    /**
+     * @param outputListener the listener to stream the output to.
+     * @return a copy of these options with the given output listener.
+     */
+    public ExecutionOptions withOutputListener(OutputListener outputListener) {
+        return new ExecutionOptions(lane, cacheable, profile, outputListener, tenant);
+    }
+
+    /**
+     * @param tenant the tenant the execution is run for.
+     * @return a copy of these options with the given tenant.
+     */
+    public ExecutionOptions withTenant(String tenant) {
+        return new ExecutionOptions(lane, cacheable, profile, outputListener, tenant);
+    }
+
+    /**
+     * @return whether the output is streamed to a listener.
+     */
+    public boolean streamsOutput() {
+        return outputListener != OutputListener.NONE;
+    }
+}
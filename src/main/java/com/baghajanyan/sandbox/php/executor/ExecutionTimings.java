@@ -0,0 +1,19 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.time.Duration;
+
+/**
+ * The durations of the phases of a single execution. Phases an execution did
+ * not reach, e.g. the container run of a rejected execution, are zero.
+ *
+ * @param queueWait         the time spent waiting for an execution permit.
+ * @param container         the time the Docker process took, from its start
+ *                          until its output was drained.
+ * @param containerOverhead the part of the container time not spent running
+ *                          the script, i.e. container start-up and teardown.
+ * @param scriptRun         the runtime of the script as reported by the
+ *                          snippet itself.
+ */
+public record ExecutionTimings(Duration queueWait, Duration container, Duration containerOverhead,
+        Duration scriptRun) {
+}
@@ -0,0 +1,74 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.time.Duration;
+
+import com.baghajanyan.sandbox.php.metrics.ExecutionMetrics;
+import com.baghajanyan.sandbox.php.metrics.ExecutionOutcome;
+import com.baghajanyan.sandbox.php.metrics.ExecutionPhase;
+import com.baghajanyan.sandbox.php.metrics.ResourceUsage;
+
+/**
+ * Collects the phase timings and resource usage of a single execution while
+ * reporting them to the shared metrics.
+ */
+final class ExecutionTrace implements ExecutionMetrics {
+    private final ExecutionMetrics metrics;
+    private volatile Duration queueWait = Duration.ZERO;
+    private volatile Duration container = Duration.ZERO;
+    private volatile Duration containerOverhead = Duration.ZERO;
+    private volatile Duration scriptRun = Duration.ZERO;
+    private volatile ExecutionOutcome outcome;
+    private volatile ResourceUsage usage = ResourceUsage.NONE;
+
+    ExecutionTrace(ExecutionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void recordPhase(ExecutionPhase phase, Duration duration) {
+        metrics.recordPhase(phase, duration);
+        switch (phase) {
+            case QUEUE_WAIT -> queueWait = duration;
+            case CONTAINER -> container = duration;
+            case CONTAINER_OVERHEAD -> containerOverhead = duration;
+            case PHP_RUNTIME -> scriptRun = duration;
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void recordOutcome(ExecutionOutcome outcome) {
+        metrics.recordOutcome(outcome);
+        this.outcome = outcome;
+    }
+
+    @Override
+    public void recordUsage(ResourceUsage usage) {
+        metrics.recordUsage(usage);
+        this.usage = usage;
+    }
+
+    /**
+     * @return the timings recorded so far.
+     */
+    ExecutionTimings timings() {
+        return new ExecutionTimings(queueWait, container, containerOverhead, scriptRun);
+    }
+
+    /**
+     * @return the outcome of the execution, or {@code null} if it has not
+     *         ended.
+     */
+    ExecutionOutcome outcome() {
+        return outcome;
+    }
+
+    /**
+     * @return the resource usage of the execution, or
+     *         {@link ResourceUsage#NONE} if it did not run a container.
+     */
+    ResourceUsage usage() {
+        return usage;
+    }
+}
@@ -0,0 +1,76 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.util.Map;
+
+import com.baghajanyan.sandbox.php.journal.ExecutionJournal;
+import com.baghajanyan.sandbox.php.metrics.ExecutionMetrics;
+import com.baghajanyan.sandbox.php.scheduler.ExecutionScheduler;
+
+/**
+ * The optional collaborators of a {@link PhpCodeExecutor}.
+ *
+ * @param scheduler    the scheduler executions run behind, or {@code null}.
+ * @param metrics      the recorder of execution phases and outcomes.
+ * @param profiles     the resource profiles executions can select, by name.
+ * @param snippetStore the store snippet files are written to, with a
+ *                     directory per execution, or {@code null} to write them
+ *                     to temporary files.
+ * @param journal      the journal single executions are recorded in, or
+ *                     {@code null}.
+ */
+public record ExecutorComponents(ExecutionScheduler scheduler, ExecutionMetrics metrics,
+        Map<String, ResourceProfile> profiles, SnippetStore snippetStore, ExecutionJournal journal) {
+
+    /**
+     * No scheduler, profiles, snippet store or journal, and no metrics.
+     */
+    public static final ExecutorComponents DEFAULT = new ExecutorComponents(null, ExecutionMetrics.NOOP, Map.of(),
+            null, null);
+
+    public ExecutorComponents {
+        if (metrics == null) {
+            metrics = ExecutionMetrics.NOOP;
+        }
+        profiles = profiles == null ? Map.of() : Map.copyOf(profiles);
+    }
+
+    /**
+     * @param scheduler the scheduler executions run behind.
+     * @return a copy of these components with the given scheduler.
+     */
+    public ExecutorComponents withScheduler(ExecutionScheduler scheduler) {
+        return new ExecutorComponents(scheduler, metrics, profiles, snippetStore, journal);
+    }
+
+    /**
+     * @param metrics the recorder of execution phases and outcomes.
+     * @return a copy of these components with the given metrics.
+     */
+    public ExecutorComponents withMetrics(ExecutionMetrics metrics) {
+        return new ExecutorComponents(scheduler, metrics, profiles, snippetStore, journal);
+    }
+
+    /**
+     * @param profiles the resource profiles executions can select, by name.
+     * @return a copy of these components with the given profiles.
+     */
+    public ExecutorComponents withProfiles(Map<String, ResourceProfile> profiles) {
+        return new ExecutorComponents(scheduler, metrics, profiles, snippetStore, journal);
+    }
+
+    /**
+     * @param snippetStore the store snippet files are written to.
+     * @return a copy of these components with the given snippet store.
+     */
+    public ExecutorComponents withSnippetStore(SnippetStore snippetStore) {
+        return new ExecutorComponents(scheduler, metrics, profiles, snippetStore, journal);
+    }
+
+    /**
+     * @param journal the journal single executions are recorded in.
+     * @return a copy of these components with the given journal.
+     */
+    public ExecutorComponents withJournal(ExecutionJournal journal) {
+        return new ExecutorComponents(scheduler, metrics, profiles, snippetStore, journal);
+    }
+}
@@ -0,0 +1,79 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import com.baghajanyan.sandbox.php.docker.OutputListener;
+
+/**
+ * An {@link OutputListener} that publishes the output of an execution as one
+ * {@link Flow.Publisher} of byte buffers per stream, e.g. to forward it to a
+ * reactive HTTP response.
+ *
+ * Each chunk is copied into a buffer of its own before it is published. When
+ * a subscriber falls behind by more than the buffer capacity, publishing
+ * blocks the thread draining the stream, which holds back the script once the
+ * pipe buffer is full as well. Subscribers should subscribe before the
+ * execution starts, since output published without subscribers is dropped.
+ * Both publishers complete when the execution completes.
+ *
+ * A publisher serves a single execution.
+ */
+public final class OutputPublisher implements OutputListener {
+    private static final Executor DELIVERY_EXECUTOR = task -> Thread.ofVirtual().name("php-sandbox-output")
+            .start(task);
+
+    private final SubmissionPublisher<ByteBuffer> stdout;
+    private final SubmissionPublisher<ByteBuffer> stderr;
+
+    public OutputPublisher() {
+        this(Flow.defaultBufferSize());
+    }
+
+    /**
+     * @param bufferCapacity the maximum number of chunks buffered per
+     *                       subscriber before publishing blocks.
+     */
+    public OutputPublisher(int bufferCapacity) {
+        this.stdout = new SubmissionPublisher<>(DELIVERY_EXECUTOR, bufferCapacity);
+        this.stderr = new SubmissionPublisher<>(DELIVERY_EXECUTOR, bufferCapacity);
+    }
+
+    /**
+     * @return the publisher of the standard output of the execution.
+     */
+    public Flow.Publisher<ByteBuffer> stdout() {
+        return stdout;
+    }
+
+    /**
+     * @return the publisher of the standard error of the execution.
+     */
+    public Flow.Publisher<ByteBuffer> stderr() {
+        return stderr;
+    }
+
+    @Override
+    public void onStdout(ByteBuffer chunk) {
+        stdout.submit(copy(chunk));
+    }
+
+    @Override
+    public void onStderr(ByteBuffer chunk) {
+        stderr.submit(copy(chunk));
+    }
+
+    @Override
+    public void onComplete() {
+        stdout.close();
+        stderr.close();
+    }
+
+    private static ByteBuffer copy(ByteBuffer chunk) {
+        var copy = ByteBuffer.allocate(chunk.remaining());
+        copy.put(chunk.duplicate()).flip();
+        return copy.asReadOnlyBuffer();
+    }
+}
@@ -1,13 +1,20 @@
 package com.baghajanyan.sandbox.php.executor;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,138 +23,1051 @@ import com.baghajanyan.sandbox.core.executor.CodeExecutor;
 import com.baghajanyan.sandbox.core.executor.ExecutionResult;
 import com.baghajanyan.sandbox.core.fs.TempFileManager;
 import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerExecution;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException;
 import com.baghajanyan.sandbox.php.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.DockerRunRequest;
+import com.baghajanyan.sandbox.php.docker.HedgingDockerProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.OutputListener;
 import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
 import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.php.journal.ExecutionJournal;
+import com.baghajanyan.sandbox.php.metrics.ExecutionMetrics;
+import com.baghajanyan.sandbox.php.metrics.ExecutionOutcome;
+import com.baghajanyan.sandbox.php.metrics.ExecutionPhase;
+import com.baghajanyan.sandbox.php.metrics.ResourceUsage;
+import com.baghajanyan.sandbox.php.scheduler.ExecutionScheduler;
+import com.baghajanyan.sandbox.php.scheduler.PermitQueue;
 
 /**
  * Executes a PHP code snippet in a sandboxed environment.
  *
  * This class implements the {@link CodeExecutor} interface and is responsible
- * for executing PHP code in a Docker container. It uses a {@link Semaphore} to
- * control concurrent executions and a {@link TempFileManager} to manage
- * temporary files.
+ * for executing PHP code in a Docker container. It uses a {@link PermitQueue}
+ * to control concurrent executions and a {@link TempFileManager} to manage
+ * temporary files. Its optional collaborators, such as the scheduler, the
+ * metrics and the journal, are passed as {@link ExecutorComponents}, and the
+ * options of a single execution as {@link ExecutionOptions}.
  */
 public class PhpCodeExecutor implements CodeExecutor {
 
     private static final long EXECUTION_TIME_ZERO = 0;
     private static final int EXCEPTION_EXIT_CODE = -1;
-    private static final int TIMEOUT_EXIT_CODE = 124;
+    static final int TIMEOUT_EXIT_CODE = 124;
     private static final Logger logger = LoggerFactory.getLogger(PhpCodeExecutor.class);
+    private static final Executor ASYNC_EXECUTOR = task -> Thread.ofVirtual().name("php-sandbox-async").start(task);
 
-    private final Semaphore semaphore;
+    private static final String OPENING_TAG = "<?php";
+    private static final String CLOSING_TAG = "?>";
+    private static final String EXECUTION_TIME_MARKER = "__EXECUTION_TIME__:";
+    // the trailer is printed on a line of its own
+    private static final String TRAILER = "\n" + EXECUTION_TIME_MARKER;
+    private static final int MAX_TRAILER_LENGTH = 128;
+    private static final String START_LINE = HedgingDockerProcessExecutor.START_MARKER + "\n";
+    private static final String CGROUP_MEMORY_PEAK = "/sys/fs/cgroup/memory.peak";
+    private static final String CGROUP_V1_MEMORY_PEAK = "/sys/fs/cgroup/memory/memory.max_usage_in_bytes";
+    // SIGKILL; inside the container only the kernel's OOM killer sends it to the script
+    private static final int KILLED_EXIT_CODE = 137;
+
+    /**
+     * Prints the trailer {@code __EXECUTION_TIME__: <wall ms> <user cpu us>
+     * <system cpu us> <peak memory bytes>} when the interpreter shuts down, so
+     * it is also printed after {@code exit} and fatal errors. The function
+     * printing it is registered on shutdown, so it runs after the shutdown
+     * functions of the snippet, flushes the output buffers the snippet left
+     * open, and keeps its state out of the snippet's scope. It is kept on one
+     * line, so the snippet starts on the third line of the prepared code.
+     */
+    private static final String SHUTDOWN = "register_shutdown_function(static function ($start) {"
+            + " register_shutdown_function(static function () use ($start) {"
+            + " while (ob_get_level() > 0 && @ob_end_flush()) {}"
+            + " $usage = getrusage(); $peak = '" + CGROUP_MEMORY_PEAK + "';"
+            + " if (!is_readable($peak)) { $peak = '" + CGROUP_V1_MEMORY_PEAK + "'; }"
+            + " file_put_contents('php://stdout', \"\\n" + EXECUTION_TIME_MARKER + " \""
+            + " . ((hrtime(true) - $start) / 1e6)"
+            + " . ' ' . ($usage['ru_utime.tv_sec'] * 1000000 + $usage['ru_utime.tv_usec'])"
+            + " . ' ' . ($usage['ru_stime.tv_sec'] * 1000000 + $usage['ru_stime.tv_usec'])"
+            + " . ' ' . (is_readable($peak) ? (int) file_get_contents($peak) : $usage['ru_maxrss'] * 1024)"
+            + " . \"\\n\"); }); }, hrtime(true));";
+
+    /**
+     * Writes the start marker line to standard error before the snippet runs,
+     * so a run reports that the script started even if the snippet prints
+     * nothing; see {@link HedgingDockerProcessExecutor}. The line is stripped
+     * from the output.
+     */
+    private static final String START = "file_put_contents('php://stderr', \""
+            + HedgingDockerProcessExecutor.START_MARKER + "\\n\");";
+    private static final String PROLOGUE = OPENING_TAG + "\n" + START + " " + SHUTDOWN + "\n";
+
+    /**
+     * Exit code of executions rejected because the sandbox is overloaded
+     * (EX_TEMPFAIL). The caller may retry later.
+     */
+    public static final int REJECTED_EXIT_CODE = 75;
+
+    private final PermitQueue permits;
+    private final Map<String, ResourceProfile> profiles;
     private final TempFileManager fileManager;
+    private final SnippetStore snippetStore;
     private final DockerProcessExecutor process;
+    private final ExecutionScheduler scheduler;
+    private final ExecutionMetrics metrics;
+    private final ExecutionJournal journal;
+    private final String prologue;
 
     public PhpCodeExecutor(Semaphore semaphore, TempFileManager fileManager, DockerProcessExecutor process) {
-        this.semaphore = semaphore;
+        this(new PermitQueue(semaphore, Integer.MAX_VALUE), fileManager, process);
+    }
+
+    public PhpCodeExecutor(PermitQueue permits, TempFileManager fileManager, DockerProcessExecutor process) {
+        this(permits, fileManager, process, ExecutorComponents.DEFAULT);
+    }
+
+    /**
+     * @param permits     the concurrency budget of executions with the default
+     *                    profile.
+     * @param fileManager the manager of temporary snippet files.
+     * @param process     the executor of Docker runs.
+     * @param components  the optional collaborators, such as the scheduler and
+     *                    the metrics.
+     */
+    public PhpCodeExecutor(PermitQueue permits, TempFileManager fileManager, DockerProcessExecutor process,
+            ExecutorComponents components) {
+        this.permits = permits;
+        this.profiles = components.profiles();
         this.fileManager = fileManager;
+        this.snippetStore = components.snippetStore();
         this.process = process;
+        this.scheduler = components.scheduler();
+        this.metrics = components.metrics();
+        this.journal = components.journal();
+        this.prologue = prologue(process != null ? process.dockerConfig() : null);
     }
 
     /**
      * Executes the given PHP snippet.
      *
-     * The snippet timeout is injected as a session-level statement timeout and
-     * applies to all statements in the snippet.
+     * The snippet timeout, or the {@code max-execution-time} of the snippet's
+     * resource profile when it has none, bounds the script run: {@code php}
+     * is started under {@code timeout <secs>} inside the container. The
+     * container is killed with {@code docker kill} if it has not exited once
+     * the container startup timeout has also elapsed.
      *
      * @param snippet the PHP code snippet to execute.
      * @return the result of the execution.
      */
     public ExecutionResult execute(CodeSnippet snippet) {
+        return execute(snippet, ExecutionOptions.DEFAULT);
+    }
+
+    /**
+     * Executes the given PHP snippet with the given options.
+     *
+     * When a scheduler is configured, the execution runs on a virtual thread
+     * in the selected lane and is rejected with exit code
+     * {@value #REJECTED_EXIT_CODE} if the lane is overloaded, instead of
+     * blocking the caller indefinitely.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @param options the execution options.
+     * @return the result of the execution.
+     */
+    public ExecutionResult execute(CodeSnippet snippet, ExecutionOptions options) {
+        return execute(snippet, options, metrics);
+    }
+
+    /**
+     * Executes the given PHP snippet and reports the durations of its phases
+     * and the resources it used with the result.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @return the result, phase timings and resource usage of the execution.
+     */
+    public PhpExecutionResult executeDetailed(CodeSnippet snippet) {
+        return executeDetailed(snippet, ExecutionOptions.DEFAULT);
+    }
+
+    /**
+     * Executes the given PHP snippet with the given options and reports the
+     * durations of its phases and the resources it used with the result.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @param options the execution options.
+     * @return the result, phase timings and resource usage of the execution.
+     * @see #execute(CodeSnippet, ExecutionOptions)
+     */
+    public PhpExecutionResult executeDetailed(CodeSnippet snippet, ExecutionOptions options) {
+        var trace = new ExecutionTrace(metrics);
+        var result = execute(snippet, options, trace);
+        return new PhpExecutionResult(result, trace.timings(), trace.usage());
+    }
+
+    /**
+     * Executes the given PHP snippet without blocking the calling thread.
+     *
+     * If no permit is available the request joins a bounded wait queue without
+     * holding a thread; when that queue is full the returned future completes
+     * with exit code {@value #REJECTED_EXIT_CODE}. Cancelling the returned
+     * future removes a waiting request from the queue or kills the container of
+     * a running one.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @return a future of the result of the execution.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(CodeSnippet snippet) {
+        return executeAsync(snippet, ExecutionOptions.DEFAULT);
+    }
+
+    /**
+     * Executes the given PHP snippet with the given options without blocking
+     * the calling thread.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @param options the execution options.
+     * @return a future of the result of the execution.
+     * @see #executeAsync(CodeSnippet)
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(CodeSnippet snippet, ExecutionOptions options) {
+        return executeAsync(snippet, options, metrics);
+    }
+
+    /**
+     * Executes the given PHP snippet without blocking the calling thread and
+     * reports the durations of its phases and the resources it used with the
+     * result.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @return a future of the result, phase timings and resource usage of the
+     *         execution.
+     * @see #executeAsync(CodeSnippet)
+     */
+    public CompletableFuture<PhpExecutionResult> executeDetailedAsync(CodeSnippet snippet) {
+        return executeDetailedAsync(snippet, ExecutionOptions.DEFAULT);
+    }
+
+    /**
+     * Executes the given PHP snippet with the given options without blocking
+     * the calling thread and reports the durations of its phases and the
+     * resources it used with the result.
+     *
+     * @param snippet the PHP code snippet to execute.
+     * @param options the execution options.
+     * @return a future of the result, phase timings and resource usage of the
+     *         execution.
+     * @see #executeAsync(CodeSnippet)
+     */
+    public CompletableFuture<PhpExecutionResult> executeDetailedAsync(CodeSnippet snippet,
+            ExecutionOptions options) {
+        var trace = new ExecutionTrace(metrics);
+        var execution = executeAsync(snippet, options, trace);
+        var result = execution.thenApply(r -> new PhpExecutionResult(r, trace.timings(), trace.usage()));
+        result.whenComplete((r, error) -> {
+            if (result.isCancelled()) {
+                execution.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Executes the given PHP snippets in a single container.
+     *
+     * Each snippet still runs in its own {@code php} process with its own
+     * timeout, so snippets cannot observe each other's state, but the cost of
+     * starting a container is paid once per batch instead of once per snippet.
+     * The whole batch holds a single execution permit.
+     *
+     * @param snippets the PHP code snippets to execute.
+     * @return the results of the executions, in the order of the snippets.
+     */
+    public List<ExecutionResult> executeBatch(List<CodeSnippet> snippets) {
+        return executeBatch(snippets, ExecutionOptions.DEFAULT);
+    }
+
+    /**
+     * Executes the given PHP snippets in a single container with the given
+     * options.
+     *
+     * @param snippets the PHP code snippets to execute.
+     * @param options  the execution options.
+     * @return the results of the executions, in the order of the snippets.
+     * @see #executeBatch(List)
+     */
+    public List<ExecutionResult> executeBatch(List<CodeSnippet> snippets, ExecutionOptions options) {
+        if (snippets.isEmpty()) {
+            return List.of();
+        }
+        var profile = profile(options);
+        if (scheduler != null) {
+            long queued = System.nanoTime();
+            var scheduled = scheduler.submit(options.lane(), options.tenant(), () -> {
+                recordPhase(metrics, ExecutionPhase.QUEUE_WAIT, queued);
+                return executeBatchInDocker(snippets, profile.dockerConfig());
+            });
+            try {
+                return scheduled.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                scheduled.cancel(true);
+                logger.warn("Batch execution interrupted while waiting for scheduled execution", e);
+                return Collections.nCopies(snippets.size(),
+                        failure(metrics, ExecutionOutcome.INTERRUPTED, "Execution interrupted"));
+            } catch (ExecutionException e) {
+                return Collections.nCopies(snippets.size(), scheduledFailure(metrics, e.getCause()));
+            }
+        }
+        var permits = profile.permits();
         boolean acquired = false;
         try {
-            semaphore.acquire();
+            long queued = System.nanoTime();
+            permits.acquire(options.tenant());
             acquired = true;
-            return executeInDocker(snippet);
+            recordPhase(metrics, ExecutionPhase.QUEUE_WAIT, queued);
+            return executeBatchInDocker(snippets, profile.dockerConfig());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Batch execution interrupted while waiting for permit", e);
+            return Collections.nCopies(snippets.size(),
+                    failure(metrics, ExecutionOutcome.INTERRUPTED, "Execution interrupted"));
+        } catch (RejectedExecutionException e) {
+            return Collections.nCopies(snippets.size(), rejected(metrics, e));
+        } finally {
+            if (acquired) {
+                permits.release(options.tenant());
+            }
+        }
+    }
+
+    private ExecutionResult execute(CodeSnippet snippet, ExecutionOptions options, ExecutionMetrics metrics) {
+        if (journal == null) {
+            return executeSingle(snippet, options, metrics);
+        }
+        var submitted = Instant.now();
+        var trace = metrics instanceof ExecutionTrace t ? t : new ExecutionTrace(metrics);
+        var result = executeSingle(snippet, options, trace);
+        journal(submitted, snippet, options, trace, result);
+        return result;
+    }
+
+    private CompletableFuture<ExecutionResult> executeAsync(CodeSnippet snippet, ExecutionOptions options,
+            ExecutionMetrics metrics) {
+        if (journal == null) {
+            return executeSingleAsync(snippet, options, metrics);
+        }
+        var submitted = Instant.now();
+        var trace = metrics instanceof ExecutionTrace t ? t : new ExecutionTrace(metrics);
+        var result = executeSingleAsync(snippet, options, trace);
+        result.thenAccept(r -> journal(submitted, snippet, options, trace, r));
+        return result;
+    }
+
+    /**
+     * Records a completed execution in the journal.
+     */
+    private void journal(Instant submitted, CodeSnippet snippet, ExecutionOptions options, ExecutionTrace trace,
+            ExecutionResult result) {
+        journal.record(submitted, snippet, options, profile(options).dockerConfig(), trace.timings(),
+                trace.outcome(), result.exitCode());
+    }
+
+    private ExecutionResult executeSingle(CodeSnippet snippet, ExecutionOptions options, ExecutionMetrics metrics) {
+        var profile = profile(options);
+        var output = streamedOutput(options);
+        if (scheduler != null) {
+            try {
+                return executeScheduled(snippet, options, profile.dockerConfig(), output, metrics);
+            } finally {
+                output.onComplete();
+            }
+        }
+        var permits = profile.permits();
+        boolean acquired = false;
+        try {
+            long queued = System.nanoTime();
+            permits.acquire(options.tenant());
+            acquired = true;
+            recordPhase(metrics, ExecutionPhase.QUEUE_WAIT, queued);
+            return executeInDocker(snippet, profile.dockerConfig(), output, metrics);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             logger.warn("Execution interrupted while waiting for permit", e);
-            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Execution interrupted",
-                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+            return failure(metrics, ExecutionOutcome.INTERRUPTED, "Execution interrupted");
+        } catch (RejectedExecutionException e) {
+            return rejected(metrics, e);
         } finally {
+            output.onComplete();
             if (acquired) {
-                semaphore.release();
+                permits.release(options.tenant());
+            }
+        }
+    }
+
+    private CompletableFuture<ExecutionResult> executeSingleAsync(CodeSnippet snippet, ExecutionOptions options,
+            ExecutionMetrics metrics) {
+        var profile = profile(options);
+        var output = streamedOutput(options);
+        if (scheduler != null) {
+            return completingOutput(output, submitScheduled(snippet, options, profile.dockerConfig(), output,
+                    metrics));
+        }
+        var result = new CompletableFuture<ExecutionResult>();
+        long queued = System.nanoTime();
+        var permit = profile.permits().acquireAsync(options.tenant());
+        permit.whenComplete((granted, error) -> {
+            if (error != null) {
+                if (!permit.isCancelled()) {
+                    result.complete(rejected(metrics, error));
+                }
+                return;
+            }
+            recordPhase(metrics, ExecutionPhase.QUEUE_WAIT, queued);
+            ASYNC_EXECUTOR.execute(
+                    () -> executeWithPermit(snippet, profile, options.tenant(), output, result, metrics));
+        });
+        result.whenComplete((r, error) -> {
+            if (result.isCancelled()) {
+                permit.cancel(false);
+            }
+        });
+        return completingOutput(output, result);
+    }
+
+    private ExecutionResult executeScheduled(CodeSnippet snippet, ExecutionOptions options,
+            DockerConfig dockerConfig, OutputListener output, ExecutionMetrics metrics) {
+        var scheduled = submitToScheduler(snippet, options, dockerConfig, output, metrics);
+        try {
+            return scheduled.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduled.cancel(true);
+            logger.warn("Execution interrupted while waiting for scheduled execution", e);
+            return failure(metrics, ExecutionOutcome.INTERRUPTED, "Execution interrupted");
+        } catch (ExecutionException e) {
+            return scheduledFailure(metrics, e.getCause());
+        }
+    }
+
+    private CompletableFuture<ExecutionResult> submitScheduled(CodeSnippet snippet, ExecutionOptions options,
+            DockerConfig dockerConfig, OutputListener output, ExecutionMetrics metrics) {
+        var scheduled = submitToScheduler(snippet, options, dockerConfig, output, metrics);
+        var result = scheduled.handle((r, error) -> error == null ? r : scheduledFailure(metrics, error));
+        result.whenComplete((r, error) -> {
+            if (result.isCancelled()) {
+                scheduled.cancel(true);
             }
+        });
+        return result;
+    }
+
+    private CompletableFuture<ExecutionResult> submitToScheduler(CodeSnippet snippet, ExecutionOptions options,
+            DockerConfig dockerConfig, OutputListener output, ExecutionMetrics metrics) {
+        long queued = System.nanoTime();
+        return scheduler.submit(options.lane(), options.tenant(), () -> {
+            recordPhase(metrics, ExecutionPhase.QUEUE_WAIT, queued);
+            return executeInDocker(snippet, dockerConfig, output, metrics);
+        });
+    }
+
+    private ExecutionResult scheduledFailure(ExecutionMetrics metrics, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            return rejected(metrics, cause);
         }
+        logger.error("Scheduled PHP snippet execution failed", cause);
+        return failure(metrics, ExecutionOutcome.THREAD_FAILURE, "Execution failed: " + cause.getMessage());
     }
 
-    private ExecutionResult executeInDocker(CodeSnippet snippet) {
+    private void executeWithPermit(CodeSnippet snippet, ResourceProfile profile, String tenant, OutputListener output,
+            CompletableFuture<ExecutionResult> result, ExecutionMetrics metrics) {
+        var permits = profile.permits();
+        if (result.isDone()) {
+            permits.release(tenant);
+            return;
+        }
+        var execution = executeInDockerAsync(snippet, profile.dockerConfig(), output, metrics);
+        result.whenComplete((r, error) -> {
+            if (result.isCancelled()) {
+                execution.cancel(true);
+            }
+        });
+        execution.whenComplete((r, error) -> {
+            permits.release(tenant);
+            result.complete(error == null ? r : handleFailure(metrics, error));
+        });
+    }
+
+    private ExecutionResult executeInDocker(CodeSnippet snippet, DockerConfig dockerConfig, OutputListener output,
+            ExecutionMetrics metrics) {
+        var timeout = runTimeout(snippet, dockerConfig);
+        if (pipesSource()) {
+            try {
+                var request = DockerRunRequest.ofSource(preparePhpCode(snippet.code()), dockerConfig)
+                        .withTimeout(timeout).withOutputListener(output);
+                long started = System.nanoTime();
+                var dockerExecution = process.executeScript(request);
+                return complete(metrics, timeout, dockerExecution, started);
+            } catch (DockerProcessException e) {
+                return handleFailure(metrics, e);
+            }
+        }
+        Path directory = null;
         Path tmpFile = null;
 
         try {
-            tmpFile = fileManager.createTempFile("php-snippet-" + System.nanoTime(), ".php");
-            String phpCode = preparePhpCode(snippet.code(), snippet.timeout());
-            fileManager.write(tmpFile, phpCode);
+            long writing = System.nanoTime();
+            directory = snippetDirectory();
+            tmpFile = writeSnippet(directory, "php-snippet", preparePhpCode(snippet.code()));
+            recordPhase(metrics, ExecutionPhase.FILE_WRITE, writing);
 
-            var dockerProcess = process.execute(tmpFile);
+            long started = System.nanoTime();
+            var dockerExecution = process.executeScript(
+                    DockerRunRequest.of(tmpFile, dockerConfig).withTimeout(timeout).withOutputListener(output));
 
-            var result = parseDockerExecutionResult(dockerProcess);
-            return enforceTimeout(snippet, result);
+            return complete(metrics, timeout, dockerExecution, started);
         } catch (IOException e) {
             logger.error("Failed to create/write temp file for PHP snippet", e);
-            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Failed to create/write temp file: " + e.getMessage(),
-                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+            return failure(metrics, ExecutionOutcome.IO_FAILURE,
+                    "Failed to create/write temp file: " + e.getMessage());
         } catch (DockerProcessThreadException e) {
             logger.error("Docker process failed while executing PHP snippet", e);
-            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Failed to handle docker process: " + e.getMessage(),
-                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+            return failure(metrics, ExecutionOutcome.THREAD_FAILURE,
+                    "Failed to handle docker process: " + e.getMessage());
         } catch (DockerProcessTimeoutException e) {
             logger.warn("PHP snippet execution timed out", e);
-            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Snippet execution timed out: " + e.getMessage(),
-                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+            return failure(metrics, ExecutionOutcome.TIMEOUT, "Snippet execution timed out: " + e.getMessage());
         } finally {
-            if (tmpFile != null) {
-                fileManager.deleteAsync(tmpFile);
+            cleanUp(metrics, directory, tmpFile != null ? List.of(tmpFile) : List.of());
+        }
+    }
+
+    private List<ExecutionResult> executeBatchInDocker(List<CodeSnippet> snippets, DockerConfig dockerConfig) {
+        List<Path> tmpFiles = new ArrayList<>(snippets.size() + 1);
+        Path directory = null;
+
+        try {
+            directory = snippetDirectory();
+            List<String> fileNames = new ArrayList<>(snippets.size());
+            List<Duration> timeouts = new ArrayList<>(snippets.size());
+            Duration batchTimeout = dockerConfig.executionTimeout();
+            for (var snippet : snippets) {
+                Path tmpFile = writeSnippet(directory, "php-snippet-" + tmpFiles.size(),
+                        preparePhpCode(snippet.code()));
+                tmpFiles.add(tmpFile);
+                Duration timeout = runTimeout(snippet, dockerConfig);
+                fileNames.add(tmpFile.getFileName().toString());
+                timeouts.add(timeout);
+                batchTimeout = batchTimeout.plus(timeout);
+            }
+            Path runner = writeSnippet(directory, "php-batch-runner", BatchRunner.script());
+            tmpFiles.add(runner);
+
+            // results are base64 encoded, both streams of every snippet share the runner's stdout
+            long runnerOutputBytes = 3L * dockerConfig.maxOutputBytes() * snippets.size() + 256L * snippets.size();
+            var request = DockerRunRequest.of(runner, dockerConfig)
+                    .withArguments(BatchRunner.arguments(dockerConfig.maxOutputBytes(), fileNames, timeouts))
+                    .withTimeout(batchTimeout)
+                    .withMaxOutputBytes((int) Math.min(Integer.MAX_VALUE - 8, runnerOutputBytes));
+
+            var dockerExecution = process.executeScript(request);
+            return parseBatchResults(snippets, timeouts, dockerExecution);
+        } catch (IOException e) {
+            logger.error("Failed to create/write temp files for PHP snippet batch", e);
+            return Collections.nCopies(snippets.size(),
+                    failure(metrics, ExecutionOutcome.IO_FAILURE,
+                            "Failed to create/write temp file: " + e.getMessage()));
+        } catch (DockerProcessThreadException e) {
+            logger.error("Docker process failed while executing PHP snippet batch", e);
+            return Collections.nCopies(snippets.size(),
+                    failure(metrics, ExecutionOutcome.THREAD_FAILURE,
+                            "Failed to handle docker process: " + e.getMessage()));
+        } catch (DockerProcessTimeoutException e) {
+            logger.warn("PHP snippet batch execution timed out", e);
+            return Collections.nCopies(snippets.size(),
+                    failure(metrics, ExecutionOutcome.TIMEOUT, "Batch execution timed out: " + e.getMessage()));
+        } finally {
+            cleanUp(metrics, directory, tmpFiles);
+        }
+    }
+
+    private List<ExecutionResult> parseBatchResults(List<CodeSnippet> snippets, List<Duration> timeouts,
+            DockerExecution dockerExecution) {
+        Map<Integer, BatchRunner.Entry> entries;
+        try {
+            entries = BatchRunner.parse(dockerExecution.stdout());
+        } catch (IllegalStateException e) {
+            logger.error("PHP snippet batch output was tampered with: {}", e.getMessage());
+            return Collections.nCopies(snippets.size(), failure(metrics, ExecutionOutcome.THREAD_FAILURE,
+                    "Invalid batch runner output: " + e.getMessage()));
+        }
+        List<ExecutionResult> results = new ArrayList<>(snippets.size());
+        for (int i = 0; i < snippets.size(); i++) {
+            var entry = entries.get(i);
+            if (entry == null) {
+                logger.error("Batch runner produced no result for snippet {} (exit code {}): {}", i,
+                        dockerExecution.exitCode(), dockerExecution.stderr().trim());
+                results.add(failure(metrics, ExecutionOutcome.THREAD_FAILURE,
+                        "Batch runner produced no result (exit code " + dockerExecution.exitCode() + ")"));
+                continue;
             }
+            var result = parseOutput(entry.exitCode(), entry.stdout(), entry.stderr());
+            if (entry.timedOut()) {
+                var message = "Snippet execution timed out: exceeded " + timeouts.get(i).toMillis() + "ms";
+                results.add(recordOutcome(metrics,
+                        new ExecutionResult(TIMEOUT_EXIT_CODE, result.stdout(), message, entry.executionTime())));
+            } else {
+                results.add(recordOutcome(metrics, enforceTimeout(timeouts.get(i), result)));
+            }
+        }
+        return results;
+    }
+
+    private CompletableFuture<ExecutionResult> executeInDockerAsync(CodeSnippet snippet, DockerConfig dockerConfig,
+            OutputListener output, ExecutionMetrics metrics) {
+        var timeout = runTimeout(snippet, dockerConfig);
+        if (pipesSource()) {
+            var request = DockerRunRequest.ofSource(preparePhpCode(snippet.code()), dockerConfig)
+                    .withTimeout(timeout).withOutputListener(output);
+            long started = System.nanoTime();
+            return toResult(metrics, timeout, process.executeScriptAsync(request), started);
+        }
+        Path directory = null;
+        Path tmpFile;
+        CompletableFuture<DockerExecution> dockerExecution;
+
+        long started;
+        try {
+            long writing = System.nanoTime();
+            directory = snippetDirectory();
+            tmpFile = writeSnippet(directory, "php-snippet", preparePhpCode(snippet.code()));
+            recordPhase(metrics, ExecutionPhase.FILE_WRITE, writing);
+
+            started = System.nanoTime();
+            dockerExecution = process.executeScriptAsync(
+                    DockerRunRequest.of(tmpFile, dockerConfig).withTimeout(timeout).withOutputListener(output));
+        } catch (IOException e) {
+            logger.error("Failed to create/write temp file for PHP snippet", e);
+            cleanUp(metrics, directory, List.of());
+            return CompletableFuture.completedFuture(failure(metrics, ExecutionOutcome.IO_FAILURE,
+                    "Failed to create/write temp file: " + e.getMessage()));
         }
+
+        Path executedDirectory = directory;
+        List<Path> executedFiles = List.of(tmpFile);
+        dockerExecution.whenComplete((execution, error) -> cleanUp(metrics, executedDirectory, executedFiles));
+        return toResult(metrics, timeout, dockerExecution, started);
     }
 
-    private String preparePhpCode(String code, Duration timeout) {
-        // Remove any existing PHP tags to avoid syntax errors
-        String sanitizedCode = code
-                // remove opening tag only if it's at the beginning (ignoring whitespace)
-                .replaceFirst("^\\s*<\\?php\\s*", "")
-                // remove closing tag only if it's at the end (ignoring whitespace)
-                .replaceFirst("\\s*\\?>\\s*$", "");
+    private CompletableFuture<ExecutionResult> toResult(ExecutionMetrics metrics, Duration timeout,
+            CompletableFuture<DockerExecution> dockerExecution, long started) {
+        var result = dockerExecution.handle((execution, error) -> error == null
+                ? complete(metrics, timeout, execution, started)
+                : handleFailure(metrics, error));
+        result.whenComplete((r, error) -> {
+            if (result.isCancelled()) {
+                dockerExecution.cancel(true);
+            }
+        });
+        return result;
+    }
 
-        return "<?php\n" +
-                "$start = microtime(true);\n" +
-                sanitizedCode + "\n" +
-                "$end = microtime(true);\n" +
-                "fwrite(STDOUT, \"\\n__EXECUTION_TIME__: \" . (($end - $start) * 1000) . \"\\n\");\n" +
-                "?>";
+    /**
+     * @return whether snippets are piped to the interpreter instead of being
+     *         written to temporary files.
+     */
+    private boolean pipesSource() {
+        return process.pipesSource();
+    }
+
+    /**
+     * @return the resource profile selected by the options.
+     * @throws IllegalArgumentException if the options name an unknown profile.
+     */
+    private ResourceProfile profile(ExecutionOptions options) {
+        if (options.profile() == null) {
+            return new ResourceProfile(process.dockerConfig(), permits);
+        }
+        var profile = profiles.get(options.profile());
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown resource profile: " + options.profile());
+        }
+        return profile;
     }
 
-    private ExecutionResult parseDockerExecutionResult(Process dockerProcess) {
-        int exitCode = dockerProcess.exitValue();
-        var stdout = new BufferedReader(new InputStreamReader(dockerProcess.getInputStream()));
-        var stderr = new BufferedReader(new InputStreamReader(dockerProcess.getErrorStream()));
+    /**
+     * @return the listener the output of a single execution is streamed
+     *         through, which strips the execution time trailer, or
+     *         {@link OutputListener#NONE} if the output is not streamed.
+     */
+    private static OutputListener streamedOutput(ExecutionOptions options) {
+        return options.streamsOutput()
+                ? new StreamedOutput(options.outputListener(), START_LINE, TRAILER, MAX_TRAILER_LENGTH)
+                : OutputListener.NONE;
+    }
 
-        String out = stdout.lines().reduce("", (a, b) -> a + b + "\n").trim();
-        String err = stderr.lines().reduce("", (a, b) -> a + b + "\n").trim();
+    /**
+     * Completes the streamed output once the execution completes, however it
+     * completes.
+     */
+    private static <T> CompletableFuture<T> completingOutput(OutputListener output, CompletableFuture<T> result) {
+        if (output != OutputListener.NONE) {
+            result.whenComplete((r, error) -> output.onComplete());
+        }
+        return result;
+    }
 
-        long executionTime = 0;
-        Pattern pattern = Pattern.compile("__EXECUTION_TIME__:\\s*(\\d+(?:\\.\\d+)?)");
-        Matcher matcher = pattern.matcher(out);
-        if (matcher.find()) {
-            executionTime = (long) Double.parseDouble(matcher.group(1));
-            out = matcher.replaceAll("").trim();
+    private ExecutionResult handleFailure(ExecutionMetrics metrics, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof DockerProcessTimeoutException) {
+            logger.warn("PHP snippet execution timed out", cause);
+            return failure(metrics, ExecutionOutcome.TIMEOUT, "Snippet execution timed out: " + cause.getMessage());
         }
+        logger.error("Docker process failed while executing PHP snippet", cause);
+        return failure(metrics, ExecutionOutcome.THREAD_FAILURE,
+                "Failed to handle docker process: " + cause.getMessage());
+    }
+
+    /**
+     * Parses a finished Docker execution into the snippet result and records
+     * the container, runtime and parsing phases, the resource usage and the
+     * outcome.
+     */
+    private ExecutionResult complete(ExecutionMetrics metrics, Duration timeout, DockerExecution dockerExecution,
+            long started) {
+        var container = Duration.ofNanos(System.nanoTime() - started);
+        long parsing = System.nanoTime();
+        var result = enforceTimeout(timeout, parseDockerExecutionResult(dockerExecution));
+        var usage = resourceUsage(dockerExecution);
+        recordPhase(metrics, ExecutionPhase.OUTPUT_PARSE, parsing);
+        metrics.recordUsage(usage);
 
-        return new ExecutionResult(exitCode, out, err, Duration.ofMillis(executionTime));
+        metrics.recordPhase(ExecutionPhase.CONTAINER, container);
+        var runtime = result.executionTime();
+        if (runtime.isPositive()) {
+            metrics.recordPhase(ExecutionPhase.PHP_RUNTIME, runtime);
+            if (container.compareTo(runtime) > 0) {
+                metrics.recordPhase(ExecutionPhase.CONTAINER_OVERHEAD, container.minus(runtime));
+            }
+        }
+        return recordOutcome(metrics, result);
     }
 
-    private ExecutionResult enforceTimeout(CodeSnippet snippet, ExecutionResult result) {
-        var timeout = snippet.timeout();
-        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
-            return result;
+    /**
+     * @return a directory of its own from the snippet store for the snippet
+     *         files of one execution, or {@code null} if snippets are written
+     *         to temporary files.
+     */
+    private Path snippetDirectory() throws IOException {
+        return snippetStore != null ? snippetStore.acquire() : null;
+    }
+
+    /**
+     * Writes a snippet file into the directory of the execution, or into a
+     * new temporary file if there is none, in the code directory of the
+     * Docker executor if it has one.
+     */
+    private Path writeSnippet(Path directory, String name, String code) throws IOException {
+        if (directory != null) {
+            return snippetStore.write(directory, name + ".php", code);
+        }
+        Path codeDirectory = process.codeDirectory();
+        Path tmpFile = codeDirectory != null ? Files.createTempFile(codeDirectory, name + "-", ".php")
+                : fileManager.createTempFile(name + "-" + System.nanoTime(), ".php");
+        try {
+            fileManager.write(tmpFile, code);
+        } catch (IOException e) {
+            fileManager.deleteAsync(tmpFile);
+            throw e;
+        }
+        return tmpFile;
+    }
+
+    /**
+     * Releases the snippet directory of the execution, or deletes its
+     * temporary files if there is none.
+     */
+    private void cleanUp(ExecutionMetrics metrics, Path directory, List<Path> tmpFiles) {
+        if (directory == null && tmpFiles.isEmpty()) {
+            return;
+        }
+        long cleaning = System.nanoTime();
+        if (directory != null) {
+            snippetStore.release(directory);
+        } else {
+            tmpFiles.forEach(fileManager::deleteAsync);
+        }
+        recordPhase(metrics, ExecutionPhase.CLEANUP, cleaning);
+    }
+
+    private static void recordPhase(ExecutionMetrics metrics, ExecutionPhase phase, long startNanos) {
+        metrics.recordPhase(phase, Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+
+    private static ExecutionResult recordOutcome(ExecutionMetrics metrics, ExecutionResult result) {
+        if (result.exitCode() == 0) {
+            metrics.recordOutcome(ExecutionOutcome.SUCCESS);
+        } else if (result.exitCode() == TIMEOUT_EXIT_CODE) {
+            metrics.recordOutcome(ExecutionOutcome.TIMEOUT);
+        } else {
+            metrics.recordOutcome(ExecutionOutcome.NON_ZERO_EXIT);
+        }
+        return result;
+    }
+
+    private static ExecutionResult failure(ExecutionMetrics metrics, ExecutionOutcome outcome, String message) {
+        metrics.recordOutcome(outcome);
+        return failure(message);
+    }
+
+    private static ExecutionResult rejected(ExecutionMetrics metrics, Throwable error) {
+        logger.warn("PHP snippet execution rejected: {}", error.getMessage());
+        metrics.recordOutcome(ExecutionOutcome.REJECTED);
+        return new ExecutionResult(REJECTED_EXIT_CODE, null, "Execution rejected: " + error.getMessage(),
+                Duration.ofMillis(EXECUTION_TIME_ZERO));
+    }
+
+    private static ExecutionResult failure(String message) {
+        return new ExecutionResult(EXCEPTION_EXIT_CODE, null, message, Duration.ofMillis(EXECUTION_TIME_ZERO));
+    }
+
+    /**
+     * Includes the bootstrap files on the line of the opening tag, so the
+     * line numbers of the snippet do not depend on the bootstrap and the
+     * includes are not part of the measured execution time.
+     */
+    private static String prologue(DockerConfig dockerConfig) {
+        var bootstrap = dockerConfig != null ? dockerConfig.bootstrap() : null;
+        if (bootstrap == null || bootstrap.includes().isEmpty()) {
+            return PROLOGUE;
+        }
+        var prologue = new StringBuilder(OPENING_TAG);
+        for (var include : bootstrap.includes()) {
+            prologue.append(" require_once '").append(bootstrap.containerPath(include)).append("';");
+        }
+        return prologue.append(PROLOGUE, OPENING_TAG.length(), PROLOGUE.length()).toString();
+    }
+
+    // package-private for the benchmarks
+    String preparePhpCode(String code) {
+        // Remove any existing PHP tags to avoid syntax errors: the opening tag only if it's at the
+        // beginning and the closing tag only if it's at the end, ignoring whitespace
+        int start = skipWhitespace(code, 0);
+        if (code.startsWith(OPENING_TAG, start)) {
+            start = skipWhitespace(code, start + OPENING_TAG.length());
+        } else {
+            start = 0;
+        }
+        int end = trimWhitespace(code, start, code.length());
+        if (end - start >= CLOSING_TAG.length() && code.startsWith(CLOSING_TAG, end - CLOSING_TAG.length())) {
+            end = trimWhitespace(code, start, end - CLOSING_TAG.length());
+        } else {
+            end = code.length();
         }
-        if (result.executionTime().compareTo(timeout) <= 0) {
+
+        return new StringBuilder(prologue.length() + (end - start))
+                .append(prologue)
+                .append(code, start, end)
+                .toString();
+    }
+
+    // package-private for the benchmarks
+    ExecutionResult parseDockerExecutionResult(DockerExecution dockerExecution) {
+        return parseOutput(dockerExecution.exitCode(), dockerExecution.stdout(), dockerExecution.stderr());
+    }
+
+    /**
+     * Trims the output streams and strips the execution time trailer printed
+     * by the prepared code. The trailer is printed at shutdown, so only the
+     * output of destructors can follow it; that output is kept.
+     */
+    private ExecutionResult parseOutput(int exitCode, String stdout, String stderr) {
+        long executionTime = EXECUTION_TIME_ZERO;
+        int end = stdout.length();
+        int resume = end;
+        int trailer = findTrailer(stdout);
+        if (trailer >= 0) {
+            int lineEnd = lineEnd(stdout, trailer + TRAILER.length());
+            double millis = parseField(stdout, trailer + TRAILER.length(), lineEnd);
+            if (millis >= 0) {
+                executionTime = (long) millis;
+                end = trailer;
+                resume = Math.min(lineEnd + 1, stdout.length());
+            }
+        }
+
+        String output;
+        if (resume < stdout.length()) {
+            output = (stdout.substring(0, end) + stdout.substring(resume)).trim();
+        } else {
+            int start = 0;
+            while (start < end && stdout.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && stdout.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            output = stdout.substring(start, end);
+        }
+        return new ExecutionResult(exitCode, output, stripStartMarker(stderr).trim(),
+                Duration.ofMillis(executionTime));
+    }
+
+    /**
+     * Strips the start marker written by the prepared code. It is the first
+     * thing the script writes, but start-up warnings of the interpreter may
+     * precede it.
+     */
+    private static String stripStartMarker(String stderr) {
+        int marker = stderr.indexOf(START_LINE);
+        if (marker < 0) {
+            return stderr;
+        }
+        if (marker == 0) {
+            return stderr.substring(START_LINE.length());
+        }
+        return stderr.substring(0, marker) + stderr.substring(marker + START_LINE.length());
+    }
+
+    /**
+     * @return the index of the line break starting the last trailer line, or
+     *         {@code -1}.
+     */
+    private static int findTrailer(String output) {
+        return output.lastIndexOf(TRAILER);
+    }
+
+    /**
+     * @return the index of the line break ending the line that contains
+     *         {@code from}, or the length of the output if it is the last line.
+     */
+    private static int lineEnd(String output, int from) {
+        int lineEnd = output.indexOf('\n', from);
+        return lineEnd < 0 ? output.length() : lineEnd;
+    }
+
+    /**
+     * Parses the first of the space separated numbers between {@code from} and
+     * {@code to}, skipping leading whitespace.
+     *
+     * @return the number, or {@code -1} if the range holds anything else.
+     */
+    private static double parseField(String output, int from, int to) {
+        from = skipWhitespace(output, from);
+        if (from >= to || !Character.isDigit(output.charAt(from))) {
+            return -1;
+        }
+        int fieldEnd = to;
+        for (int i = from; i < to; i++) {
+            char c = output.charAt(i);
+            if (c == ' ') {
+                fieldEnd = Math.min(fieldEnd, i);
+            } else if (!Character.isDigit(c) && c != '.' && c != 'E' && c != 'e' && c != '-' && c != '+') {
+                return -1;
+            }
+        }
+        try {
+            return Double.parseDouble(output.substring(from, fieldEnd));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Collects the resource usage of a run from the trailer printed by the
+     * prepared code and from its Docker execution. A run that printed no
+     * trailer and exited on {@code SIGKILL} without being killed by the
+     * sandbox was killed by the OOM killer.
+     */
+    private static ResourceUsage resourceUsage(DockerExecution dockerExecution) {
+        String stdout = dockerExecution.stdout();
+        int trailer = findTrailer(stdout);
+        int lineEnd = trailer >= 0 ? lineEnd(stdout, trailer + TRAILER.length()) : -1;
+        double[] fields = trailer >= 0 ? parseFields(stdout, trailer + TRAILER.length(), lineEnd) : null;
+        long outputBytes = dockerExecution.outputBytes();
+        if (dockerExecution.stderr().contains(START_LINE)) {
+            outputBytes = Math.max(0, outputBytes - START_LINE.length());
+        }
+        if (fields == null) {
+            boolean oomKilled = dockerExecution.exitCode() == KILLED_EXIT_CODE && !dockerExecution.killedForOutput();
+            return new ResourceUsage(Duration.ZERO, Duration.ZERO, Duration.ZERO, -1, oomKilled, outputBytes);
+        }
+        // the trailer line and the line break before it are not output of the snippet
+        outputBytes = Math.max(0, outputBytes - (Math.min(lineEnd + 1, stdout.length()) - trailer));
+        return new ResourceUsage(Duration.ofNanos((long) (fields[0] * 1_000_000)),
+                Duration.ofNanos((long) (fields[1] * 1_000)), Duration.ofNanos((long) (fields[2] * 1_000)),
+                (long) fields[3], false, outputBytes);
+    }
+
+    /**
+     * Parses the wall time, user and system CPU time and peak memory of the
+     * trailer between {@code from} and {@code to}.
+     *
+     * @return the four numbers, or {@code null} if the range holds anything
+     *         else.
+     */
+    private static double[] parseFields(String output, int from, int to) {
+        var fields = output.substring(from, to).trim().split(" ");
+        if (fields.length != 4) {
+            return null;
+        }
+        double[] values = new double[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            try {
+                values[i] = Double.parseDouble(fields[i]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (!(values[i] >= 0)) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    private static int skipWhitespace(String text, int from) {
+        while (from < text.length() && isWhitespace(text.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    // the characters matched by \s in a regular expression
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static int trimWhitespace(String text, int from, int to) {
+        while (to > from && isWhitespace(text.charAt(to - 1))) {
+            to--;
+        }
+        return to;
+    }
+
+    /**
+     * Turns a run that exceeded the snippet timeout into a timeout result: one
+     * that reports a runtime above it, or one that was terminated inside the
+     * container before it could report its runtime.
+     */
+    private static ExecutionResult enforceTimeout(Duration timeout, ExecutionResult result) {
+        boolean terminated = result.exitCode() == TIMEOUT_EXIT_CODE && result.executionTime().isZero();
+        if (!terminated && result.executionTime().compareTo(timeout) <= 0) {
             return result;
         }
         var message = "Snippet execution timed out: exceeded " + timeout.toMillis() + "ms";
         return new ExecutionResult(TIMEOUT_EXIT_CODE, result.stdout(), message, result.executionTime());
     }
 
+    /**
+     * @return the time the snippet may run: its own timeout, or the execution
+     *         timeout of the configuration it runs with if it has none.
+     */
+    private static Duration runTimeout(CodeSnippet snippet, DockerConfig dockerConfig) {
+        return isPositive(snippet.timeout()) ? snippet.timeout() : dockerConfig.executionTimeout();
+    }
+
+    private static boolean isPositive(Duration duration) {
+        return duration != null && !duration.isZero() && !duration.isNegative();
+    }
+
 }
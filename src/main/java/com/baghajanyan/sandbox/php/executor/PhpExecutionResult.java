@@ -0,0 +1,25 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.php.metrics.ResourceUsage;
+
+/**
+ * The result of a PHP snippet execution together with the durations of its
+ * phases and the resources it used.
+ *
+ * @param result  the result of the execution.
+ * @param timings the durations of the phases of the execution.
+ * @param usage   the resources the execution used.
+ */
+public record PhpExecutionResult(ExecutionResult result, ExecutionTimings timings, ResourceUsage usage) {
+
+    /**
+     * Creates the result of an execution whose resource usage is unknown.
+     *
+     * @param result  the result of the execution.
+     * @param timings the durations of the phases of the execution.
+     */
+    public PhpExecutionResult(ExecutionResult result, ExecutionTimings timings) {
+        this(result, timings, ResourceUsage.NONE);
+    }
+}
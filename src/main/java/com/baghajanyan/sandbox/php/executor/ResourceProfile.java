@@ -0,0 +1,23 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.scheduler.PermitQueue;
+
+/**
+ * A named set of resource limits executions can select with
+ * {@link ExecutionOptions#withProfile(String)}, e.g. a small profile for quick
+ * checks and a large one for heavy jobs.
+ *
+ * @param dockerConfig the configuration containers of the profile are created
+ *                     with, whose memory, CPU and execution timeout limits
+ *                     apply.
+ * @param permits      the concurrency budget of the profile.
+ */
+public record ResourceProfile(DockerConfig dockerConfig, PermitQueue permits) {
+
+    public ResourceProfile {
+        if (dockerConfig == null || permits == null) {
+            throw new IllegalArgumentException("dockerConfig and permits must not be null");
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A store of snippet files with a directory of its own per execution.
+ *
+ * Executions write their snippets into a directory acquired from the store,
+ * and only that directory is mounted into their container, so a container
+ * cannot read the snippets of other executions. The store lives under a
+ * dedicated root, ideally on a tmpfs such as {@code /dev/shm} so snippet
+ * files never reach the disk, with the directories spread over a fixed
+ * number of shard directories to keep each of them small.
+ *
+ * Directories are created ahead of time and recycled: a released directory
+ * is emptied and handed to the next execution, so the steady state creates
+ * and removes no directories. A periodic sweep reclaims directories held
+ * longer than the maximum lease and removes directories the store does not
+ * know, such as those left behind by a previous process or a failed
+ * release. The store holds a lock on its root while it is started, so a
+ * second store, in this or another process, fails to start on the same root
+ * instead of sweeping the directories of the first one.
+ */
+public class SnippetStore implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SnippetStore.class);
+    private static final String LOCK_FILE = ".lock";
+
+    private final Path root;
+    private final List<Path> shards;
+    private final int poolSize;
+    private final Duration maxLease;
+    private final Duration sweepInterval;
+    private final BlockingQueue<Path> free;
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+    private final Map<Path, Long> leases = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed;
+    private FileChannel lock;
+    private boolean createdRoot;
+
+    /**
+     * @param root          the root directory of the store.
+     * @param shards        the number of shard directories.
+     * @param poolSize      the number of empty directories kept for reuse.
+     * @param maxLease      the time after which a directory that was not
+     *                      released is reclaimed.
+     * @param sweepInterval the time between sweeps.
+     */
+    public SnippetStore(Path root, int shards, int poolSize, Duration maxLease, Duration sweepInterval) {
+        if (shards < 1 || shards > 256 || poolSize < 0) {
+            throw new IllegalArgumentException("shards must be between 1 and 256 and poolSize must be >= 0");
+        }
+        this.root = root.toAbsolutePath().normalize();
+        List<Path> shardDirectories = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            shardDirectories.add(this.root.resolve(String.format("%02x", i)));
+        }
+        this.shards = List.copyOf(shardDirectories);
+        this.poolSize = poolSize;
+        this.maxLease = maxLease;
+        this.sweepInterval = sweepInterval;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "php-sandbox-snippets");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Locks the root, creates the shard directories, removes what a previous
+     * process left in them, preallocates the pooled directories and schedules
+     * the sweeps.
+     *
+     * @throws IllegalStateException if the root is used by another store or
+     *                               the store cannot be prepared.
+     */
+    public void start() {
+        try {
+            createdRoot = !Files.isDirectory(root);
+            Files.createDirectories(root);
+            lockRoot();
+            for (var shard : shards) {
+                Files.createDirectories(shard);
+            }
+            sweep();
+            for (int i = 0; i < poolSize; i++) {
+                free.offer(create());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to prepare the snippet store at " + root, e);
+        }
+        long interval = sweepInterval.toMillis();
+        maintenance.scheduleWithFixedDelay(this::sweepQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the root directory of the store.
+     */
+    public Path root() {
+        return root;
+    }
+
+    /**
+     * Acquires an empty directory for the snippets of one execution. The
+     * directory must be released once the execution completes.
+     *
+     * @return the directory.
+     * @throws IOException if a new directory cannot be created.
+     */
+    public Path acquire() throws IOException {
+        if (closed) {
+            throw new IOException("The snippet store is closed");
+        }
+        Path directory = free.poll();
+        if (directory == null) {
+            directory = create();
+        }
+        leases.put(directory, System.nanoTime());
+        return directory;
+    }
+
+    /**
+     * Writes a snippet file into a directory acquired from the store.
+     *
+     * @param directory the directory.
+     * @param fileName  the name of the file.
+     * @param content   the content of the file.
+     * @return the written file.
+     * @throws IOException if the file cannot be written.
+     */
+    public Path write(Path directory, String fileName, String content) throws IOException {
+        return Files.writeString(directory.resolve(fileName), content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Empties the given directory and returns it to the pool, or removes it
+     * if the pool is full. Directories reclaimed by a sweep are ignored.
+     *
+     * @param directory the directory acquired from the store.
+     */
+    public void release(Path directory) {
+        if (leases.remove(directory) == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to empty snippet directory {}", directory, e);
+            discard(directory);
+            return;
+        }
+        if (closed || poolSize == 0 || !free.offer(directory)) {
+            discard(directory);
+        }
+    }
+
+    /**
+     * Reclaims the directories held longer than the maximum lease and removes
+     * the directories the store does not know.
+     *
+     * @return the number of directories removed.
+     */
+    public int sweep() {
+        int removed = 0;
+        long now = System.nanoTime();
+        for (var lease : leases.entrySet()) {
+            if (now - lease.getValue() > maxLease.toNanos() && leases.remove(lease.getKey(), lease.getValue())) {
+                logger.warn("Snippet directory {} was not released within {}s, removing it", lease.getKey(),
+                        maxLease.toSeconds());
+                discard(lease.getKey());
+                removed++;
+            }
+        }
+        for (var shard : shards) {
+            try (Stream<Path> entries = Files.list(shard)) {
+                for (var entry : (Iterable<Path>) entries::iterator) {
+                    if (!directories.contains(entry)) {
+                        delete(entry);
+                        removed++;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to sweep snippet shard {}", shard, e);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Stops the sweeps, removes every directory of the store and releases the
+     * root. A root the store created itself is removed as well.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        free.clear();
+        directories.clear();
+        if (lock == null) {
+            return;
+        }
+        for (var shard : shards) {
+            delete(shard);
+        }
+        try {
+            lock.close();
+            if (createdRoot) {
+                Files.deleteIfExists(root.resolve(LOCK_FILE));
+                Files.deleteIfExists(root);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to release the snippet store root {}", root, e);
+        }
+    }
+
+    private void lockRoot() throws IOException {
+        var channel = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() != null) {
+                lock = channel;
+                return;
+            }
+        } catch (OverlappingFileLockException e) {
+            // locked by another store of this process
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        throw new IllegalStateException("The snippet store root " + root + " is used by another store");
+    }
+
+    private Path create() throws IOException {
+        long id = sequence.incrementAndGet();
+        Path directory = shards.get((int) (id % shards.size())).resolve(Long.toString(id, 36));
+        directories.add(directory);
+        try {
+            return Files.createDirectory(directory);
+        } catch (IOException e) {
+            directories.remove(directory);
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets the directory and removes it. If the removal fails, the next
+     * sweep removes it as an unknown directory.
+     */
+    private void discard(Path directory) {
+        directories.remove(directory);
+        delete(directory);
+    }
+
+    private static void delete(Path path) {
+        try (Stream<Path> tree = Files.walk(path)) {
+            for (var entry : (Iterable<Path>) tree.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(entry);
+            }
+        } catch (NoSuchFileException e) {
+            // already removed
+        } catch (IOException e) {
+            logger.warn("Failed to remove {}", path, e);
+        }
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            logger.error("Snippet store sweep failed", e);
+        }
+    }
+}
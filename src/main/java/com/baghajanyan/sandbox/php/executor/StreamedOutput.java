@@ -0,0 +1,147 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.baghajanyan.sandbox.php.docker.OutputListener;
+
+/**
+ * Passes the output of a snippet on to the caller's listener without the
+ * start marker and the execution time trailer printed by the prepared code.
+ *
+ * The trailer is printed at shutdown, followed at most by the output of
+ * destructors, so the last bytes of standard output are held back until the
+ * execution completes, and are then passed on without the trailer line.
+ * Standard error is passed on as it arrives, once it no longer matches the
+ * start marker the prepared code writes first.
+ * Output arriving after completion, e.g. from a run that was cancelled, is
+ * dropped.
+ */
+final class StreamedOutput implements OutputListener {
+    private final OutputListener listener;
+    private final byte[] startLine;
+    private final byte[] marker;
+    private final byte[] held;
+    private int heldCount;
+    // the number of bytes of the start line matched so far, or -1 once it is stripped or absent
+    private int startMatched;
+    private volatile boolean completed;
+
+    /**
+     * @param listener         the caller's listener.
+     * @param startLine        the start marker line the prepared code writes
+     *                         to standard error first.
+     * @param marker           the line break and marker starting the
+     *                         trailer line.
+     * @param maxTrailerLength the number of bytes of standard output held
+     *                         back, enough to hold the whole trailer.
+     */
+    StreamedOutput(OutputListener listener, String startLine, String marker, int maxTrailerLength) {
+        this.listener = listener;
+        this.startLine = startLine.getBytes(StandardCharsets.US_ASCII);
+        this.marker = marker.getBytes(StandardCharsets.US_ASCII);
+        this.held = new byte[maxTrailerLength];
+    }
+
+    @Override
+    public synchronized void onStdout(ByteBuffer chunk) {
+        if (completed) {
+            return;
+        }
+        int overflow = heldCount + chunk.remaining() - held.length;
+        if (overflow > 0) {
+            int fromHeld = Math.min(overflow, heldCount);
+            if (fromHeld > 0) {
+                listener.onStdout(ByteBuffer.wrap(held, 0, fromHeld).asReadOnlyBuffer());
+                System.arraycopy(held, fromHeld, held, 0, heldCount - fromHeld);
+                heldCount -= fromHeld;
+            }
+            int fromChunk = overflow - fromHeld;
+            if (fromChunk > 0) {
+                listener.onStdout(chunk.slice(chunk.position(), fromChunk));
+                chunk.position(chunk.position() + fromChunk);
+            }
+        }
+        int remaining = chunk.remaining();
+        chunk.get(held, heldCount, remaining);
+        heldCount += remaining;
+    }
+
+    @Override
+    public synchronized void onStderr(ByteBuffer chunk) {
+        if (completed) {
+            return;
+        }
+        if (startMatched >= 0) {
+            while (chunk.hasRemaining() && startMatched < startLine.length
+                    && chunk.get(chunk.position()) == startLine[startMatched]) {
+                chunk.position(chunk.position() + 1);
+                startMatched++;
+            }
+            if (startMatched == startLine.length) {
+                startMatched = -1;
+            } else if (chunk.hasRemaining()) {
+                passOnStartPrefix();
+            }
+        }
+        if (chunk.hasRemaining()) {
+            listener.onStderr(chunk);
+        }
+    }
+
+    /**
+     * Passes on the held back output without the trailer line and completes
+     * the caller's listener. Only the first call has an effect.
+     */
+    @Override
+    public synchronized void onComplete() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        passOnStartPrefix();
+        int end = trailer();
+        int resume = heldCount;
+        if (end < 0) {
+            end = heldCount;
+        } else {
+            int lineEnd = end + marker.length;
+            while (lineEnd < heldCount && held[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            resume = lineEnd + 1;
+        }
+        if (end > 0) {
+            listener.onStdout(ByteBuffer.wrap(held, 0, end).asReadOnlyBuffer());
+        }
+        if (resume < heldCount) {
+            listener.onStdout(ByteBuffer.wrap(held, resume, heldCount - resume).asReadOnlyBuffer());
+        }
+        listener.onComplete();
+    }
+
+    /**
+     * Passes on the bytes of standard error that matched the start of the
+     * start marker line but turned out to be output of their own.
+     */
+    private void passOnStartPrefix() {
+        if (startMatched > 0) {
+            listener.onStderr(ByteBuffer.wrap(startLine, 0, startMatched).asReadOnlyBuffer());
+        }
+        startMatched = -1;
+    }
+
+    /**
+     * @return the index of the last trailer marker in the held back output,
+     *         or {@code -1}.
+     */
+    private int trailer() {
+        for (int i = heldCount - marker.length; i >= 0; i--) {
+            if (Arrays.equals(held, i, i + marker.length, marker, 0, marker.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,418 @@
+package com.baghajanyan.sandbox.php.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.executor.ExecutionOptions;
+import com.baghajanyan.sandbox.php.executor.ExecutionTimings;
+import com.baghajanyan.sandbox.php.metrics.ExecutionOutcome;
+
+/**
+ * An append-only journal of executions, for replaying real traffic against
+ * other sizing with a {@link JournalReplay}.
+ *
+ * Executions are handed to the journal when they complete and written by a
+ * single background thread in batches, so recording an execution only queues
+ * it. When the queue is full, entries are dropped rather than slowing down
+ * executions. Entries are appended to memory-mapped segment files of a fixed
+ * size in the journal directory; a full segment is flushed to disk and the
+ * next one is started, and the oldest segments beyond the maximum are
+ * deleted. Every start begins a new segment, so a journal directory keeps the
+ * entries of earlier runs.
+ *
+ * Each entry is stored with its length and a CRC-32 of its content. A segment
+ * ends at the first entry with a zero length or a mismatching checksum, e.g.
+ * the unwritten remainder of a segment or an entry torn by a crash.
+ *
+ * The code of snippets is only recorded if enabled, as it may contain data of
+ * the callers; entries always carry a hash of the code.
+ */
+public class ExecutionJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionJournal.class);
+    private static final int MAGIC = 0x504a524e;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_BYTES = 8;
+    private static final int ENTRY_HEADER_BYTES = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final int batchSize;
+    private final boolean recordCode;
+    private final BlockingQueue<Pending> queue;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+    private MappedByteBuffer segment;
+    private long nextSegment;
+
+    /**
+     * @param directory     the directory of the segment files.
+     * @param segmentBytes  the size of a segment file.
+     * @param maxSegments   the number of segment files kept; older ones are
+     *                      deleted.
+     * @param queueCapacity the maximum number of entries waiting to be
+     *                      written.
+     * @param batchSize     the maximum number of entries written at once.
+     * @param recordCode    whether the code of snippets is recorded.
+     */
+    public ExecutionJournal(Path directory, int segmentBytes, int maxSegments, int queueCapacity, int batchSize,
+            boolean recordCode) {
+        if (segmentBytes <= SEGMENT_HEADER_BYTES + ENTRY_HEADER_BYTES) {
+            throw new IllegalArgumentException("segmentBytes must be > " + (SEGMENT_HEADER_BYTES + ENTRY_HEADER_BYTES));
+        }
+        if (maxSegments < 1 || queueCapacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("maxSegments, queueCapacity and batchSize must be >= 1");
+        }
+        this.directory = directory.toAbsolutePath().normalize();
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.batchSize = batchSize;
+        this.recordCode = recordCode;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = Thread.ofPlatform().name("php-sandbox-journal").daemon().unstarted(this::write);
+    }
+
+    /**
+     * Creates the journal directory and starts writing entries.
+     */
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+            nextSegment = segments(directory).stream().mapToLong(ExecutionJournal::sequence).max().orElse(0) + 1;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to prepare the execution journal at " + directory, e);
+        }
+        writer.start();
+    }
+
+    /**
+     * @return the directory of the segment files.
+     */
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of entries written.
+     */
+    public long written() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of entries dropped because the queue was full, the
+     *         journal was closed or the entry did not fit into a segment.
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Queues a completed execution for writing without blocking.
+     *
+     * @param submitted    the time the execution was submitted.
+     * @param snippet      the executed snippet.
+     * @param options      the options of the execution.
+     * @param dockerConfig the configuration the container was created with.
+     * @param timings      the durations of the phases of the execution.
+     * @param outcome      how the execution ended, or {@code null}.
+     * @param exitCode     the exit code of the execution.
+     * @return whether the entry was queued.
+     */
+    public boolean record(Instant submitted, CodeSnippet snippet, ExecutionOptions options,
+            DockerConfig dockerConfig, ExecutionTimings timings, ExecutionOutcome outcome, int exitCode) {
+        if (closed || !queue.offer(new Pending(submitted, snippet, options, dockerConfig, timings, outcome,
+                exitCode))) {
+            if (dropped.getAndIncrement() == 0) {
+                logger.warn("Execution journal at {} cannot keep up, dropping entries", directory);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the queued entries, flushes the current segment and stops the
+     * writer.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (!writer.isAlive()) {
+            return;
+        }
+        try {
+            writer.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the entries of every segment in the directory, oldest first. The
+     * entries of a segment are in the order the executions completed.
+     *
+     * @param directory the directory of the segment files.
+     * @return the entries.
+     * @throws IOException if a segment cannot be read.
+     */
+    public static List<JournalEntry> read(Path directory) throws IOException {
+        List<JournalEntry> entries = new ArrayList<>();
+        for (var segment : segments(directory)) {
+            readSegment(segment, entries);
+        }
+        return entries;
+    }
+
+    private void write() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                for (var pending : batch) {
+                    append(encode(entry(pending)));
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to write to the execution journal at {}", directory, e);
+            } finally {
+                batch.clear();
+            }
+        }
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    private void append(byte[] payload) throws IOException {
+        int length = ENTRY_HEADER_BYTES + payload.length;
+        if (length > segmentBytes - SEGMENT_HEADER_BYTES) {
+            dropped.incrementAndGet();
+            logger.warn("Execution journal entry of {} bytes does not fit into a segment", payload.length);
+            return;
+        }
+        if (segment == null || segment.remaining() < length) {
+            roll();
+        }
+        var crc = new CRC32();
+        crc.update(payload);
+        // the length goes last, so a torn entry ends the segment
+        int start = segment.position();
+        segment.position(start + ENTRY_HEADER_BYTES);
+        segment.put(payload);
+        segment.putInt(start + Integer.BYTES, (int) crc.getValue());
+        segment.putInt(start, payload.length);
+        written.incrementAndGet();
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        var path = directory.resolve(SEGMENT_PREFIX + "%016d".formatted(nextSegment++) + SEGMENT_SUFFIX);
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segment.putInt(MAGIC).putInt(VERSION);
+        var segments = segments(directory);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    private JournalEntry entry(Pending pending) {
+        var snippet = pending.snippet();
+        var options = pending.options();
+        var dockerConfig = pending.dockerConfig();
+        return new JournalEntry(pending.submitted(), hash(snippet.code()), recordCode ? snippet.code() : null,
+                snippet.timeout(), options.lane(), options.tenant(), options.profile(), dockerConfig.dockerImage(),
+                dockerConfig.maxMemoryMb(), dockerConfig.maxCpuUnits(), dockerConfig.executionTimeout(),
+                pending.timings(), pending.outcome(), pending.exitCode());
+    }
+
+    // package-private for the tests
+    static byte[] encode(JournalEntry entry) throws IOException {
+        var bytes = new ByteArrayOutputStream(256 + (entry.code() != null ? entry.code().length() : 0));
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeLong(entry.submitted().getEpochSecond());
+            out.writeInt(entry.submitted().getNano());
+            writeString(out, entry.snippetHash());
+            writeString(out, entry.code());
+            writeDuration(out, entry.timeout());
+            writeString(out, entry.lane());
+            writeString(out, entry.tenant());
+            writeString(out, entry.profile());
+            writeString(out, entry.dockerImage());
+            out.writeInt(entry.maxMemoryMb());
+            out.writeDouble(entry.maxCpuUnits());
+            writeDuration(out, entry.executionTimeout());
+            writeDuration(out, entry.timings().queueWait());
+            writeDuration(out, entry.timings().container());
+            writeDuration(out, entry.timings().containerOverhead());
+            writeDuration(out, entry.timings().scriptRun());
+            writeString(out, entry.outcome() != null ? entry.outcome().name() : null);
+            out.writeInt(entry.exitCode());
+        }
+        return bytes.toByteArray();
+    }
+
+    // package-private for the tests
+    static JournalEntry decode(ByteBuffer in) {
+        var submitted = Instant.ofEpochSecond(in.getLong(), in.getInt());
+        var snippetHash = readString(in);
+        var code = readString(in);
+        var timeout = readDuration(in);
+        var lane = readString(in);
+        var tenant = readString(in);
+        var profile = readString(in);
+        var dockerImage = readString(in);
+        int maxMemoryMb = in.getInt();
+        double maxCpuUnits = in.getDouble();
+        var executionTimeout = readDuration(in);
+        var timings = new ExecutionTimings(readDuration(in), readDuration(in), readDuration(in), readDuration(in));
+        var outcome = readString(in);
+        int exitCode = in.getInt();
+        return new JournalEntry(submitted, snippetHash, code, timeout, lane, tenant, profile, dockerImage,
+                maxMemoryMb, maxCpuUnits, executionTimeout, timings, outcome(outcome), exitCode);
+    }
+
+    private static void readSegment(Path path, List<JournalEntry> entries) throws IOException {
+        ByteBuffer buffer;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < SEGMENT_HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            logger.warn("Skipping {}: not an execution journal segment", path);
+            return;
+        }
+        while (buffer.remaining() >= ENTRY_HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return;
+            }
+            var payload = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            var crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                logger.warn("Execution journal segment {} has a corrupt entry, skipping the rest", path);
+                return;
+            }
+            entries.add(decode(payload));
+        }
+    }
+
+    /**
+     * @return the segment files in the directory, oldest first.
+     */
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                var name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    private static long sequence(Path segment) {
+        var name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name, SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length(), 10);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String hash(String code) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(code.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static ExecutionOutcome outcome(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return ExecutionOutcome.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDuration(DataOutputStream out, Duration value) throws IOException {
+        out.writeLong(value != null ? value.toNanos() : -1);
+    }
+
+    private static Duration readDuration(ByteBuffer in) {
+        long nanos = in.getLong();
+        return nanos < 0 ? null : Duration.ofNanos(nanos);
+    }
+
+    private record Pending(Instant submitted, CodeSnippet snippet, ExecutionOptions options,
+            DockerConfig dockerConfig, ExecutionTimings timings, ExecutionOutcome outcome, int exitCode) {
+    }
+}
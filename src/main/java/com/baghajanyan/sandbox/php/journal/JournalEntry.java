@@ -0,0 +1,34 @@
+package com.baghajanyan.sandbox.php.journal;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import com.baghajanyan.sandbox.php.executor.ExecutionTimings;
+import com.baghajanyan.sandbox.php.metrics.ExecutionOutcome;
+
+/**
+ * A single execution recorded in an {@link ExecutionJournal}.
+ *
+ * @param submitted        the time the execution was submitted.
+ * @param snippetHash      the hex encoded SHA-256 hash of the snippet code.
+ * @param code             the snippet code, or {@code null} if the journal
+ *                         does not record code.
+ * @param timeout          the timeout of the snippet.
+ * @param lane             the scheduler lane of the execution, or
+ *                         {@code null}.
+ * @param tenant           the tenant of the execution, or {@code null}.
+ * @param profile          the resource profile of the execution, or
+ *                         {@code null} for the default limits.
+ * @param dockerImage      the Docker image the snippet ran in.
+ * @param maxMemoryMb      the memory limit of the container, in megabytes.
+ * @param maxCpuUnits      the CPU limit of the container.
+ * @param executionTimeout the execution timeout of the container.
+ * @param timings          the durations of the phases of the execution.
+ * @param outcome          how the execution ended, or {@code null} if it did
+ *                         not report an outcome.
+ * @param exitCode         the exit code of the execution.
+ */
+public record JournalEntry(Instant submitted, String snippetHash, String code, Duration timeout, String lane,
+        String tenant, String profile, String dockerImage, int maxMemoryMb, double maxCpuUnits,
+        Duration executionTimeout, ExecutionTimings timings, ExecutionOutcome outcome, int exitCode) {
+}
@@ -0,0 +1,128 @@
+package com.baghajanyan.sandbox.php.journal;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.docker.OutputListener;
+import com.baghajanyan.sandbox.php.executor.ExecutionOptions;
+import com.baghajanyan.sandbox.php.executor.PhpCodeExecutor;
+
+/**
+ * Replays the executions of an {@link ExecutionJournal} against a
+ * {@link PhpCodeExecutor}, to see how other sizing, e.g. a different maximum
+ * concurrency or container limits, copes with recorded traffic.
+ *
+ * Entries are submitted asynchronously in the order they were submitted,
+ * with their recorded spacing divided by the speed: a speed of {@code 1}
+ * replays at the recorded rate, {@code 2} at twice the rate, and
+ * {@link Double#POSITIVE_INFINITY} as fast as possible. Each execution keeps
+ * its recorded timeout, lane, tenant and resource profile, and bypasses the
+ * result cache. Entries recorded without code run a snippet that sleeps for
+ * the recorded script runtime, which reproduces the load on permits and
+ * containers but not the CPU and memory use of the code.
+ */
+public class JournalReplay {
+    private static final Logger logger = LoggerFactory.getLogger(JournalReplay.class);
+    private static final String LANGUAGE = "php";
+
+    private final PhpCodeExecutor executor;
+    private final double speed;
+
+    /**
+     * @param executor the executor to replay the executions with.
+     * @param speed    the factor the recorded rate is multiplied with.
+     */
+    public JournalReplay(PhpCodeExecutor executor, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be > 0");
+        }
+        this.executor = executor;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the entries and waits for all executions to complete.
+     *
+     * @param entries the recorded executions.
+     * @return the results of the replay.
+     * @throws InterruptedException if the thread is interrupted; executions
+     *                              already submitted keep running.
+     */
+    public ReplayReport replay(List<JournalEntry> entries) throws InterruptedException {
+        var ordered = entries.stream().sorted(Comparator.comparing(JournalEntry::submitted)).toList();
+        List<CompletableFuture<Replayed>> executions = new ArrayList<>(ordered.size());
+        int skipped = 0;
+        long start = System.nanoTime();
+        Instant first = ordered.isEmpty() ? null : ordered.get(0).submitted();
+        for (var entry : ordered) {
+            long offset = (long) (Duration.between(first, entry.submitted()).toNanos() / speed);
+            long wait = start + offset - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            var options = new ExecutionOptions(entry.lane(), false, entry.profile(), OutputListener.NONE,
+                    entry.tenant());
+            long submitted = System.nanoTime();
+            try {
+                executions.add(executor.executeAsync(snippet(entry), options)
+                        .thenApply(result -> new Replayed(result.exitCode(), System.nanoTime() - submitted)));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Skipping journal entry {}: {}", entry.snippetHash(), e.getMessage());
+                skipped++;
+            }
+        }
+        CompletableFuture.allOf(executions.toArray(CompletableFuture[]::new)).join();
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        int succeeded = 0;
+        int rejected = 0;
+        int failed = 0;
+        long[] latencies = new long[executions.size()];
+        for (int i = 0; i < latencies.length; i++) {
+            var replayed = executions.get(i).join();
+            latencies[i] = replayed.latencyNanos();
+            if (replayed.exitCode() == 0) {
+                succeeded++;
+            } else if (replayed.exitCode() == PhpCodeExecutor.REJECTED_EXIT_CODE) {
+                rejected++;
+            } else {
+                failed++;
+            }
+        }
+        Arrays.sort(latencies);
+        return new ReplayReport(latencies.length, skipped, succeeded, rejected, failed, elapsed,
+                percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99));
+    }
+
+    /**
+     * @return the recorded code, or a snippet sleeping for the recorded script
+     *         runtime if no code was recorded.
+     */
+    private static CodeSnippet snippet(JournalEntry entry) {
+        if (entry.code() != null) {
+            return new CodeSnippet(entry.code(), entry.timeout(), LANGUAGE);
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(entry.timings().scriptRun().toNanos());
+        return new CodeSnippet("<?php usleep(" + micros + ");", entry.timeout(), LANGUAGE);
+    }
+
+    private static Duration percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(sorted[Math.max((int) Math.ceil(percentile * sorted.length) - 1, 0)]);
+    }
+
+    private record Replayed(int exitCode, long latencyNanos) {
+    }
+}
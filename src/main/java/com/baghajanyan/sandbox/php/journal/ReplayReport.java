@@ -0,0 +1,23 @@
+package com.baghajanyan.sandbox.php.journal;
+
+import java.time.Duration;
+
+/**
+ * The results of a {@link JournalReplay}.
+ *
+ * @param submitted the number of executions submitted.
+ * @param skipped   the number of entries that could not be replayed, e.g.
+ *                  because their resource profile does not exist.
+ * @param succeeded the number of executions that exited with code 0.
+ * @param rejected  the number of executions rejected because the sandbox was
+ *                  overloaded.
+ * @param failed    the number of other executions.
+ * @param elapsed   the time the replay took until the last execution
+ *                  completed.
+ * @param p50       the median latency, from submission to completion.
+ * @param p95       the 95th percentile latency.
+ * @param p99       the 99th percentile latency.
+ */
+public record ReplayReport(int submitted, int skipped, int succeeded, int rejected, int failed, Duration elapsed,
+        Duration p50, Duration p95, Duration p99) {
+}
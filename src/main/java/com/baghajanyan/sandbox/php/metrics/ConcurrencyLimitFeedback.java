@@ -0,0 +1,35 @@
+package com.baghajanyan.sandbox.php.metrics;
+
+import java.time.Duration;
+
+import com.baghajanyan.sandbox.php.scheduler.AdaptiveConcurrencyLimit;
+
+/**
+ * Feeds execution measurements to an {@link AdaptiveConcurrencyLimit}.
+ *
+ * The container overhead, i.e. the Docker process time not spent running PHP
+ * code, is used as the latency sample: it grows with load on the Docker host
+ * but not with what a snippet does. Timeouts and Docker failures count as
+ * drops.
+ */
+public class ConcurrencyLimitFeedback implements ExecutionMetrics {
+    private final AdaptiveConcurrencyLimit limit;
+
+    public ConcurrencyLimitFeedback(AdaptiveConcurrencyLimit limit) {
+        this.limit = limit;
+    }
+
+    @Override
+    public void recordPhase(ExecutionPhase phase, Duration duration) {
+        if (phase == ExecutionPhase.CONTAINER_OVERHEAD) {
+            limit.onSample(duration);
+        }
+    }
+
+    @Override
+    public void recordOutcome(ExecutionOutcome outcome) {
+        if (outcome == ExecutionOutcome.TIMEOUT || outcome == ExecutionOutcome.THREAD_FAILURE) {
+            limit.onDrop();
+        }
+    }
+}
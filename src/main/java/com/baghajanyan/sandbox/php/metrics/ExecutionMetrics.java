@@ -0,0 +1,74 @@
+package com.baghajanyan.sandbox.php.metrics;
+
+import java.time.Duration;
+
+/**
+ * Receives the phase timings, outcomes and resource usage of snippet
+ * executions.
+ *
+ * Implementations must be thread-safe and cheap: they are called on the
+ * execution path of every snippet.
+ */
+public interface ExecutionMetrics {
+
+    /**
+     * Metrics that discard everything, used when no meter registry is
+     * available.
+     */
+    ExecutionMetrics NOOP = new ExecutionMetrics() {
+    };
+
+    /**
+     * Records the duration of one phase of an execution.
+     *
+     * @param phase    the phase.
+     * @param duration the time the phase took.
+     */
+    default void recordPhase(ExecutionPhase phase, Duration duration) {
+    }
+
+    /**
+     * Records how an execution ended.
+     *
+     * @param outcome the outcome.
+     */
+    default void recordOutcome(ExecutionOutcome outcome) {
+    }
+
+    /**
+     * Records the resources an execution that ran a container used.
+     *
+     * @param usage the resource usage.
+     */
+    default void recordUsage(ResourceUsage usage) {
+    }
+
+    /**
+     * Returns metrics that report to these metrics and then to the given ones.
+     *
+     * @param next the metrics to report to second.
+     * @return the combined metrics.
+     */
+    default ExecutionMetrics andThen(ExecutionMetrics next) {
+        var first = this;
+        return new ExecutionMetrics() {
+            @Override
+            public void recordPhase(ExecutionPhase phase, Duration duration) {
+                first.recordPhase(phase, duration);
+                next.recordPhase(phase, duration);
+            }
+
+            @Override
+            public void recordOutcome(ExecutionOutcome outcome) {
+                first.recordOutcome(outcome);
+                next.recordOutcome(outcome);
+            }
+
+            @Override
+            public void recordUsage(ResourceUsage usage) {
+                first.recordUsage(usage);
+                next.recordUsage(usage);
+            }
+        };
+    }
+}
@@ -0,0 +1,55 @@
+package com.baghajanyan.sandbox.php.metrics;
+
+/**
+ * How a snippet execution ended.
+ */
+public enum ExecutionOutcome {
+
+    /**
+     * The snippet ran and exited with code 0.
+     */
+    SUCCESS("success"),
+
+    /**
+     * The snippet ran and exited with a non-zero code.
+     */
+    NON_ZERO_EXIT("non_zero_exit"),
+
+    /**
+     * The snippet exceeded its timeout or the execution timeout.
+     */
+    TIMEOUT("timeout"),
+
+    /**
+     * The Docker process failed or its thread was interrupted.
+     */
+    THREAD_FAILURE("thread_failure"),
+
+    /**
+     * The temporary snippet file could not be created or written.
+     */
+    IO_FAILURE("io_failure"),
+
+    /**
+     * The execution was rejected because the sandbox is overloaded.
+     */
+    REJECTED("rejected"),
+
+    /**
+     * The caller was interrupted while waiting for a permit.
+     */
+    INTERRUPTED("interrupted");
+
+    private final String tag;
+
+    ExecutionOutcome(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * @return the value of the {@code outcome} metric tag.
+     */
+    public String tag() {
+        return tag;
+    }
+}
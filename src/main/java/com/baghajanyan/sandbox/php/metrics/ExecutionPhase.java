@@ -0,0 +1,56 @@
+package com.baghajanyan.sandbox.php.metrics;
+
+/**
+ * The phases of a snippet execution that are timed separately.
+ */
+public enum ExecutionPhase {
+
+    /**
+     * Waiting for an execution permit.
+     */
+    QUEUE_WAIT("queue_wait"),
+
+    /**
+     * Creating and writing the temporary snippet file.
+     */
+    FILE_WRITE("file_write"),
+
+    /**
+     * The Docker process, from start until its output is drained.
+     */
+    CONTAINER("container"),
+
+    /**
+     * The runtime of the PHP code as reported by the snippet itself.
+     */
+    PHP_RUNTIME("php_runtime"),
+
+    /**
+     * The part of the Docker process time not spent running PHP code, i.e.
+     * container start-up and teardown.
+     */
+    CONTAINER_OVERHEAD("container_overhead"),
+
+    /**
+     * Parsing the captured output into a result.
+     */
+    OUTPUT_PARSE("output_parse"),
+
+    /**
+     * Scheduling the deletion of the temporary snippet file.
+     */
+    CLEANUP("cleanup");
+
+    private final String tag;
+
+    ExecutionPhase(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * @return the value of the {@code phase} metric tag.
+     */
+    public String tag() {
+        return tag;
+    }
+}
@@ -0,0 +1,126 @@
+package com.baghajanyan.sandbox.php.metrics;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes execution metrics to a Micrometer {@link MeterRegistry}.
+ *
+ * Phases are recorded by the {@value #PHASE_TIMER} timer with a
+ * {@code phase} tag and a percentile histogram; outcomes by the
+ * {@value #OUTCOME_COUNTER} counter with an {@code outcome} tag. The resource
+ * usage of executions is recorded by the {@value #CPU_TIMER} timer with a
+ * {@code mode} tag, the {@value #MEMORY_SUMMARY} and {@value #OUTPUT_SUMMARY}
+ * summaries and the {@value #OOM_COUNTER} counter. All meters are registered
+ * up front, so recording does not look them up.
+ */
+public class MicrometerExecutionMetrics implements ExecutionMetrics {
+
+    /**
+     * The name of the phase timer.
+     */
+    public static final String PHASE_TIMER = "sandbox.php.execution.phase";
+
+    /**
+     * The name of the outcome counter.
+     */
+    public static final String OUTCOME_COUNTER = "sandbox.php.execution.outcome";
+
+    /**
+     * The name of the CPU time timer.
+     */
+    public static final String CPU_TIMER = "sandbox.php.execution.cpu";
+
+    /**
+     * The name of the peak memory summary.
+     */
+    public static final String MEMORY_SUMMARY = "sandbox.php.execution.memory.peak";
+
+    /**
+     * The name of the output size summary.
+     */
+    public static final String OUTPUT_SUMMARY = "sandbox.php.execution.output";
+
+    /**
+     * The name of the OOM kill counter.
+     */
+    public static final String OOM_COUNTER = "sandbox.php.execution.oom.kills";
+
+    private final Map<ExecutionPhase, Timer> phases = new EnumMap<>(ExecutionPhase.class);
+    private final Map<ExecutionOutcome, Counter> outcomes = new EnumMap<>(ExecutionOutcome.class);
+    private final Timer userCpu;
+    private final Timer systemCpu;
+    private final DistributionSummary memory;
+    private final DistributionSummary output;
+    private final Counter oomKills;
+
+    public MicrometerExecutionMetrics(MeterRegistry registry) {
+        for (var phase : ExecutionPhase.values()) {
+            phases.put(phase, Timer.builder(PHASE_TIMER)
+                    .description("Time spent in each phase of a PHP snippet execution")
+                    .tag("phase", phase.tag())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        for (var outcome : ExecutionOutcome.values()) {
+            outcomes.put(outcome, Counter.builder(OUTCOME_COUNTER)
+                    .description("PHP snippet executions by outcome")
+                    .tag("outcome", outcome.tag())
+                    .register(registry));
+        }
+        userCpu = cpuTimer(registry, "user");
+        systemCpu = cpuTimer(registry, "system");
+        memory = DistributionSummary.builder(MEMORY_SUMMARY)
+                .description("Peak memory use of the containers of PHP snippet executions")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(registry);
+        output = DistributionSummary.builder(OUTPUT_SUMMARY)
+                .description("Bytes written by PHP snippets to standard output and error")
+                .baseUnit("bytes")
+                .register(registry);
+        oomKills = Counter.builder(OOM_COUNTER)
+                .description("PHP snippet executions killed for exceeding the container memory limit")
+                .register(registry);
+    }
+
+    @Override
+    public void recordPhase(ExecutionPhase phase, Duration duration) {
+        phases.get(phase).record(duration);
+    }
+
+    @Override
+    public void recordOutcome(ExecutionOutcome outcome) {
+        outcomes.get(outcome).increment();
+    }
+
+    @Override
+    public void recordUsage(ResourceUsage usage) {
+        // only snippets that shut down report their CPU time
+        if (usage.wallTime().isPositive()) {
+            userCpu.record(usage.userCpu());
+            systemCpu.record(usage.systemCpu());
+        }
+        if (usage.peakMemoryBytes() >= 0) {
+            memory.record(usage.peakMemoryBytes());
+        }
+        output.record(usage.outputBytes());
+        if (usage.oomKilled()) {
+            oomKills.increment();
+        }
+    }
+
+    private static Timer cpuTimer(MeterRegistry registry, String mode) {
+        return Timer.builder(CPU_TIMER)
+                .description("CPU time of the interpreter of PHP snippet executions")
+                .tag("mode", mode)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,179 @@
+package com.baghajanyan.sandbox.php.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import com.baghajanyan.sandbox.php.docker.HedgingDockerProcessExecutor;
+import com.baghajanyan.sandbox.php.executor.CachingCodeExecutor;
+import com.baghajanyan.sandbox.php.scheduler.AdaptiveConcurrencyLimit;
+import com.baghajanyan.sandbox.php.scheduler.ExecutionScheduler;
+import com.baghajanyan.sandbox.php.scheduler.FairShareQueue;
+import com.baghajanyan.sandbox.php.scheduler.PermitQueue;
+
+/**
+ * Registers gauges for the admission state of the sandbox: available
+ * permits and queue length of the execution permit queue and of every
+ * scheduler lane, the current adaptive concurrency limit, plus hit and miss
+ * counters of the result cache.
+ *
+ * Over a {@link FairShareQueue}, every tenant also gets gauges of its
+ * executions in flight and waiting, a timer of its permit waits and a counter
+ * of its rejections, tagged with the tenant and the lane, or
+ * {@value #NO_LANE} without a scheduler. Tenants are registered as they
+ * appear.
+ *
+ * With hedging, counters of the hedged runs and of the hedges that finished
+ * first, and a gauge of the current hedge delay are registered as well.
+ */
+public class PhpSandboxMeterBinder implements MeterBinder {
+
+    /**
+     * The lane tag of tenant meters when no scheduler is configured.
+     */
+    public static final String NO_LANE = "none";
+
+    private final PermitQueue permits;
+    private final ExecutionScheduler scheduler;
+    private final CachingCodeExecutor cache;
+    private final AdaptiveConcurrencyLimit limit;
+    private final HedgingDockerProcessExecutor hedging;
+
+    /**
+     * @param permits   the execution permit queue.
+     * @param scheduler the execution scheduler, or {@code null} if disabled.
+     * @param cache     the result cache, or {@code null} if disabled.
+     */
+    public PhpSandboxMeterBinder(PermitQueue permits, ExecutionScheduler scheduler, CachingCodeExecutor cache) {
+        this(permits, scheduler, cache, null);
+    }
+
+    /**
+     * @param permits   the execution permit queue.
+     * @param scheduler the execution scheduler, or {@code null} if disabled.
+     * @param cache     the result cache, or {@code null} if disabled.
+     * @param limit     the adaptive concurrency limit, or {@code null} if the
+     *                  limit is fixed.
+     */
+    public PhpSandboxMeterBinder(PermitQueue permits, ExecutionScheduler scheduler, CachingCodeExecutor cache,
+            AdaptiveConcurrencyLimit limit) {
+        this(permits, scheduler, cache, limit, null);
+    }
+
+    /**
+     * @param permits   the execution permit queue.
+     * @param scheduler the execution scheduler, or {@code null} if disabled.
+     * @param cache     the result cache, or {@code null} if disabled.
+     * @param limit     the adaptive concurrency limit, or {@code null} if the
+     *                  limit is fixed.
+     * @param hedging   the hedging Docker executor, or {@code null} if runs
+     *                  are not hedged.
+     */
+    public PhpSandboxMeterBinder(PermitQueue permits, ExecutionScheduler scheduler, CachingCodeExecutor cache,
+            AdaptiveConcurrencyLimit limit, HedgingDockerProcessExecutor hedging) {
+        this.permits = permits;
+        this.scheduler = scheduler;
+        this.cache = cache;
+        this.limit = limit;
+        this.hedging = hedging;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("sandbox.php.permits.available", permits, PermitQueue::availablePermits)
+                .description("Execution permits currently available")
+                .register(registry);
+        Gauge.builder("sandbox.php.queue.length", permits, PermitQueue::queueLength)
+                .description("Asynchronous executions waiting for a permit")
+                .register(registry);
+        if (limit != null) {
+            Gauge.builder("sandbox.php.concurrency.limit", limit, AdaptiveConcurrencyLimit::limit)
+                    .description("Current adaptive limit of concurrent executions")
+                    .register(registry);
+        }
+
+        if (scheduler != null) {
+            for (String lane : scheduler.lanes()) {
+                Gauge.builder("sandbox.php.scheduler.permits.available", scheduler, s -> s.availablePermits(lane))
+                        .description("Execution permits currently available in the lane")
+                        .tag("lane", lane)
+                        .register(registry);
+                Gauge.builder("sandbox.php.scheduler.queue.length", scheduler, s -> s.queueLength(lane))
+                        .description("Executions waiting for a permit in the lane")
+                        .tag("lane", lane)
+                        .register(registry);
+                FunctionCounter.builder("sandbox.php.scheduler.rejected", scheduler, s -> s.rejectedCount(lane))
+                        .description("Executions rejected by the lane")
+                        .tag("lane", lane)
+                        .register(registry);
+                if (scheduler.permits(lane) instanceof FairShareQueue fairShare) {
+                    bindTenants(registry, fairShare, lane);
+                }
+            }
+        } else if (permits instanceof FairShareQueue fairShare) {
+            bindTenants(registry, fairShare, NO_LANE);
+        }
+
+        if (cache != null) {
+            FunctionCounter.builder("sandbox.php.cache.requests", cache, c -> c.stats().hitCount())
+                    .description("Result cache lookups")
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("sandbox.php.cache.requests", cache, c -> c.stats().missCount())
+                    .description("Result cache lookups")
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("sandbox.php.cache.evictions", cache, c -> c.stats().evictionCount())
+                    .description("Results evicted from the result cache")
+                    .register(registry);
+            Gauge.builder("sandbox.php.cache.size", cache, CachingCodeExecutor::size)
+                    .description("Approximate number of cached results")
+                    .register(registry);
+        }
+
+        if (hedging != null) {
+            FunctionCounter.builder("sandbox.php.hedge.runs", hedging, HedgingDockerProcessExecutor::hedges)
+                    .description("Runs that were started a second time because they were slow to start")
+                    .register(registry);
+            FunctionCounter.builder("sandbox.php.hedge.wins", hedging, HedgingDockerProcessExecutor::hedgeWins)
+                    .description("Hedged runs whose second attempt finished first")
+                    .register(registry);
+            TimeGauge.builder("sandbox.php.hedge.delay", hedging, TimeUnit.MILLISECONDS,
+                    h -> h.hedgeDelay() != null ? h.hedgeDelay().toMillis() : Double.NaN)
+                    .description("Time after which a run that has not started is hedged")
+                    .register(registry);
+        }
+    }
+
+    private static void bindTenants(MeterRegistry registry, FairShareQueue queue, String lane) {
+        queue.onTenant(tenant -> bindTenant(registry, queue, lane, tenant));
+        for (String tenant : queue.tenants()) {
+            bindTenant(registry, queue, lane, tenant);
+        }
+    }
+
+    private static void bindTenant(MeterRegistry registry, FairShareQueue queue, String lane, String tenant) {
+        Gauge.builder("sandbox.php.tenant.in.flight", queue, q -> q.stats(tenant).inFlight())
+                .description("Executions of the tenant holding a permit")
+                .tags("tenant", tenant, "lane", lane)
+                .register(registry);
+        Gauge.builder("sandbox.php.tenant.queue.length", queue, q -> q.stats(tenant).queued())
+                .description("Executions of the tenant waiting for a permit")
+                .tags("tenant", tenant, "lane", lane)
+                .register(registry);
+        FunctionTimer.builder("sandbox.php.tenant.queue.wait", queue, q -> q.stats(tenant).admitted(),
+                q -> q.stats(tenant).totalWait().toNanos(), TimeUnit.NANOSECONDS)
+                .description("Time executions of the tenant waited for a permit")
+                .tags("tenant", tenant, "lane", lane)
+                .register(registry);
+        FunctionCounter.builder("sandbox.php.tenant.rejected", queue, q -> q.stats(tenant).rejected())
+                .description("Executions of the tenant rejected by its rate limit or a full queue")
+                .tags("tenant", tenant, "lane", lane)
+                .register(registry);
+    }
+}
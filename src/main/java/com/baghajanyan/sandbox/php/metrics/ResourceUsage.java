@@ -0,0 +1,46 @@
+package com.baghajanyan.sandbox.php.metrics;
+
+import java.time.Duration;
+
+/**
+ * The resources a single execution used, as reported by the snippet's
+ * interpreter when it shuts down and by the container it ran in.
+ *
+ * The wall and CPU times and the peak memory are reported by a shutdown
+ * function of the prepared code, so they are also known for snippets that
+ * call {@code exit} or end with a fatal error, but not for snippets that were
+ * killed, e.g. on their timeout or by the kernel's OOM killer, or that did
+ * not compile. Unknown values are zero, and the peak memory is {@code -1}.
+ *
+ * @param wallTime        the wall-clock time the snippet ran.
+ * @param userCpu         the user CPU time of the interpreter process.
+ * @param systemCpu       the system CPU time of the interpreter process.
+ * @param peakMemoryBytes the peak memory use of the container's cgroup,
+ *                        which includes files written to its tmpfs, or of
+ *                        the interpreter process if the cgroup stats are not
+ *                        readable; {@code -1} if unknown. Pooled containers
+ *                        and workers serve many executions, so theirs is the
+ *                        peak since the container started.
+ * @param oomKilled       whether the snippet was killed for exceeding the
+ *                        container's memory limit.
+ * @param outputBytes     the number of bytes the snippet wrote to standard
+ *                        output and error, including bytes beyond the output
+ *                        limit.
+ */
+public record ResourceUsage(Duration wallTime, Duration userCpu, Duration systemCpu, long peakMemoryBytes,
+        boolean oomKilled, long outputBytes) {
+
+    /**
+     * The usage of an execution that did not run a container, e.g. because it
+     * was rejected.
+     */
+    public static final ResourceUsage NONE = new ResourceUsage(Duration.ZERO, Duration.ZERO, Duration.ZERO, -1,
+            false, 0);
+
+    /**
+     * @return the total CPU time of the interpreter process.
+     */
+    public Duration cpu() {
+        return userCpu.plus(systemCpu);
+    }
+}
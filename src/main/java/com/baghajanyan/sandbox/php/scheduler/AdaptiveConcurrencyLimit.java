@@ -0,0 +1,206 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Semaphore} whose number of permits follows the observed health of
+ * the Docker host instead of a fixed number.
+ *
+ * The limit is adjusted with a gradient algorithm in the style of Netflix
+ * concurrency-limits: every latency sample is compared with a slowly moving
+ * long-term average, and the limit grows while latency stays within the
+ * tolerance and shrinks in proportion as it rises. Timeouts and failures
+ * shrink the limit multiplicatively, as in AIMD, and so does every sample
+ * taken while host CPU load is above the configured maximum. The limit stays
+ * within the configured bounds.
+ *
+ * Shrinking never revokes permits that are held: the number of available
+ * permits may drop below zero and releases pay the difference back before
+ * new permits are granted.
+ */
+public class AdaptiveConcurrencyLimit extends Semaphore {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+    private static final int LONG_WINDOW = 100;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final double backoffRatio;
+    private final double maxCpuLoad;
+    private final DoubleSupplier cpuLoad;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Runnable> increaseListeners = new CopyOnWriteArrayList<>();
+
+    private double estimatedLimit;
+    private volatile int limit;
+    private double longLatencyNanos;
+
+    /**
+     * @param initialLimit the limit to start with.
+     * @param minLimit     the lowest the limit may go.
+     * @param maxLimit     the highest the limit may go.
+     * @param tolerance    how much slower than the long-term average a sample
+     *                     may be before the limit shrinks, e.g. {@code 1.5}.
+     * @param smoothing    the weight of each new limit estimate, between 0 and
+     *                     1.
+     * @param backoffRatio the factor the limit is multiplied by on a timeout,
+     *                     a failure or high CPU load, between 0 and 1.
+     * @param maxCpuLoad   the host CPU load, between 0 and 1, above which the
+     *                     limit shrinks.
+     * @param cpuLoad      the source of the current host CPU load; negative
+     *                     values mean unknown.
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance,
+            double smoothing, double backoffRatio, double maxCpuLoad, DoubleSupplier cpuLoad) {
+        super(clamp(initialLimit, minLimit, maxLimit), true);
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("minLimit must be greater than 0");
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("maxLimit must be >= minLimit");
+        }
+        if (tolerance < 1) {
+            throw new IllegalArgumentException("tolerance must be >= 1");
+        }
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("smoothing must be in (0, 1]");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be in (0, 1)");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.backoffRatio = backoffRatio;
+        this.maxCpuLoad = maxCpuLoad;
+        this.cpuLoad = cpuLoad;
+        this.limit = clamp(initialLimit, minLimit, maxLimit);
+        this.estimatedLimit = limit;
+    }
+
+    /**
+     * @return the current host CPU load between 0 and 1, or a negative value if
+     *         the JVM cannot report it.
+     */
+    public static double hostCpuLoad() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getCpuLoad();
+        }
+        return -1;
+    }
+
+    /**
+     * @return the current concurrency limit.
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of permits currently held.
+     */
+    public int inFlight() {
+        return limit - availablePermits();
+    }
+
+    /**
+     * Adjusts the limit to a latency sample of a completed execution.
+     *
+     * @param latency the time the execution spent on work that grows with
+     *                host load, such as container startup.
+     */
+    public void onSample(Duration latency) {
+        long sample = Math.max(1, latency.toNanos());
+        boolean grew;
+        lock.lock();
+        try {
+            if (longLatencyNanos == 0) {
+                longLatencyNanos = sample;
+            } else {
+                longLatencyNanos += (sample - longLatencyNanos) / LONG_WINDOW;
+            }
+            // recover faster after a period of congestion has inflated the average
+            if (longLatencyNanos / sample > 2) {
+                longLatencyNanos *= 0.95;
+            }
+
+            double newLimit;
+            if (overloaded()) {
+                newLimit = estimatedLimit * backoffRatio;
+            } else if (inFlight() < estimatedLimit / 2) {
+                // too few executions in flight to tell whether more would fit
+                return;
+            } else {
+                double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatencyNanos / sample));
+                newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            }
+            grew = update(estimatedLimit * (1 - smoothing) + newLimit * smoothing);
+        } finally {
+            lock.unlock();
+        }
+        if (grew) {
+            increaseListeners.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Shrinks the limit after an execution timed out or failed, which is
+     * taken as a sign that the host is overloaded.
+     */
+    public void onDrop() {
+        lock.lock();
+        try {
+            update(estimatedLimit * backoffRatio);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a callback run after the limit grew, so queues that hand out
+     * permits of this semaphore can serve their waiters.
+     */
+    void onIncrease(Runnable listener) {
+        increaseListeners.add(listener);
+    }
+
+    private boolean overloaded() {
+        double load = cpuLoad.getAsDouble();
+        return load >= 0 && load > maxCpuLoad;
+    }
+
+    /**
+     * @return whether the limit grew.
+     */
+    private boolean update(double newLimit) {
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        int target = (int) estimatedLimit;
+        int delta = target - limit;
+        if (delta == 0) {
+            return false;
+        }
+        limit = target;
+        logger.debug("Concurrency limit changed to {}", target);
+        if (delta > 0) {
+            release(delta);
+            return true;
+        }
+        reducePermits(-delta);
+        return false;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,201 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs executions on virtual threads behind bounded admission queues.
+ *
+ * Executions are admitted through named lanes (e.g. {@code interactive} and
+ * {@code batch}), each with its own {@link PermitQueue} and therefore its own
+ * permit budget and wait queue. A request that finds its lane's queue full,
+ * or that waits longer than the maximum queue wait, is rejected with a
+ * {@link RejectedExecutionException} instead of blocking its caller.
+ */
+public class ExecutionScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionScheduler.class);
+
+    /**
+     * The name of the lane used when no lanes are configured.
+     */
+    public static final String DEFAULT_LANE = "default";
+
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private final String defaultLane;
+    private final Duration maxQueueWait;
+
+    /**
+     * @param lanes        the permit queue of each lane, by lane name.
+     * @param defaultLane  the lane used for requests without a known lane, or
+     *                     {@code null} to use the first lane.
+     * @param maxQueueWait the maximum time a request waits for a permit.
+     */
+    public ExecutionScheduler(Map<String, PermitQueue> lanes, String defaultLane, Duration maxQueueWait) {
+        if (lanes.isEmpty()) {
+            throw new IllegalArgumentException("at least one lane must be configured");
+        }
+        if (maxQueueWait == null || maxQueueWait.isNegative() || maxQueueWait.isZero()) {
+            throw new IllegalArgumentException("maxQueueWait must be a positive duration");
+        }
+        lanes.forEach((name, permits) -> this.lanes.put(name, new Lane(name, permits)));
+        this.defaultLane = defaultLane != null ? defaultLane : lanes.keySet().iterator().next();
+        if (!this.lanes.containsKey(this.defaultLane)) {
+            throw new IllegalArgumentException("defaultLane '" + this.defaultLane + "' is not a configured lane");
+        }
+        this.maxQueueWait = maxQueueWait;
+    }
+
+    /**
+     * Submits a task to the given lane. The task runs on a new virtual thread
+     * once the lane grants a permit.
+     *
+     * The returned future fails with a {@link RejectedExecutionException} when
+     * the lane's queue is full or no permit was granted within the maximum
+     * queue wait. Cancelling the future removes a waiting task from the queue
+     * or interrupts a running one.
+     *
+     * @param laneName the lane to run in; unknown or {@code null} names use the
+     *                 default lane.
+     * @param task     the task to run.
+     * @param <T>      the task result type.
+     * @return a future of the task result.
+     */
+    public <T> CompletableFuture<T> submit(String laneName, Supplier<T> task) {
+        return submit(laneName, null, task);
+    }
+
+    /**
+     * Submits a task of the given tenant to the given lane. Over a
+     * {@link FairShareQueue}, the lane's permits are shared fairly between
+     * tenants.
+     *
+     * @param laneName the lane to run in; unknown or {@code null} names use the
+     *                 default lane.
+     * @param tenant   the tenant of the task, or {@code null}.
+     * @param task     the task to run.
+     * @param <T>      the task result type.
+     * @return a future of the task result.
+     * @see #submit(String, Supplier)
+     */
+    public <T> CompletableFuture<T> submit(String laneName, String tenant, Supplier<T> task) {
+        var lane = lane(laneName);
+        var permit = lane.permits.acquireAsync(tenant).orTimeout(maxQueueWait.toMillis(), TimeUnit.MILLISECONDS);
+        var result = new CompletableFuture<T>();
+
+        permit.whenComplete((granted, error) -> {
+            if (error != null) {
+                if (!permit.isCancelled()) {
+                    lane.rejected.incrementAndGet();
+                    result.completeExceptionally(rejection(lane, error));
+                }
+                return;
+            }
+            if (result.isDone()) {
+                lane.permits.release(tenant);
+                return;
+            }
+            Thread worker = Thread.ofVirtual().name("php-sandbox-" + lane.name).unstarted(() -> {
+                try {
+                    result.complete(task.get());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    lane.permits.release(tenant);
+                }
+            });
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    worker.interrupt();
+                }
+            });
+            worker.start();
+        });
+        result.whenComplete((r, error) -> {
+            if (result.isCancelled()) {
+                permit.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the names of the configured lanes.
+     */
+    public Set<String> lanes() {
+        return lanes.keySet();
+    }
+
+    /**
+     * @param laneName the lane name.
+     * @return the number of requests waiting for a permit in the lane.
+     */
+    public int queueLength(String laneName) {
+        return lane(laneName).permits.queueLength();
+    }
+
+    /**
+     * @param laneName the lane name.
+     * @return the number of permits currently available in the lane.
+     */
+    public int availablePermits(String laneName) {
+        return lane(laneName).permits.availablePermits();
+    }
+
+    /**
+     * @param laneName the lane name.
+     * @return the permit queue of the lane.
+     */
+    public PermitQueue permits(String laneName) {
+        return lane(laneName).permits;
+    }
+
+    /**
+     * @param laneName the lane name.
+     * @return the number of requests rejected by the lane so far.
+     */
+    public long rejectedCount(String laneName) {
+        return lane(laneName).rejected.get();
+    }
+
+    private Lane lane(String laneName) {
+        if (laneName == null) {
+            return lanes.get(defaultLane);
+        }
+        var lane = lanes.get(laneName);
+        if (lane == null) {
+            logger.debug("Unknown lane '{}', using lane '{}'", laneName, defaultLane);
+            return lanes.get(defaultLane);
+        }
+        return lane;
+    }
+
+    private RejectedExecutionException rejection(Lane lane, Throwable error) {
+        if (error instanceof TimeoutException) {
+            return new RejectedExecutionException("No permit in lane '" + lane.name + "' within "
+                    + maxQueueWait.toMillis() + "ms");
+        }
+        return new RejectedExecutionException("Lane '" + lane.name + "' is overloaded: " + error.getMessage(), error);
+    }
+
+    private static final class Lane {
+        private final String name;
+        private final PermitQueue permits;
+        private final AtomicLong rejected = new AtomicLong();
+
+        private Lane(String name, PermitQueue permits) {
+            this.name = name;
+            this.permits = permits;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A {@link PermitQueue} that shares the permits of its semaphore fairly
+ * between tenants.
+ *
+ * Every tenant has a wait queue of its own, and released permits are handed
+ * to the tenants with waiting requests by deficit round robin: in each round
+ * a tenant is granted up to its {@link TenantPolicy#weight() weight} in
+ * permits, so a tenant that floods the queue only delays its own requests
+ * while the others keep their share. Within a tenant, requests are served in
+ * FIFO order.
+ *
+ * A tenant holding its maximum number of permits is skipped until it
+ * releases one. Requests beyond the rate limit of their tenant, or beyond the
+ * queue bound of their tenant or of the whole queue, are rejected
+ * immediately. Blocking callers wait in the same tenant queues as
+ * asynchronous ones.
+ *
+ * Requests without a tenant belong to the {@value #DEFAULT_TENANT} tenant.
+ * Tenants without a policy of their own use the default policy, and once
+ * {@code maxTenants} tenants are known, requests of further unknown tenants
+ * share the {@value #OVERFLOW_TENANT} tenant. The state of a tenant is kept
+ * for the lifetime of the queue, so its counters only grow.
+ */
+public class FairShareQueue extends PermitQueue {
+
+    /**
+     * The tenant of requests without one.
+     */
+    public static final String DEFAULT_TENANT = "default";
+
+    /**
+     * The tenant shared by unknown tenants beyond the maximum number of
+     * tenants.
+     */
+    public static final String OVERFLOW_TENANT = "overflow";
+
+    private final Semaphore semaphore;
+    private final int maxQueueSize;
+    private final Duration maxWait;
+    private final TenantPolicy defaultPolicy;
+    private final Map<String, TenantPolicy> policies;
+    private final int maxTenants;
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private final Deque<Tenant> active = new ArrayDeque<>();
+    private final List<Consumer<String>> tenantListeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private int queued;
+
+    /**
+     * @param semaphore     the semaphore permits are taken from.
+     * @param maxQueueSize  the maximum number of waiting requests of all
+     *                      tenants.
+     * @param maxWait       the maximum time a caller waits for a permit, or
+     *                      {@code null} to wait indefinitely.
+     * @param defaultPolicy the policy of tenants without one of their own.
+     * @param policies      the policies of individual tenants, by tenant.
+     * @param maxTenants    the maximum number of tenants with a queue of their
+     *                      own.
+     */
+    public FairShareQueue(Semaphore semaphore, int maxQueueSize, Duration maxWait, TenantPolicy defaultPolicy,
+            Map<String, TenantPolicy> policies, int maxTenants) {
+        super(semaphore, maxQueueSize, maxWait);
+        if (defaultPolicy == null) {
+            throw new IllegalArgumentException("defaultPolicy must not be null");
+        }
+        if (maxTenants < 1) {
+            throw new IllegalArgumentException("maxTenants must be >= 1");
+        }
+        this.semaphore = semaphore;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWait = maxWait;
+        this.defaultPolicy = defaultPolicy;
+        this.policies = Map.copyOf(policies);
+        this.maxTenants = maxTenants;
+        for (var tenant : this.policies.keySet()) {
+            tenants.put(tenant, new Tenant(tenant, this.policies.get(tenant)));
+        }
+        if (semaphore instanceof AdaptiveConcurrencyLimit adaptive) {
+            adaptive.onIncrease(this::dispatch);
+        }
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        acquire(null);
+    }
+
+    /**
+     * Acquires a permit for the given tenant, blocking until the tenant is
+     * granted one.
+     *
+     * @param tenant the tenant of the request, or {@code null}.
+     * @throws InterruptedException       if the calling thread is interrupted.
+     * @throws RejectedExecutionException if the request is rejected or no
+     *                                    permit is granted within the maximum
+     *                                    wait.
+     */
+    @Override
+    public void acquire(String tenant) throws InterruptedException {
+        var permit = acquireAsync(tenant);
+        try {
+            permit.get();
+        } catch (InterruptedException e) {
+            permit.cancel(false);
+            // the permit may have been granted, or have timed out, before the cancellation
+            if (permit.isDone() && !permit.isCompletedExceptionally()) {
+                release(tenant);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException rejected) {
+                throw rejected;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> acquireAsync() {
+        return acquireAsync(null);
+    }
+
+    /**
+     * Acquires a permit for the given tenant without blocking.
+     *
+     * The returned future completes when the tenant is granted a permit. It
+     * fails with a {@link RejectedExecutionException} if the tenant exceeds
+     * its rate limit, its queue or the whole queue is full, or the permit is
+     * not granted within the maximum wait. Cancelling a pending future, or
+     * completing it exceptionally, removes it from the queue.
+     *
+     * @param tenant the tenant of the request, or {@code null}.
+     * @return a future completed once the caller holds a permit.
+     */
+    @Override
+    public CompletableFuture<Void> acquireAsync(String tenant) {
+        var state = tenant(tenant);
+        var waiter = new Waiter(state, System.nanoTime());
+        lock.lock();
+        try {
+            if (!state.takeToken(waiter.enqueued)) {
+                state.rejected++;
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "Tenant '" + state.name + "' exceeded its rate of " + state.policy.ratePerSecond() + "/s"));
+            }
+            // a permit freed by a release that has not dispatched yet belongs to the waiting tenants
+            if (queued == 0 && state.inFlight < state.policy.maxInFlight() && semaphore.tryAcquire()) {
+                state.inFlight++;
+                state.admitted++;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (queued >= maxQueueSize || state.waiters.size() >= state.policy.maxQueued()) {
+                state.rejected++;
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Wait queue of tenant '"
+                        + state.name + "' is full (" + state.waiters.size() + " pending, " + queued + " in total)"));
+            }
+            if (state.waiters.isEmpty()) {
+                active.addLast(state);
+            }
+            state.waiters.addLast(waiter);
+            queued++;
+        } finally {
+            lock.unlock();
+        }
+        waiter.future.whenComplete((ignored, error) -> {
+            if (error != null) {
+                remove(waiter);
+            }
+        });
+        if (maxWait != null) {
+            CompletableFuture.delayedExecutor(maxWait.toNanos(), TimeUnit.NANOSECONDS)
+                    .execute(() -> waiter.future.completeExceptionally(
+                            new RejectedExecutionException("No permit within " + maxWait.toMillis() + "ms")));
+        }
+        dispatch();
+        return waiter.future;
+    }
+
+    @Override
+    public void release() {
+        release(null);
+    }
+
+    /**
+     * Releases a permit held by the given tenant and hands the free permits
+     * to the next tenants in turn.
+     *
+     * @param tenant the tenant the permit was acquired for.
+     */
+    @Override
+    public void release(String tenant) {
+        var state = tenant(tenant);
+        lock.lock();
+        try {
+            state.inFlight--;
+            semaphore.release();
+        } finally {
+            lock.unlock();
+        }
+        dispatch();
+    }
+
+    /**
+     * @return the number of requests of all tenants waiting for a permit.
+     */
+    @Override
+    public int queueLength() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the tenants with a queue of their own.
+     */
+    public Set<String> tenants() {
+        lock.lock();
+        try {
+            return Set.copyOf(tenants.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param tenant the tenant.
+     * @return the current state and counters of the tenant, all zero for an
+     *         unknown tenant.
+     */
+    public TenantStats stats(String tenant) {
+        lock.lock();
+        try {
+            var state = tenants.get(tenant != null ? tenant : DEFAULT_TENANT);
+            if (state == null) {
+                return new TenantStats(0, 0, 0, 0, Duration.ZERO);
+            }
+            return new TenantStats(state.inFlight, state.waiters.size(), state.admitted, state.rejected,
+                    Duration.ofNanos(state.waitNanos));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a listener called with the name of every tenant that gets a
+     * queue of its own after registration, e.g. to register its metrics.
+     *
+     * @param listener the listener.
+     */
+    public void onTenant(Consumer<String> listener) {
+        tenantListeners.add(listener);
+    }
+
+    /**
+     * Hands free permits to waiting requests, tenant by tenant, until no
+     * permit is free or no tenant may take one.
+     */
+    private void dispatch() {
+        while (true) {
+            Waiter waiter;
+            lock.lock();
+            try {
+                var tenant = nextTenant();
+                if (tenant == null || !semaphore.tryAcquire()) {
+                    return;
+                }
+                waiter = tenant.waiters.pollFirst();
+                queued--;
+                tenant.deficit--;
+                tenant.served = true;
+                if (tenant.waiters.isEmpty()) {
+                    active.pollFirst();
+                    tenant.deficit = 0;
+                    tenant.served = false;
+                }
+                tenant.inFlight++;
+            } finally {
+                lock.unlock();
+            }
+            if (waiter.future.complete(null)) {
+                waiter.granted(System.nanoTime());
+            } else {
+                // cancelled or timed out in the meantime
+                release(waiter.tenant.name);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the tenant whose turn it is and leaves it at the head of the
+     * active tenants. A tenant that used up its deficit moves to the back and
+     * is credited its weight again on its next turn; a tenant at its maximum
+     * in-flight count is skipped.
+     */
+    private Tenant nextTenant() {
+        for (int visited = 0; visited < 2 * active.size(); visited++) {
+            var tenant = active.peekFirst();
+            if (tenant.inFlight >= tenant.policy.maxInFlight()) {
+                active.addLast(active.pollFirst());
+                continue;
+            }
+            if (tenant.deficit < 1) {
+                if (tenant.served) {
+                    tenant.served = false;
+                    active.addLast(active.pollFirst());
+                    continue;
+                }
+                tenant.deficit += tenant.policy.weight();
+            }
+            return tenant;
+        }
+        return null;
+    }
+
+    private Tenant tenant(String name) {
+        String key = name != null ? name : DEFAULT_TENANT;
+        Tenant tenant;
+        lock.lock();
+        try {
+            tenant = tenants.get(key);
+            if (tenant != null) {
+                return tenant;
+            }
+            if (tenants.size() >= maxTenants) {
+                key = OVERFLOW_TENANT;
+                tenant = tenants.get(key);
+                if (tenant != null) {
+                    return tenant;
+                }
+            }
+            tenant = new Tenant(key, policies.getOrDefault(key, defaultPolicy));
+            tenants.put(key, tenant);
+        } finally {
+            lock.unlock();
+        }
+        for (var listener : tenantListeners) {
+            listener.accept(tenant.name);
+        }
+        return tenant;
+    }
+
+    private void remove(Waiter waiter) {
+        lock.lock();
+        try {
+            var tenant = waiter.tenant;
+            if (tenant.waiters.remove(waiter)) {
+                queued--;
+                if (tenant.waiters.isEmpty()) {
+                    active.remove(tenant);
+                    tenant.deficit = 0;
+                    tenant.served = false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The state and counters of a tenant.
+     *
+     * @param inFlight  the number of permits the tenant holds.
+     * @param queued    the number of requests of the tenant waiting for a
+     *                  permit.
+     * @param admitted  the number of permits granted to the tenant so far.
+     * @param rejected  the number of requests of the tenant rejected so far.
+     * @param totalWait the total time granted requests of the tenant waited.
+     */
+    public record TenantStats(int inFlight, int queued, long admitted, long rejected, Duration totalWait) {
+    }
+
+    private static final class Tenant {
+        private final String name;
+        private final TenantPolicy policy;
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        private int inFlight;
+        private int deficit;
+        private boolean served;
+        private double tokens;
+        private long refilled;
+        private long admitted;
+        private long rejected;
+        private long waitNanos;
+
+        private Tenant(String name, TenantPolicy policy) {
+            this.name = name;
+            this.policy = policy;
+            this.tokens = policy.burst();
+            this.refilled = System.nanoTime();
+        }
+
+        /**
+         * Takes a token from the bucket of the tenant, refilled at the rate of
+         * the tenant up to its burst.
+         */
+        private boolean takeToken(long now) {
+            if (!policy.rateLimited()) {
+                return true;
+            }
+            tokens = Math.min(policy.burst(), tokens + (now - refilled) * policy.ratePerSecond() / 1e9);
+            refilled = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+
+    private final class Waiter {
+        private final Tenant tenant;
+        private final long enqueued;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Waiter(Tenant tenant, long enqueued) {
+            this.tenant = tenant;
+            this.enqueued = enqueued;
+        }
+
+        private void granted(long now) {
+            lock.lock();
+            try {
+                tenant.admitted++;
+                tenant.waitNanos += now - enqueued;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out execution permits from a {@link Semaphore} without blocking the
+ * caller.
+ *
+ * When no permit is available, asynchronous callers receive a future that is
+ * completed once a permit is released. Waiters are served in FIFO order and
+ * their number is bounded; requests beyond the bound are rejected
+ * immediately. A released permit is handed directly to the oldest waiter, so
+ * blocking callers of {@link #acquire()} only get permits while no
+ * asynchronous waiter is queued.
+ *
+ * With a maximum wait, callers that are not granted a permit in time are
+ * rejected as well, blocking and asynchronous ones alike.
+ *
+ * Over an {@link AdaptiveConcurrencyLimit}, waiters are also served when the
+ * limit grows, and released permits pay back a shrunk limit before they are
+ * handed to waiters.
+ *
+ * The tenant of a request is ignored; {@link FairShareQueue} shares the
+ * permits between tenants instead.
+ */
+public class PermitQueue {
+    private final Semaphore semaphore;
+    private final int maxQueueSize;
+    private final Duration maxWait;
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public PermitQueue(Semaphore semaphore, int maxQueueSize) {
+        this(semaphore, maxQueueSize, null);
+    }
+
+    /**
+     * @param semaphore    the semaphore permits are taken from.
+     * @param maxQueueSize the maximum number of asynchronous waiters.
+     * @param maxWait      the maximum time a caller waits for a permit, or
+     *                     {@code null} to wait indefinitely.
+     */
+    public PermitQueue(Semaphore semaphore, int maxQueueSize, Duration maxWait) {
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException("maxQueueSize must be >= 0");
+        }
+        if (maxWait != null && maxWait.isNegative()) {
+            throw new IllegalArgumentException("maxWait must not be negative");
+        }
+        this.semaphore = semaphore;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWait = maxWait;
+        if (semaphore instanceof AdaptiveConcurrencyLimit adaptive) {
+            adaptive.onIncrease(this::grantWaiters);
+        }
+    }
+
+    /**
+     * Acquires a permit, blocking until one is available.
+     *
+     * @throws InterruptedException       if the calling thread is interrupted.
+     * @throws RejectedExecutionException if no permit is available within the
+     *                                    maximum wait.
+     */
+    public void acquire() throws InterruptedException {
+        if (maxWait == null) {
+            semaphore.acquire();
+        } else if (!semaphore.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+            throw waitExceeded();
+        }
+    }
+
+    /**
+     * Acquires a permit for the given tenant, blocking until one is available.
+     *
+     * @param tenant the tenant of the request, or {@code null}.
+     * @throws InterruptedException       if the calling thread is interrupted.
+     * @throws RejectedExecutionException if no permit is available within the
+     *                                    maximum wait.
+     */
+    public void acquire(String tenant) throws InterruptedException {
+        acquire();
+    }
+
+    /**
+     * Acquires a permit without blocking.
+     *
+     * The returned future completes when the permit is granted. It fails with a
+     * {@link RejectedExecutionException} if the wait queue is full or the
+     * permit is not granted within the maximum wait. Cancelling
+     * a pending future, or completing it exceptionally (e.g. with
+     * {@link CompletableFuture#orTimeout}), removes it from the queue.
+     *
+     * @return a future completed once the caller holds a permit.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        CompletableFuture<Void> waiter;
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && semaphore.tryAcquire()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (waiters.size() >= maxQueueSize) {
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Wait queue is full (" + maxQueueSize + " pending)"));
+            }
+            waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+        } finally {
+            lock.unlock();
+        }
+        waiter.whenComplete((ignored, error) -> {
+            if (error != null) {
+                remove(waiter);
+            }
+        });
+        if (maxWait != null) {
+            CompletableFuture.delayedExecutor(maxWait.toNanos(), TimeUnit.NANOSECONDS)
+                    .execute(() -> waiter.completeExceptionally(waitExceeded()));
+        }
+        return waiter;
+    }
+
+    /**
+     * Acquires a permit for the given tenant without blocking.
+     *
+     * @param tenant the tenant of the request, or {@code null}.
+     * @return a future completed once the caller holds a permit.
+     * @see #acquireAsync()
+     */
+    public CompletableFuture<Void> acquireAsync(String tenant) {
+        return acquireAsync();
+    }
+
+    /**
+     * Releases a permit, handing it to the oldest pending waiter if there is
+     * one.
+     */
+    public void release() {
+        while (true) {
+            CompletableFuture<Void> waiter;
+            lock.lock();
+            try {
+                // a negative count is owed to a shrunk limit
+                waiter = semaphore.availablePermits() < 0 ? null : waiters.pollFirst();
+                if (waiter == null) {
+                    semaphore.release();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (waiter.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Releases a permit acquired for the given tenant.
+     *
+     * @param tenant the tenant the permit was acquired for.
+     */
+    public void release(String tenant) {
+        release();
+    }
+
+    /**
+     * @return the number of permits currently available.
+     */
+    public int availablePermits() {
+        return Math.max(0, semaphore.availablePermits());
+    }
+
+    /**
+     * @return the number of asynchronous callers waiting for a permit.
+     */
+    public int queueLength() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void grantWaiters() {
+        while (true) {
+            CompletableFuture<Void> waiter;
+            lock.lock();
+            try {
+                if (waiters.isEmpty() || !semaphore.tryAcquire()) {
+                    return;
+                }
+                waiter = waiters.pollFirst();
+            } finally {
+                lock.unlock();
+            }
+            if (!waiter.complete(null)) {
+                release();
+            }
+        }
+    }
+
+    private RejectedExecutionException waitExceeded() {
+        return new RejectedExecutionException("No permit within " + maxWait.toMillis() + "ms");
+    }
+
+    private void remove(CompletableFuture<Void> waiter) {
+        lock.lock();
+        try {
+            waiters.remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+/**
+ * The share of the execution permits a tenant is entitled to in a
+ * {@link FairShareQueue}.
+ *
+ * @param weight        the number of permits the tenant is granted per round
+ *                      while it has waiting requests, relative to the
+ *                      weights of the other waiting tenants.
+ * @param maxInFlight   the maximum number of permits the tenant may hold at
+ *                      once; further requests wait.
+ * @param maxQueued     the maximum number of waiting requests of the tenant;
+ *                      further requests are rejected.
+ * @param ratePerSecond the number of requests per second the tenant may
+ *                      submit on average, or {@code 0} for no limit; further
+ *                      requests are rejected.
+ * @param burst         the number of requests the tenant may submit at once
+ *                      above its rate.
+ */
+public record TenantPolicy(int weight, int maxInFlight, int maxQueued, double ratePerSecond, int burst) {
+
+    public TenantPolicy {
+        if (weight < 1 || maxInFlight < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("weight and maxInFlight must be >= 1 and maxQueued must be >= 0");
+        }
+        if (ratePerSecond < 0 || (ratePerSecond > 0 && burst < 1)) {
+            throw new IllegalArgumentException("ratePerSecond must be >= 0 and burst must be >= 1 with a rate");
+        }
+    }
+
+    /**
+     * @return whether the rate of requests is limited.
+     */
+    public boolean rateLimited() {
+        return ratePerSecond > 0;
+    }
+}
@@ -0,0 +1,208 @@
+package com.baghajanyan.sandbox.php.startup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.docker.DockerImages;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException;
+import com.baghajanyan.sandbox.php.executor.PhpCodeExecutor;
+
+/**
+ * Prepares the sandbox while the application starts, so cold-start latency
+ * does not land on the first real requests.
+ *
+ * On start it checks that the sandbox image is present locally, pulls it if
+ * it is missing and pulling is enabled, and then runs a number of warm-up
+ * snippets through the {@link PhpCodeExecutor}. The warm-up runs before the
+ * web server starts and blocks the context refresh, so the application only
+ * reports readiness once it is done.
+ *
+ * A failed warm-up aborts startup if configured to. Otherwise the application
+ * starts but is kept out of traffic: its readiness state is switched back to
+ * {@link ReadinessState#REFUSING_TRAFFIC} and the warm-up is retried in the
+ * background until it succeeds.
+ */
+public class PhpSandboxWarmup implements SmartLifecycle, ApplicationListener<AvailabilityChangeEvent<ReadinessState>> {
+    private static final Logger logger = LoggerFactory.getLogger(PhpSandboxWarmup.class);
+    private static final Duration IMAGE_CHECK_TIMEOUT = Duration.ofSeconds(30);
+    private static final String WARMUP_CODE = "echo 'warm-up ' . PHP_VERSION;";
+
+    /**
+     * Starts before the web server, which starts in a phase of
+     * {@code DEFAULT_PHASE - 2048}.
+     */
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    private final PhpCodeExecutor executor;
+    private final String image;
+    private final boolean pullImage;
+    private final Duration pullTimeout;
+    private final int snippets;
+    private final Duration snippetTimeout;
+    private final boolean failOnError;
+    private final Duration retryInterval;
+    private final ApplicationEventPublisher publisher;
+    private final AtomicBoolean retrying = new AtomicBoolean();
+    private volatile boolean running;
+    private volatile boolean warm;
+
+    /**
+     * @param executor       the executor warm-up snippets are run through.
+     * @param image          the sandbox Docker image.
+     * @param pullImage      whether to pull the image when it is missing.
+     * @param pullTimeout    the maximum time the pull may take.
+     * @param snippets       the number of warm-up snippets, run concurrently.
+     * @param snippetTimeout the timeout of each warm-up snippet.
+     * @param failOnError    whether a failed warm-up aborts startup.
+     * @param retryInterval the time between retries of a failed warm-up.
+     * @param publisher      the publisher of readiness state changes.
+     */
+    public PhpSandboxWarmup(PhpCodeExecutor executor, String image, boolean pullImage, Duration pullTimeout,
+            int snippets, Duration snippetTimeout, boolean failOnError, Duration retryInterval,
+            ApplicationEventPublisher publisher) {
+        if (snippets < 0) {
+            throw new IllegalArgumentException("snippets must be >= 0");
+        }
+        this.executor = executor;
+        this.image = image;
+        this.pullImage = pullImage;
+        this.pullTimeout = pullTimeout;
+        this.snippets = snippets;
+        this.snippetTimeout = snippetTimeout;
+        this.failOnError = failOnError;
+        this.retryInterval = retryInterval;
+        this.publisher = publisher;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        try {
+            warmUp();
+        } catch (DockerProcessException | IllegalStateException e) {
+            if (failOnError) {
+                throw new IllegalStateException("PHP sandbox warm-up failed", e);
+            }
+            logger.warn("PHP sandbox warm-up failed, refusing traffic until a retry succeeds", e);
+        }
+    }
+
+    /**
+     * Keeps the application out of traffic while the sandbox is not warm.
+     * Spring Boot reports the application ready after all lifecycle beans have
+     * started, so the failed warm-up is retried from here on.
+     */
+    @Override
+    public void onApplicationEvent(AvailabilityChangeEvent<ReadinessState> event) {
+        if (warm || event.getState() != ReadinessState.ACCEPTING_TRAFFIC) {
+            return;
+        }
+        AvailabilityChangeEvent.publish(publisher, this, ReadinessState.REFUSING_TRAFFIC);
+        if (retrying.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("php-sandbox-warmup").start(this::retry);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * @return whether the last warm-up completed successfully.
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    private void retry() {
+        try {
+            while (running && !warm) {
+                Thread.sleep(retryInterval);
+                try {
+                    warmUp();
+                    AvailabilityChangeEvent.publish(publisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+                } catch (DockerProcessException | IllegalStateException e) {
+                    logger.warn("PHP sandbox warm-up retry failed: {}", e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            retrying.set(false);
+        }
+    }
+
+    private void warmUp() {
+        long started = System.nanoTime();
+        long imageMillis = prepareImage();
+        long snippetsStarted = System.nanoTime();
+        var results = runSnippets();
+        long snippetMillis = millisSince(snippetsStarted);
+
+        var failed = results.stream().filter(result -> result.exitCode() != 0).toList();
+        if (!failed.isEmpty()) {
+            var first = failed.get(0);
+            throw new IllegalStateException(failed.size() + " of " + results.size()
+                    + " warm-up snippets failed, first with exit code " + first.exitCode() + ": " + first.stderr());
+        }
+        warm = true;
+        logger.info("PHP sandbox warmed up in {}ms (image {}ms, {} snippets {}ms)", millisSince(started),
+                imageMillis, results.size(), snippetMillis);
+    }
+
+    /**
+     * @return the time spent checking for and pulling the image, in
+     *         milliseconds.
+     */
+    private long prepareImage() {
+        long started = System.nanoTime();
+        if (DockerImages.exists(image, IMAGE_CHECK_TIMEOUT)) {
+            logger.debug("Sandbox image {} is present", image);
+            return millisSince(started);
+        }
+        if (!pullImage) {
+            throw new IllegalStateException("Sandbox image " + image + " is not present and pulling is disabled");
+        }
+        logger.info("Pulling sandbox image {}", image);
+        DockerImages.pull(image, pullTimeout);
+        long millis = millisSince(started);
+        logger.info("Pulled sandbox image {} in {}ms", image, millis);
+        return millis;
+    }
+
+    private List<ExecutionResult> runSnippets() {
+        List<CompletableFuture<ExecutionResult>> futures = new ArrayList<>(snippets);
+        for (int i = 0; i < snippets; i++) {
+            futures.add(executor.executeAsync(new CodeSnippet(WARMUP_CODE, snippetTimeout, "php")));
+        }
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,247 @@
+<?php
+// Serves snippets in a long-lived container. Requests are read from stdin and
+// results written to stdout, both length-framed:
+//
+// request:  <id> <timeout ms> <max output bytes> <source length>\n<source>
+// result:   __WORKER_RESULT__ <id> <exit code> <time ms> <timed out 0|1> <stdout length> <stderr length> <stray 0|1>\n<stdout><stderr>
+//
+// With pcntl and posix available, each snippet runs in a forked child, so it
+// starts from the worker's clean state without paying for interpreter startup.
+// Otherwise, and for snippets using the STDIN/STDOUT/STDERR constants, which
+// are closed in forked children, each snippet runs in its own php process.
+// The worker exits when stdin is closed.
+//
+// A forked snippet runs in a session of its own, and its whole process group
+// is killed once it exits or times out. A process left in the container after
+// a run, e.g. one that started a session of its own, could read the requests
+// of later runs from the worker's stdin, so the result reports it as stray and
+// the worker exits, which kills every process in the container.
+//
+// The worker's functions and constants live in a namespace of their own, so
+// snippets, which are evaluated in the global namespace, can declare the same
+// names.
+
+namespace PhpSandbox\Worker;
+
+const RESULT_MARKER = '__WORKER_RESULT__';
+
+function cap(string $output, int $total, int $max): string
+{
+    if ($total <= $max) {
+        return $output;
+    }
+    return substr($output, 0, $max) . "\n[output truncated: " . ($total - $max) . " bytes over the $max byte limit]";
+}
+
+function write_all($stream, string $data): void
+{
+    while ($data !== '') {
+        $written = fwrite($stream, $data);
+        if ($written === false || $written === 0) {
+            exit(1);
+        }
+        $data = substr($data, $written);
+    }
+    fflush($stream);
+}
+
+// runs in its own function so the snippet does not see the worker's variables
+function run_snippet(string $code): void
+{
+    eval('?>' . $code);
+}
+
+function run_forked(string $code, int $timeoutMs, int $maxOutputBytes): array
+{
+    $outFile = tempnam(sys_get_temp_dir(), 'php-worker-out-');
+    $errFile = tempnam(sys_get_temp_dir(), 'php-worker-err-');
+    $start = hrtime(true);
+    $pid = pcntl_fork();
+    if ($pid === -1) {
+        unlink($outFile);
+        unlink($errFile);
+        return [-1, 0, false, '', 'Failed to fork snippet process'];
+    }
+    if ($pid === 0) {
+        // everything the snippet starts stays in its process group unless it starts a session itself
+        posix_setsid();
+        // the lowest free descriptors are reused, so the snippet's 0, 1 and 2 point to the capture files
+        fclose(STDIN);
+        fclose(STDOUT);
+        fclose(STDERR);
+        $stdin = fopen('/dev/null', 'rb');
+        $stdout = fopen($outFile, 'wb');
+        $stderr = fopen($errFile, 'wb');
+        try {
+            run_snippet($code);
+        } catch (\Throwable $e) {
+            fwrite($stderr, 'PHP Fatal error:  Uncaught ' . $e . "\n");
+            exit(255);
+        }
+        exit(0);
+    }
+
+    $deadline = $timeoutMs > 0 ? $start + $timeoutMs * 1000000 : null;
+    $timedOut = false;
+    $pollUs = 100;
+    while (pcntl_waitpid($pid, $status, WNOHANG) === 0) {
+        if ($deadline !== null && hrtime(true) >= $deadline) {
+            posix_kill(-$pid, 9);
+            // the child may not have started its session yet
+            posix_kill($pid, 9);
+            pcntl_waitpid($pid, $status);
+            $timedOut = true;
+            break;
+        }
+        usleep($pollUs);
+        $pollUs = min($pollUs * 2, 10000);
+    }
+    $elapsedMs = (hrtime(true) - $start) / 1e6;
+    // processes the snippet left running in the background
+    posix_kill(-$pid, 9);
+    $exitCode = pcntl_wifexited($status) ? pcntl_wexitstatus($status) : 128 + pcntl_wtermsig($status);
+
+    clearstatcache();
+    $out = cap((string) file_get_contents($outFile, false, null, 0, $maxOutputBytes), filesize($outFile),
+        $maxOutputBytes);
+    $err = cap((string) file_get_contents($errFile, false, null, 0, $maxOutputBytes), filesize($errFile),
+        $maxOutputBytes);
+    unlink($outFile);
+    unlink($errFile);
+    return [$exitCode, $elapsedMs, $timedOut, $out, $err];
+}
+
+function run_process(array $phpOptions, string $code, int $timeoutMs, int $maxOutputBytes): array
+{
+    $start = hrtime(true);
+    $process = proc_open(
+        array_merge([PHP_BINARY], $phpOptions),
+        [0 => ['pipe', 'r'], 1 => ['pipe', 'w'], 2 => ['pipe', 'w']],
+        $pipes
+    );
+    if (!is_resource($process)) {
+        return [-1, 0, false, '', 'Failed to start snippet process'];
+    }
+    fwrite($pipes[0], $code);
+    fclose($pipes[0]);
+
+    stream_set_blocking($pipes[1], false);
+    stream_set_blocking($pipes[2], false);
+    $deadline = $timeoutMs > 0 ? $start + $timeoutMs * 1000000 : null;
+    $out = '';
+    $err = '';
+    $outBytes = 0;
+    $errBytes = 0;
+    $timedOut = false;
+    while (true) {
+        $read = [];
+        if (!feof($pipes[1])) {
+            $read[] = $pipes[1];
+        }
+        if (!feof($pipes[2])) {
+            $read[] = $pipes[2];
+        }
+        if (!$read) {
+            break;
+        }
+        $waitUs = 100000;
+        if ($deadline !== null) {
+            $leftUs = intdiv($deadline - hrtime(true), 1000);
+            if ($leftUs <= 0) {
+                $timedOut = true;
+                break;
+            }
+            $waitUs = min($waitUs, $leftUs);
+        }
+        $write = null;
+        $except = null;
+        if (stream_select($read, $write, $except, 0, $waitUs) === false) {
+            break;
+        }
+        foreach ($read as $pipe) {
+            $chunk = fread($pipe, 8192);
+            if ($chunk === false || $chunk === '') {
+                continue;
+            }
+            if ($pipe === $pipes[1]) {
+                $outBytes += strlen($chunk);
+                if (strlen($out) < $maxOutputBytes) {
+                    $out .= substr($chunk, 0, $maxOutputBytes - strlen($out));
+                }
+            } else {
+                $errBytes += strlen($chunk);
+                if (strlen($err) < $maxOutputBytes) {
+                    $err .= substr($chunk, 0, $maxOutputBytes - strlen($err));
+                }
+            }
+        }
+    }
+    if ($timedOut) {
+        proc_terminate($process, 9);
+    }
+    fclose($pipes[1]);
+    fclose($pipes[2]);
+    $exitCode = proc_close($process);
+    $elapsedMs = (hrtime(true) - $start) / 1e6;
+    return [$exitCode, $elapsedMs, $timedOut, cap($out, $outBytes, $maxOutputBytes), cap($err, $errBytes, $maxOutputBytes)];
+}
+
+// reaps the processes killed with the last snippet and returns whether any other process is left
+function has_stray_processes(): bool
+{
+    // the worker is the container's init process, unless it runs under one
+    $own = [getmypid(), function_exists('posix_getppid') ? posix_getppid() : 0];
+    for ($attempt = 0; $attempt < 20; $attempt++) {
+        while (function_exists('pcntl_waitpid') && pcntl_waitpid(-1, $status, WNOHANG) > 0) {
+        }
+        $stray = false;
+        foreach (scandir('/proc') ?: [] as $entry) {
+            if (ctype_digit($entry) && !in_array((int) $entry, $own, true)) {
+                $stray = true;
+                break;
+            }
+        }
+        if (!$stray) {
+            return false;
+        }
+        // killed processes take a moment to exit
+        usleep(5000);
+    }
+    return true;
+}
+
+// runs in its own function so the snippets do not see the requests in the worker's variables
+function serve(): void
+{
+    $forks = function_exists('pcntl_fork') && function_exists('posix_kill') && function_exists('posix_setsid');
+    $phpOptions = ['-d', 'display_errors=stderr', '-d', 'error_reporting=E_ALL'];
+    write_all(STDOUT, '__WORKER_READY__ ' . ($forks ? 'fork' : 'process') . "\n");
+
+    while (($header = fgets(STDIN)) !== false) {
+        $fields = explode(' ', trim($header));
+        if (count($fields) !== 4 || preg_match('/^[0-9a-f]{1,32}$/', $fields[0]) !== 1) {
+            exit(2);
+        }
+        $id = $fields[0];
+        [$timeoutMs, $maxOutputBytes, $length] = array_map('intval', array_slice($fields, 1));
+        $code = $length > 0 ? stream_get_contents(STDIN, $length) : '';
+        if ($code === false || strlen($code) !== $length) {
+            exit(2);
+        }
+
+        $usesStdStreams = preg_match('/\bSTD(IN|OUT|ERR)\b/', $code) === 1;
+        [$exitCode, $elapsedMs, $timedOut, $out, $err] = $forks && !$usesStdStreams
+            ? run_forked($code, $timeoutMs, $maxOutputBytes)
+            : run_process($phpOptions, $code, $timeoutMs, $maxOutputBytes);
+        $stray = has_stray_processes();
+
+        write_all(STDOUT, RESULT_MARKER . ' ' . $id . ' ' . $exitCode . ' ' . sprintf('%.3f', $elapsedMs) . ' '
+            . ($timedOut ? 1 : 0) . ' ' . strlen($out) . ' ' . strlen($err) . ' ' . ($stray ? 1 : 0) . "\n"
+            . $out . $err);
+        if ($stray) {
+            exit(3);
+        }
+    }
+}
+
+serve();
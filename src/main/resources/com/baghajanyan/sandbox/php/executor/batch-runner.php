@@ -0,0 +1,133 @@
+<?php
+// Runs a batch of snippet files inside one container. Each snippet runs in its
+// own php process so snippets cannot observe each other's state, and gets its
+// own timeout. One result line is printed per snippet, in batch order:
+// __BATCH_RESULT__ <index> <exit code> <time ms> <timed out 0|1> <base64 stdout> <base64 stderr>
+//
+// Usage: php batch-runner.php <max output bytes> [<file> <timeout ms>]...
+//
+// The runner is also prepended to every snippet process, where it only starts
+// a session of its own for the snippet. With posix available, the snippet's
+// process group is killed once the snippet completes, so nothing it started
+// keeps running, and writing to the runner's output, while later snippets run.
+//
+// The runner's functions live in a namespace of their own, so snippets can
+// declare the same names.
+
+namespace PhpSandbox\Batch;
+
+if (realpath($_SERVER['argv'][0] ?? '') !== __FILE__) {
+    if (function_exists('posix_setsid')) {
+        posix_setsid();
+    }
+    return;
+}
+
+$maxOutputBytes = (int) $argv[1];
+$jobs = array_slice($argv, 2);
+
+function append_capped(string &$buffer, string $chunk, int $max): void
+{
+    $room = $max - strlen($buffer);
+    if ($room > 0) {
+        $buffer .= substr($chunk, 0, $room);
+    }
+}
+
+function kill_group(int $pid): void
+{
+    if (function_exists('posix_kill')) {
+        posix_kill(-$pid, 9);
+    }
+}
+
+for ($i = 0; $i + 1 < count($jobs); $i += 2) {
+    $index = intdiv($i, 2);
+    $file = __DIR__ . '/' . basename($jobs[$i]);
+    $timeoutMs = (int) $jobs[$i + 1];
+
+    $start = hrtime(true);
+    $deadline = $timeoutMs > 0 ? $start + $timeoutMs * 1000000 : null;
+    $process = proc_open(
+        [PHP_BINARY, '-d', 'display_errors=stderr', '-d', 'error_reporting=E_ALL', '-d',
+            'auto_prepend_file=' . __FILE__, $file],
+        [0 => ['file', '/dev/null', 'r'], 1 => ['pipe', 'w'], 2 => ['pipe', 'w']],
+        $pipes
+    );
+    if (!is_resource($process)) {
+        echo '__BATCH_RESULT__ ', $index, ' -1 0 0 ', base64_encode(''), ' ',
+            base64_encode('Failed to start snippet process'), "\n";
+        continue;
+    }
+
+    $pid = proc_get_status($process)['pid'];
+    stream_set_blocking($pipes[1], false);
+    stream_set_blocking($pipes[2], false);
+    $out = '';
+    $err = '';
+    $outBytes = 0;
+    $errBytes = 0;
+    $timedOut = false;
+
+    while (true) {
+        $read = [];
+        if (!feof($pipes[1])) {
+            $read[] = $pipes[1];
+        }
+        if (!feof($pipes[2])) {
+            $read[] = $pipes[2];
+        }
+        if (!$read) {
+            break;
+        }
+        $waitUs = 100000;
+        if ($deadline !== null) {
+            $leftUs = intdiv($deadline - hrtime(true), 1000);
+            if ($leftUs <= 0) {
+                $timedOut = true;
+                break;
+            }
+            $waitUs = min($waitUs, $leftUs);
+        }
+        $write = null;
+        $except = null;
+        if (stream_select($read, $write, $except, 0, $waitUs) === false) {
+            break;
+        }
+        foreach ($read as $pipe) {
+            $chunk = fread($pipe, 8192);
+            if ($chunk === false || $chunk === '') {
+                continue;
+            }
+            if ($pipe === $pipes[1]) {
+                $outBytes += strlen($chunk);
+                append_capped($out, $chunk, $maxOutputBytes);
+            } else {
+                $errBytes += strlen($chunk);
+                append_capped($err, $chunk, $maxOutputBytes);
+            }
+        }
+    }
+
+    if ($timedOut) {
+        kill_group($pid);
+        // the snippet may not have started its session yet
+        proc_terminate($process, 9);
+    }
+    fclose($pipes[1]);
+    fclose($pipes[2]);
+    $exitCode = proc_close($process);
+    $elapsedMs = (hrtime(true) - $start) / 1e6;
+    // processes the snippet left running in the background
+    kill_group($pid);
+
+    if ($outBytes > $maxOutputBytes) {
+        $out .= "\n[output truncated: " . ($outBytes - $maxOutputBytes) . " bytes over the $maxOutputBytes byte limit]";
+    }
+    if ($errBytes > $maxOutputBytes) {
+        $err .= "\n[output truncated: " . ($errBytes - $maxOutputBytes) . " bytes over the $maxOutputBytes byte limit]";
+    }
+
+    echo '__BATCH_RESULT__ ', $index, ' ', $exitCode, ' ', sprintf('%.3f', $elapsedMs), ' ', $timedOut ? 1 : 0, ' ',
+        base64_encode($out), ' ', base64_encode($err), "\n";
+}
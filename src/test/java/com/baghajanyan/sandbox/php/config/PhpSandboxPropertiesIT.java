@@ -2,14 +2,19 @@ package com.baghajanyan.sandbox.php.config;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
+import com.baghajanyan.sandbox.php.docker.DockerNodeRouting;
+
 @SpringBootTest(classes = { PhpSandboxAutoConfiguration.class })
 @ActiveProfiles("test")
 public class PhpSandboxPropertiesIT {
@@ -24,10 +29,23 @@ public class PhpSandboxPropertiesIT {
     void phpSandboxPropertiesAreLoadedCorrectly() {
         assertNotNull(phpSandboxProperties);
         assertEquals(10, phpSandboxProperties.getMaxConcurrency());
+        assertEquals(500, phpSandboxProperties.getMaxQueueSize());
+        assertEquals(Duration.ofSeconds(3), phpSandboxProperties.getMaxQueueWait());
         assertEquals(32, phpSandboxProperties.getMaxMemoryMb());
         assertEquals(0.5, phpSandboxProperties.getMaxCpuUnits());
         assertEquals(Duration.ofSeconds(20), phpSandboxProperties.getMaxExecutionTime());
+        assertEquals(Duration.ofSeconds(7), phpSandboxProperties.getContainerStartupTimeout());
         assertEquals("php:8.3-cli-test", phpSandboxProperties.getDockerImage());
+        assertEquals(65536, phpSandboxProperties.getMaxOutputBytes());
+        assertEquals(OutputLimitAction.KILL, phpSandboxProperties.getOutputLimitAction());
+        assertEquals(CodeDelivery.STDIN, phpSandboxProperties.getCodeDelivery());
+        assertEquals(256, phpSandboxProperties.getProfiles().get("heavy").getMaxMemoryMb());
+        assertEquals(1.0, phpSandboxProperties.getProfiles().get("heavy").getMaxCpuUnits());
+        assertEquals(Duration.ofSeconds(60), phpSandboxProperties.getProfiles().get("heavy").getMaxExecutionTime());
+        assertEquals(2, phpSandboxProperties.getProfiles().get("heavy").getMaxConcurrency());
+        assertEquals(20, phpSandboxProperties.getProfiles().get("heavy").getMaxQueueSize());
+        assertEquals(Duration.ofSeconds(2), phpSandboxProperties.getProfiles().get("quick").getMaxExecutionTime());
+        assertNull(phpSandboxProperties.getProfiles().get("quick").getMaxMemoryMb());
         assertEquals(true, phpSandboxProperties.getSecurity().isEnableHardening());
         assertEquals(false, phpSandboxProperties.getSecurity().isAllowNetwork());
         assertEquals(true, phpSandboxProperties.getSecurity().isReadOnly());
@@ -36,6 +54,94 @@ public class PhpSandboxPropertiesIT {
         assertEquals("64m", phpSandboxProperties.getSecurity().getTmpfsSize());
         assertEquals(true, phpSandboxProperties.getSecurity().isDropCapabilities());
         assertEquals(true, phpSandboxProperties.getSecurity().isNoNewPrivileges());
+        assertEquals(false, phpSandboxProperties.getEngine().isEnabled());
+        assertEquals(Path.of("/run/docker-test.sock"), phpSandboxProperties.getEngine().getSocketPath());
+        assertEquals(4, phpSandboxProperties.getEngine().getMaxIdleConnections());
+        assertEquals(false, phpSandboxProperties.getNodes().isEnabled());
+        assertEquals(DockerNodeRouting.CONSISTENT_HASH, phpSandboxProperties.getNodes().getRouting());
+        assertEquals(3, phpSandboxProperties.getNodes().getMaxAttempts());
+        assertEquals(2, phpSandboxProperties.getNodes().getFailureThreshold());
+        assertEquals(Duration.ofSeconds(20), phpSandboxProperties.getNodes().getHealthCheckInterval());
+        assertEquals("unix:///var/run/docker.sock",
+                phpSandboxProperties.getNodes().getEndpoints().get("local").getHost());
+        assertEquals(4, phpSandboxProperties.getNodes().getEndpoints().get("local").getMaxConcurrency());
+        assertEquals(50, phpSandboxProperties.getNodes().getEndpoints().get("remote").getMaxQueueSize());
+        assertEquals(false, phpSandboxProperties.getPool().isEnabled());
+        assertEquals(2, phpSandboxProperties.getPool().getMinIdle());
+        assertEquals(4, phpSandboxProperties.getPool().getMaxIdle());
+        assertEquals(8, phpSandboxProperties.getPool().getMaxSize());
+        assertEquals(50, phpSandboxProperties.getPool().getMaxRunsPerContainer());
+        assertEquals(Duration.ofSeconds(10), phpSandboxProperties.getPool().getHealthCheckInterval());
+        assertEquals(Duration.ofSeconds(3), phpSandboxProperties.getPool().getAcquireTimeout());
+        assertEquals(false, phpSandboxProperties.getWorker().isEnabled());
+        assertEquals(1, phpSandboxProperties.getWorker().getMinIdle());
+        assertEquals(3, phpSandboxProperties.getWorker().getMaxIdle());
+        assertEquals(6, phpSandboxProperties.getWorker().getMaxSize());
+        assertEquals(500, phpSandboxProperties.getWorker().getMaxRunsPerWorker());
+        assertEquals(Duration.ofSeconds(15), phpSandboxProperties.getWorker().getHealthCheckInterval());
+        assertEquals(Duration.ofSeconds(4), phpSandboxProperties.getWorker().getAcquireTimeout());
+        assertEquals(false, phpSandboxProperties.getScheduler().isEnabled());
+        assertEquals(Duration.ofSeconds(2), phpSandboxProperties.getScheduler().getMaxQueueWait());
+        assertEquals("interactive", phpSandboxProperties.getScheduler().getDefaultLane());
+        assertEquals(4, phpSandboxProperties.getScheduler().getLanes().get("interactive").getMaxConcurrency());
+        assertEquals(500, phpSandboxProperties.getScheduler().getLanes().get("batch").getQueueCapacity());
+        assertEquals(false, phpSandboxProperties.getLimiter().isEnabled());
+        assertEquals(2, phpSandboxProperties.getLimiter().getMinLimit());
+        assertEquals(20, phpSandboxProperties.getLimiter().getMaxLimit());
+        assertEquals(2.0, phpSandboxProperties.getLimiter().getTolerance());
+        assertEquals(0.5, phpSandboxProperties.getLimiter().getSmoothing());
+        assertEquals(0.8, phpSandboxProperties.getLimiter().getBackoffRatio());
+        assertEquals(0.75, phpSandboxProperties.getLimiter().getMaxCpuLoad());
+        assertEquals(false, phpSandboxProperties.getWarmup().isEnabled());
+        assertEquals(false, phpSandboxProperties.getWarmup().isPullImage());
+        assertEquals(Duration.ofMinutes(2), phpSandboxProperties.getWarmup().getPullTimeout());
+        assertEquals(3, phpSandboxProperties.getWarmup().getSnippets());
+        assertEquals(Duration.ofSeconds(4), phpSandboxProperties.getWarmup().getSnippetTimeout());
+        assertEquals(true, phpSandboxProperties.getWarmup().isFailOnError());
+        assertEquals(Duration.ofSeconds(10), phpSandboxProperties.getWarmup().getRetryInterval());
+        assertEquals(false, phpSandboxProperties.getCache().isEnabled());
+        assertEquals(500, phpSandboxProperties.getCache().getMaxSize());
+        assertEquals(Duration.ofSeconds(30), phpSandboxProperties.getCache().getTtl());
+        assertEquals(false, phpSandboxProperties.getReaper().isEnabled());
+        assertEquals(Duration.ofMinutes(5), phpSandboxProperties.getReaper().getMaxLifetime());
+        assertEquals(Duration.ofSeconds(20), phpSandboxProperties.getReaper().getInterval());
+        assertEquals(false, phpSandboxProperties.getSnippets().isEnabled());
+        assertEquals(Path.of("/dev/shm/php-sandbox-test"), phpSandboxProperties.getSnippets().getRoot());
+        assertEquals(8, phpSandboxProperties.getSnippets().getShards());
+        assertEquals(32, phpSandboxProperties.getSnippets().getPoolSize());
+        assertEquals(Duration.ofMinutes(5), phpSandboxProperties.getSnippets().getMaxLease());
+        assertEquals(Duration.ofSeconds(30), phpSandboxProperties.getSnippets().getSweepInterval());
+        assertEquals(false, phpSandboxProperties.getBootstrap().isEnabled());
+        assertEquals(Path.of("/srv/php-bootstrap"), phpSandboxProperties.getBootstrap().getDirectory());
+        assertEquals(List.of("vendor/autoload.php", "helpers.php"), phpSandboxProperties.getBootstrap().getIncludes());
+        assertEquals("preload.php", phpSandboxProperties.getBootstrap().getPreload());
+        assertEquals("php-sandbox-opcache-test", phpSandboxProperties.getBootstrap().getCacheVolume());
+        assertEquals(32, phpSandboxProperties.getBootstrap().getOpcacheMemoryMb());
+        assertEquals(false, phpSandboxProperties.getBootstrap().isLoadOpcache());
+        assertEquals(Duration.ofSeconds(90), phpSandboxProperties.getBootstrap().getPrimeTimeout());
+        assertEquals(false, phpSandboxProperties.getTenants().isEnabled());
+        assertEquals(200, phpSandboxProperties.getTenants().getMaxTenants());
+        assertEquals(1, phpSandboxProperties.getTenants().getDefaultPolicy().getWeight());
+        assertEquals(4, phpSandboxProperties.getTenants().getDefaultPolicy().getMaxInFlight());
+        assertEquals(50, phpSandboxProperties.getTenants().getDefaultPolicy().getMaxQueued());
+        assertEquals(20.0, phpSandboxProperties.getTenants().getDefaultPolicy().getRatePerSecond());
+        assertEquals(40, phpSandboxProperties.getTenants().getDefaultPolicy().getBurst());
+        assertEquals(3, phpSandboxProperties.getTenants().getPolicies().get("premium").getWeight());
+        assertEquals(8, phpSandboxProperties.getTenants().getPolicies().get("premium").getMaxInFlight());
+        assertEquals(100, phpSandboxProperties.getTenants().getPolicies().get("premium").getMaxQueued());
+        assertEquals(false, phpSandboxProperties.getHedging().isEnabled());
+        assertEquals(2.5, phpSandboxProperties.getHedging().getBudgetPercent());
+        assertEquals(0.99, phpSandboxProperties.getHedging().getPercentile());
+        assertEquals(Duration.ofMillis(200), phpSandboxProperties.getHedging().getMinDelay());
+        assertEquals(Duration.ofSeconds(3), phpSandboxProperties.getHedging().getMaxDelay());
+        assertEquals(500, phpSandboxProperties.getHedging().getWindow());
+        assertEquals(false, phpSandboxProperties.getJournal().isEnabled());
+        assertEquals(Path.of("/var/lib/php-sandbox/journal"), phpSandboxProperties.getJournal().getDirectory());
+        assertEquals(32, phpSandboxProperties.getJournal().getSegmentSizeMb());
+        assertEquals(8, phpSandboxProperties.getJournal().getMaxSegments());
+        assertEquals(5000, phpSandboxProperties.getJournal().getQueueCapacity());
+        assertEquals(128, phpSandboxProperties.getJournal().getBatchSize());
+        assertEquals(true, phpSandboxProperties.getJournal().isRecordCode());
     }
 
     @Test
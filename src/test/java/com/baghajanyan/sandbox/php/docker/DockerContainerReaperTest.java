@@ -0,0 +1,100 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+
+public class DockerContainerReaperTest {
+    private final List<List<String>> commands = new CopyOnWriteArrayList<>();
+
+    private DockerContainerReaper reaper() {
+        var executor = new DockerProcessExecutor(mock(DockerConfig.class));
+        return new DockerContainerReaper(List.of(executor), Duration.ofMinutes(10), Duration.ofMinutes(1));
+    }
+
+    private static Process process(String output) throws InterruptedException {
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(process.exitValue()).thenReturn(0);
+        when(process.getInputStream())
+                .thenReturn(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+        return process;
+    }
+
+    /**
+     * Fakes the Docker CLI: {@code docker ps} prints the given output and
+     * every other command succeeds silently.
+     */
+    private MockedConstruction<ProcessBuilder> docker(String psOutput) {
+        return mockConstruction(ProcessBuilder.class, (builder, context) -> {
+            @SuppressWarnings("unchecked")
+            var command = (List<String>) context.arguments().get(0);
+            commands.add(new ArrayList<>(command));
+            var process = process(command.contains("ps") ? psOutput : "");
+            when(builder.redirectErrorStream(true)).thenReturn(builder);
+            when(builder.start()).thenReturn(process);
+        });
+    }
+
+    private List<String> removed() {
+        return commands.stream()
+                .filter(command -> command.contains("rm"))
+                .flatMap(command -> command.subList(3, command.size()).stream())
+                .toList();
+    }
+
+    @Test
+    void reap_removesOnlyContainersOlderThanMaxLifetime() {
+        long now = System.currentTimeMillis();
+        String containers = "old " + (now - Duration.ofMinutes(11).toMillis()) + "\n"
+                + "young " + (now - Duration.ofMinutes(1).toMillis()) + "\n"
+                + "unlabelled \n";
+
+        try (MockedConstruction<ProcessBuilder> mocked = docker(containers)) {
+            assertEquals(1, reaper().reap());
+        }
+
+        assertTrue(commands.get(0).contains("label=" + DockerCommands.RUN_LABEL));
+        assertEquals(List.of("old"), removed());
+        assertEquals(List.of("docker", "rm", "--force"), commands.get(1).subList(0, 3));
+    }
+
+    @Test
+    void reap_whenNothingExpired_removesNothing() {
+        String containers = "young " + System.currentTimeMillis() + "\n";
+
+        try (MockedConstruction<ProcessBuilder> mocked = docker(containers)) {
+            assertEquals(0, reaper().reap());
+
+            assertEquals(1, mocked.constructed().size());
+        }
+    }
+
+    @Test
+    void close_removesContainersOfThisInstance() {
+        try (MockedConstruction<ProcessBuilder> mocked = docker("a\nb\n")) {
+            reaper().close();
+        }
+
+        assertTrue(commands.get(0)
+                .contains("label=" + DockerCommands.INSTANCE_LABEL + "=" + DockerCommands.INSTANCE_ID));
+        assertEquals(List.of("a", "b"), removed());
+    }
+}
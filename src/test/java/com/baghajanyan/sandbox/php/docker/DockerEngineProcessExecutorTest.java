@@ -0,0 +1,373 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.baghajanyan.sandbox.php.config.CodeDelivery;
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+public class DockerEngineProcessExecutorTest {
+    private static final DockerConfig DOCKER_CONFIG = new DockerConfig(64, 0.5, Duration.ofSeconds(2),
+            "php:8.2-cli", true, false, true, 64, "65534:65534", "64m", true, true,
+            DockerConfig.DEFAULT_MAX_OUTPUT_BYTES, CodeDelivery.FILE, Duration.ofMillis(100));
+
+    @TempDir
+    Path socketDirectory;
+
+    private FakeDockerEngine engine;
+    private DockerEngineClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path socket = socketDirectory.resolve("docker.sock");
+        engine = new FakeDockerEngine(socket);
+        client = new DockerEngineClient(socket, 2);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        engine.close();
+    }
+
+    @Test
+    void execute_runsContainerThroughEngineApi() {
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+
+        var result = executor.execute(Path.of("/tmp/snippets/test.php"));
+
+        assertNull(result.process());
+        assertEquals(3, result.exitCode());
+        assertEquals("hello", result.stdout());
+        assertEquals("oops", result.stderr());
+        assertEquals(List.of("POST /v1.41/containers/create", "POST /v1.41/containers/abc123/attach",
+                "POST /v1.41/containers/abc123/start", "POST /v1.41/containers/abc123/wait",
+                "DELETE /v1.41/containers/abc123"), engine.requests);
+    }
+
+    @Test
+    void execute_createsContainerWithHardeningFlags() {
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+
+        executor.execute(Path.of("/tmp/snippets/test.php"));
+
+        String spec = engine.createBody;
+        assertTrue(spec.contains("\"Image\":\"php:8.2-cli\""));
+        assertTrue(spec.contains("\"/code/test.php\""));
+        assertTrue(spec.contains("\"User\":\"65534:65534\""));
+        assertTrue(spec.contains("\"Memory\":67108864"));
+        assertTrue(spec.contains("\"NanoCpus\":500000000"));
+        assertTrue(spec.contains("\"NetworkMode\":\"none\""));
+        assertTrue(spec.contains("\"ReadonlyRootfs\":true"));
+        assertTrue(spec.contains("\"Tmpfs\":{\"/tmp\":\"rw,noexec,nosuid,size=64m\"}"));
+        assertTrue(spec.contains("\"PidsLimit\":64"));
+        assertTrue(spec.contains("\"CapDrop\":[\"ALL\"]"));
+        assertTrue(spec.contains("\"SecurityOpt\":[\"no-new-privileges\"]"));
+        assertTrue(spec.contains("\"Binds\":[\"/tmp/snippets:/code:ro\"]"));
+        assertTrue(spec.contains("\"OpenStdin\":false"));
+    }
+
+    @Test
+    void executeScript_pipesSourceToAttachedStdin() {
+        engine.echoStdin = true;
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+
+        var result = executor.executeScript(DockerRunRequest.ofSource("<?php echo 1;", DOCKER_CONFIG));
+
+        assertEquals("<?php echo 1;", result.stdout());
+        assertTrue(engine.createBody.contains("\"OpenStdin\":true"));
+        assertTrue(engine.createBody.contains("\"StdinOnce\":true"));
+        assertFalse(engine.createBody.contains("Binds"));
+    }
+
+    @Test
+    void execute_reusesKeepAliveConnections() {
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+
+        executor.execute(Path.of("/tmp/snippets/test.php"));
+        executor.execute(Path.of("/tmp/snippets/test.php"));
+
+        // one attach connection per run plus a single kept-alive request connection
+        assertEquals(3, engine.connections.get());
+    }
+
+    @Test
+    void executeScript_onTimeout_killsAndRemovesContainer() throws Exception {
+        engine.hang = true;
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+        var request = DockerRunRequest.of(Path.of("/tmp/snippets/test.php"), DOCKER_CONFIG)
+                .withTimeout(Duration.ofMillis(200));
+
+        var ex = assertThrows(DockerProcessTimeoutException.class, () -> executor.executeScript(request));
+
+        assertTrue(ex.getMessage().contains("Execution timed out"));
+        assertTrue(engine.removed.await(1, TimeUnit.SECONDS));
+        assertTrue(engine.requests.contains("POST /v1.41/containers/abc123/kill"));
+    }
+
+    @Test
+    void execute_whenImageIsMissing_pullsItAndCreatesContainerAgain() {
+        engine.imageMissing = true;
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+
+        var result = executor.execute(Path.of("/tmp/snippets/test.php"));
+
+        assertEquals(3, result.exitCode());
+        assertEquals(List.of("POST /v1.41/containers/create", "POST /v1.41/images/create",
+                "POST /v1.41/containers/create"), engine.requests.subList(0, 3));
+        assertEquals("/v1.41/images/create?fromImage=php%3A8.2-cli", engine.pullPath);
+    }
+
+    @Test
+    void execute_whenImagePullFails_throwsThreadException() {
+        engine.imageMissing = true;
+        engine.pullError = "manifest unknown";
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+
+        var ex = assertThrows(DockerProcessThreadException.class,
+                () -> executor.execute(Path.of("/tmp/snippets/test.php")));
+
+        assertTrue(ex.getCause().getMessage().contains("manifest unknown"));
+        assertEquals(2, engine.requests.size());
+    }
+
+    @Test
+    void execute_whenCreateFails_throwsThreadException() {
+        engine.createStatus = 500;
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+
+        var ex = assertThrows(DockerProcessThreadException.class,
+                () -> executor.execute(Path.of("/tmp/snippets/test.php")));
+
+        assertTrue(ex.getMessage().contains("Failed to execute Docker container"));
+        assertTrue(ex.getCause().getMessage().contains("HTTP 500"));
+    }
+
+    @Test
+    void executeAsync_whenDaemonUnreachable_failsWithThreadException() throws IOException {
+        engine.close();
+        var executor = new DockerEngineProcessExecutor(DOCKER_CONFIG, client);
+
+        var future = executor.executeAsync(Path.of("/tmp/snippets/test.php"));
+
+        var ex = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof DockerProcessThreadException);
+    }
+
+    @Test
+    void demultiplex_splitsFramesByStream() throws IOException {
+        var frames = new ByteArrayOutputStream();
+        writeFrame(frames, 1, "out-1 ");
+        writeFrame(frames, 2, "err");
+        writeFrame(frames, 1, "out-2");
+        var stdout = new BoundedOutputBuffer(1024);
+        var stderr = new BoundedOutputBuffer(1024);
+
+        DockerEngineClient.demultiplex(new ByteArrayInputStream(frames.toByteArray()), stdout, stderr);
+
+        assertEquals("out-1 out-2", stdout.content());
+        assertEquals("err", stderr.content());
+    }
+
+    private static void writeFrame(OutputStream out, int stream, String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        out.write(new byte[] { (byte) stream, 0, 0, 0, (byte) (payload.length >>> 24), (byte) (payload.length >>> 16),
+                (byte) (payload.length >>> 8), (byte) payload.length });
+        out.write(payload);
+    }
+
+    /**
+     * A Docker daemon stand-in serving the container endpoints on a Unix
+     * domain socket.
+     */
+    private static final class FakeDockerEngine implements AutoCloseable {
+        private final ServerSocketChannel server;
+        private final Thread acceptor;
+        final List<String> requests = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final CountDownLatch killed = new CountDownLatch(1);
+        final CountDownLatch removed = new CountDownLatch(1);
+        final AtomicInteger connections = new AtomicInteger();
+        volatile String createBody;
+        volatile int createStatus = 201;
+        volatile boolean imageMissing;
+        volatile String pullError;
+        volatile String pullPath;
+        volatile boolean echoStdin;
+        volatile boolean hang;
+
+        FakeDockerEngine(Path socket) throws IOException {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            acceptor = new Thread(this::accept, "fake-docker-engine");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void accept() {
+            while (server.isOpen()) {
+                try {
+                    var channel = server.accept();
+                    connections.incrementAndGet();
+                    var handler = new Thread(() -> serve(channel), "fake-docker-connection");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(SocketChannel channel) {
+            try (channel) {
+                InputStream in = Channels.newInputStream(channel);
+                OutputStream out = Channels.newOutputStream(channel);
+                String requestLine;
+                while ((requestLine = readLine(in)) != null) {
+                    int contentLength = 0;
+                    String header;
+                    while (!(header = readLine(in)).isEmpty()) {
+                        if (header.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(header.substring(15).trim());
+                        }
+                    }
+                    String body = new String(in.readNBytes(contentLength), StandardCharsets.UTF_8);
+                    String[] parts = requestLine.split(" ");
+                    String path = parts[1].contains("?") ? parts[1].substring(0, parts[1].indexOf('?')) : parts[1];
+                    requests.add(parts[0] + " " + path);
+                    if (path.endsWith("/attach")) {
+                        attach(in, out, parts[1].contains("stdin=1"));
+                        return;
+                    }
+                    if (path.endsWith("/images/create")) {
+                        pullPath = parts[1];
+                    }
+                    respond(parts[0], path, body, out);
+                }
+            } catch (IOException | InterruptedException e) {
+                // connection closed by the client
+            }
+        }
+
+        private void respond(String method, String path, String body, OutputStream out)
+                throws IOException, InterruptedException {
+            if (path.endsWith("/containers/create")) {
+                createBody = body;
+                if (imageMissing) {
+                    write(out, 404, "{\"message\":\"No such image: php:8.2-cli\"}");
+                    return;
+                }
+                if (createStatus != 201) {
+                    write(out, createStatus, "{\"message\":\"boom\"}");
+                    return;
+                }
+                write(out, 201, "{\"Id\":\"abc123\",\"Warnings\":[]}");
+            } else if (path.endsWith("/images/create")) {
+                if (pullError != null) {
+                    write(out, 200, "{\"status\":\"Pulling\"}\n{\"errorDetail\":{\"message\":\"" + pullError
+                            + "\"},\"error\":\"" + pullError + "\"}");
+                    return;
+                }
+                imageMissing = false;
+                write(out, 200, "{\"status\":\"Downloaded newer image for php:8.2-cli\"}");
+            } else if (path.endsWith("/start")) {
+                started.countDown();
+                write(out, 204, "");
+            } else if (path.endsWith("/wait")) {
+                finished.await();
+                byte[] status = "{\"StatusCode\":3}".getBytes(StandardCharsets.UTF_8);
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n"
+                        + Integer.toHexString(status.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(status);
+                out.write("\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            } else if (path.endsWith("/kill")) {
+                killed.countDown();
+                write(out, 204, "");
+            } else if ("DELETE".equals(method)) {
+                removed.countDown();
+                write(out, 204, "");
+            } else {
+                write(out, 404, "{\"message\":\"page not found\"}");
+            }
+        }
+
+        private void attach(InputStream in, OutputStream out, boolean stdin) throws IOException, InterruptedException {
+            out.write(("HTTP/1.1 101 UPGRADED\r\nContent-Type: application/vnd.docker.raw-stream\r\n"
+                    + "Connection: Upgrade\r\nUpgrade: tcp\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            started.await();
+            if (hang) {
+                killed.await();
+            } else if (stdin && echoStdin) {
+                writeFrame(out, 1, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            } else {
+                writeFrame(out, 1, "hello");
+                writeFrame(out, 2, "oops");
+            }
+            out.flush();
+            finished.countDown();
+        }
+
+        private static void write(OutputStream out, int status, String body) throws IOException {
+            byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+            String head = "HTTP/1.1 " + status + " Status\r\n"
+                    + (status == 204 ? "" : "Content-Type: application/json\r\nContent-Length: " + payload.length
+                            + "\r\n")
+                    + "\r\n";
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            out.write(payload);
+            out.flush();
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            var line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            if (b == -1 && line.size() == 0) {
+                return null;
+            }
+            return line.toString(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.baghajanyan.sandbox.php.docker;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -10,14 +12,28 @@ import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedConstruction;
 
 import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.config.OutputLimitAction;
+import com.baghajanyan.sandbox.php.config.PhpBootstrap;
 import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
 import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
 
@@ -25,6 +41,7 @@ public class DockerProcessExecutorTest {
     private DockerConfig dockerConfig() {
         DockerConfig config = mock(DockerConfig.class);
         when(config.executionTimeout()).thenReturn(Duration.ofSeconds(1));
+        when(config.containerStartupTimeout()).thenReturn(Duration.ofMillis(500));
         when(config.maxMemoryMb()).thenReturn(128);
         when(config.maxCpuUnits()).thenReturn(1.0);
         when(config.securityHardening()).thenReturn(true);
@@ -51,8 +68,8 @@ public class DockerProcessExecutorTest {
 
             var result = executor.execute(Path.of("/tmp/test.php"));
 
-            assertSame(process, result);
-            verify(process).waitFor(1000, java.util.concurrent.TimeUnit.MILLISECONDS);
+            assertSame(process, result.process());
+            verify(process).waitFor(1500, java.util.concurrent.TimeUnit.MILLISECONDS);
         }
     }
 
@@ -75,6 +92,33 @@ public class DockerProcessExecutorTest {
         }
     }
 
+    @Test
+    void executeScript_onTimeout_killsLabelledContainer() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+        List<List<String>> commands = new ArrayList<>();
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(false);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    @SuppressWarnings("unchecked")
+                    var command = (List<String>) context.arguments().get(0);
+                    commands.add(command);
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            assertThrows(DockerProcessTimeoutException.class,
+                    () -> executor.executeScript(DockerRunRequest.of(Path.of("/tmp/test.php"), config)));
+        }
+
+        var run = commands.get(0);
+        String name = run.get(run.indexOf("--name") + 1);
+        assertTrue(run.contains(DockerCommands.INSTANCE_LABEL + "=" + DockerCommands.INSTANCE_ID));
+        assertEquals(List.of("docker", "kill", name), commands.get(1));
+    }
+
     @Test
     void execute_whenStartThrowsIOException_wrapInThreadException() throws Exception {
         var config = dockerConfig();
@@ -108,4 +152,357 @@ public class DockerProcessExecutorTest {
         }
         Thread.interrupted();
     }
+
+    @Test
+    void executeScript_whenWaitInterrupted_killsContainer() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+        List<List<String>> commands = new ArrayList<>();
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenThrow(new InterruptedException("interrupted"));
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    @SuppressWarnings("unchecked")
+                    var command = (List<String>) context.arguments().get(0);
+                    commands.add(command);
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            assertThrows(DockerProcessThreadException.class,
+                    () -> executor.executeScript(DockerRunRequest.of(Path.of("/tmp/test.php"), config)));
+        } finally {
+            Thread.interrupted();
+        }
+
+        verify(process).destroyForcibly();
+        var run = commands.get(0);
+        String name = run.get(run.indexOf("--name") + 1);
+        assertEquals(List.of("docker", "kill", name), commands.get(1));
+    }
+
+    @Test
+    void executeAsync() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.onExit()).thenReturn(CompletableFuture.completedFuture(process));
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+
+            var result = executor.executeAsync(Path.of("/tmp/test.php")).get(1, TimeUnit.SECONDS);
+
+            assertSame(process, result.process());
+        }
+    }
+
+    @Test
+    void executeAsync_onTimeout_failsWithTimeoutExceptionAndKillsProcess() throws Exception {
+        var config = dockerConfig();
+        when(config.executionTimeout()).thenReturn(Duration.ofMillis(50));
+        when(config.containerStartupTimeout()).thenReturn(Duration.ofMillis(50));
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.onExit()).thenReturn(new CompletableFuture<>());
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+
+            var future = executor.executeAsync(Path.of("/tmp/test.php"));
+
+            var ex = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+            assertTrue(ex.getCause() instanceof DockerProcessTimeoutException);
+            verify(process).destroyForcibly();
+        }
+    }
+
+    @Test
+    void executeAsync_whenCancelled_killsContainer() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.onExit()).thenReturn(new CompletableFuture<>());
+        List<List<?>> commands = new ArrayList<>();
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    commands.add(context.arguments());
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            var future = executor.executeAsync(Path.of("/tmp/test.php"));
+            future.cancel(true);
+
+            verify(process).destroyForcibly();
+            assertEquals(2, commands.size());
+            var runCommand = (List<?>) commands.get(0).get(0);
+            var containerName = runCommand.get(runCommand.indexOf("--name") + 1);
+            assertEquals(List.of("docker", "kill", containerName), commands.get(1).get(0));
+        }
+    }
+
+    @Test
+    void executeAsync_whenStartThrowsIOException_failsWithThreadException() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenThrow(new IOException("boom")))) {
+
+            var future = executor.executeAsync(Path.of("/tmp/test.php"));
+
+            var ex = assertThrows(ExecutionException.class, future::get);
+            assertTrue(ex.getCause() instanceof DockerProcessThreadException);
+        }
+    }
+
+    @Test
+    void executeScript_appendsArgumentsAndWaitsForStartupAndScriptTimeout() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        List<List<?>> commands = new ArrayList<>();
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    commands.add(context.arguments());
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            var request = DockerRunRequest.of(Path.of("/tmp/runner.php"), config)
+                    .withArguments(List.of("1024", "a.php", "500"))
+                    .withTimeout(Duration.ofSeconds(7));
+            executor.executeScript(request);
+
+            var command = (List<?>) commands.get(0).get(0);
+            assertEquals(List.of("/code/runner.php", "1024", "a.php", "500"),
+                    command.subList(command.size() - 4, command.size()));
+            verify(process).waitFor(7500, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    void executeScript_withSource_pipesSourceWithoutMountingAnything() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        var written = new CountDownLatch(1);
+        var stdin = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                written.countDown();
+            }
+        };
+        when(process.getOutputStream()).thenReturn(stdin);
+        when(process.waitFor(anyLong(), any())).thenAnswer(invocation -> written.await(1, TimeUnit.SECONDS));
+        List<List<?>> commands = new ArrayList<>();
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    commands.add(context.arguments());
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            executor.executeScript(DockerRunRequest.ofSource("<?php echo 1;", config));
+
+            var command = (List<?>) commands.get(0).get(0);
+            assertTrue(command.contains("-i"));
+            assertFalse(command.contains("-v"));
+            assertEquals("error_reporting=E_ALL", command.get(command.size() - 1));
+            assertEquals("<?php echo 1;", stdin.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void executeScript_runsInterpreterUnderScriptTimeout() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        List<List<?>> commands = new ArrayList<>();
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    commands.add(context.arguments());
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            executor.executeScript(DockerRunRequest.of(Path.of("/tmp/test.php"), config)
+                    .withTimeout(Duration.ofMillis(250)));
+
+            var command = (List<?>) commands.get(0).get(0);
+            int php = command.indexOf("php");
+            assertEquals(List.of("timeout", "0.250"), command.subList(php - 2, php));
+        }
+    }
+
+    @Test
+    void execute_onTimeout_reportsStartupAndScriptTimeouts() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(false);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+
+            var ex = assertThrows(DockerProcessTimeoutException.class,
+                    () -> executor.execute(Path.of("/tmp/test.php")));
+
+            assertEquals("Execution timed out after 1500ms (container startup timeout 500ms, script timeout 1000ms)",
+                    ex.getMessage());
+            verify(process).waitFor(1500, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    void executeScript_createsContainerWithLimitsOfRequest() throws Exception {
+        var executor = new DockerProcessExecutor(dockerConfig());
+        var heavy = dockerConfig();
+        when(heavy.maxMemoryMb()).thenReturn(512);
+        when(heavy.maxCpuUnits()).thenReturn(2.0);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        List<List<?>> commands = new ArrayList<>();
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    commands.add(context.arguments());
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            executor.executeScript(DockerRunRequest.of(Path.of("/tmp/test.php"), heavy));
+
+            var command = (List<?>) commands.get(0).get(0);
+            assertEquals("512m", command.get(command.indexOf("-m") + 1));
+            assertTrue(command.contains("--cpus=2.0"));
+        }
+    }
+
+    @Test
+    void executeScript_withBootstrap_mountsItAndReadsOpcacheFileCache() throws Exception {
+        var config = dockerConfig();
+        when(config.bootstrap()).thenReturn(new PhpBootstrap(Path.of("/srv/bootstrap"), List.of("autoload.php"), null,
+                "opcache-volume", 16, true));
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        List<List<?>> commands = new ArrayList<>();
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    commands.add(context.arguments());
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            executor.executeScript(DockerRunRequest.of(Path.of("/tmp/test.php"), config));
+
+            var command = (List<?>) commands.get(0).get(0);
+            assertTrue(command.contains("/srv/bootstrap:/bootstrap:ro"));
+            assertTrue(command.contains("opcache-volume:/opcache:ro"));
+            assertTrue(command.contains("zend_extension=opcache"));
+            assertTrue(command.contains("opcache.file_cache=/opcache"));
+            assertTrue(command.contains("opcache.file_cache_read_only=1"));
+            assertTrue(command.contains("opcache.file_cache_only=1"));
+            assertTrue(command.indexOf("opcache.file_cache=/opcache") < command.indexOf("/code/test.php"));
+        }
+    }
+
+    @Test
+    void executeScript_withEndpoint_targetsItsDaemon() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config, "tcp://10.0.0.2:2376");
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        Map<String, String> environment = new HashMap<>();
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    when(builder.environment()).thenReturn(environment);
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            executor.executeScript(DockerRunRequest.of(Path.of("/tmp/test.php"), config));
+
+            assertEquals(Map.of("DOCKER_HOST", "tcp://10.0.0.2:2376"), environment);
+        }
+    }
+
+    @Test
+    void executeScript_whenOutputExceedsLimitWithKill_killsContainer() throws Exception {
+        var config = dockerConfig();
+        when(config.outputLimitAction()).thenReturn(OutputLimitAction.KILL);
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.getInputStream())
+                .thenReturn(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        List<List<?>> commands = new ArrayList<>();
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    commands.add(context.arguments());
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            var result = executor.executeScript(
+                    DockerRunRequest.of(Path.of("/tmp/test.php"), config).withMaxOutputBytes(4));
+
+            assertEquals(137, result.exitCode());
+            assertTrue(result.stdout().startsWith("0123\n[output truncated"));
+            assertTrue(result.stderr().contains("output exceeded the 4 byte limit"));
+            assertEquals(10, result.outputBytes());
+            assertTrue(result.killedForOutput());
+            verify(process).destroyForcibly();
+            var runCommand = (List<?>) commands.get(0).get(0);
+            var containerName = runCommand.get(runCommand.indexOf("--name") + 1);
+            assertEquals(List.of("docker", "kill", containerName), commands.get(1).get(0));
+        }
+    }
+
+    @Test
+    void executeScript_withOutputListener_streamsOutputUpToLimit() throws Exception {
+        var config = dockerConfig();
+        var executor = new DockerProcessExecutor(config);
+
+        var process = mock(Process.class);
+        when(process.getInputStream())
+                .thenReturn(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        var streamed = new ByteArrayOutputStream();
+        var listener = new OutputListener() {
+            @Override
+            public void onStdout(ByteBuffer chunk) {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                streamed.writeBytes(bytes);
+            }
+        };
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+
+            var result = executor.executeScript(DockerRunRequest.of(Path.of("/tmp/test.php"), config)
+                    .withMaxOutputBytes(4)
+                    .withOutputListener(listener));
+
+            assertEquals(0, result.exitCode());
+            assertEquals("0123", streamed.toString(StandardCharsets.UTF_8));
+            assertEquals(1, mocked.constructed().size());
+        }
+    }
 }
@@ -0,0 +1,299 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.php.config.CodeDelivery;
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+
+public class HedgingDockerProcessExecutorTest {
+    private static final DockerConfig DOCKER_CONFIG = new DockerConfig(64, 0.5, Duration.ofSeconds(2),
+            "php:8.2-cli", true, false, true, 64, "65534:65534", "64m", true, true,
+            DockerConfig.DEFAULT_MAX_OUTPUT_BYTES, CodeDelivery.STDIN, Duration.ofMillis(100));
+    private static final DockerExecution SUCCESS = new DockerExecution(null, 0, "ok", "");
+    private static final Duration DELAY = Duration.ofMillis(20);
+    private static final String START_LINE = HedgingDockerProcessExecutor.START_MARKER + "\n";
+
+    private final FakeDocker docker = new FakeDocker();
+    private final ManualTimer timer = new ManualTimer();
+    private Executor launcher = Runnable::run;
+
+    private HedgingDockerProcessExecutor executor(double budgetPercent) {
+        return new HedgingDockerProcessExecutor(docker, budgetPercent, 0.95, DELAY, DELAY, 20, timer, launcher);
+    }
+
+    private static DockerRunRequest request() {
+        return DockerRunRequest.ofSource("<?php echo 1;", DOCKER_CONFIG);
+    }
+
+    /**
+     * Runs enough snippets that start right away for the executor to hedge.
+     */
+    private void warmUp(HedgingDockerProcessExecutor executor) {
+        docker.completeImmediately = true;
+        for (int i = 0; i < 20; i++) {
+            executor.executeScriptAsync(request()).join();
+        }
+        docker.completeImmediately = false;
+        docker.attempts.clear();
+    }
+
+    @Test
+    void executeScriptAsync_beforeEnoughRuns_doesNotHedge() throws Exception {
+        var executor = executor(100);
+
+        var result = executor.executeScriptAsync(request());
+
+        assertNull(executor.hedgeDelay());
+        assertEquals(0, timer.pending());
+        assertEquals(1, docker.attempts.size());
+        docker.attempts.get(0).execution().complete(SUCCESS);
+        assertSame(SUCCESS, result.get());
+        executor.close();
+    }
+
+    @Test
+    void executeScriptAsync_whenRunDoesNotStart_hedgesAndTakesFirstToFinish() throws Exception {
+        var executor = executor(100);
+        warmUp(executor);
+
+        var result = executor.executeScriptAsync(request());
+        timer.fire();
+        assertEquals(2, docker.attempts.size());
+        var hedged = new DockerExecution(null, 0, "hedged", "");
+        docker.attempts.get(1).execution().complete(hedged);
+
+        assertSame(hedged, result.get());
+        assertTrue(docker.attempts.get(0).execution().isCancelled());
+        assertEquals(DELAY, executor.hedgeDelay());
+        assertEquals(1, executor.hedges());
+        assertEquals(1, executor.hedgeWins());
+        executor.close();
+    }
+
+    @Test
+    void executeScriptAsync_whenHedging_launchesHedgeOffTimerThread() throws Exception {
+        List<Runnable> launches = new ArrayList<>();
+        launcher = launches::add;
+        var executor = executor(100);
+        warmUp(executor);
+
+        var result = executor.executeScriptAsync(request());
+        timer.fire();
+
+        assertEquals(1, docker.attempts.size());
+        assertEquals(1, launches.size());
+        launches.get(0).run();
+        assertEquals(2, docker.attempts.size());
+        docker.attempts.get(1).execution().complete(SUCCESS);
+        assertSame(SUCCESS, result.get());
+        executor.close();
+    }
+
+    @Test
+    void executeScriptAsync_whenRunStarts_doesNotHedge() throws Exception {
+        var executor = executor(100);
+        warmUp(executor);
+
+        var result = executor.executeScriptAsync(request());
+        docker.attempts.get(0).request().outputListener().onStdout(utf8("started"));
+        timer.fire();
+
+        assertEquals(1, docker.attempts.size());
+        docker.attempts.get(0).execution().complete(SUCCESS);
+        assertSame(SUCCESS, result.get());
+        assertEquals(0, executor.hedges());
+        executor.close();
+    }
+
+    @Test
+    void executeScriptAsync_whenSilentRunWritesStartMarker_doesNotHedge() throws Exception {
+        var executor = executor(100);
+        warmUp(executor);
+
+        var result = executor.executeScriptAsync(request());
+        docker.attempts.get(0).request().outputListener().onStderr(utf8(START_LINE));
+        timer.fire();
+
+        assertEquals(1, docker.attempts.size());
+        docker.attempts.get(0).execution().complete(SUCCESS);
+        assertSame(SUCCESS, result.get());
+        assertEquals(0, executor.hedges());
+        executor.close();
+    }
+
+    @Test
+    void executeScriptAsync_whenRunsFinishWithoutStartMarker_recordsNoStartTimes() throws Exception {
+        var executor = executor(100);
+
+        for (int i = 0; i < 20; i++) {
+            var result = executor.executeScriptAsync(request());
+            docker.attempts.get(i).request().outputListener().onStderr(utf8("PHP Warning: no start marker\n"));
+            docker.attempts.get(i).execution().complete(SUCCESS);
+            assertSame(SUCCESS, result.get());
+        }
+
+        assertNull(executor.hedgeDelay());
+        executor.close();
+    }
+
+    @Test
+    void executeScriptAsync_beyondBudget_doesNotHedge() throws Exception {
+        var executor = executor(5);
+        warmUp(executor);
+
+        executor.executeScriptAsync(request());
+        timer.fire();
+        assertEquals(2, docker.attempts.size());
+        executor.executeScriptAsync(request());
+        timer.fire();
+
+        assertEquals(3, docker.attempts.size());
+        assertEquals(1, executor.hedges());
+        assertEquals(22, executor.runs());
+        executor.close();
+    }
+
+    @Test
+    void executeScriptAsync_whenAttemptFails_waitsForTheOther() throws Exception {
+        var executor = executor(100);
+        warmUp(executor);
+
+        var result = executor.executeScriptAsync(request());
+        timer.fire();
+        assertEquals(2, docker.attempts.size());
+        docker.attempts.get(0).execution()
+                .completeExceptionally(new DockerProcessException.DockerProcessThreadException("daemon gone"));
+
+        assertFalse(result.isDone());
+        docker.attempts.get(1).execution().complete(SUCCESS);
+        assertSame(SUCCESS, result.get());
+        executor.close();
+    }
+
+    @Test
+    void executeScriptAsync_withListener_streamsTheAttemptThatStartsFirst() throws Exception {
+        var executor = executor(100);
+        warmUp(executor);
+        List<String> streamed = new CopyOnWriteArrayList<>();
+        var listener = new OutputListener() {
+            @Override
+            public void onStdout(ByteBuffer chunk) {
+                streamed.add(StandardCharsets.UTF_8.decode(chunk).toString());
+            }
+        };
+
+        var result = executor.executeScriptAsync(request().withOutputListener(listener));
+        timer.fire();
+        assertEquals(2, docker.attempts.size());
+        docker.attempts.get(1).request().outputListener().onStdout(utf8("hedge"));
+        docker.attempts.get(0).request().outputListener().onStdout(utf8("primary"));
+
+        assertTrue(docker.attempts.get(0).execution().isCancelled());
+        assertEquals(List.of("hedge"), streamed);
+        docker.attempts.get(1).execution().complete(SUCCESS);
+        assertSame(SUCCESS, result.get());
+        executor.close();
+    }
+
+    @Test
+    void cancel_killsEveryAttempt() throws Exception {
+        var executor = executor(100);
+        warmUp(executor);
+
+        var result = executor.executeScriptAsync(request());
+        timer.fire();
+        assertEquals(2, docker.attempts.size());
+        result.cancel(true);
+
+        assertTrue(docker.attempts.get(0).execution().isCancelled());
+        assertTrue(docker.attempts.get(1).execution().isCancelled());
+        executor.close();
+    }
+
+    private static ByteBuffer utf8(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A Docker executor whose runs finish only when the test completes them.
+     */
+    private static final class FakeDocker extends DockerProcessExecutor {
+        private final List<Attempt> attempts = new CopyOnWriteArrayList<>();
+        private volatile boolean completeImmediately;
+
+        FakeDocker() {
+            super(DOCKER_CONFIG);
+        }
+
+        @Override
+        public CompletableFuture<DockerExecution> executeScriptAsync(DockerRunRequest request) {
+            var execution = new CompletableFuture<DockerExecution>();
+            attempts.add(new Attempt(request, execution));
+            if (completeImmediately) {
+                request.outputListener().onStderr(utf8(START_LINE));
+                request.outputListener().onComplete();
+                execution.complete(SUCCESS);
+            }
+            return execution;
+        }
+    }
+
+    /**
+     * A timer whose tasks run only when the test fires them, whatever their
+     * delay.
+     */
+    private static final class ManualTimer extends ScheduledThreadPoolExecutor {
+        private final List<RunnableScheduledFuture<?>> tasks = new CopyOnWriteArrayList<>();
+
+        ManualTimer() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            var task = (RunnableScheduledFuture<?>) super.schedule(command, 1, TimeUnit.DAYS);
+            tasks.add(task);
+            return task;
+        }
+
+        /**
+         * Runs the tasks scheduled so far that were not cancelled.
+         */
+        void fire() {
+            for (var task : tasks) {
+                tasks.remove(task);
+                task.run();
+            }
+        }
+
+        /**
+         * @return the number of scheduled tasks that were neither fired nor
+         *         cancelled.
+         */
+        long pending() {
+            return tasks.stream().filter(task -> !task.isCancelled()).count();
+        }
+    }
+
+    private record Attempt(DockerRunRequest request, CompletableFuture<DockerExecution> execution) {
+    }
+}
@@ -0,0 +1,205 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+public class MultiNodeDockerProcessExecutorTest {
+    private static final DockerExecution SUCCESS = new DockerExecution(null, 0, "ok", "");
+    private static final DockerExecution CREATE_FAILURE = new DockerExecution(null, 125, "",
+            "docker: Error response from daemon: no space left on device.");
+
+    private final DockerConfig config = dockerConfig();
+
+    private static DockerConfig dockerConfig() {
+        DockerConfig config = mock(DockerConfig.class);
+        when(config.executionTimeout()).thenReturn(Duration.ofSeconds(1));
+        when(config.maxOutputBytes()).thenReturn(1024);
+        return config;
+    }
+
+    /**
+     * A node backed by a fake endpoint that answers every run with the given
+     * execution.
+     */
+    private static DockerNode node(String name, DockerExecution execution) {
+        var executor = mock(DockerProcessExecutor.class);
+        when(executor.executeScript(any())).thenReturn(execution);
+        when(executor.executeScriptAsync(any())).thenReturn(CompletableFuture.completedFuture(execution));
+        return new DockerNode(name, executor, 2, 10);
+    }
+
+    private MultiNodeDockerProcessExecutor executor(DockerNodeRouting routing, int failureThreshold,
+            DockerNode... nodes) {
+        return new MultiNodeDockerProcessExecutor(config, List.of(nodes), routing, 2, failureThreshold,
+                Duration.ofMillis(10));
+    }
+
+    private DockerRunRequest request(String source) {
+        return DockerRunRequest.ofSource(source, config);
+    }
+
+    @Test
+    void executeScript_routesToLeastLoadedNode() {
+        var busy = node("busy", SUCCESS);
+        var idle = node("idle", SUCCESS);
+        busy.assign();
+        var executor = executor(DockerNodeRouting.LEAST_LOADED, 3, busy, idle);
+
+        executor.executeScript(request("<?php echo 1;"));
+
+        verify(idle.executor()).executeScript(any());
+        verify(busy.executor(), never()).executeScript(any());
+        assertEquals(2, busy.permits().availablePermits());
+    }
+
+    @Test
+    void executeScript_whenContainerCreationFails_retriesOnAnotherNode() {
+        var broken = node("broken", CREATE_FAILURE);
+        var healthy = node("healthy", SUCCESS);
+        var executor = executor(DockerNodeRouting.LEAST_LOADED, 3, broken, healthy);
+
+        var result = executor.executeScript(request("<?php echo 1;"));
+
+        assertEquals(SUCCESS, result);
+        verify(broken.executor()).executeScript(any());
+        assertEquals(2, broken.permits().availablePermits());
+    }
+
+    @Test
+    void executeScript_whenEveryNodeFails_returnsLastFailure() {
+        var first = node("first", CREATE_FAILURE);
+        var second = node("second", CREATE_FAILURE);
+        var executor = executor(DockerNodeRouting.LEAST_LOADED, 3, first, second);
+
+        var result = executor.executeScript(request("<?php echo 1;"));
+
+        assertEquals(125, result.exitCode());
+        verify(first.executor()).executeScript(any());
+        verify(second.executor()).executeScript(any());
+    }
+
+    @Test
+    void executeScript_whenScriptExitsWith125_doesNotRetry() {
+        var node = node("a", new DockerExecution(null, 125, "partial output", ""));
+        var other = node("b", SUCCESS);
+        var executor = executor(DockerNodeRouting.LEAST_LOADED, 3, node, other);
+
+        var result = executor.executeScript(request("<?php exit(125);"));
+
+        assertEquals(125, result.exitCode());
+        verify(other.executor(), never()).executeScript(any());
+    }
+
+    @Test
+    void executeScript_onTimeout_doesNotRetry() {
+        var slow = node("slow", SUCCESS);
+        when(slow.executor().executeScript(any())).thenThrow(new DockerProcessTimeoutException("timed out"));
+        var other = node("other", SUCCESS);
+        var executor = executor(DockerNodeRouting.LEAST_LOADED, 3, slow, other);
+
+        assertThrows(DockerProcessTimeoutException.class, () -> executor.executeScript(request("<?php echo 1;")));
+
+        verify(other.executor(), never()).executeScript(any());
+        assertEquals(2, slow.permits().availablePermits());
+    }
+
+    @Test
+    void executeScript_afterConsecutiveFailures_ejectsNode() {
+        var down = node("down", SUCCESS);
+        when(down.executor().executeScript(any())).thenThrow(new DockerProcessThreadException("unreachable"));
+        var up = node("up", SUCCESS);
+        var executor = executor(DockerNodeRouting.LEAST_LOADED, 1, down, up);
+
+        executor.executeScript(request("<?php echo 1;"));
+        executor.executeScript(request("<?php echo 2;"));
+
+        assertTrue(down.isEjected());
+        verify(down.executor(), times(1)).executeScript(any());
+        verify(up.executor(), times(2)).executeScript(any());
+    }
+
+    @Test
+    void executeScript_whenEveryNodeIsEjected_stillRoutesToThem() {
+        var node = node("only", SUCCESS);
+        node.recordFailure(1);
+        var executor = executor(DockerNodeRouting.LEAST_LOADED, 1, node);
+
+        var result = executor.executeScript(request("<?php echo 1;"));
+
+        assertEquals(SUCCESS, result);
+        assertFalse(node.isEjected());
+    }
+
+    @Test
+    void executeScript_withConsistentHash_routesSameSourceToSameNode() {
+        var nodes = new DockerNode[] { node("a", SUCCESS), node("b", SUCCESS), node("c", SUCCESS) };
+        var executor = executor(DockerNodeRouting.CONSISTENT_HASH, 3, nodes);
+
+        for (int i = 0; i < 5; i++) {
+            executor.executeScript(request("<?php echo 'same';"));
+        }
+
+        int used = 0;
+        for (var node : nodes) {
+            var runs = mockingDetails(node.executor()).getInvocations().stream()
+                    .filter(invocation -> invocation.getMethod().getName().equals("executeScript"))
+                    .count();
+            if (runs > 0) {
+                assertEquals(5, runs);
+                used++;
+            }
+        }
+        assertEquals(1, used);
+    }
+
+    @Test
+    void executeScriptAsync_whenContainerCreationFails_retriesOnAnotherNode() throws Exception {
+        var broken = node("broken", CREATE_FAILURE);
+        var healthy = node("healthy", SUCCESS);
+        var executor = executor(DockerNodeRouting.LEAST_LOADED, 3, broken, healthy);
+
+        var result = executor.executeScriptAsync(request("<?php echo 1;")).get(1, TimeUnit.SECONDS);
+
+        assertEquals(SUCCESS, result);
+        verify(broken.executor()).executeScriptAsync(any());
+        assertEquals(2, broken.permits().availablePermits());
+        assertEquals(2, healthy.permits().availablePermits());
+    }
+
+    @Test
+    void healthCheck_readmitsNodeOnceItAnswers() throws Exception {
+        var node = node("a", SUCCESS);
+        when(node.executor().ping(any())).thenReturn(true);
+        node.recordFailure(1);
+        try (var executor = executor(DockerNodeRouting.LEAST_LOADED, 1, node, node("b", SUCCESS))) {
+            executor.start();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (node.isEjected() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+
+        assertFalse(node.isEjected());
+    }
+}
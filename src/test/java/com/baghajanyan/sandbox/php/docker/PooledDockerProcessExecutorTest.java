@@ -0,0 +1,154 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+public class PooledDockerProcessExecutorTest {
+    private DockerConfig dockerConfig() {
+        DockerConfig config = mock(DockerConfig.class);
+        when(config.executionTimeout()).thenReturn(Duration.ofSeconds(1));
+        when(config.containerStartupTimeout()).thenReturn(Duration.ofSeconds(1));
+        when(config.maxMemoryMb()).thenReturn(128);
+        when(config.maxCpuUnits()).thenReturn(1.0);
+        when(config.runAsUser()).thenReturn("65534:65534");
+        when(config.tmpfsSize()).thenReturn("64m");
+        return config;
+    }
+
+    @Test
+    void execute_runsScriptWithDockerExecAndReleasesCleanContainer() throws Exception {
+        var pool = mock(DockerContainerPool.class);
+        var container = new PooledContainer("sandbox-php-pool-1");
+        when(pool.canServe(any())).thenReturn(true);
+        when(pool.containerPath(any())).thenReturn("test.php");
+        when(pool.acquire()).thenReturn(container);
+        var executor = new PooledDockerProcessExecutor(dockerConfig(), pool);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        when(process.exitValue()).thenReturn(0);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    assertEquals(List.of("docker", "exec", "sandbox-php-pool-1", "timeout", "1.000", "php", "-d",
+                            "display_errors=stderr", "-d", "error_reporting=E_ALL", "/code/test.php"),
+                            context.arguments().get(0));
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            var result = executor.execute(Path.of("/tmp/test.php"));
+
+            assertSame(process, result.process());
+            assertEquals(1, mocked.constructed().size());
+            verify(pool).release(container, false);
+        }
+    }
+
+    @Test
+    void execute_onTimeout_releasesDirtyContainer() throws Exception {
+        var pool = mock(DockerContainerPool.class);
+        var container = new PooledContainer("sandbox-php-pool-1");
+        when(pool.canServe(any())).thenReturn(true);
+        when(pool.acquire()).thenReturn(container);
+        var executor = new PooledDockerProcessExecutor(dockerConfig(), pool);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(false);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+
+            assertThrows(DockerProcessTimeoutException.class, () -> executor.execute(Path.of("/tmp/test.php")));
+
+            verify(process).destroyForcibly();
+            verify(pool).release(container, true);
+        }
+    }
+
+    @Test
+    void execute_whenKilled_releasesDirtyContainer() throws Exception {
+        var pool = mock(DockerContainerPool.class);
+        var container = new PooledContainer("sandbox-php-pool-1");
+        when(pool.canServe(any())).thenReturn(true);
+        when(pool.acquire()).thenReturn(container);
+        var executor = new PooledDockerProcessExecutor(dockerConfig(), pool);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+        when(process.exitValue()).thenReturn(137);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+
+            executor.execute(Path.of("/tmp/test.php"));
+
+            verify(pool).release(container, true);
+        }
+    }
+
+    @Test
+    void execute_whenFileOutsideCodeDirectory_usesOneShotContainer() throws Exception {
+        var pool = mock(DockerContainerPool.class);
+        when(pool.canServe(any())).thenReturn(false);
+        var executor = new PooledDockerProcessExecutor(dockerConfig(), pool);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    assertEquals("run", ((List<?>) context.arguments().get(0)).get(1));
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            var result = executor.execute(Path.of("/elsewhere/test.php"));
+
+            assertSame(process, result.process());
+            verify(pool, never()).acquire();
+        }
+    }
+
+    @Test
+    void executeScript_whenRequestHasOtherLimits_usesOneShotContainer() throws Exception {
+        var pool = mock(DockerContainerPool.class);
+        when(pool.canServe(any())).thenReturn(true);
+        var executor = new PooledDockerProcessExecutor(dockerConfig(), pool);
+        var heavy = dockerConfig();
+        when(heavy.maxMemoryMb()).thenReturn(512);
+
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any())).thenReturn(true);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> {
+                    var command = (List<?>) context.arguments().get(0);
+                    assertEquals("run", command.get(1));
+                    assertEquals("512m", command.get(command.indexOf("-m") + 1));
+                    when(builder.start()).thenReturn(process);
+                })) {
+
+            var result = executor.executeScript(DockerRunRequest.of(Path.of("/tmp/test.php"), heavy));
+
+            assertSame(process, result.process());
+            verify(pool, never()).acquire();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class ProcessOutputCollectorTest {
+
+    @Test
+    void collect_drainsOutputLargerThanPipeBuffer() throws Exception {
+        var stdout = "x".repeat(256 * 1024);
+        var process = mock(Process.class);
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream(stdout.getBytes(StandardCharsets.UTF_8)));
+        when(process.getErrorStream()).thenReturn(new ByteArrayInputStream("warning".getBytes(StandardCharsets.UTF_8)));
+
+        var collector = ProcessOutputCollector.start(process, 1024 * 1024);
+        collector.await();
+
+        assertEquals(stdout, collector.stdout());
+        assertEquals("warning", collector.stderr());
+    }
+
+    @Test
+    void collect_whenOutputExceedsLimit_truncatesAndAppendsMarker() throws Exception {
+        var process = mock(Process.class);
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+        when(process.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        var collector = ProcessOutputCollector.start(process, 4);
+        collector.await();
+
+        assertTrue(collector.stdout().startsWith("0123\n[output truncated: 6 bytes"));
+        assertEquals("", collector.stderr());
+    }
+
+    @Test
+    void collect_whenOutputExceedsLimit_keepsWhatWasWrittenLast() throws Exception {
+        var stdout = "0123" + "x".repeat(10_000) + "\n__EXECUTION_TIME__: 1.5 10 20 4096\n";
+        var process = mock(Process.class);
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream(stdout.getBytes(StandardCharsets.UTF_8)));
+        when(process.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        var collector = ProcessOutputCollector.start(process, 4);
+        collector.await();
+
+        assertTrue(collector.stdout().startsWith("0123\n[output truncated: " + (stdout.length() - 4) + " bytes"));
+        assertTrue(collector.stdout().endsWith("x\n__EXECUTION_TIME__: 1.5 10 20 4096\n"));
+    }
+
+    @Test
+    void collect_whenOutputExceedsLimit_cutsOnCharacterBoundaries() throws Exception {
+        var stdout = "aé" + "€".repeat(200);
+        var process = mock(Process.class);
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream(stdout.getBytes(StandardCharsets.UTF_8)));
+        when(process.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        var collector = ProcessOutputCollector.start(process, 2);
+        collector.await();
+
+        assertTrue(collector.stdout().startsWith("a\n[output truncated: "));
+        assertTrue(collector.stdout().endsWith("]\n" + "€".repeat(85)));
+    }
+
+    @Test
+    void collect_whenStreamsAreMissing_returnsEmptyOutput() throws Exception {
+        var process = mock(Process.class);
+
+        var collector = ProcessOutputCollector.start(process, 1024);
+        collector.await();
+
+        assertEquals("", collector.stdout());
+        assertEquals("", collector.stderr());
+    }
+}
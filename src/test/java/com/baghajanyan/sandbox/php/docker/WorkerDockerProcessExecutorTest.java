@@ -0,0 +1,234 @@
+package com.baghajanyan.sandbox.php.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+
+public class WorkerDockerProcessExecutorTest {
+    private static final String READY = "__WORKER_READY__ fork\n";
+    private static final String RESULT = "__WORKER_RESULT__ ";
+
+    private DockerConfig dockerConfig() {
+        DockerConfig config = mock(DockerConfig.class);
+        when(config.executionTimeout()).thenReturn(Duration.ofSeconds(1));
+        when(config.containerStartupTimeout()).thenReturn(Duration.ofSeconds(1));
+        when(config.maxOutputBytes()).thenReturn(1024);
+        when(config.maxMemoryMb()).thenReturn(128);
+        when(config.maxCpuUnits()).thenReturn(1.0);
+        when(config.runAsUser()).thenReturn("65534:65534");
+        when(config.tmpfsSize()).thenReturn("64m");
+        when(config.dockerImage()).thenReturn("php:8.2-cli");
+        return config;
+    }
+
+    private Process workerProcess(Supervisor supervisor) {
+        var process = mock(Process.class);
+        when(process.getInputStream()).thenReturn(supervisor.stdout);
+        when(process.getErrorStream()).thenReturn(InputStream.nullInputStream());
+        when(process.getOutputStream()).thenReturn(supervisor.stdin);
+        when(process.isAlive()).thenReturn(true);
+        return process;
+    }
+
+    @Test
+    void executeScript_sendsFramedSourceAndReadsFramedResult() {
+        var config = dockerConfig();
+        var supervisor = new Supervisor(READY, id -> RESULT + id + " 3 1.500 0 5 4 0\nhellooops");
+        var process = workerProcess(supervisor);
+        var pool = mock(PhpWorkerPool.class);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+            var worker = PhpWorker.start("sandbox-php-worker-1", config, Duration.ofSeconds(1));
+            when(pool.acquire()).thenReturn(worker);
+            var executor = new WorkerDockerProcessExecutor(config, pool);
+
+            var result = executor.executeScript(DockerRunRequest.ofSource("<?php echo 1;", config));
+
+            assertEquals("fork", worker.mode());
+            assertNull(result.process());
+            assertEquals(3, result.exitCode());
+            assertEquals("hello", result.stdout());
+            assertEquals("oops", result.stderr());
+            assertTrue(supervisor.requests().matches("[0-9a-f]{16} 1000 1024 13\n<\\?php echo 1;"));
+            verify(pool).release(worker, false);
+        }
+    }
+
+    @Test
+    void executeScript_whenSupervisorKillsSnippet_throwsTimeoutAndKeepsWorker() {
+        var config = dockerConfig();
+        var process = workerProcess(new Supervisor(READY, id -> RESULT + id + " 137 1000.000 1 0 0 0\n"));
+        var pool = mock(PhpWorkerPool.class);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+            var worker = PhpWorker.start("sandbox-php-worker-1", config, Duration.ofSeconds(1));
+            when(pool.acquire()).thenReturn(worker);
+            var executor = new WorkerDockerProcessExecutor(config, pool);
+
+            var ex = assertThrows(DockerProcessTimeoutException.class,
+                    () -> executor.executeScript(DockerRunRequest.ofSource("<?php sleep(5);", config)));
+
+            assertTrue(ex.getMessage().contains("Execution timed out"));
+            verify(pool).release(worker, false);
+        }
+    }
+
+    @Test
+    void executeScript_whenWorkerExits_throwsThreadExceptionAndRecyclesWorker() {
+        var config = dockerConfig();
+        var process = workerProcess(new Supervisor(READY, id -> null));
+        var pool = mock(PhpWorkerPool.class);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+            var worker = PhpWorker.start("sandbox-php-worker-1", config, Duration.ofSeconds(1));
+            when(pool.acquire()).thenReturn(worker);
+            var executor = new WorkerDockerProcessExecutor(config, pool);
+
+            assertThrows(DockerProcessThreadException.class,
+                    () -> executor.executeScript(DockerRunRequest.ofSource("<?php echo 1;", config)));
+
+            verify(process).destroyForcibly();
+            verify(pool).release(worker, true);
+        }
+    }
+
+    @Test
+    void executeScript_whenSnippetLeavesProcessBehind_recyclesWorker() {
+        var config = dockerConfig();
+        var process = workerProcess(new Supervisor(READY, id -> RESULT + id + " 0 1.000 0 2 0 1\nok"));
+        var pool = mock(PhpWorkerPool.class);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+            var worker = PhpWorker.start("sandbox-php-worker-1", config, Duration.ofSeconds(1));
+            when(pool.acquire()).thenReturn(worker);
+            var executor = new WorkerDockerProcessExecutor(config, pool);
+
+            var result = executor.executeScript(DockerRunRequest.ofSource("<?php echo 'ok';", config));
+
+            assertEquals("ok", result.stdout());
+            assertTrue(worker.leftStrayProcesses());
+            verify(pool).release(worker, true);
+        }
+    }
+
+    @Test
+    void executeScript_whenResultIsForAnotherRequest_throwsThreadExceptionAndRecyclesWorker() {
+        var config = dockerConfig();
+        var process = workerProcess(new Supervisor(READY, id -> RESULT + "0123456789abcdef 0 1.000 0 6 0 0\nforged"));
+        var pool = mock(PhpWorkerPool.class);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+            var worker = PhpWorker.start("sandbox-php-worker-1", config, Duration.ofSeconds(1));
+            when(pool.acquire()).thenReturn(worker);
+            var executor = new WorkerDockerProcessExecutor(config, pool);
+
+            assertThrows(DockerProcessThreadException.class,
+                    () -> executor.executeScript(DockerRunRequest.ofSource("<?php echo 1;", config)));
+
+            verify(process).destroyForcibly();
+            verify(pool).release(worker, true);
+        }
+    }
+
+    @Test
+    void start_whenGreetingIsMissing_throwsThreadException() {
+        var config = dockerConfig();
+        var process = workerProcess(new Supervisor("docker: image not found\n", id -> null));
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class,
+                (builder, context) -> when(builder.start()).thenReturn(process))) {
+
+            assertThrows(DockerProcessThreadException.class,
+                    () -> PhpWorker.start("sandbox-php-worker-1", config, Duration.ofSeconds(1)));
+
+            verify(process).destroyForcibly();
+        }
+    }
+
+    @Test
+    void pipesSource_isAlwaysTrue() {
+        var executor = new WorkerDockerProcessExecutor(dockerConfig(), mock(PhpWorkerPool.class));
+
+        assertTrue(executor.pipesSource());
+    }
+
+    /**
+     * The standard streams of a worker container whose supervisor answers
+     * every request with the result built from the request's id, or exits if
+     * there is none.
+     */
+    private static final class Supervisor {
+        private final ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        private final BlockingQueue<Integer> output = new LinkedBlockingQueue<>();
+        private final InputStream stdout = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return output.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+        private final OutputStream stdin;
+
+        Supervisor(String greeting, UnaryOperator<String> answer) {
+            write(greeting);
+            stdin = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    requests.write(b);
+                }
+
+                @Override
+                public void flush() {
+                    String request = requests();
+                    String result = answer.apply(request.substring(0, request.indexOf(' ')));
+                    if (result != null) {
+                        Supervisor.this.write(result);
+                    } else {
+                        output.add(-1);
+                    }
+                }
+            };
+        }
+
+        String requests() {
+            return requests.toString(StandardCharsets.UTF_8);
+        }
+
+        private void write(String text) {
+            for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+                output.add(b & 0xff);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class BatchRunnerTest {
+
+    private static String base64(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void arguments_pairsFileNamesWithTimeoutsInMillis() {
+        var arguments = BatchRunner.arguments(4096, List.of("a.php", "b.php"),
+                List.of(Duration.ofSeconds(2), Duration.ofMillis(150)));
+
+        assertEquals(List.of("4096", "a.php", "2000", "b.php", "150"), arguments);
+    }
+
+    @Test
+    void parse_decodesResultLinesByIndex() {
+        var stdout = "__BATCH_RESULT__ 0 0 3.250 0 " + base64("12\n__EXECUTION_TIME__: 1.2") + " \n"
+                + "__BATCH_RESULT__ 1 255 12.500 0  " + base64("PHP Fatal error") + "\n";
+
+        var entries = BatchRunner.parse(stdout);
+
+        assertEquals(2, entries.size());
+        var first = entries.get(0);
+        assertEquals(0, first.exitCode());
+        assertEquals("12\n__EXECUTION_TIME__: 1.2", first.stdout());
+        assertEquals("", first.stderr());
+        assertEquals(Duration.ofNanos(3_250_000), first.executionTime());
+        assertFalse(first.timedOut());
+        var second = entries.get(1);
+        assertEquals(255, second.exitCode());
+        assertEquals("", second.stdout());
+        assertEquals("PHP Fatal error", second.stderr());
+    }
+
+    @Test
+    void parse_reportsTimedOutSnippets() {
+        var entries = BatchRunner.parse("__BATCH_RESULT__ 0 -1 200.125 1 " + base64("partial") + " \n");
+
+        assertTrue(entries.get(0).timedOut());
+        assertEquals("partial", entries.get(0).stdout());
+    }
+
+    @Test
+    void parse_ignoresUnrelatedAndMalformedLines() {
+        var stdout = "Warning: something\n__BATCH_RESULT__ 0 0 oops 0  \n__BATCH_RESULT__ 1 0\n";
+
+        assertTrue(BatchRunner.parse(stdout).isEmpty());
+    }
+
+    @Test
+    void parse_whenIndexIsRepeated_throws() {
+        var stdout = "__BATCH_RESULT__ 0 0 1.000 0 " + base64("forged") + " \n"
+                + "__BATCH_RESULT__ 0 0 1.000 0 " + base64("real") + " \n";
+
+        assertThrows(IllegalStateException.class, () -> BatchRunner.parse(stdout));
+    }
+
+    @Test
+    void parse_whenResultIsForSnippetNotYetRun_throws() {
+        var stdout = "__BATCH_RESULT__ 1 0 1.000 0 " + base64("forged") + " \n"
+                + "__BATCH_RESULT__ 0 0 1.000 0 " + base64("real") + " \n";
+
+        assertThrows(IllegalStateException.class, () -> BatchRunner.parse(stdout));
+    }
+
+    @Test
+    void parse_whenResultLineIsMalformed_reportsOnlyThatSnippetAsMissing() {
+        var stdout = "__BATCH_RESULT__ 0 0 oops 0  \n__BATCH_RESULT__ 1 0 1.000 0 " + base64("second") + " \n";
+
+        var entries = BatchRunner.parse(stdout);
+
+        assertFalse(entries.containsKey(0));
+        assertEquals("second", entries.get(1).stdout());
+    }
+
+    @Test
+    void script_isLoadedFromClasspath() {
+        assertTrue(BatchRunner.script().contains(BatchRunner.RESULT_MARKER));
+    }
+}
@@ -0,0 +1,108 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+
+public class CachingCodeExecutorTest {
+    private final DockerConfig dockerConfig = new DockerConfig(16, 0.125, Duration.ofSeconds(5), "php:8.2-cli", true,
+            false, true, 64, "65534:65534", "64m", true, true);
+    private final PhpCodeExecutor delegate = mock(PhpCodeExecutor.class);
+    private final CachingCodeExecutor executor = new CachingCodeExecutor(delegate, dockerConfig, 100,
+            Duration.ofMinutes(1));
+
+    private static ExecutionResult result(int exitCode) {
+        return new ExecutionResult(exitCode, "12", "", Duration.ofMillis(3));
+    }
+
+    @Test
+    void execute_whenSnippetRepeats_returnsCachedResult() {
+        var snippet = new CodeSnippet("echo 5 + 7;", Duration.ofSeconds(1), "php");
+        var result = result(0);
+        when(delegate.execute(any(), any())).thenReturn(result);
+
+        executor.execute(snippet);
+        var cached = executor.execute(new CodeSnippet("echo 5 + 7;", Duration.ofSeconds(1), "php"));
+
+        assertSame(result, cached);
+        verify(delegate, times(1)).execute(any(), any());
+        assertEquals(1, executor.stats().hitCount());
+        assertEquals(1, executor.stats().missCount());
+    }
+
+    @Test
+    void execute_whenTimeoutDiffers_executesAgain() {
+        when(delegate.execute(any(), any())).thenReturn(result(0));
+
+        executor.execute(new CodeSnippet("echo 1;", Duration.ofSeconds(1), "php"));
+        executor.execute(new CodeSnippet("echo 1;", Duration.ofSeconds(2), "php"));
+
+        verify(delegate, times(2)).execute(any(), any());
+    }
+
+    @Test
+    void execute_whenNotCacheable_bypassesCache() {
+        var snippet = new CodeSnippet("echo rand();", Duration.ofSeconds(1), "php");
+        var options = ExecutionOptions.DEFAULT.withCacheable(false);
+        when(delegate.execute(any(), any())).thenReturn(result(0));
+
+        executor.execute(snippet, options);
+        executor.execute(snippet, options);
+
+        verify(delegate, times(2)).execute(snippet, options);
+        assertEquals(0, executor.size());
+    }
+
+    @Test
+    void execute_whenStreamingOutput_bypassesCache() {
+        var snippet = new CodeSnippet("echo 1;", Duration.ofSeconds(1), "php");
+        var options = ExecutionOptions.DEFAULT.withOutputListener(new OutputPublisher());
+        when(delegate.execute(any(), any())).thenReturn(result(0));
+
+        executor.execute(snippet);
+        executor.execute(snippet, options);
+
+        verify(delegate).execute(snippet, options);
+        assertEquals(1, executor.size());
+    }
+
+    @Test
+    void execute_doesNotCacheTimeoutsOrRejections() {
+        var snippet = new CodeSnippet("sleep(2);", Duration.ofMillis(100), "php");
+        when(delegate.execute(any(), any())).thenReturn(result(PhpCodeExecutor.TIMEOUT_EXIT_CODE),
+                result(PhpCodeExecutor.REJECTED_EXIT_CODE), result(-1));
+
+        executor.execute(snippet);
+        executor.execute(snippet);
+        executor.execute(snippet);
+
+        verify(delegate, times(3)).execute(any(), any());
+    }
+
+    @Test
+    void executeAsync_whenSnippetRepeats_returnsCompletedFuture() throws Exception {
+        var snippet = new CodeSnippet("echo 5 + 7;", Duration.ofSeconds(1), "php");
+        var result = result(255);
+        when(delegate.executeAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(result));
+
+        executor.executeAsync(snippet).get(1, TimeUnit.SECONDS);
+        var cached = executor.executeAsync(snippet);
+
+        assertSame(result, cached.getNow(null));
+        verify(delegate, times(1)).executeAsync(any(), any());
+    }
+}
@@ -3,27 +3,49 @@ package com.baghajanyan.sandbox.php.executor;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Tag;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import com.baghajanyan.sandbox.core.fs.DeleteConfig;
 import com.baghajanyan.sandbox.core.fs.TempFileManager;
 import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.config.CodeDelivery;
 import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.config.DockerPoolConfig;
+import com.baghajanyan.sandbox.php.docker.DockerContainerPool;
 import com.baghajanyan.sandbox.php.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.DockerRunRequest;
+import com.baghajanyan.sandbox.php.docker.OutputListener;
+import com.baghajanyan.sandbox.php.docker.PhpWorkerPool;
+import com.baghajanyan.sandbox.php.docker.PooledDockerProcessExecutor;
+import com.baghajanyan.sandbox.php.docker.WorkerDockerProcessExecutor;
 import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessThreadException;
 import com.baghajanyan.sandbox.php.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.php.metrics.ExecutionMetrics;
+import com.baghajanyan.sandbox.php.metrics.ExecutionOutcome;
+import com.baghajanyan.sandbox.php.metrics.ExecutionPhase;
+import com.baghajanyan.sandbox.php.scheduler.PermitQueue;
 
 @Tag("integration")
 class PhpCodeExecutorTestIT {
@@ -109,7 +131,8 @@ class PhpCodeExecutorTestIT {
                 var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
                 var snippet = new CodeSnippet("", Duration.ofSeconds(2), "php");
 
-                doThrow(new DockerProcessTimeoutException("Execution timed out")).when(dockerProcess).execute(any());
+                doThrow(new DockerProcessTimeoutException("Execution timed out")).when(dockerProcess)
+                                .executeScript(any());
 
                 var result = executor.execute(snippet);
 
@@ -127,7 +150,7 @@ class PhpCodeExecutorTestIT {
                 var snippet = new CodeSnippet("", Duration.ofSeconds(2), "php");
 
                 doThrow(new DockerProcessThreadException("Execution failed", new RuntimeException("Some error")))
-                                .when(dockerProcess).execute(any());
+                                .when(dockerProcess).executeScript(any());
 
                 var result = executor.execute(snippet);
 
@@ -189,4 +212,332 @@ class PhpCodeExecutorTestIT {
                                 () -> assertEquals(124, result.exitCode()),
                                 () -> assertEquals("Snippet execution timed out: exceeded 100ms", result.stderr()));
         }
+
+        @Test
+        void executeAsync() throws Exception {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var snippet = new CodeSnippet("echo 5 + 7;", Duration.ofSeconds(5), "php");
+
+                var result = executor.executeAsync(snippet).get(10, TimeUnit.SECONDS);
+
+                assertAll(
+                                () -> assertEquals("12", result.stdout()),
+                                () -> assertEquals("", result.stderr()),
+                                () -> assertEquals(0, result.exitCode()),
+                                () -> assertEquals(2, semaphore.availablePermits()));
+                verify(fileManager).deleteAsync(any());
+        }
+
+        @Test
+        void executeAsync_whenWaitQueueIsFull_returnRejectedExecutionResult() throws Exception {
+                var executor = new PhpCodeExecutor(new PermitQueue(new Semaphore(0), 0), fileManager, dockerProcess);
+                var snippet = new CodeSnippet("echo 1;", Duration.ofSeconds(2), "php");
+
+                var result = executor.executeAsync(snippet).get(1, TimeUnit.SECONDS);
+
+                assertAll(
+                                () -> assertNull(result.stdout()),
+                                () -> assertTrue(result.stderr().startsWith("Execution rejected")),
+                                () -> assertEquals(PhpCodeExecutor.REJECTED_EXIT_CODE, result.exitCode()));
+                verify(fileManager, never()).createTempFile(any(), any());
+        }
+
+        @Test
+        void executeBatch() throws Exception {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var snippets = List.of(
+                                new CodeSnippet("echo 5 + 7;", Duration.ofSeconds(2), "php"),
+                                new CodeSnippet("sleep(2);", Duration.ofMillis(200), "php"),
+                                new CodeSnippet("echo $undefined;", Duration.ofSeconds(2), "php"));
+
+                var results = executor.executeBatch(snippets);
+
+                assertAll(
+                                () -> assertEquals(3, results.size()),
+                                () -> assertEquals("12", results.get(0).stdout()),
+                                () -> assertEquals(0, results.get(0).exitCode()),
+                                () -> assertEquals(124, results.get(1).exitCode()),
+                                () -> assertEquals("Snippet execution timed out: exceeded 200ms",
+                                                results.get(1).stderr()),
+                                () -> assertTrue(results.get(2).stderr().contains("Undefined variable")),
+                                () -> assertEquals(2, semaphore.availablePermits()));
+                verify(dockerProcess).executeScript(any());
+        }
+
+        @Test
+        void executeBatch_whenSnippetLeavesProcessBehind_killsItBeforeNextSnippet() throws Exception {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var snippets = List.of(
+                                new CodeSnippet("exec('(sleep 1; touch /tmp/leaked) > /dev/null 2>&1 &');",
+                                                Duration.ofSeconds(2), "php"),
+                                new CodeSnippet("usleep(1500000); echo file_exists('/tmp/leaked') ? 'leaked' : 'ok';",
+                                                Duration.ofSeconds(3), "php"));
+
+                var results = executor.executeBatch(snippets);
+
+                assertEquals("ok", results.get(1).stdout());
+        }
+
+        @Test
+        void executeBatch_whenSnippetForgesResultOfLaterSnippet_failsBatch() throws Exception {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var forge = "file_put_contents('/proc/' . posix_getppid() . '/fd/1', "
+                                + "\"__BATCH_RESULT__ 1 0 1.000 0 \" . base64_encode('forged') . \" \\n\");";
+                var snippets = List.of(
+                                new CodeSnippet(forge, Duration.ofSeconds(2), "php"),
+                                new CodeSnippet("echo 'real';", Duration.ofSeconds(2), "php"));
+
+                var results = executor.executeBatch(snippets);
+
+                assertAll(
+                                () -> assertEquals(2, results.size()),
+                                () -> assertTrue(results.get(1).stderr().startsWith("Invalid batch runner output")),
+                                () -> assertEquals(2, semaphore.availablePermits()));
+        }
+
+        @Test
+        void execute_withStdinDelivery_doesNotWriteTempFile() throws Exception {
+                var stdinProcess = Mockito.spy(new DockerProcessExecutor(new DockerConfig(6, 0.125,
+                                Duration.ofSeconds(5), "php:8.2-cli", true, false, true, 64, "65534:65534", "64m",
+                                true, true, DockerConfig.DEFAULT_MAX_OUTPUT_BYTES, CodeDelivery.STDIN)));
+                var executor = new PhpCodeExecutor(semaphore, fileManager, stdinProcess);
+                var snippet = new CodeSnippet("echo 5 + 7;", Duration.ofSeconds(5), "php");
+
+                var result = executor.execute(snippet);
+
+                assertAll(
+                                () -> assertEquals("12", result.stdout()),
+                                () -> assertEquals("", result.stderr()),
+                                () -> assertEquals(0, result.exitCode()));
+                verify(fileManager, never()).createTempFile(any(), any());
+        }
+
+        @Test
+        void execute_recordsPhasesAndOutcome() {
+                var metrics = Mockito.mock(ExecutionMetrics.class);
+                var executor = new PhpCodeExecutor(new PermitQueue(semaphore, 10), fileManager, dockerProcess,
+                                ExecutorComponents.DEFAULT.withMetrics(metrics));
+                var snippet = new CodeSnippet("echo 1;", Duration.ofSeconds(5), "php");
+
+                executor.execute(snippet);
+
+                verify(metrics).recordPhase(eq(ExecutionPhase.QUEUE_WAIT), any());
+                verify(metrics).recordPhase(eq(ExecutionPhase.FILE_WRITE), any());
+                verify(metrics).recordPhase(eq(ExecutionPhase.CONTAINER), any());
+                verify(metrics).recordPhase(eq(ExecutionPhase.CLEANUP), any());
+                verify(metrics).recordOutcome(ExecutionOutcome.SUCCESS);
+        }
+
+        @Test
+        void executeDetailed_reportsPhaseTimings() {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var snippet = new CodeSnippet("usleep(50000); echo 1;", Duration.ofSeconds(5), "php");
+
+                var detailed = executor.executeDetailed(snippet);
+
+                var timings = detailed.timings();
+                assertAll(
+                                () -> assertEquals("1", detailed.result().stdout()),
+                                () -> assertTrue(timings.scriptRun().compareTo(Duration.ofMillis(50)) >= 0),
+                                () -> assertTrue(timings.containerOverhead().isPositive()),
+                                () -> assertEquals(timings.container(),
+                                                timings.containerOverhead().plus(timings.scriptRun())));
+        }
+
+        @Test
+        void executeDetailed_whenSnippetExits_reportsResourceUsage() {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var snippet = new CodeSnippet("echo 'abc'; usleep(50000); exit(3);", Duration.ofSeconds(5), "php");
+
+                var detailed = executor.executeDetailed(snippet);
+
+                var usage = detailed.usage();
+                assertAll(
+                                () -> assertEquals("abc", detailed.result().stdout()),
+                                () -> assertEquals(3, detailed.result().exitCode()),
+                                () -> assertTrue(detailed.result().executionTime()
+                                                .compareTo(Duration.ofMillis(50)) >= 0),
+                                () -> assertTrue(usage.wallTime().compareTo(Duration.ofMillis(50)) >= 0),
+                                () -> assertTrue(usage.cpu().isPositive()),
+                                () -> assertTrue(usage.peakMemoryBytes() > 0),
+                                () -> assertEquals(3, usage.outputBytes()),
+                                () -> assertEquals(false, usage.oomKilled()));
+        }
+
+        @Test
+        void execute_whenDestructorPrintsAfterShutdown_keepsItsOutput() {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var phpSnippet = """
+                                class Greeter { public function __destruct() { echo 'bye'; } }
+                                $greeter = new Greeter();
+                                echo 'hi ';
+                                usleep(20000);
+                                """;
+                var snippet = new CodeSnippet(phpSnippet, Duration.ofSeconds(5), "php");
+
+                var result = executor.execute(snippet);
+
+                assertAll(
+                                () -> assertEquals("hi bye", result.stdout()),
+                                () -> assertEquals(0, result.exitCode()),
+                                () -> assertTrue(result.executionTime().compareTo(Duration.ofMillis(20)) >= 0));
+        }
+
+        @Test
+        void execute_whenOutputBufferIsLeftOpen_flushesItBeforeTrailer() {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var snippet = new CodeSnippet("ob_start(); echo 'buffered'; usleep(20000);", Duration.ofSeconds(5),
+                                "php");
+
+                var result = executor.execute(snippet);
+
+                assertAll(
+                                () -> assertEquals("buffered", result.stdout()),
+                                () -> assertEquals(0, result.exitCode()),
+                                () -> assertTrue(result.executionTime().compareTo(Duration.ofMillis(20)) >= 0));
+        }
+
+        @Test
+        void executeDetailed_whenSnippetExceedsContainerMemory_reportsOomKill() {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var snippet = new CodeSnippet("ini_set('memory_limit', '-1'); $a = str_repeat('x', 64 << 20);",
+                                Duration.ofSeconds(5), "php");
+
+                var detailed = executor.executeDetailed(snippet);
+
+                assertAll(
+                                () -> assertEquals(137, detailed.result().exitCode()),
+                                () -> assertTrue(detailed.usage().oomKilled()));
+        }
+
+        @Test
+        void execute_withProfile_runsWithProfileLimits() {
+                var profileConfig = dockerProcess.dockerConfig().withResources(32, 0.25, Duration.ofSeconds(1));
+                var profile = new ResourceProfile(profileConfig, new PermitQueue(new Semaphore(1), 10));
+                var executor = new PhpCodeExecutor(new PermitQueue(semaphore, 10), fileManager, dockerProcess,
+                                ExecutorComponents.DEFAULT.withProfiles(Map.of("heavy", profile)));
+                var snippet = new CodeSnippet("while (true) {}", null, "php");
+
+                var result = executor.execute(snippet, ExecutionOptions.DEFAULT.withProfile("heavy"));
+
+                var request = ArgumentCaptor.forClass(DockerRunRequest.class);
+                verify(dockerProcess).executeScript(request.capture());
+                assertAll(
+                                () -> assertEquals(profileConfig, request.getValue().dockerConfig()),
+                                () -> assertEquals(Duration.ofSeconds(1), request.getValue().timeout()),
+                                () -> assertEquals(124, result.exitCode()));
+        }
+
+        @Test
+        void execute_withWorker_whenSnippetDeclaresWorkerFunctionName_runsSnippet() {
+                var dockerConfig = new DockerConfig(64, 0.5, Duration.ofSeconds(5), "php:8.2-cli", true, false, true,
+                                64, "65534:65534", "64m", true, true);
+                var poolConfig = new DockerPoolConfig(1, 1, 1, 10, Duration.ofMinutes(1), Duration.ofSeconds(30));
+                try (var workerPool = new PhpWorkerPool(dockerConfig, poolConfig)) {
+                        workerPool.start();
+                        var executor = new PhpCodeExecutor(semaphore, fileManager,
+                                        new WorkerDockerProcessExecutor(dockerConfig, workerPool));
+                        var snippet = new CodeSnippet("function cap() { return 'own cap'; } echo cap();",
+                                        Duration.ofSeconds(5), "php");
+
+                        var result = executor.execute(snippet);
+
+                        assertAll(
+                                        () -> assertEquals(0, result.exitCode()),
+                                        () -> assertEquals("own cap", result.stdout()),
+                                        () -> assertEquals("", result.stderr()));
+                }
+        }
+
+        @Test
+        void execute_withWorker_whenSnippetLeavesProcessBehind_runsNextSnippetInCleanWorker() {
+                var dockerConfig = new DockerConfig(64, 0.5, Duration.ofSeconds(5), "php:8.2-cli", true, false, true,
+                                64, "65534:65534", "64m", true, true);
+                var poolConfig = new DockerPoolConfig(1, 1, 1, 10, Duration.ofMinutes(1), Duration.ofSeconds(30));
+                try (var workerPool = new PhpWorkerPool(dockerConfig, poolConfig)) {
+                        workerPool.start();
+                        var executor = new PhpCodeExecutor(semaphore, fileManager,
+                                        new WorkerDockerProcessExecutor(dockerConfig, workerPool));
+                        var leaving = new CodeSnippet("exec('php -r \"sleep(30);\" > /dev/null 2>&1 &'); echo 'left';",
+                                        Duration.ofSeconds(5), "php");
+                        var counting = new CodeSnippet("echo count(glob('/proc/[0-9]*'));", Duration.ofSeconds(5),
+                                        "php");
+
+                        var left = executor.execute(leaving);
+                        var counted = executor.execute(counting);
+
+                        assertAll(
+                                        () -> assertEquals("left", left.stdout()),
+                                        // the worker and the snippet
+                                        () -> assertEquals("2", counted.stdout()));
+                }
+        }
+
+        @Test
+        void execute_withPool_whenSnippetLeavesProcessAndFileBehind_runsNextSnippetInCleanContainer() {
+                var dockerConfig = new DockerConfig(64, 0.5, Duration.ofSeconds(5), "php:8.2-cli", true, false, true,
+                                64, "65534:65534", "64m", true, true, DockerConfig.DEFAULT_MAX_OUTPUT_BYTES,
+                                CodeDelivery.STDIN);
+                var poolConfig = new DockerPoolConfig(1, 1, 1, 10, Duration.ofMinutes(1), Duration.ofSeconds(30));
+                try (var containerPool = new DockerContainerPool(dockerConfig, poolConfig, null)) {
+                        containerPool.start();
+                        var executor = new PhpCodeExecutor(semaphore, fileManager,
+                                        new PooledDockerProcessExecutor(dockerConfig, containerPool));
+                        var leaving = new CodeSnippet("exec('sleep 30 > /dev/null 2>&1 &');"
+                                        + " file_put_contents('/tmp/left', 'x'); echo 'left';", Duration.ofSeconds(5),
+                                        "php");
+                        var looking = new CodeSnippet("$left = file_exists('/tmp/left');"
+                                        + " foreach (glob('/proc/[0-9]*/cmdline') as $cmdline) {"
+                                        + " $left = $left"
+                                        + " || @file_get_contents($cmdline) === \"sleep\\0\" . \"30\\0\"; }"
+                                        + " echo $left ? 'left' : 'clean';", Duration.ofSeconds(5), "php");
+
+                        var left = executor.execute(leaving);
+                        var looked = executor.execute(looking);
+
+                        assertAll(
+                                        () -> assertEquals("left", left.stdout()),
+                                        () -> assertEquals("clean", looked.stdout()));
+                }
+        }
+
+        @Test
+        void execute_withUnknownProfile_throws() {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var snippet = new CodeSnippet("echo 1;", Duration.ofSeconds(5), "php");
+
+                assertThrows(IllegalArgumentException.class,
+                                () -> executor.execute(snippet, ExecutionOptions.DEFAULT.withProfile("missing")));
+        }
+
+        @Test
+        void executeAsync_withOutputListener_streamsOutputWithoutTrailer() throws Exception {
+                var executor = new PhpCodeExecutor(semaphore, fileManager, dockerProcess);
+                var streamed = new ByteArrayOutputStream();
+                var completed = new CountDownLatch(1);
+                var listener = new OutputListener() {
+                        @Override
+                        public void onStdout(ByteBuffer chunk) {
+                                byte[] bytes = new byte[chunk.remaining()];
+                                chunk.get(bytes);
+                                streamed.writeBytes(bytes);
+                        }
+
+                        @Override
+                        public void onComplete() {
+                                completed.countDown();
+                        }
+                };
+                var snippet = new CodeSnippet("echo 'first'; flush(); usleep(100000); echo ' second';",
+                                Duration.ofSeconds(5), "php");
+
+                var result = executor.executeAsync(snippet, ExecutionOptions.DEFAULT.withOutputListener(listener))
+                                .get(10, TimeUnit.SECONDS);
+
+                assertTrue(completed.await(1, TimeUnit.SECONDS));
+                assertAll(
+                                () -> assertEquals(0, result.exitCode()),
+                                () -> assertEquals("first second", result.stdout()),
+                                () -> assertEquals("first second", streamed.toString(StandardCharsets.UTF_8)));
+        }
 }
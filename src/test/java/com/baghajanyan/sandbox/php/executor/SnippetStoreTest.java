@@ -0,0 +1,128 @@
+package com.baghajanyan.sandbox.php.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SnippetStoreTest {
+    @TempDir
+    Path root;
+
+    private SnippetStore store(int poolSize, Duration maxLease) {
+        var store = new SnippetStore(root, 4, poolSize, maxLease, Duration.ofMinutes(1));
+        store.start();
+        return store;
+    }
+
+    private static long entries(Path directory) throws Exception {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void acquire_returnsSeparateEmptyDirectoriesUnderShards() throws Exception {
+        try (var store = store(2, Duration.ofMinutes(1))) {
+            var first = store.acquire();
+            var second = store.acquire();
+
+            assertNotEquals(first, second);
+            assertEquals(root, first.getParent().getParent());
+            assertEquals(0, entries(first));
+        }
+    }
+
+    @Test
+    void release_emptiesDirectoryAndReusesIt() throws Exception {
+        try (var store = store(1, Duration.ofMinutes(1))) {
+            var directory = store.acquire();
+            var file = store.write(directory, "php-snippet.php", "<?php echo 1;");
+            assertEquals("<?php echo 1;", Files.readString(file));
+
+            store.release(directory);
+
+            assertEquals(directory, store.acquire());
+            assertEquals(0, entries(directory));
+        }
+    }
+
+    @Test
+    void release_whenPoolIsFull_removesDirectory() throws Exception {
+        try (var store = store(0, Duration.ofMinutes(1))) {
+            var directory = store.acquire();
+
+            store.release(directory);
+
+            assertFalse(Files.exists(directory));
+        }
+    }
+
+    @Test
+    void start_removesDirectoriesLeftByPreviousProcess() throws Exception {
+        var leftover = Files.createDirectories(root.resolve("00").resolve("left"));
+        Files.writeString(leftover.resolve("php-snippet.php"), "<?php echo 1;");
+
+        try (var store = store(1, Duration.ofMinutes(1))) {
+            assertFalse(Files.exists(leftover));
+        }
+    }
+
+    @Test
+    void sweep_reclaimsDirectoriesHeldPastMaxLease() throws Exception {
+        try (var store = store(0, Duration.ofMillis(1))) {
+            var directory = store.acquire();
+            Thread.sleep(5);
+
+            assertEquals(1, store.sweep());
+
+            assertFalse(Files.exists(directory));
+            store.release(directory);
+        }
+    }
+
+    @Test
+    void close_removesStore() throws Exception {
+        var store = store(2, Duration.ofMinutes(1));
+        store.write(store.acquire(), "php-snippet.php", "<?php echo 1;");
+
+        store.close();
+
+        // only the lock file is left in a root the store did not create
+        assertEquals(1, entries(root));
+        assertTrue(Files.isDirectory(root));
+    }
+
+    @Test
+    void close_removesRootCreatedByStore() throws Exception {
+        var ownRoot = root.resolve("own");
+        var store = new SnippetStore(ownRoot, 4, 2, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        store.start();
+        store.write(store.acquire(), "php-snippet.php", "<?php echo 1;");
+
+        store.close();
+
+        assertFalse(Files.exists(ownRoot));
+    }
+
+    @Test
+    void start_whenRootIsUsedByAnotherStore_throwsAndLeavesItsDirectories() throws Exception {
+        try (var store = store(0, Duration.ofMinutes(1))) {
+            var directory = store.acquire();
+            var other = new SnippetStore(root, 4, 0, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+            assertThrows(IllegalStateException.class, other::start);
+            other.close();
+
+            assertTrue(Files.isDirectory(directory));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.baghajanyan.sandbox.php.journal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.config.CodeDelivery;
+import com.baghajanyan.sandbox.php.config.DockerConfig;
+import com.baghajanyan.sandbox.php.executor.ExecutionOptions;
+import com.baghajanyan.sandbox.php.executor.ExecutionTimings;
+import com.baghajanyan.sandbox.php.metrics.ExecutionOutcome;
+
+public class ExecutionJournalTest {
+    private static final DockerConfig DOCKER_CONFIG = new DockerConfig(64, 0.5, Duration.ofSeconds(2),
+            "php:8.2-cli", true, false, true, 64, "65534:65534", "64m", true, true,
+            DockerConfig.DEFAULT_MAX_OUTPUT_BYTES, CodeDelivery.FILE, Duration.ofMillis(100));
+    private static final ExecutionTimings TIMINGS = new ExecutionTimings(Duration.ofMillis(1), Duration.ofMillis(300),
+            Duration.ofMillis(250), Duration.ofMillis(50));
+    private static final Instant SUBMITTED = Instant.parse("2026-01-01T10:00:00.123456789Z");
+
+    @TempDir
+    Path directory;
+
+    private ExecutionJournal journal(int segmentBytes, int maxSegments, boolean recordCode) {
+        var journal = new ExecutionJournal(directory, segmentBytes, maxSegments, 100, 10, recordCode);
+        journal.start();
+        return journal;
+    }
+
+    private static void record(ExecutionJournal journal, int i) {
+        journal.record(SUBMITTED.plusMillis(i), new CodeSnippet("<?php echo " + i + ";", Duration.ofSeconds(1), "php"),
+                new ExecutionOptions("fast", true, null, null, "acme"), DOCKER_CONFIG, TIMINGS,
+                ExecutionOutcome.SUCCESS, 0);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    @Test
+    void record_writesEntriesThatCanBeReadBack() throws IOException {
+        var journal = journal(1 << 16, 4, true);
+
+        record(journal, 0);
+        record(journal, 1);
+        journal.close();
+
+        var entries = ExecutionJournal.read(directory);
+        assertEquals(2, entries.size());
+        var entry = entries.get(1);
+        assertEquals(SUBMITTED.plusMillis(1), entry.submitted());
+        assertEquals("<?php echo 1;", entry.code());
+        assertEquals(64, entry.snippetHash().length());
+        assertEquals(Duration.ofSeconds(1), entry.timeout());
+        assertEquals("fast", entry.lane());
+        assertEquals("acme", entry.tenant());
+        assertNull(entry.profile());
+        assertEquals("php:8.2-cli", entry.dockerImage());
+        assertEquals(64, entry.maxMemoryMb());
+        assertEquals(0.5, entry.maxCpuUnits());
+        assertEquals(Duration.ofSeconds(2), entry.executionTimeout());
+        assertEquals(TIMINGS, entry.timings());
+        assertEquals(ExecutionOutcome.SUCCESS, entry.outcome());
+        assertEquals(0, entry.exitCode());
+        assertEquals(2, journal.written());
+    }
+
+    @Test
+    void record_withoutRecordCode_keepsOnlyTheHash() throws IOException {
+        var journal = journal(1 << 16, 4, false);
+
+        record(journal, 0);
+        record(journal, 0);
+        journal.close();
+
+        var entries = ExecutionJournal.read(directory);
+        assertNull(entries.get(0).code());
+        assertEquals(entries.get(0).snippetHash(), entries.get(1).snippetHash());
+    }
+
+    @Test
+    void record_whenSegmentIsFull_rollsAndDeletesTheOldest() throws IOException {
+        var journal = journal(512, 2, true);
+
+        for (int i = 0; i < 20; i++) {
+            record(journal, i);
+        }
+        journal.close();
+
+        var entries = ExecutionJournal.read(directory);
+        assertEquals(2, segments().size());
+        assertTrue(entries.size() < 20);
+        assertEquals(SUBMITTED.plusMillis(19), entries.get(entries.size() - 1).submitted());
+    }
+
+    @Test
+    void start_appendsToExistingJournal() throws IOException {
+        var first = journal(1 << 16, 4, true);
+        record(first, 0);
+        first.close();
+
+        var second = journal(1 << 16, 4, true);
+        record(second, 1);
+        second.close();
+
+        var entries = ExecutionJournal.read(directory);
+        assertEquals(2, segments().size());
+        assertEquals(List.of(SUBMITTED, SUBMITTED.plusMillis(1)),
+                entries.stream().map(JournalEntry::submitted).toList());
+    }
+
+    @Test
+    void read_stopsAtCorruptEntry() throws IOException {
+        var journal = journal(1 << 16, 4, true);
+        record(journal, 0);
+        record(journal, 1);
+        journal.close();
+
+        Path segment = segments().get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        int second = 8 + 8 + ByteBuffer.wrap(bytes, 8, 4).getInt();
+        bytes[second + 8 + 20] ^= 1;
+        Files.write(segment, bytes);
+
+        assertEquals(1, ExecutionJournal.read(directory).size());
+    }
+
+    @Test
+    void record_afterClose_dropsEntry() {
+        var journal = journal(1 << 16, 4, true);
+        journal.close();
+
+        assertFalse(journal.record(SUBMITTED, new CodeSnippet("<?php", null, "php"), ExecutionOptions.DEFAULT,
+                DOCKER_CONFIG, TIMINGS, null, 0));
+        assertEquals(1, journal.dropped());
+    }
+}
@@ -0,0 +1,99 @@
+package com.baghajanyan.sandbox.php.journal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.php.executor.ExecutionOptions;
+import com.baghajanyan.sandbox.php.executor.ExecutionTimings;
+import com.baghajanyan.sandbox.php.executor.PhpCodeExecutor;
+import com.baghajanyan.sandbox.php.metrics.ExecutionOutcome;
+
+public class JournalReplayTest {
+    private static final Instant START = Instant.parse("2026-01-01T10:00:00Z");
+
+    private final RecordingExecutor executor = new RecordingExecutor();
+
+    private static JournalEntry entry(long offsetMillis, String code, String profile) {
+        return new JournalEntry(START.plusMillis(offsetMillis), "hash", code, Duration.ofSeconds(1), "batch",
+                "acme", profile, "php:8.2-cli", 64, 0.5, Duration.ofSeconds(2),
+                new ExecutionTimings(Duration.ZERO, Duration.ofMillis(300), Duration.ofMillis(250),
+                        Duration.ofMillis(50)),
+                ExecutionOutcome.SUCCESS, 0);
+    }
+
+    @Test
+    void replay_submitsEntriesInSubmissionOrderWithTheirOptions() throws Exception {
+        var report = new JournalReplay(executor, Double.POSITIVE_INFINITY).replay(List.of(
+                entry(20, "<?php echo 2;", null), entry(0, "<?php echo 1;", null), entry(40, null, null)));
+
+        assertEquals(List.of("<?php echo 1;", "<?php echo 2;", "<?php usleep(50000);"),
+                executor.snippets.stream().map(CodeSnippet::code).toList());
+        var options = executor.options.get(0);
+        assertEquals("batch", options.lane());
+        assertEquals("acme", options.tenant());
+        assertEquals(false, options.cacheable());
+        assertEquals(3, report.submitted());
+        assertEquals(3, report.succeeded());
+    }
+
+    @Test
+    void replay_scalesTheRecordedRate() throws Exception {
+        var replay = new JournalReplay(executor, 10);
+
+        var report = replay.replay(List.of(entry(0, "<?php", null), entry(1000, "<?php", null)));
+
+        assertTrue(report.elapsed().compareTo(Duration.ofMillis(90)) >= 0);
+        assertTrue(report.elapsed().compareTo(Duration.ofMillis(900)) < 0);
+    }
+
+    @Test
+    void replay_countsOutcomesAndSkipsUnknownProfiles() throws Exception {
+        executor.exitCodes.add(PhpCodeExecutor.REJECTED_EXIT_CODE);
+        executor.exitCodes.add(1);
+
+        var report = new JournalReplay(executor, Double.POSITIVE_INFINITY).replay(List.of(
+                entry(0, "<?php", null), entry(1, "<?php", null), entry(2, "<?php", null),
+                entry(3, "<?php", "unknown")));
+
+        assertEquals(3, report.submitted());
+        assertEquals(1, report.skipped());
+        assertEquals(1, report.succeeded());
+        assertEquals(1, report.rejected());
+        assertEquals(1, report.failed());
+    }
+
+    /**
+     * Completes every execution at once, with the queued exit codes first.
+     */
+    private static final class RecordingExecutor extends PhpCodeExecutor {
+        private final List<CodeSnippet> snippets = new CopyOnWriteArrayList<>();
+        private final List<ExecutionOptions> options = new CopyOnWriteArrayList<>();
+        private final List<Integer> exitCodes = new CopyOnWriteArrayList<>();
+
+        RecordingExecutor() {
+            super(new Semaphore(1), null, null);
+        }
+
+        @Override
+        public CompletableFuture<ExecutionResult> executeAsync(CodeSnippet snippet, ExecutionOptions options) {
+            if (options.profile() != null) {
+                throw new IllegalArgumentException("Unknown resource profile: " + options.profile());
+            }
+            snippets.add(snippet);
+            this.options.add(options);
+            int exitCode = exitCodes.isEmpty() ? 0 : exitCodes.remove(0);
+            return CompletableFuture.completedFuture(new ExecutionResult(exitCode, "", "", Duration.ZERO));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.baghajanyan.sandbox.php.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.baghajanyan.sandbox.php.scheduler.ExecutionScheduler;
+import com.baghajanyan.sandbox.php.scheduler.PermitQueue;
+
+public class MicrometerExecutionMetricsTest {
+
+    @Test
+    void recordPhase_recordsTimerTaggedWithPhase() {
+        var registry = new SimpleMeterRegistry();
+        var metrics = new MicrometerExecutionMetrics(registry);
+
+        metrics.recordPhase(ExecutionPhase.CONTAINER, Duration.ofMillis(350));
+        metrics.recordPhase(ExecutionPhase.CONTAINER, Duration.ofMillis(250));
+
+        var timer = registry.get(MicrometerExecutionMetrics.PHASE_TIMER).tag("phase", "container").timer();
+        assertEquals(2, timer.count());
+        assertEquals(0, registry.get(MicrometerExecutionMetrics.PHASE_TIMER).tag("phase", "queue_wait").timer()
+                .count());
+    }
+
+    @Test
+    void recordOutcome_incrementsCounterTaggedWithOutcome() {
+        var registry = new SimpleMeterRegistry();
+        var metrics = new MicrometerExecutionMetrics(registry);
+
+        metrics.recordOutcome(ExecutionOutcome.TIMEOUT);
+
+        assertEquals(1.0, registry.get(MicrometerExecutionMetrics.OUTCOME_COUNTER).tag("outcome", "timeout")
+                .counter().count());
+        assertEquals(0.0, registry.get(MicrometerExecutionMetrics.OUTCOME_COUNTER).tag("outcome", "success")
+                .counter().count());
+    }
+
+    @Test
+    void recordUsage_recordsCpuMemoryOutputAndOomKills() {
+        var registry = new SimpleMeterRegistry();
+        var metrics = new MicrometerExecutionMetrics(registry);
+
+        metrics.recordUsage(new ResourceUsage(Duration.ofMillis(40), Duration.ofMillis(30), Duration.ofMillis(5),
+                12 << 20, false, 100));
+        metrics.recordUsage(new ResourceUsage(Duration.ZERO, Duration.ZERO, Duration.ZERO, -1, true, 0));
+
+        var userCpu = registry.get(MicrometerExecutionMetrics.CPU_TIMER).tag("mode", "user").timer();
+        assertEquals(1, userCpu.count());
+        assertEquals(30, userCpu.totalTime(TimeUnit.MILLISECONDS));
+        var memory = registry.get(MicrometerExecutionMetrics.MEMORY_SUMMARY).summary();
+        assertEquals(1, memory.count());
+        assertEquals(12 << 20, memory.max());
+        assertEquals(2, registry.get(MicrometerExecutionMetrics.OUTPUT_SUMMARY).summary().count());
+        assertEquals(1.0, registry.get(MicrometerExecutionMetrics.OOM_COUNTER).counter().count());
+    }
+
+    @Test
+    void meterBinder_registersPermitAndLaneGauges() throws Exception {
+        var registry = new SimpleMeterRegistry();
+        var permits = new PermitQueue(new Semaphore(3), 10);
+        var scheduler = new ExecutionScheduler(Map.of("batch", new PermitQueue(new Semaphore(2), 10)), null,
+                Duration.ofSeconds(1));
+
+        new PhpSandboxMeterBinder(permits, scheduler, null).bindTo(registry);
+        permits.acquire();
+
+        assertEquals(2.0, registry.get("sandbox.php.permits.available").gauge().value());
+        assertEquals(0.0, registry.get("sandbox.php.queue.length").gauge().value());
+        assertEquals(2.0, registry.get("sandbox.php.scheduler.permits.available").tag("lane", "batch").gauge()
+                .value());
+    }
+}
@@ -0,0 +1,116 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+    private static final Duration LATENCY = Duration.ofMillis(300);
+
+    private AdaptiveConcurrencyLimit limit(int initial, double cpuLoad) {
+        return new AdaptiveConcurrencyLimit(initial, 1, 20, 1.5, 1.0, 0.5, 0.9, () -> cpuLoad);
+    }
+
+    @Test
+    void onSample_whenLatencyIsSteadyAndPermitsAreInUse_growsLimit() {
+        var limit = limit(4, 0.2);
+        limit.acquireUninterruptibly(4);
+
+        limit.onSample(LATENCY);
+
+        assertEquals(6, limit.limit());
+        assertEquals(2, limit.availablePermits());
+    }
+
+    @Test
+    void onSample_whenFewPermitsAreInUse_keepsLimit() {
+        var limit = limit(4, 0.2);
+        limit.acquireUninterruptibly(1);
+
+        limit.onSample(LATENCY);
+
+        assertEquals(4, limit.limit());
+    }
+
+    @Test
+    void onSample_whenLatencyRises_shrinksLimit() {
+        var limit = limit(16, 0.2);
+        limit.acquireUninterruptibly(16);
+        limit.onSample(LATENCY);
+        int grown = limit.limit();
+
+        limit.onSample(LATENCY.multipliedBy(10));
+
+        assertTrue(limit.limit() < grown);
+    }
+
+    @Test
+    void onSample_whenCpuIsOverloaded_shrinksLimit() {
+        var limit = limit(8, 0.95);
+
+        limit.onSample(LATENCY);
+
+        assertEquals(4, limit.limit());
+        assertEquals(4, limit.availablePermits());
+    }
+
+    @Test
+    void onDrop_shrinksLimitDownToMinimum() {
+        var limit = limit(4, 0.2);
+
+        limit.onDrop();
+        assertEquals(2, limit.limit());
+        limit.onDrop();
+        limit.onDrop();
+
+        assertEquals(1, limit.limit());
+    }
+
+    @Test
+    void onDrop_whenPermitsAreHeld_releasesPayBackBeforeWaitersAreServed() {
+        var limit = limit(4, 0.2);
+        var queue = new PermitQueue(limit, 10);
+        for (int i = 0; i < 4; i++) {
+            queue.acquireAsync();
+        }
+        var waiter = queue.acquireAsync();
+
+        limit.onDrop();
+        queue.release();
+        queue.release();
+
+        assertEquals(2, limit.limit());
+        assertFalse(waiter.isDone());
+
+        queue.release();
+
+        assertTrue(waiter.isDone());
+    }
+
+    @Test
+    void onSample_whenLimitGrows_servesQueuedWaiters() {
+        var limit = limit(2, 0.2);
+        var queue = new PermitQueue(limit, 10);
+        queue.acquireAsync();
+        queue.acquireAsync();
+        var waiter = queue.acquireAsync();
+
+        limit.onSample(LATENCY);
+
+        assertTrue(waiter.isDone());
+        assertEquals(0, queue.queueLength());
+    }
+
+    @Test
+    void constructor_whenBoundsAreInvalid_throws() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveConcurrencyLimit(4, 0, 20, 1.5, 0.2, 0.9, 0.9, () -> 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveConcurrencyLimit(4, 5, 2, 1.5, 0.2, 0.9, 0.9, () -> 0));
+    }
+}
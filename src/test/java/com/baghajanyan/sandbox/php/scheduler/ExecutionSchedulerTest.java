@@ -0,0 +1,95 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class ExecutionSchedulerTest {
+
+    private ExecutionScheduler scheduler(int interactivePermits, int batchPermits, int queueCapacity,
+            Duration maxQueueWait) {
+        Map<String, PermitQueue> lanes = new LinkedHashMap<>();
+        lanes.put("interactive", new PermitQueue(new Semaphore(interactivePermits), queueCapacity));
+        lanes.put("batch", new PermitQueue(new Semaphore(batchPermits), queueCapacity));
+        return new ExecutionScheduler(lanes, null, maxQueueWait);
+    }
+
+    @Test
+    void submit_runsTaskOnVirtualThread() throws Exception {
+        var scheduler = scheduler(1, 1, 1, Duration.ofSeconds(1));
+
+        var result = scheduler.submit("interactive", () -> Thread.currentThread().isVirtual());
+
+        assertTrue(result.get(1, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.availablePermits("interactive"));
+    }
+
+    @Test
+    void submit_whenQueueFull_rejectsImmediately() throws Exception {
+        var scheduler = scheduler(1, 1, 0, Duration.ofSeconds(5));
+        var release = new CountDownLatch(1);
+        scheduler.submit("interactive", () -> await(release));
+
+        var rejected = scheduler.submit("interactive", () -> true);
+
+        var ex = assertThrows(ExecutionException.class, () -> rejected.get(100, TimeUnit.MILLISECONDS));
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        assertEquals(1, scheduler.rejectedCount("interactive"));
+        release.countDown();
+    }
+
+    @Test
+    void submit_whenQueueWaitExceeded_rejects() throws Exception {
+        var scheduler = scheduler(1, 1, 10, Duration.ofMillis(50));
+        var release = new CountDownLatch(1);
+        scheduler.submit("interactive", () -> await(release));
+
+        var rejected = scheduler.submit("interactive", () -> true);
+
+        var ex = assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        assertEquals(1, scheduler.rejectedCount("interactive"));
+        release.countDown();
+    }
+
+    @Test
+    void submit_lanesHaveSeparatePermitBudgets() throws Exception {
+        var scheduler = scheduler(1, 1, 10, Duration.ofSeconds(1));
+        var release = new CountDownLatch(1);
+        scheduler.submit("batch", () -> await(release));
+
+        var interactive = scheduler.submit("interactive", () -> true);
+
+        assertTrue(interactive.get(1, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    void submit_whenLaneUnknown_usesDefaultLane() throws Exception {
+        var scheduler = scheduler(1, 0, 0, Duration.ofSeconds(1));
+
+        var result = scheduler.submit("unknown", () -> true);
+
+        assertTrue(result.get(1, TimeUnit.SECONDS));
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.junit.jupiter.api.Test;
+
+public class FairShareQueueTest {
+    private static final TenantPolicy UNLIMITED = new TenantPolicy(1, Integer.MAX_VALUE, 100, 0, 0);
+
+    private static FairShareQueue queue(int permits, Map<String, TenantPolicy> policies) {
+        return new FairShareQueue(new Semaphore(permits), 100, null, UNLIMITED, policies, 10);
+    }
+
+    /**
+     * Releases one permit at a time and returns the tenants in the order
+     * they were granted.
+     */
+    private static List<String> grantOrder(FairShareQueue queue, Map<String, List<CompletableFuture<Void>>> waiters) {
+        List<String> order = new ArrayList<>();
+        int pending = waiters.values().stream().mapToInt(List::size).sum();
+        String holder = "flood";
+        for (int i = 0; i < pending; i++) {
+            queue.release(holder);
+            for (var entry : waiters.entrySet()) {
+                var granted = entry.getValue().stream().filter(CompletableFuture::isDone).findFirst();
+                if (granted.isPresent()) {
+                    entry.getValue().remove(granted.get());
+                    order.add(entry.getKey());
+                    holder = entry.getKey();
+                }
+            }
+        }
+        return order;
+    }
+
+    @Test
+    void release_alternatesBetweenTenantsInsteadOfArrivalOrder() {
+        var queue = queue(1, Map.of());
+        queue.acquireAsync("flood");
+        Map<String, List<CompletableFuture<Void>>> waiters = new LinkedHashMap<>();
+        waiters.put("flood", new ArrayList<>());
+        waiters.put("quiet", new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            waiters.get("flood").add(queue.acquireAsync("flood"));
+        }
+        waiters.get("quiet").add(queue.acquireAsync("quiet"));
+        waiters.get("quiet").add(queue.acquireAsync("quiet"));
+
+        assertEquals(List.of("flood", "quiet", "flood", "quiet", "flood", "flood"), grantOrder(queue, waiters));
+    }
+
+    @Test
+    void release_grantsPermitsInProportionToWeight() {
+        var queue = queue(1, Map.of("heavy", new TenantPolicy(2, Integer.MAX_VALUE, 100, 0, 0)));
+        queue.acquireAsync("flood");
+        Map<String, List<CompletableFuture<Void>>> waiters = new LinkedHashMap<>();
+        waiters.put("heavy", new ArrayList<>());
+        waiters.put("light", new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            waiters.get("light").add(queue.acquireAsync("light"));
+            waiters.get("heavy").add(queue.acquireAsync("heavy"));
+        }
+
+        assertEquals(List.of("light", "heavy", "heavy", "light", "heavy", "heavy", "light", "light"),
+                grantOrder(queue, waiters));
+    }
+
+    @Test
+    void acquireAsync_whilePermitIsReleased_doesNotJumpAheadOfWaitingTenants() {
+        var semaphore = new Semaphore(1);
+        var queue = new FairShareQueue(semaphore, 100, null, UNLIMITED, Map.of(), 10);
+        queue.acquireAsync("flood");
+        var quiet = queue.acquireAsync("quiet");
+
+        // a release has freed the permit but not dispatched it yet
+        semaphore.release();
+        var flood = queue.acquireAsync("flood");
+
+        assertTrue(quiet.isDone());
+        assertFalse(flood.isDone());
+    }
+
+    @Test
+    void acquireAsync_whenTenantAtMaxInFlight_waitsWhileOthersRun() {
+        var queue = queue(3, Map.of("capped", new TenantPolicy(1, 1, 100, 0, 0)));
+        queue.acquireAsync("capped");
+
+        var capped = queue.acquireAsync("capped");
+        var other = queue.acquireAsync("other");
+
+        assertFalse(capped.isDone());
+        assertTrue(other.isDone());
+        assertEquals(1, queue.availablePermits());
+
+        queue.release("capped");
+
+        assertTrue(capped.isDone());
+        assertEquals(1, queue.stats("capped").inFlight());
+    }
+
+    @Test
+    void acquireAsync_whenTenantQueueFull_rejectsOnlyThatTenant() {
+        var queue = queue(1, Map.of("flood", new TenantPolicy(1, Integer.MAX_VALUE, 1, 0, 0)));
+        queue.acquireAsync("flood");
+        queue.acquireAsync("flood");
+
+        var rejected = queue.acquireAsync("flood");
+        var other = queue.acquireAsync("other");
+
+        var ex = assertThrows(ExecutionException.class, rejected::get);
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        assertFalse(other.isCompletedExceptionally());
+        assertEquals(1, queue.stats("flood").rejected());
+        assertEquals(2, queue.queueLength());
+    }
+
+    @Test
+    void acquireAsync_beyondRate_rejects() {
+        var queue = queue(10, Map.of("limited", new TenantPolicy(1, Integer.MAX_VALUE, 100, 0.001, 2)));
+
+        assertTrue(queue.acquireAsync("limited").isDone());
+        assertTrue(queue.acquireAsync("limited").isDone());
+        var rejected = queue.acquireAsync("limited");
+
+        var ex = assertThrows(ExecutionException.class, rejected::get);
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        assertTrue(queue.acquireAsync("other").isDone());
+    }
+
+    @Test
+    void acquireAsync_whenWaiterCancelled_permitGoesBackToSemaphore() {
+        var queue = queue(1, Map.of());
+        queue.acquireAsync("a");
+        var waiter = queue.acquireAsync("b");
+
+        waiter.cancel(false);
+        queue.release("a");
+
+        assertEquals(0, queue.queueLength());
+        assertEquals(1, queue.availablePermits());
+        assertEquals(0, queue.stats("a").inFlight());
+    }
+
+    @Test
+    void acquire_withoutTenant_usesDefaultTenant() throws Exception {
+        var queue = queue(1, Map.of());
+
+        queue.acquire();
+
+        assertEquals(1, queue.stats(FairShareQueue.DEFAULT_TENANT).inFlight());
+        queue.release();
+        assertEquals(0, queue.stats(null).inFlight());
+        assertEquals(1, queue.stats(null).admitted());
+    }
+
+    @Test
+    void acquireAsync_beyondMaxTenants_sharesOverflowTenant() {
+        var queue = new FairShareQueue(new Semaphore(5), 100, null, UNLIMITED, Map.of(), 1);
+        List<String> registered = new ArrayList<>();
+        queue.onTenant(registered::add);
+
+        queue.acquireAsync("a");
+        queue.acquireAsync("b");
+        queue.acquireAsync("c");
+
+        assertEquals(List.of("a", FairShareQueue.OVERFLOW_TENANT), registered);
+        assertEquals(2, queue.stats(FairShareQueue.OVERFLOW_TENANT).inFlight());
+    }
+}
@@ -0,0 +1,88 @@
+package com.baghajanyan.sandbox.php.scheduler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class PermitQueueTest {
+
+    @Test
+    void acquireAsync_whenPermitAvailable_completesImmediately() {
+        var queue = new PermitQueue(new Semaphore(1), 1);
+
+        var permit = queue.acquireAsync();
+
+        assertTrue(permit.isDone());
+        assertEquals(0, queue.availablePermits());
+    }
+
+    @Test
+    void acquireAsync_whenNoPermit_waitsUntilRelease() {
+        var queue = new PermitQueue(new Semaphore(1), 1);
+        queue.acquireAsync();
+
+        var waiter = queue.acquireAsync();
+
+        assertFalse(waiter.isDone());
+        assertEquals(1, queue.queueLength());
+
+        queue.release();
+
+        assertTrue(waiter.isDone());
+        assertEquals(0, queue.queueLength());
+        assertEquals(0, queue.availablePermits());
+    }
+
+    @Test
+    void acquireAsync_whenQueueFull_rejects() {
+        var queue = new PermitQueue(new Semaphore(1), 1);
+        queue.acquireAsync();
+        queue.acquireAsync();
+
+        var rejected = queue.acquireAsync();
+
+        var ex = assertThrows(ExecutionException.class, rejected::get);
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    void acquireAsync_whenWaiterCancelled_permitGoesBackToSemaphore() {
+        var queue = new PermitQueue(new Semaphore(1), 1);
+        queue.acquireAsync();
+        var waiter = queue.acquireAsync();
+
+        waiter.cancel(false);
+        queue.release();
+
+        assertEquals(0, queue.queueLength());
+        assertEquals(1, queue.availablePermits());
+    }
+
+    @Test
+    void acquireAsync_whenNoPermitWithinMaxWait_rejectsAndLeavesQueue() throws Exception {
+        var queue = new PermitQueue(new Semaphore(1), 1, Duration.ofMillis(50));
+        queue.acquireAsync();
+
+        var waiter = queue.acquireAsync();
+
+        var ex = assertThrows(ExecutionException.class, () -> waiter.get(1, TimeUnit.SECONDS));
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        assertEquals(0, queue.queueLength());
+    }
+
+    @Test
+    void acquire_whenNoPermitWithinMaxWait_rejects() {
+        var queue = new PermitQueue(new Semaphore(0), 1, Duration.ofMillis(50));
+
+        assertThrows(RejectedExecutionException.class, queue::acquire);
+    }
+}
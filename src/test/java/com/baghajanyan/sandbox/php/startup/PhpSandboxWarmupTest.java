@@ -0,0 +1,153 @@
+package com.baghajanyan.sandbox.php.startup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedConstruction;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.php.executor.PhpCodeExecutor;
+
+public class PhpSandboxWarmupTest {
+    private static final String IMAGE = "php:8.2-cli";
+
+    private final PhpCodeExecutor executor = mock(PhpCodeExecutor.class);
+    private final ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+
+    private PhpSandboxWarmup warmup(boolean pullImage, boolean failOnError) {
+        return new PhpSandboxWarmup(executor, IMAGE, pullImage, Duration.ofMinutes(1), 2, Duration.ofSeconds(5),
+                failOnError, Duration.ofMinutes(1), publisher);
+    }
+
+    private static Process process(int exitCode) throws InterruptedException {
+        var process = mock(Process.class);
+        when(process.waitFor(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(process.exitValue()).thenReturn(exitCode);
+        when(process.getInputStream()).thenReturn(InputStream.nullInputStream());
+        return process;
+    }
+
+    private static CompletableFuture<ExecutionResult> result(int exitCode) {
+        return CompletableFuture.completedFuture(new ExecutionResult(exitCode, "warm-up 8.2.0", "",
+                Duration.ofMillis(1)));
+    }
+
+    private MockedConstruction<ProcessBuilder> docker(int... exitCodes) {
+        int[] calls = { 0 };
+        return mockConstruction(ProcessBuilder.class, (builder, context) -> {
+            var process = process(exitCodes[calls[0]++]);
+            when(builder.redirectErrorStream(true)).thenReturn(builder);
+            when(builder.start()).thenReturn(process);
+        });
+    }
+
+    @Test
+    void start_whenImageIsPresent_runsSnippetsWithoutPulling() {
+        when(executor.executeAsync(any())).thenReturn(result(0));
+        var warmup = warmup(true, true);
+
+        try (MockedConstruction<ProcessBuilder> mocked = docker(0)) {
+            warmup.start();
+
+            assertEquals(1, mocked.constructed().size());
+        }
+
+        assertTrue(warmup.isWarm());
+        verify(executor, times(2)).executeAsync(any());
+    }
+
+    @Test
+    void start_whenImageIsMissing_pullsImage() {
+        when(executor.executeAsync(any())).thenReturn(result(0));
+        var warmup = warmup(true, true);
+
+        try (MockedConstruction<ProcessBuilder> mocked = mockConstruction(ProcessBuilder.class, (builder, context) -> {
+            @SuppressWarnings("unchecked")
+            var command = (List<String>) context.arguments().get(0);
+            var process = process(command.contains("inspect") ? 1 : 0);
+            when(builder.redirectErrorStream(true)).thenReturn(builder);
+            when(builder.start()).thenReturn(process);
+        })) {
+            warmup.start();
+
+            assertEquals(2, mocked.constructed().size());
+        }
+
+        assertTrue(warmup.isWarm());
+    }
+
+    @Test
+    void start_whenImageIsMissingAndPullIsDisabled_failsStartup() {
+        var warmup = warmup(false, true);
+
+        try (MockedConstruction<ProcessBuilder> mocked = docker(1)) {
+            assertThrows(IllegalStateException.class, warmup::start);
+        }
+
+        verify(executor, never()).executeAsync(any());
+    }
+
+    @Test
+    void start_whenSnippetFailsAndFailOnError_failsStartup() {
+        when(executor.executeAsync(any())).thenReturn(result(0), result(124));
+        var warmup = warmup(true, true);
+
+        try (MockedConstruction<ProcessBuilder> mocked = docker(0)) {
+            var ex = assertThrows(IllegalStateException.class, warmup::start);
+
+            assertTrue(ex.getCause().getMessage().contains("1 of 2 warm-up snippets failed"));
+        }
+        assertFalse(warmup.isWarm());
+    }
+
+    @Test
+    void onApplicationEvent_whenWarmupFailed_refusesTraffic() {
+        when(executor.executeAsync(any())).thenReturn(result(-1));
+        var warmup = warmup(true, false);
+
+        try (MockedConstruction<ProcessBuilder> mocked = docker(0)) {
+            warmup.start();
+        }
+        warmup.onApplicationEvent(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+        warmup.stop();
+
+        var event = ArgumentCaptor.forClass(ApplicationEvent.class);
+        verify(publisher).publishEvent(event.capture());
+        assertEquals(ReadinessState.REFUSING_TRAFFIC, ((AvailabilityChangeEvent<?>) event.getValue()).getState());
+    }
+
+    @Test
+    void onApplicationEvent_whenWarm_keepsReadiness() {
+        when(executor.executeAsync(any())).thenReturn(result(0));
+        var warmup = warmup(true, false);
+
+        try (MockedConstruction<ProcessBuilder> mocked = docker(0)) {
+            warmup.start();
+        }
+        warmup.onApplicationEvent(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+
+        verify(publisher, never()).publishEvent(any(ApplicationEvent.class));
+    }
+}